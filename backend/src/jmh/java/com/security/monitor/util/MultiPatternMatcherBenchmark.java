@@ -0,0 +1,183 @@
+package com.security.monitor.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * 请求攻击检测基准：MultiPatternMatcher vs 原实现（9个".*(...).*"正则matches() + User-Agent的contains链）
+ * 规则与AttackDetectionAndProtectionSystem一致，两种实现都按原优先级返回第一个命中的攻击类型
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultiPatternMatcherBenchmark {
+
+    private static final int NONE = 0;
+    private static final int SQL_INJECTION = 1;
+    private static final int XSS = 2;
+    private static final int PATH_TRAVERSAL = 3;
+    private static final int MALICIOUS_USER_AGENT = 4;
+
+    private static final int SQL_KEYWORD = 0;
+    private static final int SQL_META = 1;
+    private static final int SQL_TAUTOLOGY = 2;
+    private static final int XSS_SCRIPT_TAG = 3;
+    private static final int XSS_JAVASCRIPT_URL = 4;
+    private static final int XSS_EVENT_HANDLER = 5;
+    private static final int PATH_DOT_DOT = 6;
+    private static final int PATH_ETC_PASSWD = 7;
+    private static final int PATH_SYSTEM32 = 8;
+    private static final int UA_SCAN_TOOL = 9;
+
+    private static final long SQL_RULES = bits(SQL_KEYWORD, SQL_META, SQL_TAUTOLOGY);
+    private static final long XSS_RULES = bits(XSS_SCRIPT_TAG, XSS_JAVASCRIPT_URL, XSS_EVENT_HANDLER);
+    private static final long PATH_RULES = bits(PATH_DOT_DOT, PATH_ETC_PASSWD, PATH_SYSTEM32);
+    private static final long UA_RULES = bits(UA_SCAN_TOOL);
+
+    private static final MultiPatternMatcher ATTACK_MATCHER = MultiPatternMatcher.builder()
+            .literals(SQL_KEYWORD, "union", "select", "insert", "update", "delete", "drop", "exec", "script", "alert", "onload")
+            .literals(SQL_META, "'", "--", ";", "|", "*")
+            .pattern(SQL_TAUTOLOGY, "or\\s+1=1")
+            .pattern(SQL_TAUTOLOGY, "and\\s+1=1")
+            .pattern(SQL_TAUTOLOGY, "'\\s*or\\s*'1'='1")
+            .pattern(XSS_SCRIPT_TAG, "<\\s*script[^>]*>")
+            .pattern(XSS_JAVASCRIPT_URL, "javascript\\s*:")
+            .pattern(XSS_EVENT_HANDLER, "onload\\s*=")
+            .pattern(XSS_EVENT_HANDLER, "onerror\\s*=")
+            .pattern(XSS_EVENT_HANDLER, "onclick\\s*=")
+            .pattern(XSS_EVENT_HANDLER, "onmouseover\\s*=")
+            .literals(PATH_DOT_DOT, "../", "..\\")
+            .literals(PATH_ETC_PASSWD, "/etc/passwd", "\\etc\\passwd", "/etc\\passwd", "\\etc/passwd")
+            .literals(PATH_SYSTEM32, "/windows/system32", "\\windows\\system32", "/windows\\system32", "\\windows/system32")
+            .literals(UA_SCAN_TOOL, "sqlmap", "nikto", "nmap", "masscan", "burpsuite", "owasp", "scanner")
+            .build();
+
+    /**
+     * clean：普通API请求；browser：浏览器User-Agent（含分号，两种实现都判为SQL注入，与原行为一致）；
+     * traversal：URI中的路径遍历；longQuery：带2KB查询串的普通请求
+     */
+    @Param({"clean", "browser", "traversal", "longQuery"})
+    private String request;
+
+    private String requestURI;
+    private String queryString;
+    private String userAgent;
+
+    private final Set<Pattern> sqlInjectionPatterns = new HashSet<>();
+    private final Set<Pattern> xssPatterns = new HashSet<>();
+    private final Set<Pattern> pathTraversalPatterns = new HashSet<>();
+
+    @Setup
+    public void setUp() {
+        sqlInjectionPatterns.add(Pattern.compile("(?i).*(union|select|insert|update|delete|drop|exec|script|alert|onload).*"));
+        sqlInjectionPatterns.add(Pattern.compile("(?i).*('|(\\-\\-)|(;)|(\\|)|(\\*)).*"));
+        sqlInjectionPatterns.add(Pattern.compile("(?i).*(or\\s+1=1|and\\s+1=1|'\\s*or\\s*'1'='1).*"));
+        xssPatterns.add(Pattern.compile("(?i).*<\\s*script[^>]*>.*"));
+        xssPatterns.add(Pattern.compile("(?i).*javascript\\s*:.*"));
+        xssPatterns.add(Pattern.compile("(?i).*on(load|error|click|mouseover)\\s*=.*"));
+        pathTraversalPatterns.add(Pattern.compile(".*(\\.\\.[\\\\/])+.*"));
+        pathTraversalPatterns.add(Pattern.compile(".*[\\\\/]etc[\\\\/]passwd.*"));
+        pathTraversalPatterns.add(Pattern.compile(".*[\\\\/]windows[\\\\/]system32.*"));
+
+        requestURI = "/api/dashboard/login-records";
+        queryString = "from=2024-01-01&to=2024-01-31&page=2&size=50&sort=loginTime,desc";
+        userAgent = "okhttp/4.12.0 Dalvik/2.1.0";
+        switch (request) {
+            case "browser":
+                userAgent = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 "
+                        + "(KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36";
+                break;
+            case "traversal":
+                requestURI = "/api/files/download/..%2f../../etc/passwd";
+                queryString = null;
+                break;
+            case "longQuery":
+                StringBuilder query = new StringBuilder(queryString);
+                for (int i = 0; query.length() < 2048; i++) {
+                    query.append("&ids=").append(100000 + i);
+                }
+                queryString = query.toString();
+                break;
+            default:
+        }
+    }
+
+    @Benchmark
+    public int multiPatternMatcher() {
+        String fullRequest = requestURI + (queryString != null ? "?" + queryString : "");
+        long requestHits = ATTACK_MATCHER.scan(fullRequest, requestURI.length(), PATH_RULES);
+        long userAgentHits = ATTACK_MATCHER.scan(userAgent);
+        if (((requestHits | userAgentHits) & SQL_RULES) != 0) {
+            return SQL_INJECTION;
+        }
+        if (((requestHits | userAgentHits) & XSS_RULES) != 0) {
+            return XSS;
+        }
+        if ((requestHits & PATH_RULES) != 0) {
+            return PATH_TRAVERSAL;
+        }
+        if (userAgent == null || userAgent.length() < 10 || (userAgentHits & UA_RULES) != 0) {
+            return MALICIOUS_USER_AGENT;
+        }
+        return NONE;
+    }
+
+    @Benchmark
+    public int regexPatterns() {
+        String fullRequest = requestURI + (queryString != null ? "?" + queryString : "");
+        if (matchesAny(sqlInjectionPatterns, fullRequest) || matchesAny(sqlInjectionPatterns, userAgent)) {
+            return SQL_INJECTION;
+        }
+        if (matchesAny(xssPatterns, fullRequest) || matchesAny(xssPatterns, userAgent)) {
+            return XSS;
+        }
+        if (matchesAny(pathTraversalPatterns, requestURI)) {
+            return PATH_TRAVERSAL;
+        }
+        if (userAgent == null || userAgent.length() < 10 || detectMaliciousUserAgent(userAgent)) {
+            return MALICIOUS_USER_AGENT;
+        }
+        return NONE;
+    }
+
+    private static boolean matchesAny(Set<Pattern> patterns, String input) {
+        if (input == null) return false;
+        return patterns.stream().anyMatch(pattern -> pattern.matcher(input).matches());
+    }
+
+    private static boolean detectMaliciousUserAgent(String userAgent) {
+        String lowerUA = userAgent.toLowerCase();
+        return lowerUA.contains("sqlmap") ||
+               lowerUA.contains("nikto") ||
+               lowerUA.contains("nmap") ||
+               lowerUA.contains("masscan") ||
+               lowerUA.contains("burpsuite") ||
+               lowerUA.contains("owasp") ||
+               lowerUA.contains("scanner");
+    }
+
+    private static long bits(int... rules) {
+        long mask = 0L;
+        for (int rule : rules) {
+            mask |= 1L << rule;
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,68 @@
+package com.security.monitor.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 限流基准：SlidingWindowRateLimiter vs 原实现（ConcurrentHashMap&lt;ip:uri, AtomicInteger&gt;，每分钟整体清空）
+ * 多线程并发请求，keyCount个客户端IP均匀分布；keyCount超过计数表容量时新实现会发生淘汰，原实现的Map持续增长
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class SlidingWindowRateLimiterBenchmark {
+
+    private static final String URI = "/auth/login";
+    private static final int MAX_REQUESTS_PER_MINUTE = 5;
+
+    @Param({"1024", "1048576"})
+    private int keyCount;
+
+    private String[] clientIps;
+    private SlidingWindowRateLimiter limiter;
+    private ConcurrentHashMap<String, AtomicInteger> requestCounts;
+
+    @Setup
+    public void setUp() {
+        clientIps = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            clientIps[i] = "10." + (i >>> 16 & 0xFF) + "." + (i >>> 8 & 0xFF) + "." + (i & 0xFF);
+        }
+        // 与RateLimitConfig的默认配置一致
+        limiter = new SlidingWindowRateLimiter(MAX_REQUESTS_PER_MINUTE, TimeUnit.MINUTES.toMillis(1), 65536);
+        requestCounts = new ConcurrentHashMap<>();
+    }
+
+    @Benchmark
+    public boolean slidingWindow() {
+        String clientIp = clientIps[ThreadLocalRandom.current().nextInt(keyCount)];
+        return limiter.tryAcquire(URI + "|" + clientIp);
+    }
+
+    @Benchmark
+    public boolean concurrentHashMap() {
+        String clientIp = clientIps[ThreadLocalRandom.current().nextInt(keyCount)];
+        String key = clientIp + ":" + URI;
+        AtomicInteger count = requestCounts.computeIfAbsent(key, k -> new AtomicInteger(0));
+        return count.incrementAndGet() <= MAX_REQUESTS_PER_MINUTE;
+    }
+}
@@ -1,5 +1,7 @@
 package com.security.monitor.config;
 
+import com.security.monitor.service.ClusterSecurityStateService;
+import com.security.monitor.util.MultiPatternMatcher;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
@@ -19,7 +21,6 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.regex.Pattern;
 import java.util.Set;
 import java.util.HashSet;
 import java.io.IOException;
@@ -40,10 +41,45 @@ public class AttackDetectionAndProtectionSystem implements HandlerInterceptor {
     private final Set<String> blacklistedIPs = ConcurrentHashMap.newKeySet();
     private final Set<String> whitelistedIPs = ConcurrentHashMap.newKeySet();
     
-    // 攻击特征检测
-    private final Set<Pattern> sqlInjectionPatterns = new HashSet<>();
-    private final Set<Pattern> xssPatterns = new HashSet<>();
-    private final Set<Pattern> pathTraversalPatterns = new HashSet<>();
+    // 攻击特征规则编号（MultiPatternMatcher的规则位）
+    private static final int SQL_KEYWORD = 0;
+    private static final int SQL_META = 1;
+    private static final int SQL_TAUTOLOGY = 2;
+    private static final int XSS_SCRIPT_TAG = 3;
+    private static final int XSS_JAVASCRIPT_URL = 4;
+    private static final int XSS_EVENT_HANDLER = 5;
+    private static final int PATH_DOT_DOT = 6;
+    private static final int PATH_ETC_PASSWD = 7;
+    private static final int PATH_SYSTEM32 = 8;
+    private static final int UA_SCAN_TOOL = 9;
+
+    private static final long SQL_RULES = bits(SQL_KEYWORD, SQL_META, SQL_TAUTOLOGY);
+    private static final long XSS_RULES = bits(XSS_SCRIPT_TAG, XSS_JAVASCRIPT_URL, XSS_EVENT_HANDLER);
+    private static final long PATH_RULES = bits(PATH_DOT_DOT, PATH_ETC_PASSWD, PATH_SYSTEM32);
+    private static final long UA_RULES = bits(UA_SCAN_TOOL);
+
+    // 攻击特征检测：所有规则编译成一个自动机，请求行和User-Agent各扫描一遍
+    private static final MultiPatternMatcher ATTACK_MATCHER = MultiPatternMatcher.builder()
+            // SQL注入攻击模式
+            .literals(SQL_KEYWORD, "union", "select", "insert", "update", "delete", "drop", "exec", "script", "alert", "onload")
+            .literals(SQL_META, "'", "--", ";", "|", "*")
+            .pattern(SQL_TAUTOLOGY, "or\\s+1=1")
+            .pattern(SQL_TAUTOLOGY, "and\\s+1=1")
+            .pattern(SQL_TAUTOLOGY, "'\\s*or\\s*'1'='1")
+            // XSS攻击模式
+            .pattern(XSS_SCRIPT_TAG, "<\\s*script[^>]*>")
+            .pattern(XSS_JAVASCRIPT_URL, "javascript\\s*:")
+            .pattern(XSS_EVENT_HANDLER, "onload\\s*=")
+            .pattern(XSS_EVENT_HANDLER, "onerror\\s*=")
+            .pattern(XSS_EVENT_HANDLER, "onclick\\s*=")
+            .pattern(XSS_EVENT_HANDLER, "onmouseover\\s*=")
+            // 路径遍历攻击模式
+            .literals(PATH_DOT_DOT, "../", "..\\")
+            .literals(PATH_ETC_PASSWD, "/etc/passwd", "\\etc\\passwd", "/etc\\passwd", "\\etc/passwd")
+            .literals(PATH_SYSTEM32, "/windows/system32", "\\windows\\system32", "/windows\\system32", "\\windows/system32")
+            // 恶意工具的User-Agent
+            .literals(UA_SCAN_TOOL, "sqlmap", "nikto", "nmap", "masscan", "burpsuite", "owasp", "scanner")
+            .build();
     
     @Value("${app.security.attack-threshold:10}")
     private int attackThreshold;
@@ -54,30 +90,24 @@ public class AttackDetectionAndProtectionSystem implements HandlerInterceptor {
     @Autowired
     private DataProtectionService dataProtectionService;
 
+    @Autowired
+    private ClusterSecurityStateService clusterSecurityState;
+
     @EventListener(ApplicationReadyEvent.class)
     public void initializeSecurityPatterns() {
-        // SQL注入攻击模式
-        sqlInjectionPatterns.add(Pattern.compile("(?i).*(union|select|insert|update|delete|drop|exec|script|alert|onload).*"));
-        sqlInjectionPatterns.add(Pattern.compile("(?i).*('|(\\-\\-)|(;)|(\\|)|(\\*)).*"));
-        sqlInjectionPatterns.add(Pattern.compile("(?i).*(or\\s+1=1|and\\s+1=1|'\\s*or\\s*'1'='1).*"));
-        
-        // XSS攻击模式
-        xssPatterns.add(Pattern.compile("(?i).*<\\s*script[^>]*>.*"));
-        xssPatterns.add(Pattern.compile("(?i).*javascript\\s*:.*"));
-        xssPatterns.add(Pattern.compile("(?i).*on(load|error|click|mouseover)\\s*=.*"));
-        
-        // 路径遍历攻击模式
-        pathTraversalPatterns.add(Pattern.compile(".*(\\.\\.[\\\\/])+.*"));
-        pathTraversalPatterns.add(Pattern.compile(".*[\\\\/]etc[\\\\/]passwd.*"));
-        pathTraversalPatterns.add(Pattern.compile(".*[\\\\/]windows[\\\\/]system32.*"));
-        
         // 初始化白名单（本地IP）
         whitelistedIPs.add("127.0.0.1");
         whitelistedIPs.add("::1");
         whitelistedIPs.add("localhost");
         
-        securityLogger.info("攻击检测系统已启动 - 检测规则: {} SQL注入, {} XSS, {} 路径遍历", 
-            sqlInjectionPatterns.size(), xssPatterns.size(), pathTraversalPatterns.size());
+        // 集群模式：加载共享黑名单，并接收其他节点的黑名单变更
+        if (clusterSecurityState.isEnabled()) {
+            clusterSecurityState.addBlocklistListener(blacklistedIPs::add, blacklistedIPs::remove);
+            blacklistedIPs.addAll(clusterSecurityState.loadBlocklist());
+        }
+        
+        securityLogger.info("攻击检测系统已启动 - 检测规则: {} SQL注入, {} XSS, {} 路径遍历, {} 恶意User-Agent",
+            Long.bitCount(SQL_RULES), Long.bitCount(XSS_RULES), Long.bitCount(PATH_RULES), Long.bitCount(UA_RULES));
     }
 
     @Override
@@ -110,36 +140,39 @@ public class AttackDetectionAndProtectionSystem implements HandlerInterceptor {
 
     private AttackType detectAttack(HttpServletRequest request, String clientIP, String requestURI, String queryString, String userAgent) {
         String fullRequest = requestURI + (queryString != null ? "?" + queryString : "");
+        // 路径遍历只检查URI部分，即完整请求中[0, requestURI.length())的命中
+        long requestHits = ATTACK_MATCHER.scan(fullRequest, requestURI.length(), PATH_RULES);
+        long userAgentHits = ATTACK_MATCHER.scan(userAgent);
         
         // 1. SQL注入检测
-        if (detectSQLInjection(fullRequest) || detectSQLInjection(userAgent)) {
+        if (((requestHits | userAgentHits) & SQL_RULES) != 0) {
             securityLogger.warn("🚨 SQL注入攻击检测 - IP: {}, URI: {}, UA: {}", clientIP, requestURI, userAgent);
             return AttackType.SQL_INJECTION;
         }
         
         // 2. XSS攻击检测
-        if (detectXSS(fullRequest) || detectXSS(userAgent)) {
+        if (((requestHits | userAgentHits) & XSS_RULES) != 0) {
             securityLogger.warn("🚨 XSS攻击检测 - IP: {}, URI: {}, UA: {}", clientIP, requestURI, userAgent);
             return AttackType.XSS;
         }
         
         // 3. 路径遍历攻击检测
-        if (detectPathTraversal(requestURI)) {
+        if ((requestHits & PATH_RULES) != 0) {
             securityLogger.warn("🚨 路径遍历攻击检测 - IP: {}, URI: {}", clientIP, requestURI);
             return AttackType.PATH_TRAVERSAL;
         }
         
         // 4. 暴力破解检测
         if (requestURI.contains("/auth/login")) {
-            AtomicInteger attempts = suspiciousIPs.computeIfAbsent(clientIP, k -> new AtomicInteger(0));
-            if (attempts.incrementAndGet() > 20) { // 20次登录尝试
-                securityLogger.warn("🚨 暴力破解攻击检测 - IP: {}, 尝试次数: {}", clientIP, attempts.get());
+            int attempts = incrementSuspiciousCount(clientIP);
+            if (attempts > 20) { // 20次登录尝试
+                securityLogger.warn("🚨 暴力破解攻击检测 - IP: {}, 尝试次数: {}", clientIP, attempts);
                 return AttackType.BRUTE_FORCE;
             }
         }
         
         // 5. 异常User-Agent检测
-        if (userAgent == null || userAgent.length() < 10 || detectMaliciousUserAgent(userAgent)) {
+        if (userAgent == null || userAgent.length() < 10 || (userAgentHits & UA_RULES) != 0) {
             securityLogger.warn("🚨 恶意User-Agent检测 - IP: {}, UA: {}", clientIP, userAgent);
             return AttackType.MALICIOUS_USER_AGENT;
         }
@@ -153,35 +186,6 @@ public class AttackDetectionAndProtectionSystem implements HandlerInterceptor {
         return AttackType.NONE;
     }
 
-    private boolean detectSQLInjection(String input) {
-        if (input == null) return false;
-        return sqlInjectionPatterns.stream().anyMatch(pattern -> pattern.matcher(input).matches());
-    }
-
-    private boolean detectXSS(String input) {
-        if (input == null) return false;
-        return xssPatterns.stream().anyMatch(pattern -> pattern.matcher(input).matches());
-    }
-
-    private boolean detectPathTraversal(String input) {
-        if (input == null) return false;
-        return pathTraversalPatterns.stream().anyMatch(pattern -> pattern.matcher(input).matches());
-    }
-
-    private boolean detectMaliciousUserAgent(String userAgent) {
-        if (userAgent == null) return true;
-        
-        String lowerUA = userAgent.toLowerCase();
-        // 检测恶意工具的User-Agent
-        return lowerUA.contains("sqlmap") || 
-               lowerUA.contains("nikto") || 
-               lowerUA.contains("nmap") || 
-               lowerUA.contains("masscan") ||
-               lowerUA.contains("burpsuite") ||
-               lowerUA.contains("owasp") ||
-               lowerUA.contains("scanner");
-    }
-
     private boolean detectRapidRequests(String clientIP) {
         long currentTime = System.currentTimeMillis();
         AtomicLong lastTime = lastAttackTime.computeIfAbsent(clientIP, k -> new AtomicLong(currentTime));
@@ -194,8 +198,7 @@ public class AttackDetectionAndProtectionSystem implements HandlerInterceptor {
 
     private boolean handleAttackDetected(HttpServletResponse response, String clientIP, AttackType attackType, String requestURI) throws IOException {
         // 增加攻击计数
-        AtomicInteger attackCount = suspiciousIPs.computeIfAbsent(clientIP, k -> new AtomicInteger(0));
-        int currentCount = attackCount.incrementAndGet();
+        int currentCount = incrementSuspiciousCount(clientIP);
         
         // 记录攻击事件
         securityLogger.error("🚨🚨🚨 攻击检测 - IP: {}, 类型: {}, URI: {}, 累计次数: {}", 
@@ -207,6 +210,7 @@ public class AttackDetectionAndProtectionSystem implements HandlerInterceptor {
         // 自动拉黑IP
         if (autoBlockEnabled && currentCount >= attackThreshold) {
             blacklistedIPs.add(clientIP);
+            clusterSecurityState.publishBlock(clientIP);
             securityLogger.error("🔒 IP已自动拉黑 - IP: {}, 攻击次数: {}", clientIP, currentCount);
             
             // 触发紧急数据备份
@@ -221,6 +225,17 @@ public class AttackDetectionAndProtectionSystem implements HandlerInterceptor {
         return false;
     }
 
+    /**
+     * 递增IP的可疑计数，集群模式下所有节点共用一个计数（1小时无新增后过期），Redis不可用时使用本机计数。
+     * 共享计数在近缓存中按批同步，不在请求线程上访问Redis，返回值最多落后一个同步周期
+     */
+    private int incrementSuspiciousCount(String clientIP) {
+        AtomicInteger localCount = suspiciousIPs.computeIfAbsent(clientIP, k -> new AtomicInteger(0));
+        int local = localCount.incrementAndGet();
+        long shared = clusterSecurityState.incrementCounter("suspicious", clientIP, 3600000);
+        return shared > 0 ? (int) Math.min(shared, Integer.MAX_VALUE) : local;
+    }
+
     private void handleBlockedRequest(HttpServletResponse response, String clientIP, String reason) throws IOException {
         securityLogger.warn("🔒 阻止请求 - IP: {}, 原因: {}", clientIP, reason);
         
@@ -273,15 +288,26 @@ public class AttackDetectionAndProtectionSystem implements HandlerInterceptor {
     public void addToWhitelist(String ip) {
         whitelistedIPs.add(ip);
         blacklistedIPs.remove(ip);
+        clusterSecurityState.publishUnblock(ip);
         securityLogger.info("IP已添加到白名单: {}", ip);
     }
 
     public void removeFromBlacklist(String ip) {
         blacklistedIPs.remove(ip);
         suspiciousIPs.remove(ip);
+        clusterSecurityState.publishUnblock(ip);
+        clusterSecurityState.deleteCounter("suspicious", ip);
         securityLogger.info("IP已从黑名单移除: {}", ip);
     }
 
+    public boolean isBlacklisted(String ip) {
+        return blacklistedIPs.contains(ip);
+    }
+
+    public boolean isWhitelisted(String ip) {
+        return whitelistedIPs.contains(ip);
+    }
+
     public Set<String> getBlacklistedIPs() {
         return new HashSet<>(blacklistedIPs);
     }
@@ -290,6 +316,14 @@ public class AttackDetectionAndProtectionSystem implements HandlerInterceptor {
         return new HashSet<>(whitelistedIPs);
     }
 
+    private static long bits(int... rules) {
+        long mask = 0L;
+        for (int rule : rules) {
+            mask |= 1L << rule;
+        }
+        return mask;
+    }
+
     // 攻击类型枚举
     public enum AttackType {
         NONE,
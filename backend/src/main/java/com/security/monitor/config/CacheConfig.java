@@ -43,8 +43,7 @@ public class CacheConfig {
         cacheManager.setCaches(Arrays.asList(
             new ConcurrentMapCache("domains"),
             new ConcurrentMapCache("activeDomains"),
-            new ConcurrentMapCache("userStats"),
-            new ConcurrentMapCache("geoLocation")
+            new ConcurrentMapCache("userStats")
         ));
         return cacheManager;
     }
@@ -1,7 +1,13 @@
 package com.security.monitor.config;
 
-import org.springframework.context.annotation.Bean;
+import com.security.monitor.service.ClusterSecurityStateService;
+import com.security.monitor.util.RateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.AntPathMatcher;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -9,66 +15,121 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.web.servlet.HandlerInterceptor;
 import org.springframework.http.HttpStatus;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
  * API限流配置
+ * 每个端点策略的格式为 路径模式=次数/窗口秒数，例如 /auth/login=5/60；开启集群模式时各节点共享计数
  */
 @Configuration
 public class RateLimitConfig implements WebMvcConfigurer {
 
+    private static final Logger logger = LoggerFactory.getLogger(RateLimitConfig.class);
+
+    @Autowired
+    private ClusterSecurityStateService clusterSecurityState;
+
+    @Value("${security.monitor.rate-limit.policies:/auth/login=5/60,/auth/register=5/60}")
+    private List<String> policySpecs;
+
+    // 每个策略计数表容量（不同IP数量），超出后淘汰最旧的计数
+    @Value("${security.monitor.rate-limit.max-keys:65536}")
+    private int maxKeys;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
-        registry.addInterceptor(new RateLimitInterceptor())
-                .addPathPatterns("/auth/login", "/auth/register")
+        List<RateLimitPolicy> policies = new ArrayList<>();
+        for (String spec : policySpecs) {
+            policies.add(RateLimitPolicy.parse(spec, maxKeys, clusterSecurityState));
+        }
+        if (policies.isEmpty()) {
+            return;
+        }
+        registry.addInterceptor(new RateLimitInterceptor(policies))
+                .addPathPatterns(policies.stream().map(RateLimitPolicy::getPathPattern).toList())
                 .order(1);
+        logger.info("API限流策略: {}, 集群共享: {}", policySpecs, clusterSecurityState.isEnabled());
+    }
+
+    /**
+     * 单个端点的限流策略
+     */
+    public static class RateLimitPolicy {
+        private final String pathPattern;
+        private final RateLimiter limiter;
+
+        public RateLimitPolicy(String pathPattern, RateLimiter limiter) {
+            this.pathPattern = pathPattern;
+            this.limiter = limiter;
+        }
+
+        static RateLimitPolicy parse(String spec, int maxKeys, ClusterSecurityStateService clusterSecurityState) {
+            int equals = spec.lastIndexOf('=');
+            int slash = spec.lastIndexOf('/');
+            if (equals <= 0 || slash < equals) {
+                throw new IllegalArgumentException("无效的限流策略: " + spec + "，格式应为 路径模式=次数/窗口秒数");
+            }
+            String pathPattern = spec.substring(0, equals).trim();
+            int limit = Integer.parseInt(spec.substring(equals + 1, slash).trim());
+            long windowSeconds = Long.parseLong(spec.substring(slash + 1).trim());
+            return new RateLimitPolicy(pathPattern, clusterSecurityState.newRateLimiter(
+                    pathPattern, limit, TimeUnit.SECONDS.toMillis(windowSeconds), maxKeys));
+        }
+
+        public String getPathPattern() { return pathPattern; }
+        public RateLimiter getLimiter() { return limiter; }
     }
 
     public static class RateLimitInterceptor implements HandlerInterceptor {
-        
-        private final ConcurrentHashMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
-        private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-        
-        // 每分钟最多5次登录尝试
-        private static final int MAX_REQUESTS_PER_MINUTE = 5;
-        
-        public RateLimitInterceptor() {
-            // 每分钟清理一次计数
-            scheduler.scheduleAtFixedRate(requestCounts::clear, 1, 1, TimeUnit.MINUTES);
+
+        private final List<RateLimitPolicy> policies;
+        private final AntPathMatcher pathMatcher = new AntPathMatcher();
+
+        public RateLimitInterceptor(List<RateLimitPolicy> policies) {
+            this.policies = policies;
         }
 
         @Override
         public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
-            String clientIp = getClientIpAddress(request);
-            String key = clientIp + ":" + request.getRequestURI();
-            
-            AtomicInteger count = requestCounts.computeIfAbsent(key, k -> new AtomicInteger(0));
-            
-            if (count.incrementAndGet() > MAX_REQUESTS_PER_MINUTE) {
+            RateLimitPolicy policy = findPolicy(request.getServletPath());
+            if (policy == null) {
+                return true;
+            }
+            // 按策略而不是原始URI计数，随机URI不会产生新的计数键
+            String key = policy.getPathPattern() + "|" + getClientIpAddress(request);
+
+            if (!policy.getLimiter().tryAcquire(key)) {
                 response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
                 response.setContentType("application/json");
                 response.getWriter().write("{\"success\":false,\"message\":\"请求过于频繁，请稍后再试\"}");
                 return false;
             }
-            
+
             return true;
         }
-        
+
+        private RateLimitPolicy findPolicy(String path) {
+            for (RateLimitPolicy policy : policies) {
+                if (pathMatcher.match(policy.getPathPattern(), path)) {
+                    return policy;
+                }
+            }
+            return null;
+        }
+
         private String getClientIpAddress(HttpServletRequest request) {
             String ip = request.getHeader("X-Forwarded-For");
-            
+
             if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
                 ip = request.getHeader("Proxy-Client-IP");
             }
-            
+
             if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
                 ip = request.getHeader("WL-Proxy-Client-IP");
             }
-            
+
             if (ip == null || ip.isEmpty() || "unknown".equalsIgnoreCase(ip)) {
                 ip = request.getRemoteAddr();
             }
@@ -80,4 +141,4 @@ public class RateLimitConfig implements WebMvcConfigurer {
             return ip;
         }
     }
-}
\ No newline at end of file
+}
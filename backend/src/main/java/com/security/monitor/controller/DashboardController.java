@@ -5,6 +5,7 @@ import com.security.monitor.model.SecurityAlert;
 import com.security.monitor.repository.LoginRecordRepository;
 import com.security.monitor.repository.SecurityAlertRepository;
 import com.security.monitor.repository.UserRepository;
+import com.security.monitor.service.OperationalStatusSource;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
@@ -17,6 +18,7 @@ import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * 仪表板控制器
@@ -35,6 +37,9 @@ public class DashboardController {
     @Autowired
     private SecurityAlertRepository securityAlertRepository;
 
+    @Autowired
+    private List<OperationalStatusSource> statusSources;
+
     /**
      * 获取仪表板概览数据
      */
@@ -146,6 +151,33 @@ public class DashboardController {
         return ResponseEntity.ok(distribution);
     }
 
+    /**
+     * 获取全部运维状态（登录风险流水线、各缓存、写缓冲、评分流水线、审计日志、病毒扫描等），按状态名排序
+     */
+    @GetMapping("/ops")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> getOperationalStatus() {
+        Map<String, Object> status = new TreeMap<>();
+        for (OperationalStatusSource source : statusSources) {
+            status.put(source.getStatusName(), source.getStatus());
+        }
+        return ResponseEntity.ok(status);
+    }
+
+    /**
+     * 获取单项运维状态
+     */
+    @GetMapping("/ops/{name}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Object> getOperationalStatusItem(@PathVariable String name) {
+        for (OperationalStatusSource source : statusSources) {
+            if (source.getStatusName().equals(name)) {
+                return ResponseEntity.ok(source.getStatus());
+            }
+        }
+        return ResponseEntity.notFound().build();
+    }
+
     /**
      * 仪表板概览数据类
      */
@@ -47,6 +47,16 @@ public class EmailFolder {
     @Column(name = "unread_count")
     private Integer unreadCount = 0;
     
+    // 以下IMAP状态只通过EmailFolderRepository中的条件更新修改，保存实体时不覆盖
+    @Column(name = "uid_validity", updatable = false)
+    private Long uidValidity; // IMAP UIDVALIDITY，创建时确定，只在需要重新编号时递增
+    
+    @Column(name = "imap_uid_next", updatable = false)
+    private Long uidNext = 1L; // 下一个分配的IMAP UID；为空表示UID仍取邮件ID的旧文件夹，首次分配时转换
+    
+    @Column(name = "highest_mod_seq", updatable = false)
+    private Long highestModSeq; // 已向IMAP客户端公布过的最大修改序列
+    
     @CreationTimestamp
     @Column(name = "created_at")
     private LocalDateTime createdAt;
@@ -64,6 +74,13 @@ public class EmailFolder {
         this.folderType = folderType;
     }
     
+    @PrePersist
+    protected void onCreate() {
+        if (this.uidValidity == null) {
+            this.uidValidity = System.currentTimeMillis() / 1000;
+        }
+    }
+    
     // Getters and Setters
     public Long getId() {
         return id;
@@ -137,6 +154,30 @@ public class EmailFolder {
         this.unreadCount = unreadCount;
     }
     
+    public Long getUidValidity() {
+        return uidValidity;
+    }
+    
+    public void setUidValidity(Long uidValidity) {
+        this.uidValidity = uidValidity;
+    }
+    
+    public Long getUidNext() {
+        return uidNext;
+    }
+    
+    public void setUidNext(Long uidNext) {
+        this.uidNext = uidNext;
+    }
+    
+    public Long getHighestModSeq() {
+        return highestModSeq;
+    }
+    
+    public void setHighestModSeq(Long highestModSeq) {
+        this.highestModSeq = highestModSeq;
+    }
+    
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -7,14 +7,21 @@ import org.hibernate.annotations.CreationTimestamp;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 邮件消息实体
  */
 @Entity
-@Table(name = "email_messages")
+@Table(name = "email_messages",
+       indexes = {
+           @Index(name = "idx_email_messages_folder_modseq", columnList = "folder_id, mod_seq"),
+           @Index(name = "idx_email_messages_imap_uid", columnList = "imap_folder_id, imap_uid", unique = true)
+       })
 public class EmailMessage {
     
+    private static final AtomicLong MOD_SEQ_CLOCK = new AtomicLong();
+    
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -85,6 +92,25 @@ public class EmailMessage {
     @Column(name = "sent_at")
     private LocalDateTime sentAt;
     
+    @Column(name = "mod_seq")
+    private Long modSeq; // IMAP CONDSTORE修改序列
+    
+    // IMAP UID由ImapUidAllocator在邮件进入文件夹的事务提交后分配，保存实体时不覆盖
+    @Column(name = "imap_uid", insertable = false, updatable = false)
+    private Long imapUid; // 在imap_folder_id文件夹中的UID
+    
+    @Column(name = "imap_folder_id", insertable = false, updatable = false)
+    private Long imapFolderId; // 分配UID时所在的文件夹，与folder_id不同表示移入后尚未分配
+    
+    @Column(name = "raw_message_path", length = 500)
+    private String rawMessagePath; // RFC 822原文文件（相对邮件存储根目录）
+    
+    @Column(name = "raw_header_length")
+    private Long rawHeaderLength; // 原文中邮件头（含空行）的字节数
+    
+    @Column(name = "raw_dot_lines")
+    private Boolean rawDotLines; // 原文是否含有以'.'开头的行（POP3需要点转义）
+    
     @OneToMany(mappedBy = "message", cascade = CascadeType.ALL, fetch = FetchType.LAZY)
     private List<EmailAttachment> attachments;
     
@@ -104,6 +130,15 @@ public class EmailMessage {
         this.messageId = messageId;
     }
     
+    /**
+     * 创建和每次更新时分配新的修改序列
+     */
+    @PrePersist
+    @PreUpdate
+    protected void onModify() {
+        this.modSeq = nextModSeq();
+    }
+    
     // Getters and Setters
     public Long getId() {
         return id;
@@ -273,6 +308,54 @@ public class EmailMessage {
         this.sentAt = sentAt;
     }
     
+    public Long getModSeq() {
+        return modSeq;
+    }
+    
+    public void setModSeq(Long modSeq) {
+        this.modSeq = modSeq;
+    }
+    
+    public Long getImapUid() {
+        return imapUid;
+    }
+    
+    public void setImapUid(Long imapUid) {
+        this.imapUid = imapUid;
+    }
+    
+    public Long getImapFolderId() {
+        return imapFolderId;
+    }
+    
+    public void setImapFolderId(Long imapFolderId) {
+        this.imapFolderId = imapFolderId;
+    }
+    
+    public String getRawMessagePath() {
+        return rawMessagePath;
+    }
+    
+    public void setRawMessagePath(String rawMessagePath) {
+        this.rawMessagePath = rawMessagePath;
+    }
+    
+    public Long getRawHeaderLength() {
+        return rawHeaderLength;
+    }
+    
+    public void setRawHeaderLength(Long rawHeaderLength) {
+        this.rawHeaderLength = rawHeaderLength;
+    }
+    
+    public Boolean getRawDotLines() {
+        return rawDotLines;
+    }
+    
+    public void setRawDotLines(Boolean rawDotLines) {
+        this.rawDotLines = rawDotLines;
+    }
+    
     public List<EmailAttachment> getAttachments() {
         return attachments;
     }
@@ -289,6 +372,15 @@ public class EmailMessage {
         this.createdAt = createdAt;
     }
     
+    /**
+     * 生成新的修改序列
+     * 以微秒时间为基准单调递增，进程内严格递增，重启后仍大于之前分配的值，批量UPDATE也使用该值
+     */
+    public static long nextModSeq() {
+        long now = System.currentTimeMillis() * 1000;
+        return MOD_SEQ_CLOCK.updateAndGet(last -> Math.max(last + 1, now));
+    }
+    
     /**
      * 标记为已读
      */
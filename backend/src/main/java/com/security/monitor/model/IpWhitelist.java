@@ -43,10 +43,11 @@ public class IpWhitelist {
     @Column(name = "allowed_services", length = 500)
     private String allowedServices; // 允许的服务，JSON格式
     
-    @Column(name = "access_count", nullable = false)
+    // 访问统计只由AccessControlWriteBuffer的增量UPDATE写回，保存实体时不覆盖
+    @Column(name = "access_count", nullable = false, updatable = false)
     private Long accessCount = 0L; // 访问次数
     
-    @Column(name = "last_access_at")
+    @Column(name = "last_access_at", updatable = false)
     private LocalDateTime lastAccessAt; // 最后访问时间
     
     @Column(name = "created_by", length = 100)
@@ -244,7 +245,7 @@ public class IpWhitelist {
     }
     
     /**
-     * 增加访问计数
+     * 增加访问计数（只修改内存中的实体，不会随保存写入数据库）
      */
     public void incrementAccessCount() {
         this.accessCount++;
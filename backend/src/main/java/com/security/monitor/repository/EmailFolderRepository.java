@@ -3,9 +3,11 @@ package com.security.monitor.repository;
 import com.security.monitor.model.EmailFolder;
 import com.security.monitor.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -94,4 +96,56 @@ public interface EmailFolderRepository extends JpaRepository<EmailFolder, Long>
            "WHERE f.user = :user AND f.folderType = 'SPAM' " +
            "AND f.parent IS NULL")
     Optional<EmailFolder> findSpamBoxByUser(@Param("user") User user);
-}
\ No newline at end of file
+    
+    // ======= IMAP相关方法 =======
+    // 这些列在实体上不可更新，只能用下面的条件更新修改，避免保存旧的实体快照时回退
+    
+    /**
+     * 加载文件夹的IMAP同步状态（UIDVALIDITY、已公布的最大修改序列、UIDNEXT）
+     */
+    @Query("SELECT f.uidValidity, f.highestModSeq, f.uidNext FROM EmailFolder f WHERE f.id = :folderId")
+    List<Object[]> findImapState(@Param("folderId") Long folderId);
+    
+    /**
+     * 为尚未分配UIDVALIDITY的文件夹分配（只在为空时写入，并发SELECT以先写入者为准）
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE email_folders SET uid_validity = :uidValidity " +
+           "WHERE id = :folderId AND uid_validity IS NULL", nativeQuery = true)
+    int initUidValidity(@Param("folderId") Long folderId, @Param("uidValidity") Long uidValidity);
+    
+    /**
+     * 提高文件夹已公布的最大修改序列（只增不减）
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE email_folders SET highest_mod_seq = :modSeq " +
+           "WHERE id = :folderId AND (highest_mod_seq IS NULL OR highest_mod_seq < :modSeq)", nativeQuery = true)
+    int raiseHighestModSeq(@Param("folderId") Long folderId, @Param("modSeq") Long modSeq);
+    
+    /**
+     * 锁定文件夹行并读取下一个IMAP UID，旧文件夹尚未转换时返回0，文件夹不存在时返回null
+     */
+    @Query(value = "SELECT COALESCE(imap_uid_next, 0) FROM email_folders WHERE id = :folderId FOR UPDATE",
+           nativeQuery = true)
+    Long lockUidNext(@Param("folderId") Long folderId);
+    
+    /**
+     * 转换旧文件夹时把UIDNEXT设为大于所有已出现过的邮件ID（旧文件夹的UID即邮件ID）
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE email_folders SET imap_uid_next = (" +
+           "SELECT COALESCE(MAX(m.id), 0) + 1 FROM email_messages m) " +
+           "WHERE id = :folderId AND imap_uid_next IS NULL", nativeQuery = true)
+    int initUidNext(@Param("folderId") Long folderId);
+    
+    /**
+     * 分配UID后推进UIDNEXT（调用方持有lockUidNext的行锁）
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE email_folders SET imap_uid_next = :uidNext WHERE id = :folderId", nativeQuery = true)
+    int updateUidNext(@Param("folderId") Long folderId, @Param("uidNext") Long uidNext);
+}
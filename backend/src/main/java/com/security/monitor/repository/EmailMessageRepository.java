@@ -10,8 +10,10 @@ import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -303,4 +305,150 @@ public interface EmailMessageRepository extends JpaRepository<EmailMessage, Long
      * 检查消息ID是否存在
      */
     boolean existsByMessageId(String messageId);
-}
\ No newline at end of file
+    
+    // ======= POP3相关方法 =======
+    
+    /**
+     * 加载用户收件箱的POP3投递箱投影（ID、大小），按ID升序，不加载正文
+     */
+    @Query("SELECT m.id, m.messageSize FROM EmailMessage m " +
+           "WHERE m.user.id = :userId AND m.folder.folderType = 'INBOX' AND m.folder.parent IS NULL " +
+           "AND m.isDeleted = false ORDER BY m.id")
+    List<Object[]> findPop3Maildrop(@Param("userId") Long userId);
+    
+    // ======= IMAP相关方法 =======
+    // IMAP UID按文件夹分配（imap_folder_id与folder_id相同时imap_uid有效），以下查询都以文件夹和UID定位消息
+    
+    /**
+     * 加载文件夹的IMAP索引投影（UID、已读、星标、大小、修改序列），按UID升序，不加载正文
+     */
+    @Query("SELECT m.imapUid, m.isRead, m.isStarred, m.messageSize, m.modSeq FROM EmailMessage m " +
+           "WHERE m.folder.id = :folderId AND m.imapFolderId = :folderId AND m.isDeleted = false " +
+           "AND m.imapUid > :afterUid ORDER BY m.imapUid")
+    List<Object[]> findImapIndexEntries(@Param("folderId") Long folderId, @Param("afterUid") Long afterUid);
+    
+    /**
+     * 文件夹中尚未分配UID的消息（新投递或刚移入），按ID升序：ID、已读、星标、大小、修改序列
+     */
+    @Query("SELECT m.id, m.isRead, m.isStarred, m.messageSize, m.modSeq FROM EmailMessage m " +
+           "WHERE m.folder.id = :folderId AND m.isDeleted = false " +
+           "AND (m.imapFolderId IS NULL OR m.imapFolderId <> :folderId) ORDER BY m.id")
+    List<Object[]> findImapUnassigned(@Param("folderId") Long folderId);
+    
+    /**
+     * 为消息分配文件夹内的UID（调用方持有文件夹的UIDNEXT行锁）
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE email_messages SET imap_uid = :uid, imap_folder_id = :folderId WHERE id = :messageId",
+           nativeQuery = true)
+    int assignImapUid(@Param("messageId") Long messageId, @Param("folderId") Long folderId, @Param("uid") Long uid);
+    
+    /**
+     * 转换旧文件夹：保留客户端已缓存的UID，即原来的邮件ID（包括已删除消息，QRESYNC仍需报告它们）
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE email_messages SET imap_uid = id, imap_folder_id = folder_id " +
+           "WHERE folder_id = :folderId AND (imap_folder_id IS NULL OR imap_folder_id <> folder_id)",
+           nativeQuery = true)
+    int adoptLegacyImapUids(@Param("folderId") Long folderId);
+    
+    /**
+     * 加载IMAP信封投影（UID、接收时间、发送时间、主题、发件人、收件人、抄送、回复地址、消息ID），不加载正文
+     */
+    @Query("SELECT m.imapUid, m.receivedAt, m.sentAt, m.subject, m.fromAddress, m.toAddresses, " +
+           "m.ccAddresses, m.replyTo, m.messageId FROM EmailMessage m " +
+           "WHERE m.folder.id = :folderId AND m.imapFolderId = :folderId AND m.imapUid IN :uids")
+    List<Object[]> findImapEnvelopes(@Param("folderId") Long folderId, @Param("uids") Collection<Long> uids);
+    
+    /**
+     * 加载邮件原文位置投影（ID、原文路径、邮件头长度、是否含点开头行），不加载正文
+     */
+    @Query("SELECT m.id, m.rawMessagePath, m.rawHeaderLength, m.rawDotLines FROM EmailMessage m WHERE m.id IN :ids")
+    List<Object[]> findRawMessageLocations(@Param("ids") Collection<Long> ids);
+    
+    /**
+     * 按UID加载邮件原文位置投影（UID、原文路径、邮件头长度、是否含点开头行），不加载正文
+     */
+    @Query("SELECT m.imapUid, m.rawMessagePath, m.rawHeaderLength, m.rawDotLines FROM EmailMessage m " +
+           "WHERE m.folder.id = :folderId AND m.imapFolderId = :folderId AND m.imapUid IN :uids")
+    List<Object[]> findImapRawLocations(@Param("folderId") Long folderId, @Param("uids") Collection<Long> uids);
+    
+    /**
+     * 按UID加载完整消息实体（渲染没有原文文件的旧邮件）
+     */
+    @Query("SELECT m FROM EmailMessage m " +
+           "WHERE m.folder.id = :folderId AND m.imapFolderId = :folderId AND m.imapUid IN :uids")
+    List<EmailMessage> findImapMessages(@Param("folderId") Long folderId, @Param("uids") Collection<Long> uids);
+    
+    /**
+     * 修改序列大于指定值、UID不大于maxUid的未删除消息（UID、已读、星标、修改序列），用于增量同步标志
+     */
+    @Query("SELECT m.imapUid, m.isRead, m.isStarred, m.modSeq FROM EmailMessage m " +
+           "WHERE m.folder.id = :folderId AND m.imapFolderId = :folderId AND m.isDeleted = false " +
+           "AND m.modSeq > :modSeq AND m.imapUid <= :maxUid ORDER BY m.imapUid")
+    List<Object[]> findImapChangedSince(@Param("folderId") Long folderId,
+                                       @Param("modSeq") Long modSeq,
+                                       @Param("maxUid") Long maxUid);
+    
+    /**
+     * 文件夹中（包括已删除消息）的最大修改序列
+     */
+    @Query("SELECT MAX(m.modSeq) FROM EmailMessage m WHERE m.folder.id = :folderId")
+    Long findMaxModSeq(@Param("folderId") Long folderId);
+    
+    /**
+     * 修改序列大于指定值的已删除消息UID（QRESYNC VANISHED），从未分配UID的消息不会报告
+     */
+    @Query("SELECT m.imapUid FROM EmailMessage m " +
+           "WHERE m.folder.id = :folderId AND m.imapFolderId = :folderId AND m.isDeleted = true " +
+           "AND m.modSeq > :modSeq ORDER BY m.imapUid")
+    List<Long> findExpungedSince(@Param("folderId") Long folderId, @Param("modSeq") Long modSeq);
+    
+    /**
+     * 批量设置文件夹中消息的已读标志
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE EmailMessage m SET m.isRead = :value, m.modSeq = :modSeq " +
+           "WHERE m.folder.id = :folderId AND m.imapFolderId = :folderId AND m.imapUid IN :uids")
+    int updateReadFlag(@Param("folderId") Long folderId, 
+                      @Param("uids") Collection<Long> uids, 
+                      @Param("value") boolean value,
+                      @Param("modSeq") long modSeq);
+    
+    /**
+     * 批量设置文件夹中消息的星标标志
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE EmailMessage m SET m.isStarred = :value, m.modSeq = :modSeq " +
+           "WHERE m.folder.id = :folderId AND m.imapFolderId = :folderId AND m.imapUid IN :uids")
+    int updateStarredFlag(@Param("folderId") Long folderId, 
+                         @Param("uids") Collection<Long> uids, 
+                         @Param("value") boolean value,
+                         @Param("modSeq") long modSeq);
+    
+    /**
+     * 批量更新修改序列（只保存在内存中的标志发生变化时）
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE EmailMessage m SET m.modSeq = :modSeq " +
+           "WHERE m.folder.id = :folderId AND m.imapFolderId = :folderId AND m.imapUid IN :uids")
+    int updateModSeq(@Param("folderId") Long folderId, 
+                    @Param("uids") Collection<Long> uids, 
+                    @Param("modSeq") long modSeq);
+    
+    /**
+     * 批量删除文件夹中的消息（软删除，IMAP EXPUNGE），保留的记录用于QRESYNC报告VANISHED
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE EmailMessage m SET m.isDeleted = true, m.modSeq = :modSeq " +
+           "WHERE m.folder.id = :folderId AND m.imapFolderId = :folderId AND m.imapUid IN :uids")
+    int softDeleteFolderMessages(@Param("folderId") Long folderId, 
+                                @Param("uids") Collection<Long> uids, 
+                                @Param("modSeq") long modSeq);
+}
@@ -10,6 +10,7 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -91,4 +92,60 @@ public interface LoginRecordRepository extends JpaRepository<LoginRecord, Long>
     @Query("SELECT lr FROM LoginRecord lr WHERE lr.user = :user AND lr.latitude IS NOT NULL AND lr.longitude IS NOT NULL " +
            "ORDER BY lr.loginTime DESC")
     List<LoginRecord> findRecentLoginsWithLocation(@Param("user") User user, Pageable pageable);
-}
\ No newline at end of file
+
+    /**
+     * 按用户ID查询指定时间之后的登录记录（用于加载用户行为画像）
+     */
+    @Query("SELECT lr FROM LoginRecord lr WHERE lr.user.id = :userId AND lr.loginTime >= :since ORDER BY lr.loginTime ASC")
+    List<LoginRecord> findRecentLoginsByUserId(@Param("userId") Long userId, @Param("since") LocalDateTime since);
+
+    /**
+     * 按用户ID查询最近的成功登录记录（用于加载用户设备指纹）
+     */
+    @Query("SELECT lr FROM LoginRecord lr WHERE lr.user.id = :userId AND lr.loginStatus = 'SUCCESS' ORDER BY lr.loginTime DESC")
+    List<LoginRecord> findSuccessfulLoginsByUserId(@Param("userId") Long userId, Pageable pageable);
+
+    /**
+     * 查询指定时间之后有登录活动的用户ID，最近活跃的在前（用于启动时预热用户行为画像）
+     */
+    @Query("SELECT lr.user.id FROM LoginRecord lr WHERE lr.loginTime >= :since GROUP BY lr.user.id ORDER BY MAX(lr.loginTime) DESC")
+    List<Long> findActiveUserIdsSince(@Param("since") LocalDateTime since, Pageable pageable);
+
+    /**
+     * 当前最大的登录记录ID（预热的历史水位）
+     */
+    @Query("SELECT MAX(lr.id) FROM LoginRecord lr")
+    Long findMaxId();
+
+    /**
+     * 批量查询多个用户在指定时间之后、ID小于beforeId的登录记录（用于启动时预热用户行为画像）
+     */
+    @Query("SELECT lr FROM LoginRecord lr WHERE lr.user.id IN :userIds AND lr.loginTime >= :since AND lr.id < :beforeId " +
+           "ORDER BY lr.loginTime ASC")
+    List<LoginRecord> findRecentLoginsByUserIds(@Param("userIds") Collection<Long> userIds,
+                                                @Param("since") LocalDateTime since,
+                                                @Param("beforeId") Long beforeId);
+
+    /**
+     * 批量查询多个用户各自最近limit次成功登录（ID小于beforeId），用于启动时预热设备指纹
+     */
+    @Query(value = "SELECT lr.* FROM login_records lr WHERE lr.id IN (" +
+           "SELECT t.id FROM (SELECT id, ROW_NUMBER() OVER (PARTITION BY user_id ORDER BY login_time DESC, id DESC) AS rn " +
+           "FROM login_records WHERE user_id IN (:userIds) AND login_status = 'SUCCESS' AND id < :beforeId) t " +
+           "WHERE t.rn <= :limit)", nativeQuery = true)
+    List<LoginRecord> findRecentSuccessfulLoginsByUserIds(@Param("userIds") Collection<Long> userIds,
+                                                          @Param("beforeId") Long beforeId,
+                                                          @Param("limit") int limit);
+
+    /**
+     * 查询指定IP在指定时间之后的登录ID和时间
+     */
+    @Query("SELECT lr.id, lr.loginTime FROM LoginRecord lr WHERE lr.ipAddress = :ip AND lr.loginTime >= :since")
+    List<Object[]> findLoginTimesByIpSince(@Param("ip") String ip, @Param("since") LocalDateTime since);
+
+    /**
+     * 按ID游标分批查询指定时间之后的登录ID、IP和时间（用于启动时预热IP登录计数）
+     */
+    @Query("SELECT lr.id, lr.ipAddress, lr.loginTime FROM LoginRecord lr WHERE lr.loginTime >= :since AND lr.id > :afterId ORDER BY lr.id ASC")
+    List<Object[]> findLoginIpTimesSince(@Param("since") LocalDateTime since, @Param("afterId") Long afterId, Pageable pageable);
+}
@@ -49,6 +49,12 @@ public interface SpamFilterRuleRepository extends JpaRepository<SpamFilterRule,
      */
     List<SpamFilterRule> findByUpdatedAtAfterOrderByUpdatedAtDesc(LocalDateTime after);
     
+    /**
+     * 查找规则表最后更新时间
+     */
+    @Query("SELECT MAX(r.updatedAt) FROM SpamFilterRule r")
+    LocalDateTime findLatestUpdateTime();
+    
     /**
      * 统计规则数量
      */
@@ -7,6 +7,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -21,6 +22,16 @@ public interface UserLocationRepository extends JpaRepository<UserLocation, Long
      */
     List<UserLocation> findByUserOrderByLoginCountDesc(User user);
 
+    /**
+     * 根据用户ID查询位置，按登录次数倒序
+     */
+    List<UserLocation> findByUserIdOrderByLoginCountDesc(Long userId);
+
+    /**
+     * 批量查询多个用户的位置，按登录次数倒序（用于启动时预热用户行为画像）
+     */
+    List<UserLocation> findByUserIdInOrderByLoginCountDesc(Collection<Long> userIds);
+
     /**
      * 查询用户的可信位置
      */
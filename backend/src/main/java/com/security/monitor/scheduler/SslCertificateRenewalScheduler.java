@@ -2,6 +2,7 @@ package com.security.monitor.scheduler;
 
 import com.security.monitor.model.SslCertificate;
 import com.security.monitor.service.SslCertificateService;
+import com.security.monitor.service.protocol.MailTlsContextManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,6 +26,9 @@ public class SslCertificateRenewalScheduler {
     @Autowired
     private SslCertificateService certificateService;
     
+    @Autowired
+    private MailTlsContextManager mailTlsContextManager;
+    
     @Value("${app.ssl.scheduler.enabled:true}")
     private boolean schedulerEnabled;
     
@@ -195,10 +199,13 @@ public class SslCertificateRenewalScheduler {
                 logger.info("开始续期证书: domain={}, type={}", 
                     certificate.getDomainName(), certificate.getCertificateType());
                 
-                certificateService.renewCertificate(certificate.getId());
+                SslCertificate renewed = certificateService.renewCertificate(certificate.getId());
                 
                 logger.info("证书续期完成: domain={}", certificate.getDomainName());
                 
+                // 邮件协议监听端口使用的证书续期后立即热替换TLS上下文
+                mailTlsContextManager.onCertificateRenewed(renewed);
+                
             } catch (Exception e) {
                 logger.error("证书续期失败: domain=" + certificate.getDomainName(), e);
             }
@@ -0,0 +1,227 @@
+package com.security.monitor.service;
+
+import com.security.monitor.model.AccessControlLog;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 访问控制写缓冲（write-behind）
+ * 白名单命中次数按条目在内存中累加，定时合并为一批 UPDATE ... SET access_count = access_count + ?；
+ * 访问日志放入有界队列，定时通过JDBC批量插入（实体使用IDENTITY主键，Hibernate无法批量插入）。
+ * 请求线程从不等待数据库：队列超过采样水位后只保留拒绝/错误日志并对放行日志按比例采样，队列满时直接丢弃并计数
+ */
+@Component
+public class AccessControlWriteBuffer implements OperationalStatusSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(AccessControlWriteBuffer.class);
+
+    private static final String INSERT_LOG_SQL = "INSERT INTO access_control_logs "
+            + "(ip_address, user_agent, service_type, access_result, user_id, username, whitelist_id, access_details, "
+            + "request_path, request_method, response_code, processing_time_ms, accessed_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String UPDATE_HITS_SQL = "UPDATE ip_whitelists "
+            + "SET access_count = access_count + ?, last_access_at = ? WHERE id = ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${app.access-control.write-behind.log-queue-capacity:20000}")
+    private int logQueueCapacity;
+
+    // 队列占用超过该比例后开始对放行日志采样
+    @Value("${app.access-control.write-behind.sample-watermark:0.8}")
+    private double sampleWatermark;
+
+    // 采样时每N条放行日志保留1条
+    @Value("${app.access-control.write-behind.sample-every:10}")
+    private int sampleEvery;
+
+    @Value("${app.access-control.write-behind.batch-size:500}")
+    private int batchSize;
+
+    private BlockingQueue<AccessControlLog> logQueue;
+    private int sampleThreshold;
+
+    // 白名单ID -> [命中次数, 最后访问时间(毫秒)]，在compute中更新，flush时整体移除
+    private final ConcurrentHashMap<Long, long[]> pendingHits = new ConcurrentHashMap<>();
+
+    private final AtomicLong queuedLogs = new AtomicLong();
+    private final AtomicLong writtenLogs = new AtomicLong();
+    private final AtomicLong sampledOutLogs = new AtomicLong();
+    private final AtomicLong droppedLogs = new AtomicLong();
+    private final AtomicLong failedLogs = new AtomicLong();
+    private final AtomicLong recordedHits = new AtomicLong();
+    private final AtomicLong flushedHitUpdates = new AtomicLong();
+    private final AtomicLong samplingCounter = new AtomicLong();
+    private final AtomicLong lastFlushMillis = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        logQueue = new ArrayBlockingQueue<>(logQueueCapacity);
+        sampleThreshold = (int) (logQueueCapacity * sampleWatermark);
+        logger.info("访问控制写缓冲已启动: logQueueCapacity={}, sampleThreshold={}, batchSize={}",
+                logQueueCapacity, sampleThreshold, batchSize);
+    }
+
+    /**
+     * 记录一次白名单命中
+     */
+    public void recordWhitelistHit(Long whitelistId) {
+        if (whitelistId == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        pendingHits.compute(whitelistId, (id, hits) -> {
+            if (hits == null) {
+                return new long[] {1L, now};
+            }
+            hits[0]++;
+            hits[1] = Math.max(hits[1], now);
+            return hits;
+        });
+        recordedHits.incrementAndGet();
+    }
+
+    /**
+     * 缓冲一条访问日志，永不阻塞调用方；返回日志是否被保留
+     */
+    public boolean recordAccessLog(AccessControlLog log) {
+        if (logQueue.size() >= sampleThreshold && log.getAccessResult() == AccessControlLog.AccessResult.ALLOWED
+                && samplingCounter.incrementAndGet() % sampleEvery != 0) {
+            sampledOutLogs.incrementAndGet();
+            return false;
+        }
+        if (!logQueue.offer(log)) {
+            long dropped = droppedLogs.incrementAndGet();
+            if (dropped % 1000 == 1) {
+                logger.warn("访问日志缓冲已满，已丢弃{}条日志", dropped);
+            }
+            return false;
+        }
+        queuedLogs.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 定时写入缓冲的命中统计和访问日志
+     */
+    @Scheduled(fixedDelayString = "${app.access-control.write-behind.flush-interval-ms:1000}")
+    public void flush() {
+        long start = System.currentTimeMillis();
+        flushWhitelistHits();
+        flushAccessLogs();
+        lastFlushMillis.set(System.currentTimeMillis() - start);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.warn("关闭时写入访问控制缓冲失败", e);
+        }
+    }
+
+    @Override
+    public String getStatusName() {
+        return "access-control-buffer";
+    }
+
+    @Override
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("logQueueDepth", logQueue.size());
+        status.put("logQueueCapacity", logQueueCapacity);
+        status.put("sampleThreshold", sampleThreshold);
+        status.put("queuedLogs", queuedLogs.get());
+        status.put("writtenLogs", writtenLogs.get());
+        status.put("sampledOutLogs", sampledOutLogs.get());
+        status.put("droppedLogs", droppedLogs.get());
+        status.put("failedLogs", failedLogs.get());
+        status.put("pendingWhitelistCounters", pendingHits.size());
+        status.put("recordedHits", recordedHits.get());
+        status.put("flushedHitUpdates", flushedHitUpdates.get());
+        status.put("lastFlushMillis", lastFlushMillis.get());
+        return status;
+    }
+
+    private void flushWhitelistHits() {
+        if (pendingHits.isEmpty()) {
+            return;
+        }
+        List<Object[]> updates = new ArrayList<>(pendingHits.size());
+        for (Long whitelistId : pendingHits.keySet()) {
+            // remove与compute互斥，移除后的数组不会再被修改
+            long[] hits = pendingHits.remove(whitelistId);
+            if (hits != null) {
+                updates.add(new Object[] {hits[0], toTimestamp(hits[1]), whitelistId});
+            }
+        }
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_HITS_SQL, updates);
+            flushedHitUpdates.addAndGet(updates.size());
+        } catch (Exception e) {
+            // 写回失败的计数，下次重试
+            logger.error("批量更新白名单访问统计失败: {}条", updates.size(), e);
+            for (Object[] update : updates) {
+                long count = (Long) update[0];
+                long lastAccess = ((Timestamp) update[1]).getTime();
+                pendingHits.merge((Long) update[2], new long[] {count, lastAccess},
+                        (current, failed) -> new long[] {current[0] + failed[0], Math.max(current[1], failed[1])});
+            }
+        }
+    }
+
+    private void flushAccessLogs() {
+        List<AccessControlLog> batch = new ArrayList<>(batchSize);
+        while (logQueue.drainTo(batch, batchSize) > 0) {
+            try {
+                jdbcTemplate.batchUpdate(INSERT_LOG_SQL, batch, batch.size(), (ps, log) -> {
+                    ps.setString(1, log.getIpAddress());
+                    ps.setString(2, log.getUserAgent());
+                    ps.setString(3, log.getServiceType() != null ? log.getServiceType().name() : null);
+                    ps.setString(4, log.getAccessResult() != null ? log.getAccessResult().name() : null);
+                    ps.setObject(5, log.getUserId(), Types.BIGINT);
+                    ps.setString(6, log.getUsername());
+                    ps.setObject(7, log.getWhitelistId(), Types.BIGINT);
+                    ps.setString(8, log.getAccessDetails());
+                    ps.setString(9, log.getRequestPath());
+                    ps.setString(10, log.getRequestMethod());
+                    ps.setObject(11, log.getResponseCode(), Types.INTEGER);
+                    ps.setObject(12, log.getProcessingTimeMs(), Types.BIGINT);
+                    ps.setTimestamp(13, Timestamp.valueOf(log.getAccessedAt() != null ? log.getAccessedAt() : LocalDateTime.now()));
+                });
+                writtenLogs.addAndGet(batch.size());
+            } catch (Exception e) {
+                // 日志是尽力而为的，失败的批次不重试，避免数据库故障时无限堆积
+                failedLogs.addAndGet(batch.size());
+                logger.error("批量写入访问日志失败: {}条", batch.size(), e);
+            }
+            batch.clear();
+        }
+    }
+
+    private static Timestamp toTimestamp(long epochMillis) {
+        return new Timestamp(epochMillis);
+    }
+}
@@ -7,18 +7,16 @@ import com.security.monitor.model.UserLocation;
 import com.security.monitor.repository.LoginRecordRepository;
 import com.security.monitor.repository.SecurityAlertRepository;
 import com.security.monitor.repository.UserLocationRepository;
+import com.security.monitor.service.LoginBehaviorProfileCache.UserBehaviorProfile;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.math.BigDecimal;
-import java.time.LocalDateTime;
-import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 异地登录检测服务
@@ -41,6 +39,9 @@ public class AnomalousLoginDetectionService {
     @Autowired
     private NotificationService notificationService;
 
+    @Autowired
+    private LoginBehaviorProfileCache loginBehaviorProfileCache;
+
     @Value("${security.monitor.geo.max-distance-km:500}")
     private double maxDistanceKm;
 
@@ -50,6 +51,20 @@ public class AnomalousLoginDetectionService {
     @Value("${security.monitor.risk.threshold-high:70}")
     private int highRiskThreshold;
 
+    /**
+     * 按登录记录ID检测异地登录（登录风险评估流水线的工作线程调用，在独立事务中重新加载记录）
+     * 返回评估后的登录记录，记录不存在时返回null
+     */
+    public LoginRecord detectAnomalousLogin(Long loginRecordId) {
+        LoginRecord loginRecord = loginRecordRepository.findById(loginRecordId).orElse(null);
+        if (loginRecord == null) {
+            logger.warn("登录记录 {} 不存在，跳过风险评估", loginRecordId);
+            return null;
+        }
+        detectAnomalousLogin(loginRecord);
+        return loginRecord;
+    }
+
     /**
      * 检测异地登录
      */
@@ -90,19 +105,21 @@ public class AnomalousLoginDetectionService {
      */
     private int calculateRiskScore(LoginRecord loginRecord) {
         int riskScore = 0;
-        User user = loginRecord.getUser();
+        // 所有评分项只读取内存中的用户行为画像
+        UserBehaviorProfile profile = loginBehaviorProfileCache.getProfile(loginRecord);
+        long now = System.currentTimeMillis();
 
         // 1. 地理位置异常检测
-        riskScore += calculateLocationRisk(loginRecord);
+        riskScore += calculateLocationRisk(loginRecord, profile);
 
         // 2. 时间窗口内多地登录检测
-        riskScore += calculateMultipleLocationRisk(loginRecord);
+        riskScore += calculateMultipleLocationRisk(loginRecord, profile, now);
 
         // 3. 设备异常检测
-        riskScore += calculateDeviceRisk(loginRecord);
+        riskScore += calculateDeviceRisk(loginRecord, profile);
 
         // 4. 登录频率异常检测
-        riskScore += calculateFrequencyRisk(loginRecord);
+        riskScore += calculateFrequencyRisk(profile, now);
 
         // 5. IP风险评估
         riskScore += calculateIpRisk(loginRecord);
@@ -113,43 +130,25 @@ public class AnomalousLoginDetectionService {
     /**
      * 计算地理位置风险
      */
-    private int calculateLocationRisk(LoginRecord loginRecord) {
+    private int calculateLocationRisk(LoginRecord loginRecord, UserBehaviorProfile profile) {
         int risk = 0;
-        User user = loginRecord.getUser();
 
-        // 获取用户常用位置
-        List<UserLocation> userLocations = userLocationRepository.findByUserOrderByLoginCountDesc(user);
-        
-        if (userLocations.isEmpty()) {
+        if (!profile.hasKnownLocations()) {
             // 新用户，风险较低
             return 10;
         }
 
         // 检查是否在常用位置附近
-        boolean isNearKnownLocation = false;
-        double minDistance = Double.MAX_VALUE;
-
-        for (UserLocation location : userLocations) {
-            if (loginRecord.getLatitude() != null && loginRecord.getLongitude() != null) {
-                double distance = location.calculateDistance(
-                    loginRecord.getLatitude(), 
-                    loginRecord.getLongitude()
-                );
-                
-                minDistance = Math.min(minDistance, distance);
-                
-                if (distance <= maxDistanceKm) {
-                    isNearKnownLocation = true;
-                    break;
-                }
-            }
-        }
+        double minDistance = profile.minDistanceToKnownLocation(
+            loginRecord.getLatitude(),
+            loginRecord.getLongitude()
+        );
 
-        if (!isNearKnownLocation) {
+        if (minDistance > maxDistanceKm) {
             // 不在常用位置附近
             if (minDistance > maxDistanceKm * 2) {
                 risk += 40; // 距离很远
-            } else if (minDistance > maxDistanceKm) {
+            } else {
                 risk += 25; // 距离较远
             }
         }
@@ -160,35 +159,21 @@ public class AnomalousLoginDetectionService {
     /**
      * 计算时间窗口内多地登录风险
      */
-    private int calculateMultipleLocationRisk(LoginRecord loginRecord) {
+    private int calculateMultipleLocationRisk(LoginRecord loginRecord, UserBehaviorProfile profile, long now) {
         int risk = 0;
-        User user = loginRecord.getUser();
-        LocalDateTime timeWindow = LocalDateTime.now().minusMinutes(timeWindowMinutes);
-
-        // 获取时间窗口内的登录记录
-        List<LoginRecord> recentLogins = loginRecordRepository.findRecentLoginsByUser(user, timeWindow);
+        long timeWindow = now - TimeUnit.MINUTES.toMillis(timeWindowMinutes);
 
-        if (recentLogins.size() > 1) {
+        // 时间窗口内的登录次数（包含本次登录）
+        if (profile.countLoginsSince(timeWindow) > 1) {
             // 检查是否从多个地理位置登录
-            List<Object[]> locations = loginRecordRepository.findDistinctLocationsByUserSince(user, timeWindow);
-            
-            if (locations.size() > 1) {
+            if (profile.countDistinctLocationsSince(timeWindow) > 1) {
                 risk += 30; // 多地登录
-                
+
                 // 计算最大距离
-                double maxDistance = 0;
-                for (LoginRecord record : recentLogins) {
-                    if (record.getLatitude() != null && record.getLongitude() != null &&
-                        loginRecord.getLatitude() != null && loginRecord.getLongitude() != null) {
-                        
-                        double distance = calculateDistance(
-                            record.getLatitude(), record.getLongitude(),
-                            loginRecord.getLatitude(), loginRecord.getLongitude()
-                        );
-                        maxDistance = Math.max(maxDistance, distance);
-                    }
-                }
-                
+                double maxDistance = profile.maxDistanceSince(
+                    timeWindow, loginRecord.getLatitude(), loginRecord.getLongitude()
+                );
+
                 // 根据距离增加风险
                 if (maxDistance > 1000) {
                     risk += 20; // 跨国登录
@@ -204,28 +189,12 @@ public class AnomalousLoginDetectionService {
     /**
      * 计算设备风险
      */
-    private int calculateDeviceRisk(LoginRecord loginRecord) {
+    private int calculateDeviceRisk(LoginRecord loginRecord, UserBehaviorProfile profile) {
         int risk = 0;
-        User user = loginRecord.getUser();
-
-        // 获取用户最近的登录记录
-        List<LoginRecord> recentLogins = loginRecordRepository.findSuccessfulLoginsByUser(
-            user, PageRequest.of(0, 10)
-        );
-
-        if (!recentLogins.isEmpty()) {
-            boolean isKnownDevice = false;
-            
-            for (LoginRecord record : recentLogins) {
-                if (isSimilarDevice(loginRecord, record)) {
-                    isKnownDevice = true;
-                    break;
-                }
-            }
 
-            if (!isKnownDevice) {
-                risk += 20; // 新设备
-            }
+        // 与本次之外最近的成功登录设备比较
+        if (profile.hasDeviceHistory(loginRecord.getId()) && !profile.isKnownDevice(loginRecord)) {
+            risk += 20; // 新设备
         }
 
         return risk;
@@ -234,13 +203,11 @@ public class AnomalousLoginDetectionService {
     /**
      * 计算登录频率风险
      */
-    private int calculateFrequencyRisk(LoginRecord loginRecord) {
+    private int calculateFrequencyRisk(UserBehaviorProfile profile, long now) {
         int risk = 0;
-        User user = loginRecord.getUser();
-        LocalDateTime hourAgo = LocalDateTime.now().minusHours(1);
 
         // 统计过去一小时的登录次数
-        long loginCount = loginRecordRepository.countLoginsByUserSince(user, hourAgo);
+        long loginCount = profile.countLoginsSince(now - TimeUnit.HOURS.toMillis(1));
 
         if (loginCount > 10) {
             risk += 30; // 高频登录
@@ -257,10 +224,9 @@ public class AnomalousLoginDetectionService {
     private int calculateIpRisk(LoginRecord loginRecord) {
         int risk = 0;
         String ipAddress = loginRecord.getIpAddress();
-        LocalDateTime dayAgo = LocalDateTime.now().minusDays(1);
 
-        // 统计该IP的登录次数
-        long ipLoginCount = loginRecordRepository.countLoginsByIpSince(ipAddress, dayAgo);
+        // 统计该IP过去一天的登录次数
+        long ipLoginCount = loginBehaviorProfileCache.countIpLoginsLastDay(loginRecord);
 
         if (ipLoginCount > 50) {
             risk += 25; // 高频IP
@@ -314,6 +280,14 @@ public class AnomalousLoginDetectionService {
             );
             userLocationRepository.save(newLocation);
         }
+
+        // 同步更新画像中的常用位置
+        loginBehaviorProfileCache.getProfile(loginRecord).putLocation(
+            LoginBehaviorProfileCache.locationKey(
+                loginRecord.getCountry(), loginRecord.getRegion(), loginRecord.getCity()),
+            loginRecord.getLatitude(),
+            loginRecord.getLongitude()
+        );
     }
 
     /**
@@ -383,19 +357,6 @@ public class AnomalousLoginDetectionService {
         return description.toString();
     }
 
-    /**
-     * 检查是否为相似设备
-     */
-    private boolean isSimilarDevice(LoginRecord current, LoginRecord previous) {
-        if (current.getUserAgent() == null || previous.getUserAgent() == null) {
-            return false;
-        }
-
-        // 简单的设备相似度检测
-        return current.getBrowser() != null && current.getBrowser().equals(previous.getBrowser()) &&
-               current.getOs() != null && current.getOs().equals(previous.getOs());
-    }
-
     /**
      * 检查是否为高风险IP
      */
@@ -404,25 +365,4 @@ public class AnomalousLoginDetectionService {
         // 暂时返回false，实际实现中可以查询威胁情报API
         return false;
     }
-
-    /**
-     * 计算两点间距离
-     */
-    private double calculateDistance(BigDecimal lat1, BigDecimal lon1, BigDecimal lat2, BigDecimal lon2) {
-        if (lat1 == null || lon1 == null || lat2 == null || lon2 == null) {
-            return 0;
-        }
-
-        double latDistance = Math.toRadians(lat2.doubleValue() - lat1.doubleValue());
-        double lonDistance = Math.toRadians(lon2.doubleValue() - lon1.doubleValue());
-        
-        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-                + Math.cos(Math.toRadians(lat1.doubleValue())) 
-                * Math.cos(Math.toRadians(lat2.doubleValue()))
-                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
-        
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        
-        return 6371 * c; // 地球半径6371公里
-    }
 }
\ No newline at end of file
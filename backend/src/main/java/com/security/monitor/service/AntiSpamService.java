@@ -2,30 +2,43 @@ package com.security.monitor.service;
 
 import com.security.monitor.model.*;
 import com.security.monitor.repository.*;
+import com.security.monitor.util.LatencyHistogram;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * 反垃圾邮件服务
  * 提供类似Rspamd的邮件过滤和垃圾邮件检测功能
+ * 评分按阶段执行：廉价检查串行在前，开销大且互不依赖的检查（内容、链接、DNSBL）并行执行；
+ * 每个阶段前后用剩余阶段的分数上下界判断结论是否已确定，确定后跳过其余阶段
  */
 @Service
 @Transactional
-public class AntiSpamService {
+public class AntiSpamService implements OperationalStatusSource {
     
     private static final Logger logger = LoggerFactory.getLogger(AntiSpamService.class);
     
-    @Autowired
-    private SpamFilterRuleRepository ruleRepository;
-    
     @Autowired
     private SpamDetectionLogRepository detectionLogRepository;
     
@@ -35,6 +48,15 @@ public class AntiSpamService {
     @Autowired
     private DnsBlacklistRepository dnsBlacklistRepository;
     
+    @Autowired
+    private SpamRuleEngine spamRuleEngine;
+    
+    @Autowired
+    private BayesSpamClassifier bayesSpamClassifier;
+    
+    @Autowired
+    private AuditLogSink auditLogSink;
+    
     @Value("${app.antispam.score.threshold:5.0}")
     private double spamScoreThreshold;
     
@@ -44,6 +66,27 @@ public class AntiSpamService {
     @Value("${app.antispam.learn.enabled:true}")
     private boolean learningEnabled;
     
+    @Value("${app.antispam.pipeline.short-circuit:true}")
+    private boolean shortCircuitEnabled;
+    
+    @Value("${app.antispam.pipeline.parallel-threads:4}")
+    private int parallelThreads;
+    
+    @Value("${app.antispam.pipeline.queue-capacity:1000}")
+    private int parallelQueueCapacity;
+    
+    // 并行阶段的总等待时间，超时的阶段按0分计
+    @Value("${app.antispam.pipeline.stage-timeout-ms:2000}")
+    private long stageTimeoutMs;
+    
+    private List<ScoringStage> stages;
+    private int firstParallelStage;
+    private ThreadPoolExecutor executor;
+    
+    private final LatencyHistogram pipelineLatency = new LatencyHistogram();
+    private final AtomicLong shortCircuitSpam = new AtomicLong();
+    private final AtomicLong shortCircuitHam = new AtomicLong();
+    
     // 垃圾邮件特征关键词
     private static final List<String> SPAM_KEYWORDS = Arrays.asList(
         "免费", "优惠", "特价", "限时", "立即", "马上", "赚钱", "发财", 
@@ -59,6 +102,71 @@ public class AntiSpamService {
         Pattern.compile(".*[a-z]{20,}.*@.*", Pattern.CASE_INSENSITIVE) // 超长随机字符
     );
     
+    private static final String INSERT_DETECTION_LOG_SQL = "INSERT INTO spam_detection_logs "
+            + "(message_id, spam_score, is_spam, detection_details, is_user_feedback, detected_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?)";
+    
+    private static final Pattern HTML_TAG_PATTERN = Pattern.compile("<[^>]*>");
+    
+    private static final Pattern URL_PATTERN = Pattern.compile("https?://[\\w\\-._~:/?#\\[\\]@!$&'()*+,;=%]+");
+    
+    private static final Pattern IP_URL_PATTERN = Pattern.compile("://\\d+\\.\\d+\\.\\d+\\.\\d+");
+    
+    private static final double ATTACHMENT_COUNT_SCORE = 1.0;
+    
+    private static final double DANGEROUS_ATTACHMENT_SCORE = 3.0;
+    
+    // 重复单词检测：超过该次数判定为重复内容
+    private static final int REPEAT_WORD_LIMIT = 10;
+    
+    // 重复单词计数草图的行数和每行宽度（宽度为2的幂）
+    private static final int REPEAT_SKETCH_DEPTH = 4;
+    
+    private static final int REPEAT_SKETCH_WIDTH = 1024;
+    
+    // 草图估计超过阈值时最多精确复核的单词数
+    private static final int REPEAT_MAX_VERIFICATIONS = 4;
+    
+    @PostConstruct
+    public void initPipeline() {
+        // 串行阶段按开销从低到高排列，分数区间与各检查方法的实际取值范围一致
+        stages = Arrays.asList(
+            new ScoringStage("sender", "可疑发件人", false, fixed(0.0), fixed(5.5),
+                input -> checkSender(input.message.getFromAddress())),
+            new ScoringStage("subject", "可疑主题", false, fixed(0.0), fixed(5.0),
+                input -> checkSubject(input.message.getSubject())),
+            new ScoringStage("attachments", "可疑附件", false, fixed(0.0), input -> maxAttachmentScore(input.message),
+                input -> checkAttachments(input.message)),
+            new ScoringStage("customRules", "自定义规则", false, fixed(0.0), input -> spamRuleEngine.getMaxScore(),
+                input -> applyCustomRules(input.message)),
+            // 贝叶斯分类（由用户反馈增量训练，正常邮件特征可以减分）
+            new ScoringStage("bayes", "贝叶斯分类", true,
+                input -> -bayesSpamClassifier.getMaxScore(), input -> bayesSpamClassifier.getMaxScore(),
+                input -> bayesSpamClassifier.score(input.message)),
+            // 以下阶段在线程池中并行执行，只读取调用线程预先取出的正文
+            new ScoringStage("content", "可疑内容", false, fixed(0.0), fixed(5.0),
+                input -> checkContent(input.bodyText, input.bodyHtml)),
+            new ScoringStage("urls", "可疑链接", false, fixed(0.0), fixed(4.0),
+                input -> checkUrls(input.bodyText, input.bodyHtml)),
+            new ScoringStage("senderIp", "可疑IP", false, fixed(0.0), fixed(0.0),
+                input -> checkSenderIP(input.message))
+        );
+        firstParallelStage = 5;
+        
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("spam-stage-");
+        threadFactory.setDaemon(true);
+        executor = new ThreadPoolExecutor(parallelThreads, parallelThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(parallelQueueCapacity), threadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy()); // 线程池饱和时退化为在调用线程串行执行
+        logger.info("垃圾邮件评分流水线已启动: stages={}, parallelThreads={}, shortCircuit={}",
+                stages.size(), parallelThreads, shortCircuitEnabled);
+    }
+    
+    @PreDestroy
+    public void shutdownPipeline() {
+        executor.shutdownNow();
+    }
+    
     /**
      * 检测邮件是否为垃圾邮件
      */
@@ -70,62 +178,41 @@ public class AntiSpamService {
         logger.debug("检测邮件垃圾邮件特征: messageId={}", message.getMessageId());
         
         SpamDetectionResult result = new SpamDetectionResult();
-        double totalScore = 0.0;
-        List<String> reasons = new ArrayList<>();
+        long pipelineStart = System.nanoTime();
         
         try {
-            // 1. 检查发件人
-            double senderScore = checkSender(message.getFromAddress());
-            if (senderScore > 0) {
-                totalScore += senderScore;
-                reasons.add(String.format("可疑发件人 (+%.1f)", senderScore));
-            }
-            
-            // 2. 检查主题
-            double subjectScore = checkSubject(message.getSubject());
-            if (subjectScore > 0) {
-                totalScore += subjectScore;
-                reasons.add(String.format("可疑主题 (+%.1f)", subjectScore));
-            }
+            ScoringRun run = new ScoringRun(new StageInput(message), stages.size());
             
-            // 3. 检查邮件内容
-            double contentScore = checkContent(message.getBodyText(), message.getBodyHtml());
-            if (contentScore > 0) {
-                totalScore += contentScore;
-                reasons.add(String.format("可疑内容 (+%.1f)", contentScore));
+            // 串行执行廉价阶段
+            Boolean verdict = null;
+            for (int i = 0; i < firstParallelStage && (verdict = earlyVerdict(run)) == null; i++) {
+                ScoringStage stage = stages.get(i);
+                run.done[i] = true;
+                applyStage(run, stage, stage.score(run.input));
             }
             
-            // 4. 检查URL
-            double urlScore = checkUrls(message.getBodyText(), message.getBodyHtml());
-            if (urlScore > 0) {
-                totalScore += urlScore;
-                reasons.add(String.format("可疑链接 (+%.1f)", urlScore));
+            // 并行执行开销大的独立阶段
+            if (verdict == null && (verdict = earlyVerdict(run)) == null) {
+                runParallelStages(run);
+                verdict = earlyVerdict(run);
             }
             
-            // 5. 检查发件人IP（如果有）
-            double ipScore = checkSenderIP(message);
-            if (ipScore > 0) {
-                totalScore += ipScore;
-                reasons.add(String.format("可疑IP (+%.1f)", ipScore));
+            int skipped = 0;
+            for (int i = 0; i < stages.size(); i++) {
+                if (!run.done[i]) {
+                    stages.get(i).skipped.incrementAndGet();
+                    skipped++;
+                }
             }
-            
-            // 6. 检查附件
-            double attachmentScore = checkAttachments(message);
-            if (attachmentScore > 0) {
-                totalScore += attachmentScore;
-                reasons.add(String.format("可疑附件 (+%.1f)", attachmentScore));
-            }
-            
-            // 7. 应用自定义规则
-            double customScore = applyCustomRules(message);
-            if (customScore > 0) {
-                totalScore += customScore;
-                reasons.add(String.format("自定义规则 (+%.1f)", customScore));
+            if (skipped > 0) {
+                (verdict ? shortCircuitSpam : shortCircuitHam).incrementAndGet();
+                run.reasons.add(String.format("提前判定为%s，跳过%d项检查", verdict ? "垃圾邮件" : "正常邮件", skipped));
             }
+            double totalScore = run.totalScore;
             
             result.setSpamScore(totalScore);
             result.setIsSpam(totalScore >= spamScoreThreshold);
-            result.setDetails(String.join("; ", reasons));
+            result.setDetails(String.join("; ", run.reasons));
             
             // 记录检测日志
             logDetection(message, result);
@@ -137,11 +224,129 @@ public class AntiSpamService {
             result.setSpamScore(0.0);
             result.setIsSpam(false);
             result.setDetails("检测失败: " + e.getMessage());
+        } finally {
+            pipelineLatency.recordNanos(System.nanoTime() - pipelineStart);
         }
         
         return result;
     }
     
+    /**
+     * 在线程池中并行执行剩余阶段，按完成顺序累加，结论确定或超时后取消未完成的阶段
+     */
+    private void runParallelStages(ScoringRun run) {
+        ExecutorCompletionService<Double> completion = new ExecutorCompletionService<>(executor);
+        Map<Future<Double>, Integer> pending = new HashMap<>();
+        for (int i = firstParallelStage; i < stages.size(); i++) {
+            ScoringStage stage = stages.get(i);
+            pending.put(completion.submit(() -> stage.score(run.input)), i);
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(stageTimeoutMs);
+        try {
+            while (!pending.isEmpty()) {
+                Future<Double> future = completion.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (future == null) {
+                    for (int index : pending.values()) {
+                        stages.get(index).timeouts.incrementAndGet();
+                        run.done[index] = true;
+                    }
+                    logger.warn("垃圾邮件检查超时: {}项未在{}ms内完成", pending.size(), stageTimeoutMs);
+                    run.reasons.add(String.format("%d项检查超时", pending.size()));
+                    return;
+                }
+                int index = pending.remove(future);
+                ScoringStage stage = stages.get(index);
+                run.done[index] = true;
+                try {
+                    applyStage(run, stage, future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(stage.name + "检查失败", e.getCause());
+                }
+                if (earlyVerdict(run) != null) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("垃圾邮件并行检查被中断", e);
+        } finally {
+            for (Future<Double> future : pending.keySet()) {
+                future.cancel(true);
+            }
+        }
+    }
+    
+    /**
+     * 累加阶段得分并记录原因
+     */
+    private void applyStage(ScoringRun run, ScoringStage stage, double score) {
+        double contribution = stage.signed ? score : Math.max(0.0, score);
+        if (contribution != 0) {
+            run.totalScore += contribution;
+            run.reasons.add(String.format(stage.signed ? "%s (%+.1f)" : "%s (+%.1f)", stage.label, contribution));
+        }
+    }
+    
+    /**
+     * 用未执行阶段的分数上下界判断结论是否已确定：true为垃圾邮件，false为正常邮件，null为尚未确定
+     */
+    private Boolean earlyVerdict(ScoringRun run) {
+        if (!shortCircuitEnabled) {
+            return null;
+        }
+        double remainingMin = 0.0;
+        double remainingMax = 0.0;
+        for (int i = 0; i < stages.size(); i++) {
+            if (!run.done[i]) {
+                remainingMin += stages.get(i).minScore.applyAsDouble(run.input);
+                remainingMax += stages.get(i).maxScore.applyAsDouble(run.input);
+            }
+        }
+        if (run.totalScore + remainingMin >= spamScoreThreshold) {
+            return Boolean.TRUE;
+        }
+        if (run.totalScore + remainingMax < spamScoreThreshold) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+    
+    @Override
+    public String getStatusName() {
+        return "spam-pipeline";
+    }
+    
+    /**
+     * 获取评分流水线状态：整体及各阶段的延迟分布、跳过和超时次数
+     */
+    @Override
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("shortCircuitEnabled", shortCircuitEnabled);
+        status.put("threshold", spamScoreThreshold);
+        status.put("pipeline", pipelineLatency.toMap());
+        status.put("shortCircuitSpam", shortCircuitSpam.get());
+        status.put("shortCircuitHam", shortCircuitHam.get());
+        status.put("parallelThreads", parallelThreads);
+        status.put("parallelActiveThreads", executor.getActiveCount());
+        status.put("parallelQueueDepth", executor.getQueue().size());
+        Map<String, Object> stageStatus = new LinkedHashMap<>();
+        for (int i = 0; i < stages.size(); i++) {
+            ScoringStage stage = stages.get(i);
+            Map<String, Object> entry = stage.latency.toMap();
+            entry.put("parallel", i >= firstParallelStage);
+            entry.put("skipped", stage.skipped.get());
+            entry.put("timeouts", stage.timeouts.get());
+            stageStatus.put(stage.name, entry);
+        }
+        status.put("stages", stageStatus);
+        return status;
+    }
+    
+    private static ToDoubleFunction<StageInput> fixed(double value) {
+        return input -> value;
+    }
+    
     /**
      * 检查发件人
      */
@@ -227,7 +432,7 @@ public class AntiSpamService {
         
         String content = "";
         if (bodyHtml != null && !bodyHtml.trim().isEmpty()) {
-            content = bodyHtml.replaceAll("<[^>]*>", ""); // 移除HTML标签
+            content = HTML_TAG_PATTERN.matcher(bodyHtml).replaceAll(""); // 移除HTML标签
         } else if (bodyText != null) {
             content = bodyText;
         }
@@ -283,8 +488,7 @@ public class AntiSpamService {
         String content = bodyHtml != null ? bodyHtml : (bodyText != null ? bodyText : "");
         
         // 简单的URL匹配
-        Pattern urlPattern = Pattern.compile("https?://[\\w\\-._~:/?#\\[\\]@!$&'()*+,;=%]+");
-        java.util.regex.Matcher matcher = urlPattern.matcher(content);
+        Matcher matcher = URL_PATTERN.matcher(content);
         
         int urlCount = 0;
         while (matcher.find()) {
@@ -303,7 +507,7 @@ public class AntiSpamService {
             }
             
             // 检查IP地址链接
-            if (url.matches(".*://\\d+\\.\\d+\\.\\d+\\.\\d+.*")) {
+            if (IP_URL_PATTERN.matcher(url).find()) {
                 score += 2.0;
             }
         }
@@ -337,7 +541,7 @@ public class AntiSpamService {
         if (message.getAttachments() != null) {
             int attachmentCount = message.getAttachments().size();
             if (attachmentCount > 5) {
-                score += 1.0;
+                score += ATTACHMENT_COUNT_SCORE;
             }
             
             // 检查可疑文件类型
@@ -345,7 +549,7 @@ public class AntiSpamService {
                 String filename = attachment.getFilename().toLowerCase();
                 if (filename.endsWith(".exe") || filename.endsWith(".scr") || 
                     filename.endsWith(".bat") || filename.endsWith(".com")) {
-                    score += 3.0;
+                    score += DANGEROUS_ATTACHMENT_SCORE;
                 }
             }
         }
@@ -354,104 +558,137 @@ public class AntiSpamService {
     }
     
     /**
-     * 应用自定义规则
+     * 附件阶段的分数上界：数量超过5个加1分，每个附件最多再加3分
+     */
+    private static double maxAttachmentScore(EmailMessage message) {
+        if (message.getAttachments() == null) {
+            return 0.0;
+        }
+        int attachmentCount = message.getAttachments().size();
+        return (attachmentCount > 5 ? ATTACHMENT_COUNT_SCORE : 0.0) + DANGEROUS_ATTACHMENT_SCORE * attachmentCount;
+    }
+    
+    /**
+     * 应用自定义规则（预编译规则集，每个字段扫描一遍）
      */
     private double applyCustomRules(EmailMessage message) {
-        double score = 0.0;
-        
-        List<SpamFilterRule> rules = ruleRepository.findActiveRules();
+        return spamRuleEngine.evaluate(message);
+    }
+    
+    /**
+     * 检查重复内容：是否有长度超过3的单词（忽略大小写）出现超过10次
+     * 逐字符切分单词并就地计算哈希，计数记在固定大小的count-min草图中（保守更新，只会高估）。
+     * 估计值超过阈值时对该单词在全文中精确计数一次，确认后立即返回，否则记下该单词继续；
+     * 精确计数次数有上限，超出后直接采用估计值。不拆分正文，也不为每封邮件建立单词表
+     */
+    private boolean hasRepetitiveContent(String content) {
+        if (content.length() < 100) return false;
         
-        for (SpamFilterRule rule : rules) {
-            if (evaluateRule(rule, message)) {
-                score += rule.getScoreModifier();
+        int[] sketch = new int[REPEAT_SKETCH_DEPTH * REPEAT_SKETCH_WIDTH];
+        long[] rejected = new long[REPEAT_MAX_VERIFICATIONS];
+        int verifications = 0;
+        int length = content.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && isRegexWhitespace(content.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            long hash = 0xcbf29ce484222325L;
+            while (i < length && !isRegexWhitespace(content.charAt(i))) {
+                hash = (hash ^ Character.toLowerCase(content.charAt(i))) * 0x100000001b3L;
+                i++;
+            }
+            if (i - start > 3 && addToSketch(sketch, hash) > REPEAT_WORD_LIMIT
+                    && !isRejected(rejected, verifications, hash)) {
+                if (verifications == REPEAT_MAX_VERIFICATIONS
+                        || countWord(content, start, i) > REPEAT_WORD_LIMIT) {
+                    return true;
+                }
+                rejected[verifications++] = hash;
             }
         }
-        
-        return score;
+        return false;
     }
     
-    /**
-     * 评估自定义规则
-     */
-    private boolean evaluateRule(SpamFilterRule rule, EmailMessage message) {
-        try {
-            String field = rule.getFieldName();
-            String pattern = rule.getPattern();
-            String operator = rule.getOperator();
-            
-            String fieldValue = getMessageFieldValue(message, field);
-            if (fieldValue == null) fieldValue = "";
-            
-            switch (operator.toLowerCase()) {
-                case "contains":
-                    return fieldValue.toLowerCase().contains(pattern.toLowerCase());
-                case "equals":
-                    return fieldValue.equalsIgnoreCase(pattern);
-                case "regex":
-                    return Pattern.compile(pattern, Pattern.CASE_INSENSITIVE).matcher(fieldValue).find();
-                case "not_contains":
-                    return !fieldValue.toLowerCase().contains(pattern.toLowerCase());
-                default:
-                    return false;
+    private static boolean isRejected(long[] rejected, int count, long hash) {
+        for (int i = 0; i < count; i++) {
+            if (rejected[i] == hash) {
+                return true;
             }
-        } catch (Exception e) {
-            logger.warn("规则评估失败: {}", rule.getRuleName(), e);
-            return false;
         }
+        return false;
     }
     
     /**
-     * 获取邮件字段值
+     * 全文中与content[wordStart, wordEnd)相同（忽略大小写）的单词个数
      */
-    private String getMessageFieldValue(EmailMessage message, String field) {
-        switch (field.toLowerCase()) {
-            case "subject":
-                return message.getSubject();
-            case "from":
-                return message.getFromAddress();
-            case "to":
-                return message.getToAddresses();
-            case "body":
-                return message.getBodyText();
-            case "body_html":
-                return message.getBodyHtml();
-            default:
-                return "";
+    private static int countWord(String content, int wordStart, int wordEnd) {
+        int wordLength = wordEnd - wordStart;
+        int length = content.length();
+        int count = 0;
+        int i = 0;
+        while (i < length) {
+            while (i < length && isRegexWhitespace(content.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && !isRegexWhitespace(content.charAt(i))) {
+                i++;
+            }
+            if (i - start == wordLength && content.regionMatches(true, start, content, wordStart, wordLength)) {
+                count++;
+            }
         }
+        return count;
     }
     
     /**
-     * 检查重复内容
+     * 计入一次出现并返回该单词的估计次数
      */
-    private boolean hasRepetitiveContent(String content) {
-        if (content.length() < 100) return false;
-        
-        String[] words = content.split("\\s+");
-        Map<String, Integer> wordCount = new HashMap<>();
-        
-        for (String word : words) {
-            if (word.length() > 3) {
-                wordCount.put(word.toLowerCase(), wordCount.getOrDefault(word.toLowerCase(), 0) + 1);
+    private static int addToSketch(int[] sketch, long hash) {
+        // FNV的低位只由输入的低位决定，先做一次64位混合再取行下标
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < REPEAT_SKETCH_DEPTH; row++) {
+            estimate = Math.min(estimate, sketch[row * REPEAT_SKETCH_WIDTH + ((h1 + row * h2) & (REPEAT_SKETCH_WIDTH - 1))]);
+        }
+        estimate++;
+        for (int row = 0; row < REPEAT_SKETCH_DEPTH; row++) {
+            int cell = row * REPEAT_SKETCH_WIDTH + ((h1 + row * h2) & (REPEAT_SKETCH_WIDTH - 1));
+            if (sketch[cell] < estimate) {
+                sketch[cell] = estimate;
             }
         }
-        
-        // 检查是否有单词重复超过10次
-        return wordCount.values().stream().anyMatch(count -> count > 10);
+        return estimate;
+    }
+    
+    /**
+     * 与正则\s一致：空格、\t、\n、\x0B、\f、\r
+     */
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
     }
     
     /**
      * 记录检测日志
      */
     private void logDetection(EmailMessage message, SpamDetectionResult result) {
+        if (message.getId() == null) {
+            return; // 未持久化的邮件没有可引用的message_id
+        }
         try {
-            SpamDetectionLog log = new SpamDetectionLog();
-            log.setMessage(message);
-            log.setSpamScore(result.getSpamScore());
-            log.setIsSpam(result.isSpam());
-            log.setDetectionDetails(result.getDetails());
-            log.setDetectedAt(LocalDateTime.now());
-            
-            detectionLogRepository.save(log);
+            // 垃圾邮件判定的日志优先保留
+            auditLogSink.submit(INSERT_DETECTION_LOG_SQL, new Object[] {
+                message.getId(), result.getSpamScore(), result.isSpam(), result.getDetails(), false,
+                Timestamp.valueOf(LocalDateTime.now())
+            }, result.isSpam());
         } catch (Exception e) {
             logger.error("保存垃圾邮件检测日志失败", e);
         }
@@ -472,8 +709,9 @@ public class AntiSpamService {
         message.setIsSpam(isSpam);
         messageRepository.save(message);
         
-        // 这里可以实现机器学习算法来改进检测
-        // 简化实现，仅记录用户反馈
+        // 增量训练贝叶斯分类器
+        bayesSpamClassifier.learn(message, isSpam);
+        
         try {
             SpamDetectionLog log = new SpamDetectionLog();
             log.setMessage(message);
@@ -514,6 +752,71 @@ public class AntiSpamService {
     
     // 内部数据类
     
+    /**
+     * 评分阶段：分数区间用于提前结束判断，可以随本封邮件变化（如附件数量），signed阶段的负分也计入总分
+     */
+    private static final class ScoringStage {
+        private final String name;
+        private final String label;
+        private final boolean signed;
+        private final ToDoubleFunction<StageInput> minScore;
+        private final ToDoubleFunction<StageInput> maxScore;
+        private final ToDoubleFunction<StageInput> scorer;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong skipped = new AtomicLong();
+        private final AtomicLong timeouts = new AtomicLong();
+        
+        ScoringStage(String name, String label, boolean signed,
+                     ToDoubleFunction<StageInput> minScore, ToDoubleFunction<StageInput> maxScore,
+                     ToDoubleFunction<StageInput> scorer) {
+            this.name = name;
+            this.label = label;
+            this.signed = signed;
+            this.minScore = minScore;
+            this.maxScore = maxScore;
+            this.scorer = scorer;
+        }
+        
+        double score(StageInput input) {
+            long start = System.nanoTime();
+            try {
+                return scorer.applyAsDouble(input);
+            } finally {
+                latency.recordNanos(System.nanoTime() - start);
+            }
+        }
+    }
+    
+    /**
+     * 阶段输入：正文在调用线程中取出，并行阶段不读取实体的懒加载关联（持久化上下文不是线程安全的）
+     */
+    private static final class StageInput {
+        private final EmailMessage message;
+        private final String bodyText;
+        private final String bodyHtml;
+        
+        StageInput(EmailMessage message) {
+            this.message = message;
+            this.bodyText = message.getBodyText();
+            this.bodyHtml = message.getBodyHtml();
+        }
+    }
+    
+    /**
+     * 单封邮件的评分进度
+     */
+    private static final class ScoringRun {
+        private final StageInput input;
+        private final boolean[] done;
+        private final List<String> reasons = new ArrayList<>();
+        private double totalScore;
+        
+        ScoringRun(StageInput input, int stageCount) {
+            this.input = input;
+            this.done = new boolean[stageCount];
+        }
+    }
+    
     /**
      * 垃圾邮件检测结果
      */
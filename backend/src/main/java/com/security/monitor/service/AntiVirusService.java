@@ -15,10 +15,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.MessageDigest;
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.regex.Pattern;
 
 /**
  * 防病毒扫描服务
@@ -36,6 +36,12 @@ public class AntiVirusService {
     @Autowired
     private VirusScanLogRepository scanLogRepository;
     
+    @Autowired
+    private AuditLogSink auditLogSink;
+    
+    @Autowired
+    private VirusSignatureScanner virusSignatureScanner;
+    
     @Autowired
     private EmailAttachmentRepository attachmentRepository;
     
@@ -51,6 +57,12 @@ public class AntiVirusService {
     @Value("${app.antivirus.scan-timeout:30000}") // 30秒
     private long scanTimeoutMs;
     
+    private static final String INSERT_SCAN_LOG_SQL = "INSERT INTO virus_scan_logs "
+            + "(message_id, scan_status, threat_found, threats_found, files_scanned, scan_details, quarantined_files, scanned_at) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    // 与virus_scan_logs.scan_details列长度一致
+    private static final int MAX_SCAN_DETAILS_LENGTH = 1000;
+    
     // 危险文件扩展名
     private static final Set<String> DANGEROUS_EXTENSIONS = Set.of(
         ".exe", ".bat", ".com", ".cmd", ".scr", ".pif", ".vbs", ".vbe", 
@@ -64,15 +76,6 @@ public class AntiVirusService {
         "application/vnd.microsoft.portable-executable"
     );
     
-    // 病毒特征码（简化版本，实际应该从病毒定义库加载）
-    private static final Map<String, String> VIRUS_SIGNATURES = Map.of(
-        "EICAR-TEST-SIGNATURE", "X5O!P%@AP[4\\PZX54(P^)7CC)7}$EICAR-STANDARD-ANTIVIRUS-TEST-FILE!$H+H*",
-        "JS-MALWARE-1", "eval(unescape(",
-        "VBA-MALWARE-1", "Auto_Open()",
-        "PDF-MALWARE-1", "/JavaScript",
-        "DOC-MALWARE-1", "macros"
-    );
-    
     /**
      * 扫描邮件附件
      */
@@ -160,11 +163,11 @@ public class AntiVirusService {
             
             // 4. 文件内容扫描
             if (Files.exists(Paths.get(attachment.getStoragePath()))) {
-                ScanStatus contentScanResult = scanFileContent(attachment.getStoragePath());
+                VirusSignatureScanner.SignatureScanResult contentScanResult = scanFileContent(attachment.getStoragePath());
                 
-                if (contentScanResult == ScanStatus.INFECTED) {
+                if (contentScanResult != null && contentScanResult.isInfected()) {
                     result.setStatus(ScanStatus.INFECTED);
-                    result.setThreatName("发现病毒特征码");
+                    result.setThreatName(contentScanResult.getThreatName());
                     
                     // 隔离文件
                     quarantineFile(attachment);
@@ -201,55 +204,15 @@ public class AntiVirusService {
     }
     
     /**
-     * 扫描文件内容
+     * 扫描文件内容（流式，内存占用与文件大小无关），读取失败时返回null
      */
-    private ScanStatus scanFileContent(String filePath) {
+    private VirusSignatureScanner.SignatureScanResult scanFileContent(String filePath) {
         try {
-            byte[] fileContent = Files.readAllBytes(Paths.get(filePath));
-            String contentString = new String(fileContent);
-            
-            // 检查病毒特征码
-            for (Map.Entry<String, String> signature : VIRUS_SIGNATURES.entrySet()) {
-                if (contentString.contains(signature.getValue())) {
-                    logger.warn("发现病毒特征码: {} in file: {}", signature.getKey(), filePath);
-                    return ScanStatus.INFECTED;
-                }
-            }
-            
-            // 检查可疑模式
-            if (hasSuspiciousPatterns(contentString)) {
-                return ScanStatus.SUSPICIOUS;
-            }
-            
-            return ScanStatus.CLEAN;
-            
+            return virusSignatureScanner.scan(Paths.get(filePath));
         } catch (Exception e) {
             logger.error("读取文件内容失败: {}", filePath, e);
-            return ScanStatus.ERROR;
-        }
-    }
-    
-    /**
-     * 检查可疑模式
-     */
-    private boolean hasSuspiciousPatterns(String content) {
-        // PowerShell恶意代码模式
-        Pattern[] suspiciousPatterns = {
-            Pattern.compile("powershell.*-encodedcommand", Pattern.CASE_INSENSITIVE),
-            Pattern.compile("invoke-expression", Pattern.CASE_INSENSITIVE),
-            Pattern.compile("downloadstring", Pattern.CASE_INSENSITIVE),
-            Pattern.compile("base64.*decode", Pattern.CASE_INSENSITIVE),
-            Pattern.compile("eval\\s*\\(", Pattern.CASE_INSENSITIVE),
-            Pattern.compile("document\\.write", Pattern.CASE_INSENSITIVE)
-        };
-        
-        for (Pattern pattern : suspiciousPatterns) {
-            if (pattern.matcher(content).find()) {
-                return true;
-            }
+            return null;
         }
-        
-        return false;
     }
     
     /**
@@ -365,6 +328,8 @@ public class AntiVirusService {
                 }
             }
             
+            virusSignatureScanner.reloadSignatures();
+            
             logger.info("病毒定义库更新完成");
             
         } catch (Exception e) {
@@ -376,22 +341,26 @@ public class AntiVirusService {
      * 记录扫描日志
      */
     private void logScanResult(EmailMessage message, ScanResult result) {
+        if (message.getId() == null) {
+            return; // 未持久化的邮件没有可引用的message_id
+        }
         try {
-            VirusScanLog log = new VirusScanLog();
-            log.setMessage(message);
-            log.setScanStatus(result.getStatus().toString());
-            log.setThreatFound(result.getStatus() == ScanStatus.INFECTED);
-            log.setScanDetails(result.getDetails());
-            log.setScannedAt(LocalDateTime.now());
-            
+            int filesScanned = 0;
+            int threatsFound = 0;
             if (result.getAttachmentResults() != null) {
-                log.setFilesScanned(result.getAttachmentResults().size());
-                log.setThreatsFound((int) result.getAttachmentResults().stream()
+                filesScanned = result.getAttachmentResults().size();
+                threatsFound = (int) result.getAttachmentResults().stream()
                     .filter(r -> r.getStatus() == ScanStatus.INFECTED)
-                    .count());
+                    .count();
             }
             
-            scanLogRepository.save(log);
+            // 感染和扫描出错的日志不参与采样
+            boolean threatFound = result.getStatus() == ScanStatus.INFECTED;
+            auditLogSink.submit(INSERT_SCAN_LOG_SQL, new Object[] {
+                message.getId(), result.getStatus().toString(), threatFound, threatsFound, filesScanned,
+                AuditLogSink.truncate(result.getDetails(), MAX_SCAN_DETAILS_LENGTH), 0,
+                Timestamp.valueOf(LocalDateTime.now())
+            }, result.getStatus() != ScanStatus.CLEAN);
             
         } catch (Exception e) {
             logger.error("保存扫描日志失败", e);
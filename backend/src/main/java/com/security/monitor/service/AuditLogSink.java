@@ -0,0 +1,296 @@
+package com.security.monitor.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.BatchUpdateException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 邮件处理审计日志的异步写入器
+ * 反垃圾、病毒扫描、Sieve过滤和邮件规则的执行日志放入有界环形队列，由单独的写线程攒批后按SQL分组JDBC批量插入
+ * （实体使用IDENTITY主键，Hibernate无法批量插入）。有事务时在提交后入队，避免引用未提交的邮件。
+ * 队列超过采样水位后只保留重要日志（命中、失败、感染等）并对其余日志按比例采样，队列满时丢弃并计数；
+ * 批量插入因个别行失败时，只把未成功的行逐条重试，失败计数只包含真正写不进去的行；关闭时停止接收并排空队列
+ */
+@Component
+public class AuditLogSink implements OperationalStatusSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditLogSink.class);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Value("${app.audit-log.queue-capacity:50000}")
+    private int queueCapacity;
+
+    // 每批最多写入的日志条数
+    @Value("${app.audit-log.flush-size:500}")
+    private int flushSize;
+
+    // 日志从入队到写入的最长等待时间
+    @Value("${app.audit-log.flush-latency-ms:200}")
+    private long flushLatencyMs;
+
+    // 队列占用超过该比例后开始对普通日志采样
+    @Value("${app.audit-log.sample-watermark:0.8}")
+    private double sampleWatermark;
+
+    // 采样时每N条普通日志保留1条
+    @Value("${app.audit-log.sample-every:10}")
+    private int sampleEvery;
+
+    @Value("${app.audit-log.shutdown-timeout-ms:10000}")
+    private long shutdownTimeoutMs;
+
+    private BlockingQueue<AuditRecord> queue;
+    private int sampleThreshold;
+    private Thread writer;
+    private volatile boolean running;
+
+    private final AtomicLong queuedRecords = new AtomicLong();
+    private final AtomicLong writtenRecords = new AtomicLong();
+    private final AtomicLong sampledOutRecords = new AtomicLong();
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private final AtomicLong failedRecords = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong samplingCounter = new AtomicLong();
+    private final AtomicLong lastBatchSize = new AtomicLong();
+    private final AtomicLong lastBatchMillis = new AtomicLong();
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        sampleThreshold = (int) (queueCapacity * sampleWatermark);
+        running = true;
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("audit-log-writer-");
+        threadFactory.setDaemon(true);
+        writer = threadFactory.newThread(this::runWriter);
+        writer.start();
+        logger.info("审计日志写入器已启动: queueCapacity={}, flushSize={}, flushLatencyMs={}, sampleThreshold={}",
+                queueCapacity, flushSize, flushLatencyMs, sampleThreshold);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        try {
+            // 写线程在队列排空后退出
+            writer.join(shutdownTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            logger.warn("审计日志写入器未在{}ms内排空，剩余{}条日志未写入", shutdownTimeoutMs, queue.size());
+        }
+    }
+
+    /**
+     * 提交一条日志，永不阻塞调用方
+     *
+     * @param sql       INSERT语句
+     * @param args      语句参数
+     * @param important 重要日志不参与采样，只在队列满时丢弃
+     */
+    public void submit(String sql, Object[] args, boolean important) {
+        AuditRecord record = new AuditRecord(sql, args, important);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(record);
+                }
+            });
+        } else {
+            enqueue(record);
+        }
+    }
+
+    @Override
+    public String getStatusName() {
+        return "audit-log-sink";
+    }
+
+    @Override
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("running", running);
+        status.put("queueDepth", queue.size());
+        status.put("queueCapacity", queueCapacity);
+        status.put("sampleThreshold", sampleThreshold);
+        status.put("flushSize", flushSize);
+        status.put("flushLatencyMs", flushLatencyMs);
+        status.put("queuedRecords", queuedRecords.get());
+        status.put("writtenRecords", writtenRecords.get());
+        status.put("sampledOutRecords", sampledOutRecords.get());
+        status.put("droppedRecords", droppedRecords.get());
+        status.put("failedRecords", failedRecords.get());
+        status.put("batches", batches.get());
+        status.put("lastBatchSize", lastBatchSize.get());
+        status.put("lastBatchMillis", lastBatchMillis.get());
+        return status;
+    }
+
+    private void enqueue(AuditRecord record) {
+        if (!running) {
+            droppedRecords.incrementAndGet();
+            logger.warn("审计日志写入器已关闭，丢弃日志");
+            return;
+        }
+        if (!record.important && queue.size() >= sampleThreshold
+                && samplingCounter.incrementAndGet() % sampleEvery != 0) {
+            sampledOutRecords.incrementAndGet();
+            return;
+        }
+        if (!queue.offer(record)) {
+            long dropped = droppedRecords.incrementAndGet();
+            if (dropped % 1000 == 1) {
+                logger.warn("审计日志队列已满，已丢弃{}条日志", dropped);
+            }
+            return;
+        }
+        queuedRecords.incrementAndGet();
+    }
+
+    private void runWriter() {
+        List<AuditRecord> batch = new ArrayList<>(flushSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                AuditRecord first = queue.poll(flushLatencyMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // 凑满一批或等到延迟上限再写
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushLatencyMs);
+                while (batch.size() < flushSize) {
+                    queue.drainTo(batch, flushSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= flushSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    AuditRecord next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                writeBatch(batch);
+                logger.warn("审计日志写入器被中断，剩余{}条日志未写入", queue.size());
+                return;
+            }
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<AuditRecord> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Map<String, List<Object[]>> bySql = new LinkedHashMap<>();
+        for (AuditRecord record : batch) {
+            bySql.computeIfAbsent(record.sql, sql -> new ArrayList<>()).add(record.args);
+        }
+        for (Map.Entry<String, List<Object[]>> entry : bySql.entrySet()) {
+            try {
+                jdbcTemplate.batchUpdate(entry.getKey(), entry.getValue());
+                writtenRecords.addAndGet(entry.getValue().size());
+            } catch (Exception e) {
+                BatchUpdateException batchFailure = findBatchUpdateException(e);
+                if (batchFailure != null) {
+                    // 个别行违反约束等：同组其余行不应跟着丢失
+                    retryFailedRows(entry.getKey(), entry.getValue(), batchFailure.getUpdateCounts());
+                    continue;
+                }
+                // 审计日志是尽力而为的，连接等整体故障不重试，避免数据库故障时无限堆积
+                failedRecords.addAndGet(entry.getValue().size());
+                logger.error("批量写入审计日志失败: {}条, sql={}", entry.getValue().size(), entry.getKey(), e);
+            }
+        }
+        batches.incrementAndGet();
+        lastBatchSize.set(batch.size());
+        lastBatchMillis.set(System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 按驱动返回的更新计数区分已写入和失败的行：计数为EXECUTE_FAILED的行、以及驱动中止批次后未执行的行
+     * 逐条重试一次，仍然失败的才计入失败数
+     */
+    private void retryFailedRows(String sql, List<Object[]> rows, int[] updateCounts) {
+        int written = 0;
+        int failed = 0;
+        Exception lastError = null;
+        for (int i = 0; i < rows.size(); i++) {
+            if (updateCounts != null && i < updateCounts.length && updateCounts[i] != Statement.EXECUTE_FAILED) {
+                written++;
+                continue;
+            }
+            try {
+                jdbcTemplate.update(sql, rows.get(i));
+                written++;
+            } catch (Exception e) {
+                failed++;
+                lastError = e;
+            }
+        }
+        writtenRecords.addAndGet(written);
+        if (failed > 0) {
+            failedRecords.addAndGet(failed);
+            logger.error("批量写入审计日志部分失败: {}/{}条, sql={}", failed, rows.size(), sql, lastError);
+        }
+    }
+
+    private static BatchUpdateException findBatchUpdateException(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BatchUpdateException) {
+                return (BatchUpdateException) cause;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 截断超过列长度的文本，不拆开代理对
+     */
+    public static String truncate(String value, int maxLength) {
+        if (value == null || value.length() <= maxLength) {
+            return value;
+        }
+        int end = Character.isHighSurrogate(value.charAt(maxLength - 1)) ? maxLength - 1 : maxLength;
+        return value.substring(0, end);
+    }
+
+    private static final class AuditRecord {
+        private final String sql;
+        private final Object[] args;
+        private final boolean important;
+
+        AuditRecord(String sql, Object[] args, boolean important) {
+            this.sql = sql;
+            this.args = args;
+            this.important = important;
+        }
+    }
+}
@@ -0,0 +1,839 @@
+package com.security.monitor.service;
+
+import com.security.monitor.model.EmailMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * 增量朴素贝叶斯垃圾邮件分类器
+ * 主题、正文和发件人切分为词（中日韩文字按相邻两字切分），每个词用64位哈希表示，
+ * 词频保存在开放寻址的原始类型数组中（哈希 -> 垃圾邮件数/正常邮件数）。每次learnSpam只累加该邮件的词，无需重新训练；
+ * 记录每封已学习邮件的类别，同一封邮件改标时先撤销原类别再学习新类别，重复标记不重复计数。
+ * 分类使用Robinson的词概率平滑和Fisher卡方合并，只取偏离0.5最多的若干词；分词缓冲按线程复用，分类过程基本不分配对象。
+ * 持久化为紧凑的二进制快照加追加写的增量日志：每次学习追加一条带序号和CRC的记录并fsync，
+ * 快照头记录已包含的最大序号，重放时跳过快照已包含的记录，末尾不完整的记录在启动时截掉；快照或日志损坏时从可用部分恢复
+ */
+@Component
+public class BayesSpamClassifier {
+
+    private static final Logger logger = LoggerFactory.getLogger(BayesSpamClassifier.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x42415953; // "BAYS"
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final String SNAPSHOT_FILE = "bayes.snapshot";
+    private static final String DELTA_LOG_FILE = "bayes.delta";
+
+    // 增量记录的操作：bit0为学习的类别，bit1表示先撤销相反类别（改标）
+    private static final int OP_SPAM = 1;
+    private static final int OP_RELABEL = 2;
+    // 序号8字节 + 邮件ID 8字节 + 操作1字节 + 词数4字节 + CRC 4字节
+    private static final int RECORD_OVERHEAD = 25;
+    private static final long NO_MESSAGE_ID = 0L;
+
+    private static final int MAX_TOKENS = 2048;
+    private static final int MIN_TOKEN_LENGTH = 2;
+    private static final int MAX_TOKEN_LENGTH = 40;
+    private static final int MAX_DISCRIMINATORS = 150;
+    private static final double MIN_DEVIATION = 0.1;
+    // Robinson平滑：未知词的先验概率和强度
+    private static final double UNKNOWN_PROBABILITY = 0.5;
+    private static final double UNKNOWN_STRENGTH = 1.0;
+
+    private static final long SEED_SUBJECT = 0x9E3779B97F4A7C15L;
+    private static final long SEED_BODY = 0xC2B2AE3D27D4EB4FL;
+    private static final long SEED_FROM = 0x165667B19E3779F9L;
+    private static final long EMPTY = 0L;
+
+    @Value("${app.antispam.bayes.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.antispam.bayes.storage-path:/var/lib/security-monitor/bayes}")
+    private String storagePath;
+
+    @Value("${app.antispam.bayes.initial-capacity:65536}")
+    private int initialCapacity;
+
+    // 词表最大容量（槽位数），达到后不再加入新词
+    @Value("${app.antispam.bayes.max-capacity:4194304}")
+    private int maxCapacity;
+
+    // 记录类别的已学习邮件数上限，超过后淘汰最早的记录（之后再改标按新邮件学习）
+    @Value("${app.antispam.bayes.max-tracked-messages:1000000}")
+    private int maxTrackedMessages;
+
+    // 两类样本都达到该数量后才参与评分
+    @Value("${app.antispam.bayes.min-training:20}")
+    private int minTraining;
+
+    // 分类概率1.0对应的加分，概率0.0对应同等减分
+    @Value("${app.antispam.bayes.weight:3.0}")
+    private double weight;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // 保护增量日志；学习时先取该锁再取写锁，日志顺序与序号一致，写日志和fsync时不持有写锁
+    private final Object logLock = new Object();
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    // 开放寻址词表，keys中0表示空槽位
+    private long[] keys;
+    private int[] spamCounts;
+    private int[] hamCounts;
+    private int size;
+    private long spamMessages;
+    private long hamMessages;
+    private long droppedTokens;
+    // 邮件ID -> 已学习的类别（true为垃圾邮件）
+    private Map<Long, Boolean> learnedLabels;
+    // 最后一次学习的序号
+    private long sequence;
+
+    private FileChannel deltaLog;
+    // 已写入增量日志的最大序号
+    private long loggedSequence;
+    // 最新快照包含的最大序号
+    private long snapshotSequence;
+
+    @PostConstruct
+    public void init() {
+        reset();
+        if (!enabled) {
+            return;
+        }
+        Path directory = Paths.get(storagePath);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            logger.error("创建贝叶斯分类器目录失败，学习结果不会持久化: {}", directory, e);
+            return;
+        }
+
+        Path snapshotFile = directory.resolve(SNAPSHOT_FILE);
+        try {
+            loadSnapshot(snapshotFile);
+        } catch (IOException e) {
+            // 损坏的快照移到一边保留现场，模型从空开始，增量日志照常重放
+            logger.error("加载贝叶斯快照失败，从空模型开始并重放增量日志: {}", snapshotFile, e);
+            reset();
+            quarantine(snapshotFile);
+        }
+
+        Path logFile = directory.resolve(DELTA_LOG_FILE);
+        long replayed = 0;
+        try {
+            replayed = replayDeltaLog(logFile);
+        } catch (IOException e) {
+            logger.error("重放贝叶斯增量日志失败: {}", logFile, e);
+        }
+        try {
+            deltaLog = FileChannel.open(logFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.error("打开贝叶斯增量日志失败，学习结果不会持久化: {}", logFile, e);
+        }
+        logger.info("贝叶斯分类器已加载: {} 个词, 垃圾邮件样本 {}, 正常邮件样本 {}, 快照序号 {}, 重放增量 {}",
+                size, spamMessages, hamMessages, snapshotSequence, replayed);
+    }
+
+    /**
+     * 学习一封用户标记的邮件，在当前事务提交后生效
+     */
+    public void learn(EmailMessage message, boolean isSpam) {
+        if (!enabled) {
+            return;
+        }
+        Scratch buffers = scratch.get();
+        long[] tokens = Arrays.copyOf(buffers.tokens, tokenize(message, buffers.tokens));
+        long messageId = message.getId() != null ? message.getId() : NO_MESSAGE_ID;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(tokens, messageId, isSpam);
+                }
+            });
+        } else {
+            apply(tokens, messageId, isSpam);
+        }
+    }
+
+    /**
+     * 返回邮件为垃圾邮件的概率(0-1)，模型训练样本不足时返回-1
+     */
+    public double classify(EmailMessage message) {
+        if (!enabled) {
+            return -1;
+        }
+        Scratch buffers = scratch.get();
+        int tokenCount = tokenize(message, buffers.tokens);
+        double[] probabilities = buffers.probabilities;
+        int candidates = 0;
+
+        lock.readLock().lock();
+        try {
+            if (spamMessages < minTraining || hamMessages < minTraining) {
+                return -1;
+            }
+            double spamTotal = spamMessages;
+            double hamTotal = hamMessages;
+            for (int i = 0; i < tokenCount; i++) {
+                int slot = findSlot(buffers.tokens[i]);
+                if (slot < 0) {
+                    continue;
+                }
+                int spam = spamCounts[slot];
+                int ham = hamCounts[slot];
+                if (spam + ham == 0) {
+                    continue;
+                }
+                double spamRatio = spam / spamTotal;
+                double hamRatio = ham / hamTotal;
+                double p = spamRatio / (spamRatio + hamRatio);
+                int n = spam + ham;
+                double f = (UNKNOWN_STRENGTH * UNKNOWN_PROBABILITY + n * p) / (UNKNOWN_STRENGTH + n);
+                if (Math.abs(f - 0.5) >= MIN_DEVIATION) {
+                    probabilities[candidates++] = f;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return combine(probabilities, candidates);
+    }
+
+    /**
+     * 按分类概率换算的垃圾邮件分数，模型不可用时为0
+     */
+    public double score(EmailMessage message) {
+        double probability = classify(message);
+        return probability < 0 ? 0.0 : (probability - 0.5) * 2 * weight;
+    }
+
+    /**
+     * 分数的绝对值上限，评分流水线据此判断能否提前结束
+     */
+    public double getMaxScore() {
+        return enabled ? weight : 0.0;
+    }
+
+    /**
+     * 定时写入快照，日志中的记录都已包含在快照中时清空日志
+     * 读锁只在复制词表时持有，写文件期间学习和分类都不受影响
+     */
+    @Scheduled(fixedDelayString = "${app.antispam.bayes.snapshot-interval-ms:600000}")
+    public synchronized void snapshot() {
+        if (!enabled || deltaLog == null) {
+            return;
+        }
+        ModelCopy copy;
+        lock.readLock().lock();
+        try {
+            if (sequence == snapshotSequence) {
+                return;
+            }
+            copy = new ModelCopy();
+        } finally {
+            lock.readLock().unlock();
+        }
+        Path directory = Paths.get(storagePath);
+        try {
+            writeSnapshot(directory.resolve(SNAPSHOT_FILE), copy);
+            snapshotSequence = copy.sequence;
+            synchronized (logLock) {
+                // 复制之后写入的记录还不在快照中，留到下一次快照再清空
+                if (loggedSequence <= copy.sequence) {
+                    deltaLog.truncate(0);
+                    deltaLog.force(true);
+                }
+            }
+            logger.info("贝叶斯分类器快照已写入: {} 个词, 序号 {}, 词表已满丢弃 {} 次",
+                    copy.size, copy.sequence, droppedTokens);
+        } catch (IOException e) {
+            logger.error("写入贝叶斯分类器快照失败", e);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        snapshot();
+        synchronized (logLock) {
+            if (deltaLog != null) {
+                try {
+                    deltaLog.close();
+                } catch (IOException e) {
+                    logger.warn("关闭贝叶斯增量日志失败", e);
+                }
+            }
+        }
+    }
+
+    private void apply(long[] tokens, long messageId, boolean isSpam) {
+        synchronized (logLock) {
+            long recordSequence;
+            int op;
+            lock.writeLock().lock();
+            try {
+                Boolean previous = messageId != NO_MESSAGE_ID ? learnedLabels.get(messageId) : null;
+                if (previous != null && previous == isSpam) {
+                    return;
+                }
+                op = (isSpam ? OP_SPAM : 0) | (previous != null ? OP_RELABEL : 0);
+                applyOperation(tokens, messageId, op);
+                recordSequence = ++sequence;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            appendDelta(recordSequence, messageId, op, tokens);
+        }
+    }
+
+    /**
+     * 执行一条学习操作（调用方持有写锁，或处于启动阶段）
+     */
+    private void applyOperation(long[] tokens, long messageId, int op) {
+        boolean isSpam = (op & OP_SPAM) != 0;
+        if ((op & OP_RELABEL) != 0) {
+            unlearnTokens(tokens, !isSpam);
+        }
+        learnTokens(tokens, isSpam);
+        if (messageId != NO_MESSAGE_ID) {
+            learnedLabels.put(messageId, isSpam);
+        }
+    }
+
+    private void learnTokens(long[] tokens, boolean isSpam) {
+        if (isSpam) {
+            spamMessages++;
+        } else {
+            hamMessages++;
+        }
+        for (long token : tokens) {
+            int slot = findOrInsertSlot(token);
+            if (slot < 0) {
+                droppedTokens++;
+                continue;
+            }
+            if (isSpam) {
+                spamCounts[slot] = saturatedIncrement(spamCounts[slot]);
+            } else {
+                hamCounts[slot] = saturatedIncrement(hamCounts[slot]);
+            }
+        }
+    }
+
+    private void unlearnTokens(long[] tokens, boolean wasSpam) {
+        if (wasSpam) {
+            spamMessages = Math.max(0, spamMessages - 1);
+        } else {
+            hamMessages = Math.max(0, hamMessages - 1);
+        }
+        for (long token : tokens) {
+            int slot = findSlot(token);
+            if (slot < 0) {
+                continue;
+            }
+            if (wasSpam) {
+                spamCounts[slot] = Math.max(0, spamCounts[slot] - 1);
+            } else {
+                hamCounts[slot] = Math.max(0, hamCounts[slot] - 1);
+            }
+        }
+    }
+
+    /**
+     * 增量记录：8字节序号 + 8字节邮件ID + 1字节操作 + 4字节词数 + 每个词8字节哈希 + 4字节CRC32，写入后fsync
+     * 调用方持有logLock
+     */
+    private void appendDelta(long recordSequence, long messageId, int op, long[] tokens) {
+        if (deltaLog == null) {
+            return;
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_OVERHEAD + 8 * tokens.length);
+        record.putLong(recordSequence);
+        record.putLong(messageId);
+        record.put((byte) op);
+        record.putInt(tokens.length);
+        for (long token : tokens) {
+            record.putLong(token);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        long length = -1;
+        try {
+            length = deltaLog.size();
+            while (record.hasRemaining()) {
+                deltaLog.write(record);
+            }
+            deltaLog.force(false);
+            loggedSequence = recordSequence;
+        } catch (IOException e) {
+            logger.error("写入贝叶斯增量日志失败", e);
+            // 去掉写了一半的记录，否则其后的记录在重放时都会被丢弃
+            if (length >= 0) {
+                try {
+                    deltaLog.truncate(length);
+                } catch (IOException truncateFailure) {
+                    logger.warn("回退贝叶斯增量日志失败", truncateFailure);
+                }
+            }
+        }
+    }
+
+    /**
+     * 重放快照之后的增量记录，遇到不完整或校验失败的记录即停止，并把文件截断到最后一条完整记录
+     */
+    private long replayDeltaLog(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long replayed = 0;
+        long validLength = 0;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(
+                new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file)), crc))) {
+            while (true) {
+                long recordSequence;
+                long messageId;
+                int op;
+                long[] tokens;
+                crc.reset();
+                try {
+                    recordSequence = in.readLong();
+                    messageId = in.readLong();
+                    op = in.readUnsignedByte();
+                    int count = in.readInt();
+                    if (count < 0 || count > MAX_TOKENS || op > (OP_SPAM | OP_RELABEL)) {
+                        logger.warn("贝叶斯增量日志记录损坏，停止重放: {}", file);
+                        break;
+                    }
+                    tokens = new long[count];
+                    for (int i = 0; i < count; i++) {
+                        tokens[i] = in.readLong();
+                    }
+                    int expected = (int) crc.getValue();
+                    if (in.readInt() != expected) {
+                        logger.warn("贝叶斯增量日志记录校验失败，停止重放: {}", file);
+                        break;
+                    }
+                } catch (EOFException e) {
+                    // 末尾不完整的记录（写入时进程退出）
+                    break;
+                }
+                validLength += RECORD_OVERHEAD + 8L * tokens.length;
+                sequence = Math.max(sequence, recordSequence);
+                if (recordSequence <= snapshotSequence) {
+                    // 快照已包含（写完快照后、清空日志前退出）
+                    continue;
+                }
+                applyOperation(tokens, messageId, op);
+                replayed++;
+            }
+        }
+        loggedSequence = sequence;
+
+        long length = Files.size(file);
+        if (validLength < length) {
+            logger.warn("贝叶斯增量日志末尾有 {} 字节不完整的记录，已截断: {}", length - validLength, file);
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+        }
+        return replayed;
+    }
+
+    /**
+     * 快照格式：魔数、版本、序号、两类样本数、词数，然后每个词 [哈希, 垃圾邮件数, 正常邮件数]，
+     * 最后是已学习邮件数和每封邮件的 [ID, 类别]。先写临时文件并fsync，再原子替换
+     */
+    private void writeSnapshot(Path file, ModelCopy copy) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(copy.sequence);
+            out.writeLong(copy.spamMessages);
+            out.writeLong(copy.hamMessages);
+            out.writeInt(copy.size);
+            for (int slot = 0; slot < copy.keys.length; slot++) {
+                if (copy.keys[slot] != EMPTY) {
+                    out.writeLong(copy.keys[slot]);
+                    out.writeInt(copy.spamCounts[slot]);
+                    out.writeInt(copy.hamCounts[slot]);
+                }
+            }
+            out.writeInt(copy.messageIds.length);
+            for (int i = 0; i < copy.messageIds.length; i++) {
+                out.writeLong(copy.messageIds[i]);
+                out.writeBoolean(copy.messageLabels[i]);
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(file.getParent());
+    }
+
+    private void loadSnapshot(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("无法识别的贝叶斯快照格式: " + file);
+            }
+            long snapshotSeq = in.readLong();
+            spamMessages = in.readLong();
+            hamMessages = in.readLong();
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("贝叶斯快照词数无效: " + count);
+            }
+            int capacity = keys.length;
+            while (capacity < maxCapacity && count > capacity * 3 / 4) {
+                capacity <<= 1;
+            }
+            allocate(capacity);
+            for (int i = 0; i < count; i++) {
+                long key = in.readLong();
+                int spam = in.readInt();
+                int ham = in.readInt();
+                int slot = findOrInsertSlot(key);
+                if (slot >= 0) {
+                    spamCounts[slot] = spam;
+                    hamCounts[slot] = ham;
+                }
+            }
+            int labelCount = in.readInt();
+            if (labelCount < 0) {
+                throw new IOException("贝叶斯快照邮件数无效: " + labelCount);
+            }
+            for (int i = 0; i < labelCount; i++) {
+                learnedLabels.put(in.readLong(), in.readBoolean());
+            }
+            sequence = snapshotSeq;
+            snapshotSequence = snapshotSeq;
+        }
+    }
+
+    /**
+     * 损坏的快照改名保留，避免下次快照覆盖
+     */
+    private static void quarantine(Path file) {
+        if (!Files.exists(file)) {
+            return;
+        }
+        Path target = file.resolveSibling(file.getFileName() + ".corrupt-" + System.currentTimeMillis());
+        try {
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+            logger.warn("损坏的贝叶斯快照已移至: {}", target);
+        } catch (IOException e) {
+            logger.warn("移动损坏的贝叶斯快照失败: {}", file, e);
+        }
+    }
+
+    /**
+     * 目录fsync使改名本身持久化，文件系统不支持时忽略
+     */
+    private static void syncDirectory(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.debug("目录fsync失败: {}", directory, e);
+        }
+    }
+
+    /**
+     * 恢复为空模型
+     */
+    private void reset() {
+        allocate(Integer.highestOneBit(Math.max(initialCapacity, 16) - 1) << 1);
+        spamMessages = 0;
+        hamMessages = 0;
+        sequence = 0;
+        snapshotSequence = 0;
+        learnedLabels = new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > maxTrackedMessages;
+            }
+        };
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        spamCounts = new int[capacity];
+        hamCounts = new int[capacity];
+        size = 0;
+    }
+
+    private int findSlot(long key) {
+        int mask = keys.length - 1;
+        int slot = (int) key & mask;
+        while (true) {
+            long existing = keys[slot];
+            if (existing == key) {
+                return slot;
+            }
+            if (existing == EMPTY) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * 查找或插入词，词表已满且无法扩容时返回-1
+     */
+    private int findOrInsertSlot(long key) {
+        int slot = findSlot(key);
+        if (slot >= 0) {
+            return slot;
+        }
+        if (size + 1 > keys.length * 3 / 4) {
+            if (keys.length >= maxCapacity) {
+                return -1;
+            }
+            resize(keys.length << 1);
+        }
+        int mask = keys.length - 1;
+        slot = (int) key & mask;
+        while (keys[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        size++;
+        return slot;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldSpam = spamCounts;
+        int[] oldHam = hamCounts;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = (int) oldKeys[i] & mask;
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                spamCounts[slot] = oldSpam[i];
+                hamCounts[slot] = oldHam[i];
+                size++;
+            }
+        }
+    }
+
+    private static int saturatedIncrement(int count) {
+        return count == Integer.MAX_VALUE ? count : count + 1;
+    }
+
+    /**
+     * Fisher卡方合并：取偏离0.5最多的词，S、H分别为垃圾/正常证据，返回 (1 + S - H) / 2
+     */
+    private static double combine(double[] probabilities, int count) {
+        if (count == 0) {
+            return 0.5;
+        }
+        // 排序后两端就是最极端的概率
+        Arrays.sort(probabilities, 0, count);
+        int low = 0;
+        int high = count - 1;
+        int used = 0;
+        double sumLnF = 0.0;
+        double sumLnNotF = 0.0;
+        while (low <= high && used < MAX_DISCRIMINATORS) {
+            double f;
+            if (0.5 - probabilities[low] >= probabilities[high] - 0.5) {
+                f = probabilities[low++];
+            } else {
+                f = probabilities[high--];
+            }
+            sumLnF += Math.log(f);
+            sumLnNotF += Math.log(1.0 - f);
+            used++;
+        }
+        // 词概率都接近1时Σln(1-f)很小，卡方右尾概率接近0，垃圾邮件证据接近1；正常邮件证据对称
+        double spamEvidence = 1.0 - chiSquaredSurvival(-2.0 * sumLnNotF, 2 * used);
+        double hamEvidence = 1.0 - chiSquaredSurvival(-2.0 * sumLnF, 2 * used);
+        return (1.0 + spamEvidence - hamEvidence) / 2.0;
+    }
+
+    /**
+     * 自由度为偶数的卡方分布右尾概率，在对数空间求和避免下溢
+     */
+    private static double chiSquaredSurvival(double chiSquared, int degrees) {
+        double m = chiSquared / 2.0;
+        if (m <= 0) {
+            return 1.0;
+        }
+        double logM = Math.log(m);
+        int terms = degrees / 2;
+        double logTerm = -m;
+        double maxLog = logTerm;
+        for (int i = 1; i < terms; i++) {
+            logTerm += logM - Math.log(i);
+            maxLog = Math.max(maxLog, logTerm);
+        }
+        double sum = 0.0;
+        logTerm = -m;
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                logTerm += logM - Math.log(i);
+            }
+            sum += Math.exp(logTerm - maxLog);
+        }
+        return Math.min(1.0, Math.exp(maxLog + Math.log(sum)));
+    }
+
+    /**
+     * 把邮件切分为去重后的词哈希，返回词数
+     */
+    private static int tokenize(EmailMessage message, long[] tokens) {
+        int count = tokenize(message.getSubject(), SEED_SUBJECT, tokens, 0);
+        String body = message.getBodyText() != null ? message.getBodyText() : message.getBodyHtml();
+        count = tokenize(body, SEED_BODY, tokens, count);
+        count = tokenize(message.getFromAddress(), SEED_FROM, tokens, count);
+        if (count == 0) {
+            return 0;
+        }
+        Arrays.sort(tokens, 0, count);
+        int unique = 1;
+        for (int i = 1; i < count; i++) {
+            if (tokens[i] != tokens[unique - 1]) {
+                tokens[unique++] = tokens[i];
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * 字母数字组成的词整体取哈希（转小写），中日韩文字取相邻两字；不创建字符串
+     */
+    private static int tokenize(CharSequence text, long seed, long[] tokens, int count) {
+        if (text == null) {
+            return count;
+        }
+        long hash = seed;
+        int length = 0;
+        char previousCjk = 0;
+        for (int i = 0; i <= text.length() && count < tokens.length; i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (isCjk(c)) {
+                count = emitWord(hash, length, tokens, count);
+                hash = seed;
+                length = 0;
+                if (previousCjk != 0 && count < tokens.length) {
+                    tokens[count++] = finish((((seed ^ previousCjk) * 0x100000001B3L) ^ c) * 0x100000001B3L);
+                }
+                previousCjk = c;
+                continue;
+            }
+            previousCjk = 0;
+            if (Character.isLetterOrDigit(c) || c == '$' || c == '\'') {
+                hash = (hash ^ Character.toLowerCase(c)) * 0x100000001B3L;
+                length++;
+            } else {
+                count = emitWord(hash, length, tokens, count);
+                hash = seed;
+                length = 0;
+            }
+        }
+        return count;
+    }
+
+    private static int emitWord(long hash, int length, long[] tokens, int count) {
+        if (length >= MIN_TOKEN_LENGTH && length <= MAX_TOKEN_LENGTH && count < tokens.length) {
+            tokens[count++] = finish(hash);
+        }
+        return count;
+    }
+
+    private static boolean isCjk(char c) {
+        return (c >= 0x4E00 && c <= 0x9FFF)     // 中日韩统一表意文字
+                || (c >= 0x3400 && c <= 0x4DBF) // 扩展A
+                || (c >= 0x3040 && c <= 0x30FF) // 平假名、片假名
+                || (c >= 0xAC00 && c <= 0xD7AF); // 谚文
+    }
+
+    /**
+     * SplitMix64混淆，0保留给空槽位
+     */
+    private static long finish(long hash) {
+        hash ^= hash >>> 30;
+        hash *= 0xBF58476D1CE4E5B9L;
+        hash ^= hash >>> 27;
+        hash *= 0x94D049BB133111EBL;
+        hash ^= hash >>> 31;
+        return hash == EMPTY ? 1L : hash;
+    }
+
+    /**
+     * 快照用的模型副本，在读锁内创建
+     */
+    private final class ModelCopy {
+        private final long[] keys = BayesSpamClassifier.this.keys.clone();
+        private final int[] spamCounts = BayesSpamClassifier.this.spamCounts.clone();
+        private final int[] hamCounts = BayesSpamClassifier.this.hamCounts.clone();
+        private final int size = BayesSpamClassifier.this.size;
+        private final long spamMessages = BayesSpamClassifier.this.spamMessages;
+        private final long hamMessages = BayesSpamClassifier.this.hamMessages;
+        private final long sequence = BayesSpamClassifier.this.sequence;
+        private final long[] messageIds = new long[learnedLabels.size()];
+        private final boolean[] messageLabels = new boolean[learnedLabels.size()];
+
+        ModelCopy() {
+            int i = 0;
+            for (Map.Entry<Long, Boolean> entry : learnedLabels.entrySet()) {
+                messageIds[i] = entry.getKey();
+                messageLabels[i] = entry.getValue();
+                i++;
+            }
+        }
+    }
+
+    /**
+     * 每个线程复用的分词和概率缓冲
+     */
+    private static class Scratch {
+        private final long[] tokens = new long[MAX_TOKENS];
+        private final double[] probabilities = new double[MAX_TOKENS];
+    }
+}
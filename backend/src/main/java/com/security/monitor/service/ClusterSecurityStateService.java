@@ -0,0 +1,624 @@
+package com.security.monitor.service;
+
+import com.security.monitor.util.RateLimiter;
+import com.security.monitor.util.SlidingWindowRateLimiter;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 集群共享的安全状态
+ * 开启后限流计数、攻击计数和IP黑名单保存在现有的Redis连接中，负载均衡后的所有节点共用同一份额度和黑名单：
+ * 限流计数在本地近缓存中累积，按批用Lua脚本原子写入Redis并取回全局计数，接近限额或新窗口的第一个请求直接在Redis中判定；
+ * 攻击计数同样在近缓存中累积并按批写入，请求线程不直接调用Redis。
+ * 黑名单变更写入Redis集合并通过pub/sub广播到其他节点。未开启或Redis不可用时退回到单机状态：
+ * Redis调用失败后断路一段时间，期间限流和计数直接使用本机状态，不再逐个请求等待超时
+ */
+@Service
+public class ClusterSecurityStateService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterSecurityStateService.class);
+
+    // KEYS成对传入（当前窗口键, 上一窗口键），ARGV[1]为过期毫秒数，ARGV[i+1]为第i对的增量；返回每对的当前和上一窗口计数
+    private static final RedisScript<List> SYNC_SCRIPT = new DefaultRedisScript<>(
+            "local result = {}\n" +
+            "for i = 1, #KEYS, 2 do\n" +
+            "  local delta = tonumber(ARGV[(i + 1) / 2 + 1])\n" +
+            "  local current\n" +
+            "  if delta > 0 then\n" +
+            "    current = redis.call('INCRBY', KEYS[i], delta)\n" +
+            "    redis.call('PEXPIRE', KEYS[i], ARGV[1])\n" +
+            "  else\n" +
+            "    current = tonumber(redis.call('GET', KEYS[i]) or '0')\n" +
+            "  end\n" +
+            "  result[#result + 1] = current\n" +
+            "  result[#result + 1] = tonumber(redis.call('GET', KEYS[i + 1]) or '0')\n" +
+            "end\n" +
+            "return result", List.class);
+
+    // KEYS[1]当前窗口键，KEYS[2]上一窗口键；ARGV: 限额, 上一窗口权重, 过期毫秒数, 本地待同步增量
+    // 返回 {是否允许, 当前窗口计数, 上一窗口计数}，待同步增量无论是否允许都会写入
+    private static final RedisScript<List> ACQUIRE_SCRIPT = new DefaultRedisScript<>(
+            "local pending = tonumber(ARGV[4])\n" +
+            "local current = tonumber(redis.call('GET', KEYS[1]) or '0') + pending\n" +
+            "local previous = tonumber(redis.call('GET', KEYS[2]) or '0')\n" +
+            "local allowed = 0\n" +
+            "if current + previous * tonumber(ARGV[2]) + 1 <= tonumber(ARGV[1]) then\n" +
+            "  allowed = 1\n" +
+            "  pending = pending + 1\n" +
+            "  current = current + 1\n" +
+            "end\n" +
+            "if pending > 0 then\n" +
+            "  redis.call('INCRBY', KEYS[1], pending)\n" +
+            "  redis.call('PEXPIRE', KEYS[1], ARGV[3])\n" +
+            "end\n" +
+            "return {allowed, current, previous}", List.class);
+
+    // KEYS为计数键；ARGV[i]为第i个键的增量，ARGV[#KEYS + i]为其过期毫秒数；返回每个键的全局计数
+    private static final RedisScript<List> COUNTER_SYNC_SCRIPT = new DefaultRedisScript<>(
+            "local result = {}\n" +
+            "for i = 1, #KEYS do\n" +
+            "  local delta = tonumber(ARGV[i])\n" +
+            "  local count\n" +
+            "  if delta > 0 then\n" +
+            "    count = redis.call('INCRBY', KEYS[i], delta)\n" +
+            "    redis.call('PEXPIRE', KEYS[i], ARGV[#KEYS + i])\n" +
+            "  else\n" +
+            "    count = tonumber(redis.call('GET', KEYS[i]) or '0')\n" +
+            "  end\n" +
+            "  result[i] = count\n" +
+            "end\n" +
+            "return result", List.class);
+
+    @Autowired
+    private StringRedisTemplate redisTemplate;
+
+    @Autowired
+    private RedisConnectionFactory redisConnectionFactory;
+
+    @Value("${security.monitor.cluster.enabled:false}")
+    private boolean enabled;
+
+    @Value("${security.monitor.cluster.key-prefix:security:}")
+    private String keyPrefix;
+
+    // 估计值达到限额的该比例后，请求直接在Redis中判定
+    @Value("${security.monitor.cluster.sync-through-ratio:0.5}")
+    private double syncThroughRatio;
+
+    // Redis调用失败后断路的时长，期间使用本机状态
+    @Value("${security.monitor.cluster.breaker-open-ms:5000}")
+    private long breakerOpenMillis;
+
+    @Value("${security.monitor.cluster.counter-max-keys:100000}")
+    private int counterMaxKeys;
+
+    private final String nodeId = UUID.randomUUID().toString();
+    private final List<ClusterRateLimiter> rateLimiters = new CopyOnWriteArrayList<>();
+    private final ConcurrentHashMap<String, NearCounter> counters = new ConcurrentHashMap<>();
+    private final Set<NearCounter> dirtyCounters = ConcurrentHashMap.newKeySet();
+    private final List<Consumer<String>> blockListeners = new CopyOnWriteArrayList<>();
+    private final List<Consumer<String>> unblockListeners = new CopyOnWriteArrayList<>();
+    private RedisMessageListenerContainer listenerContainer;
+
+    private final AtomicLong batchSyncs = new AtomicLong();
+    private final AtomicLong syncThroughCalls = new AtomicLong();
+    private final AtomicLong redisFailures = new AtomicLong();
+    private final AtomicLong breakerTrips = new AtomicLong();
+    private volatile long breakerOpenUntil;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        listenerContainer = new RedisMessageListenerContainer();
+        listenerContainer.setConnectionFactory(redisConnectionFactory);
+        listenerContainer.addMessageListener((message, pattern) ->
+                onBlocklistMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(blocklistChannel()));
+        listenerContainer.afterPropertiesSet();
+        listenerContainer.start();
+        logger.info("集群安全状态已启用: node={}, keyPrefix={}", nodeId, keyPrefix);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (listenerContainer == null) {
+            return;
+        }
+        flushRateLimiters();
+        try {
+            listenerContainer.destroy();
+        } catch (Exception e) {
+            logger.debug("关闭Redis订阅失败: {}", e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 创建限流器：集群模式下所有节点共享计数，否则为单机滑动窗口限流器
+     */
+    public RateLimiter newRateLimiter(String name, int limit, long windowMillis, int maxKeys) {
+        SlidingWindowRateLimiter local = new SlidingWindowRateLimiter(limit, windowMillis, maxKeys);
+        if (!enabled) {
+            return local;
+        }
+        ClusterRateLimiter limiter = new ClusterRateLimiter(name, limit, windowMillis, maxKeys, local);
+        rateLimiters.add(limiter);
+        return limiter;
+    }
+
+    /**
+     * 集群范围内递增计数（带过期时间，每次递增后重新计时），不访问Redis：
+     * 增量在近缓存中累积，由定时同步批量写入并取回全局计数，返回值最多落后一个同步周期。
+     * 未开启、断路中、近缓存已满或尚未同步过时返回-1，由调用方使用本地计数
+     */
+    public long incrementCounter(String name, String key, long ttlMillis) {
+        if (!enabled) {
+            return -1;
+        }
+        String redisKey = keyPrefix + "counter:" + name + ":" + key;
+        NearCounter counter = counters.get(redisKey);
+        if (counter == null) {
+            if (counters.size() >= counterMaxKeys) {
+                evictIdleCounters(System.currentTimeMillis());
+                if (counters.size() >= counterMaxKeys) {
+                    return -1;
+                }
+            }
+            counter = counters.computeIfAbsent(redisKey, k -> new NearCounter(k, ttlMillis));
+        }
+        synchronized (counter) {
+            counter.pending++;
+            counter.lastTouched = System.currentTimeMillis();
+            dirtyCounters.add(counter);
+            if (!counter.synced || isBreakerOpen()) {
+                return -1;
+            }
+            return counter.known + counter.inFlight + counter.pending;
+        }
+    }
+
+    public void deleteCounter(String name, String key) {
+        if (!enabled) {
+            return;
+        }
+        String redisKey = keyPrefix + "counter:" + name + ":" + key;
+        NearCounter counter = counters.remove(redisKey);
+        if (counter != null) {
+            dirtyCounters.remove(counter);
+        }
+        try {
+            redisTemplate.delete(redisKey);
+        } catch (Exception e) {
+            onRedisFailure("删除Redis计数 " + redisKey, e);
+        }
+    }
+
+    /**
+     * 注册黑名单变更监听（其他节点的变更通过pub/sub送达）
+     */
+    public void addBlocklistListener(Consumer<String> onBlock, Consumer<String> onUnblock) {
+        blockListeners.add(onBlock);
+        unblockListeners.add(onUnblock);
+    }
+
+    /**
+     * 加载集群黑名单
+     */
+    public Set<String> loadBlocklist() {
+        if (!enabled) {
+            return Collections.emptySet();
+        }
+        try {
+            Set<String> members = redisTemplate.opsForSet().members(keyPrefix + "blocklist");
+            return members != null ? members : Collections.emptySet();
+        } catch (Exception e) {
+            redisFailures.incrementAndGet();
+            logger.warn("加载集群IP黑名单失败: {}", e.getMessage());
+            return Collections.emptySet();
+        }
+    }
+
+    public void publishBlock(String ip) {
+        publishBlocklistChange(ip, true);
+    }
+
+    public void publishUnblock(String ip) {
+        publishBlocklistChange(ip, false);
+    }
+
+    /**
+     * 定期把各限流器和计数近缓存中的增量批量写入Redis，并刷新全局计数；断路期间增量留在本地
+     */
+    @Scheduled(fixedDelayString = "${security.monitor.cluster.sync-interval-ms:200}")
+    public void flushRateLimiters() {
+        if (!enabled || isBreakerOpen()) {
+            return;
+        }
+        for (ClusterRateLimiter limiter : rateLimiters) {
+            try {
+                limiter.flush();
+            } catch (Exception e) {
+                onRedisFailure("同步集群限流计数 " + limiter.name, e);
+            }
+        }
+        try {
+            flushCounters();
+        } catch (Exception e) {
+            onRedisFailure("同步集群计数", e);
+        }
+    }
+
+    public long getBatchSyncCount() { return batchSyncs.get(); }
+    public long getSyncThroughCount() { return syncThroughCalls.get(); }
+    public long getRedisFailureCount() { return redisFailures.get(); }
+    public long getBreakerTripCount() { return breakerTrips.get(); }
+    public boolean isBreakerOpen() { return System.currentTimeMillis() < breakerOpenUntil; }
+
+    /**
+     * 记录Redis失败并断路，断路期间的请求不再访问Redis
+     */
+    private void onRedisFailure(String operation, Exception e) {
+        redisFailures.incrementAndGet();
+        if (!isBreakerOpen()) {
+            breakerTrips.incrementAndGet();
+            logger.warn("Redis调用失败，{}ms内使用本机安全状态: {} - {}", breakerOpenMillis, operation, e.getMessage());
+        }
+        breakerOpenUntil = System.currentTimeMillis() + breakerOpenMillis;
+    }
+
+    /**
+     * 一次Lua调用写入所有计数的增量并取回全局计数；失败时增量放回近缓存，下次同步重试
+     */
+    private void flushCounters() {
+        long now = System.currentTimeMillis();
+        if (!dirtyCounters.isEmpty()) {
+            List<NearCounter> batch = new ArrayList<>();
+            for (NearCounter counter : dirtyCounters) {
+                dirtyCounters.remove(counter);
+                batch.add(counter);
+            }
+            List<String> keys = new ArrayList<>(batch.size());
+            String[] args = new String[batch.size() * 2];
+            long[] deltas = new long[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                NearCounter counter = batch.get(i);
+                synchronized (counter) {
+                    deltas[i] = counter.pending;
+                    counter.inFlight += counter.pending;
+                    counter.pending = 0;
+                }
+                keys.add(counter.redisKey);
+                args[i] = String.valueOf(deltas[i]);
+                args[batch.size() + i] = String.valueOf(counter.ttlMillis);
+            }
+            List<?> result;
+            try {
+                result = redisTemplate.execute(COUNTER_SYNC_SCRIPT, keys, (Object[]) args);
+            } catch (RuntimeException e) {
+                for (int i = 0; i < batch.size(); i++) {
+                    NearCounter counter = batch.get(i);
+                    synchronized (counter) {
+                        counter.inFlight -= deltas[i];
+                        counter.pending += deltas[i];
+                    }
+                    dirtyCounters.add(counter);
+                }
+                throw e;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                NearCounter counter = batch.get(i);
+                synchronized (counter) {
+                    counter.inFlight -= deltas[i];
+                    if (result != null && i < result.size()) {
+                        counter.known = ((Number) result.get(i)).longValue();
+                        counter.synced = true;
+                    }
+                }
+            }
+            batchSyncs.incrementAndGet();
+        }
+        evictIdleCounters(now);
+    }
+
+    /**
+     * 淘汰超过过期时间没有递增、且没有待同步增量的计数（Redis中的键此时也已过期）
+     */
+    private void evictIdleCounters(long now) {
+        counters.values().removeIf(counter -> now - counter.lastTouched > counter.ttlMillis
+                && counter.pending == 0 && counter.inFlight == 0);
+    }
+
+    private void publishBlocklistChange(String ip, boolean blocked) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (blocked) {
+                redisTemplate.opsForSet().add(keyPrefix + "blocklist", ip);
+            } else {
+                redisTemplate.opsForSet().remove(keyPrefix + "blocklist", ip);
+            }
+            redisTemplate.convertAndSend(blocklistChannel(), (blocked ? "+" : "-") + nodeId + " " + ip);
+        } catch (Exception e) {
+            onRedisFailure("同步集群IP黑名单 " + ip, e);
+        }
+    }
+
+    private void onBlocklistMessage(String message) {
+        int space = message.indexOf(' ');
+        if (message.length() < 2 || space < 0) {
+            return;
+        }
+        if (message.substring(1, space).equals(nodeId)) {
+            return; // 本节点发出的变更已在本地生效
+        }
+        String ip = message.substring(space + 1);
+        List<Consumer<String>> listeners = message.charAt(0) == '+' ? blockListeners : unblockListeners;
+        for (Consumer<String> listener : listeners) {
+            listener.accept(ip);
+        }
+    }
+
+    private String blocklistChannel() {
+        return keyPrefix + "blocklist:events";
+    }
+
+    /**
+     * 集群限流器：本地近缓存 + 批量同步
+     */
+    private class ClusterRateLimiter implements RateLimiter {
+        private final String name;
+        private final int limit;
+        private final long windowMillis;
+        private final int maxKeys;
+        private final SlidingWindowRateLimiter localFallback;
+        private final ConcurrentHashMap<String, NearEntry> entries = new ConcurrentHashMap<>();
+        private final Set<NearEntry> dirty = ConcurrentHashMap.newKeySet();
+
+        ClusterRateLimiter(String name, int limit, long windowMillis, int maxKeys, SlidingWindowRateLimiter localFallback) {
+            this.name = name;
+            this.limit = limit;
+            this.windowMillis = windowMillis;
+            this.maxKeys = maxKeys;
+            this.localFallback = localFallback;
+        }
+
+        @Override
+        public boolean tryAcquire(String key) {
+            long now = System.currentTimeMillis();
+            long window = now / windowMillis;
+            double previousWeight = 1.0 - (double) (now % windowMillis) / windowMillis;
+            String redisKey = keyPrefix + "rl:" + name + ":" + Long.toHexString(SlidingWindowRateLimiter.fingerprint(key));
+
+            NearEntry entry = entryFor(redisKey, window);
+            synchronized (entry) {
+                if (entry.window != window) {
+                    roll(entry, window);
+                }
+                double estimate = entry.current + entry.pending + entry.inFlight + entry.previous * previousWeight;
+                if (entry.synced && estimate + 1 > limit) {
+                    return false; // 近缓存已知超限，不访问Redis
+                }
+                if (!entry.synced || estimate + 1 > limit * syncThroughRatio) {
+                    Boolean allowed = acquireThrough(entry, previousWeight);
+                    if (allowed != null) {
+                        return allowed;
+                    }
+                    // Redis不可用：退回单机判定
+                    return localFallback.tryAcquire(key);
+                }
+                entry.pending++;
+                dirty.add(entry);
+                return true;
+            }
+        }
+
+        /**
+         * 直接在Redis中原子判定，同时写入本键的待同步增量；Redis不可用时返回null
+         */
+        private Boolean acquireThrough(NearEntry entry, double previousWeight) {
+            if (isBreakerOpen()) {
+                return null;
+            }
+            syncThroughCalls.incrementAndGet();
+            try {
+                List<?> result = redisTemplate.execute(ACQUIRE_SCRIPT,
+                        List.of(windowKey(entry.redisKey, entry.window), windowKey(entry.redisKey, entry.window - 1)),
+                        String.valueOf(limit), String.valueOf(previousWeight),
+                        String.valueOf(windowMillis * 2), String.valueOf(entry.pending));
+                if (result == null || result.size() < 3) {
+                    return null;
+                }
+                entry.pending = 0;
+                entry.current = ((Number) result.get(1)).longValue();
+                entry.previous = ((Number) result.get(2)).longValue();
+                entry.synced = true;
+                return ((Number) result.get(0)).longValue() == 1;
+            } catch (Exception e) {
+                onRedisFailure("集群限流判定 " + name, e);
+                return null;
+            }
+        }
+
+        /**
+         * 进入新窗口：上一窗口尚未同步的增量先写入Redis，当前计数转为上一窗口计数
+         */
+        private void roll(NearEntry entry, long window) {
+            if (entry.pending > 0 && !isBreakerOpen()) {
+                long delta = entry.pending;
+                entry.inFlight += delta;
+                entry.pending = 0;
+                try {
+                    sync(List.of(entry), new long[] {entry.window}, new long[] {delta});
+                } catch (Exception e) {
+                    onRedisFailure("同步上一窗口限流计数 " + name, e);
+                }
+                entry.inFlight -= delta;
+            }
+            entry.previous = entry.window == window - 1 ? entry.current + entry.inFlight : 0;
+            entry.current = 0;
+            entry.inFlight = 0;
+            entry.window = window;
+            entry.synced = false;
+        }
+
+        void flush() {
+            if (dirty.isEmpty()) {
+                return;
+            }
+            List<NearEntry> batch = new ArrayList<>();
+            for (NearEntry entry : dirty) {
+                dirty.remove(entry);
+                batch.add(entry);
+            }
+            long[] windows = new long[batch.size()];
+            long[] deltas = new long[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                NearEntry entry = batch.get(i);
+                synchronized (entry) {
+                    windows[i] = entry.window;
+                    deltas[i] = entry.pending;
+                    entry.inFlight += entry.pending;
+                    entry.pending = 0;
+                }
+            }
+            boolean synced = false;
+            try {
+                sync(batch, windows, deltas);
+                batchSyncs.incrementAndGet();
+                synced = true;
+            } finally {
+                for (int i = 0; i < batch.size(); i++) {
+                    NearEntry entry = batch.get(i);
+                    synchronized (entry) {
+                        if (entry.window == windows[i]) {
+                            entry.inFlight = Math.max(entry.inFlight - deltas[i], 0);
+                            if (!synced && deltas[i] > 0) {
+                                // 同步失败：增量放回待同步，下次重试；已进入新窗口的增量只保留在本地的上一窗口计数中
+                                entry.pending += deltas[i];
+                                dirty.add(entry);
+                            }
+                        }
+                    }
+                }
+            }
+            evictExpired(System.currentTimeMillis() / windowMillis);
+        }
+
+        /**
+         * 一次Lua调用写入多个键的增量，并用返回的全局计数刷新近缓存
+         */
+        private void sync(List<NearEntry> batch, long[] windows, long[] deltas) {
+            List<String> keys = new ArrayList<>(batch.size() * 2);
+            String[] args = new String[batch.size() + 1];
+            args[0] = String.valueOf(windowMillis * 2);
+            for (int i = 0; i < batch.size(); i++) {
+                keys.add(windowKey(batch.get(i).redisKey, windows[i]));
+                keys.add(windowKey(batch.get(i).redisKey, windows[i] - 1));
+                args[i + 1] = String.valueOf(deltas[i]);
+            }
+            List<?> result = redisTemplate.execute(SYNC_SCRIPT, keys, (Object[]) args);
+            if (result == null) {
+                return;
+            }
+            for (int i = 0; i < batch.size() && i * 2 + 1 < result.size(); i++) {
+                NearEntry entry = batch.get(i);
+                synchronized (entry) {
+                    if (entry.window == windows[i]) {
+                        entry.current = ((Number) result.get(i * 2)).longValue() - entry.inFlight + deltas[i];
+                        entry.previous = ((Number) result.get(i * 2 + 1)).longValue();
+                        entry.synced = true;
+                    }
+                }
+            }
+        }
+
+        private NearEntry entryFor(String redisKey, long window) {
+            NearEntry entry = entries.get(redisKey);
+            if (entry != null) {
+                return entry;
+            }
+            if (entries.size() >= maxKeys) {
+                evictExpired(window);
+            }
+            if (entries.size() >= maxKeys) {
+                // 近缓存已满：不缓存该键，每次请求都直接在Redis中判定
+                return new NearEntry(redisKey, window);
+            }
+            return entries.computeIfAbsent(redisKey, k -> new NearEntry(k, window));
+        }
+
+        private void evictExpired(long currentWindow) {
+            entries.values().removeIf(entry -> entry.window < currentWindow - 1
+                    && entry.pending == 0 && entry.inFlight == 0);
+        }
+
+        private String windowKey(String redisKey, long window) {
+            return redisKey + ":" + window;
+        }
+    }
+
+    /**
+     * 单个计数的近缓存：最近一次同步得到的全局计数、本节点尚未写入和正在写入Redis的增量
+     */
+    private static class NearCounter {
+        private final String redisKey;
+        private final long ttlMillis;
+        private long known;
+        private volatile long pending;
+        private volatile long inFlight;
+        private volatile long lastTouched;
+        private boolean synced;
+
+        NearCounter(String redisKey, long ttlMillis) {
+            this.redisKey = redisKey;
+            this.ttlMillis = ttlMillis;
+        }
+    }
+
+    /**
+     * 单个键的近缓存：最近一次同步得到的全局计数和本节点尚未写入Redis的增量
+     */
+    private static class NearEntry {
+        private final String redisKey;
+        private volatile long window;
+        private long current;
+        private long previous;
+        private volatile long pending;
+        private volatile long inFlight;
+        private boolean synced;
+
+        NearEntry(String redisKey, long window) {
+            this.redisKey = redisKey;
+            this.window = window;
+        }
+    }
+}
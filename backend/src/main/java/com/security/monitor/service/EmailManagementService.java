@@ -2,6 +2,8 @@ package com.security.monitor.service;
 
 import com.security.monitor.model.*;
 import com.security.monitor.repository.*;
+import com.security.monitor.service.protocol.MailboxEventBus;
+import com.security.monitor.service.protocol.MailboxIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -37,6 +39,9 @@ public class EmailManagementService {
     @Autowired
     private UserRepository userRepository;
     
+    @Autowired
+    private MailboxEventBus mailboxEventBus;
+    
     /**
      * 获取用户的所有邮箱别名 - 优化N+1查询
      */
@@ -271,6 +276,7 @@ public class EmailManagementService {
         
         message.markAsRead();
         messageRepository.save(message);
+        mailboxEventBus.publishFlag(message, MailboxIndex.Flag.SEEN, true);
     }
     
     /**
@@ -2,6 +2,8 @@ package com.security.monitor.service;
 
 import com.security.monitor.model.*;
 import com.security.monitor.repository.*;
+import com.security.monitor.service.protocol.MailboxEventBus;
+import com.security.monitor.service.protocol.RawMessageStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -56,6 +58,12 @@ public class EmailReceiveService {
     @Autowired
     private EmailForwardingService forwardingService;
     
+    @Autowired
+    private MailboxEventBus mailboxEventBus;
+    
+    @Autowired
+    private RawMessageStore rawMessageStore;
+    
     @Value("${app.mail.storage.path:/opt/mail-storage}")
     private String mailStoragePath;
     
@@ -139,6 +147,13 @@ public class EmailReceiveService {
         message.setReceivedAt(LocalDateTime.now());
         message.setMessageSize((long) (request.getBodyText().length() + request.getBodyHtml().length()));
         
+        // 没有原始MIME内容，按字段渲染原文保存一次，邮件大小以原文为准
+        try {
+            rawMessageStore.storeRendered(message);
+        } catch (IOException e) {
+            logger.warn("保存邮件原文失败: {} - {}", message.getMessageId(), e.getMessage());
+        }
+        
         // 检查是否需要转发
         if (alias.getForwardTo() != null && !alias.getForwardTo().trim().isEmpty()) {
             logger.info("转发邮件从 {} 到 {}", request.getToAddress(), alias.getForwardTo());
@@ -152,6 +167,9 @@ public class EmailReceiveService {
         inbox.incrementUnreadCount();
         folderRepository.save(inbox);
         
+        // 通知选中收件箱的IMAP连接（事务提交后分发）
+        mailboxEventBus.publishAppend(savedMessage);
+        
         // 处理邮件转发
         try {
             forwardingService.processForwarding(savedMessage);
@@ -410,6 +428,13 @@ public class EmailReceiveService {
         // 处理邮件内容
         processMessageContent(message, emailMessage);
         
+        // 保存RFC 822原文供IMAP/POP3直接发送，邮件大小以原文为准
+        try {
+            rawMessageStore.store(emailMessage, message::writeTo);
+        } catch (IOException e) {
+            logger.warn("保存邮件原文失败: {} - {}", emailMessage.getMessageId(), e.getMessage());
+        }
+        
         // 保存邮件
         emailMessage = messageRepository.save(emailMessage);
         
@@ -419,6 +444,8 @@ public class EmailReceiveService {
         // 更新文件夹统计
         updateFolderStatistics(folder);
         
+        mailboxEventBus.publishAppend(emailMessage);
+        
         return emailMessage;
     }
     
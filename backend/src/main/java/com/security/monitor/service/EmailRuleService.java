@@ -2,12 +2,15 @@ package com.security.monitor.service;
 
 import com.security.monitor.model.*;
 import com.security.monitor.repository.*;
+import com.security.monitor.service.protocol.MailboxEventBus;
+import com.security.monitor.service.protocol.MailboxIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.regex.Pattern;
@@ -23,6 +26,9 @@ public class EmailRuleService {
     
     private static final Logger logger = LoggerFactory.getLogger(EmailRuleService.class);
     
+    private static final String INSERT_EXECUTION_LOG_SQL = "INSERT INTO email_rule_execution_logs "
+            + "(rule_id, message_id, executed_at, success, error_message) VALUES (?, ?, ?, ?, ?)";
+    
     @Autowired
     private EmailRuleRepository ruleRepository;
     
@@ -30,7 +36,7 @@ public class EmailRuleService {
     private EmailRuleActionRepository ruleActionRepository;
     
     @Autowired
-    private EmailRuleExecutionLogRepository executionLogRepository;
+    private AuditLogSink auditLogSink;
     
     @Autowired
     private EmailMessageRepository messageRepository;
@@ -41,6 +47,9 @@ public class EmailRuleService {
     @Autowired
     private UserRepository userRepository;
     
+    @Autowired
+    private MailboxEventBus mailboxEventBus;
+    
     /**
      * 应用邮件规则到新收到的邮件
      */
@@ -284,22 +293,27 @@ public class EmailRuleService {
             case MARK_AS_READ:
                 message.setIsRead(true);
                 messageRepository.save(message);
+                mailboxEventBus.publishFlag(message, MailboxIndex.Flag.SEEN, true);
                 break;
             case MARK_AS_UNREAD:
                 message.setIsRead(false);
                 messageRepository.save(message);
+                mailboxEventBus.publishFlag(message, MailboxIndex.Flag.SEEN, false);
                 break;
             case ADD_STAR:
                 message.setIsStarred(true);
                 messageRepository.save(message);
+                mailboxEventBus.publishFlag(message, MailboxIndex.Flag.FLAGGED, true);
                 break;
             case REMOVE_STAR:
                 message.setIsStarred(false);
                 messageRepository.save(message);
+                mailboxEventBus.publishFlag(message, MailboxIndex.Flag.FLAGGED, false);
                 break;
             case DELETE:
                 message.setIsDeleted(true);
                 messageRepository.save(message);
+                mailboxEventBus.publishExpunge(message, message.getFolder());
                 break;
             case MARK_AS_SPAM:
                 moveToSpamFolder(message);
@@ -326,6 +340,8 @@ public class EmailRuleService {
             EmailFolder oldFolder = message.getFolder();
             message.setFolder(targetFolder);
             messageRepository.save(message);
+            mailboxEventBus.publishExpunge(message, oldFolder);
+            mailboxEventBus.publishAppend(message);
             
             // 更新文件夹统计
             updateFolderStatistics(oldFolder);
@@ -349,6 +365,8 @@ public class EmailRuleService {
             EmailFolder oldFolder = message.getFolder();
             message.setFolder(spamFolder);
             messageRepository.save(message);
+            mailboxEventBus.publishExpunge(message, oldFolder);
+            mailboxEventBus.publishAppend(message);
             
             // 更新文件夹统计
             updateFolderStatistics(oldFolder);
@@ -408,14 +426,11 @@ public class EmailRuleService {
      * 记录规则执行日志
      */
     private void logRuleExecution(EmailRule rule, EmailMessage message, boolean success, String errorMessage) {
-        EmailRuleExecutionLog log = new EmailRuleExecutionLog();
-        log.setRule(rule);
-        log.setMessage(message);
-        log.setExecutedAt(LocalDateTime.now());
-        log.setSuccess(success);
-        log.setErrorMessage(errorMessage);
-        
-        executionLogRepository.save(log);
+        // 执行失败的日志不参与采样
+        auditLogSink.submit(INSERT_EXECUTION_LOG_SQL, new Object[] {
+            rule.getId(), message != null ? message.getId() : null, Timestamp.valueOf(LocalDateTime.now()),
+            success, errorMessage
+        }, !success);
     }
     
     /**
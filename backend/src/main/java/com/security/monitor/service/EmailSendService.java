@@ -2,6 +2,8 @@ package com.security.monitor.service;
 
 import com.security.monitor.model.*;
 import com.security.monitor.repository.*;
+import com.security.monitor.service.protocol.MailboxEventBus;
+import com.security.monitor.service.protocol.RawMessageStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -45,6 +47,12 @@ public class EmailSendService {
     @Autowired
     private UserRepository userRepository;
     
+    @Autowired
+    private MailboxEventBus mailboxEventBus;
+    
+    @Autowired
+    private RawMessageStore rawMessageStore;
+    
     @Value("${app.mail.smtp.host:localhost}")
     private String smtpHost;
     
@@ -87,6 +95,7 @@ public class EmailSendService {
             EmailFolder sentFolder = getSentFolder(sender);
             message.setFolder(sentFolder);
             message = messageRepository.save(message);
+            mailboxEventBus.publishAppend(message);
             
             // 处理附件
             if (request.getAttachments() != null && !request.getAttachments().isEmpty()) {
@@ -184,6 +193,9 @@ public class EmailSendService {
             // 发送邮件
             Transport.send(mimeMessage);
             
+            // 保存实际发出的原文（发送时才生成最终的Message-ID）
+            storeRawMessage(message, mimeMessage);
+            
             logger.debug("SMTP邮件发送成功: subject={}", message.getSubject());
             return true;
             
@@ -193,6 +205,17 @@ public class EmailSendService {
         }
     }
     
+    /**
+     * 保存已发送邮件的RFC 822原文，失败时IMAP/POP3读取时由字段渲染
+     */
+    private void storeRawMessage(EmailMessage message, MimeMessage mimeMessage) {
+        try {
+            rawMessageStore.store(message, mimeMessage::writeTo);
+        } catch (IOException e) {
+            logger.warn("保存邮件原文失败: ID={} - {}", message.getId(), e.getMessage());
+        }
+    }
+    
     /**
      * 创建SMTP会话
      */
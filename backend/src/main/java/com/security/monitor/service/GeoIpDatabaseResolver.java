@@ -0,0 +1,224 @@
+package com.security.monitor.service;
+
+import com.google.common.net.InetAddresses;
+import com.maxmind.db.CHMCache;
+import com.maxmind.db.Reader;
+import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.model.AsnResponse;
+import com.maxmind.geoip2.model.CityResponse;
+import com.security.monitor.service.GeoLocationService.GeoLocationInfo;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 本地GeoIP2数据库解析器
+ * 以内存映射方式打开MaxMind City和ASN数据库（.mmdb），登录路径上的地理位置解析只做本地查找，不依赖网络；
+ * 定期检查数据库文件，geoipupdate等工具替换文件后原子切换到新的Reader，旧Reader在下一个检查周期关闭
+ */
+@Component
+public class GeoIpDatabaseResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeoIpDatabaseResolver.class);
+
+    @Autowired
+    private GeoLocationCache geoLocationCache;
+
+    @Value("${security.monitor.geo.mmdb.city-path:/opt/geoip/GeoLite2-City.mmdb}")
+    private String cityDatabasePath;
+
+    @Value("${security.monitor.geo.mmdb.asn-path:/opt/geoip/GeoLite2-ASN.mmdb}")
+    private String asnDatabasePath;
+
+    @Value("${security.monitor.geo.mmdb.locales:en}")
+    private List<String> locales;
+
+    private final DatabaseHolder cityDatabase = new DatabaseHolder("City");
+    private final DatabaseHolder asnDatabase = new DatabaseHolder("ASN");
+
+    @PostConstruct
+    public void init() {
+        cityDatabase.open(cityDatabasePath);
+        asnDatabase.open(asnDatabasePath);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cityDatabase.close();
+        asnDatabase.close();
+    }
+
+    /**
+     * City数据库是否可用
+     */
+    public boolean isAvailable() {
+        return cityDatabase.reader.get() != null;
+    }
+
+    /**
+     * 在本地数据库中查找IP地址，数据库不可用、地址无效或没有记录时返回null
+     */
+    public GeoLocationInfo lookup(String ipAddress) {
+        DatabaseReader cityReader = cityDatabase.reader.get();
+        if (cityReader == null || ipAddress == null || !InetAddresses.isInetAddress(ipAddress)) {
+            return null;
+        }
+        // 只接受IP字面量，不会触发DNS解析
+        InetAddress address = InetAddresses.forString(ipAddress);
+        try {
+            Optional<CityResponse> city = cityReader.tryCity(address);
+            if (city.isEmpty()) {
+                return null;
+            }
+            CityResponse response = city.get();
+            return GeoLocationInfo.builder()
+                    .ipAddress(ipAddress)
+                    .country(response.getCountry().getName())
+                    .region(response.getMostSpecificSubdivision().getName())
+                    .city(response.getCity().getName())
+                    .latitude(toBigDecimal(response.getLocation().getLatitude()))
+                    .longitude(toBigDecimal(response.getLocation().getLongitude()))
+                    .timezone(response.getLocation().getTimeZone())
+                    .isp(lookupOrganization(address))
+                    .build();
+        } catch (Exception e) {
+            logger.debug("本地GeoIP数据库查找失败: {}", ipAddress, e);
+            return null;
+        }
+    }
+
+    /**
+     * 定期检查数据库文件是否被替换，变化时切换Reader
+     */
+    @Scheduled(fixedDelayString = "${security.monitor.geo.mmdb.reload-check-interval:60000}")
+    public void checkForDatabaseUpdate() {
+        boolean cityReloaded = cityDatabase.reloadIfChanged(cityDatabasePath);
+        boolean asnReloaded = asnDatabase.reloadIfChanged(asnDatabasePath);
+        if (cityReloaded || asnReloaded) {
+            // 缓存的结果（包括之前查不到的IP）按新数据库重新解析
+            geoLocationCache.invalidateAll();
+        }
+    }
+
+    private String lookupOrganization(InetAddress address) {
+        DatabaseReader asnReader = asnDatabase.reader.get();
+        if (asnReader == null) {
+            return null;
+        }
+        try {
+            return asnReader.tryAsn(address)
+                    .map(AsnResponse::getAutonomousSystemOrganization)
+                    .orElse(null);
+        } catch (Exception e) {
+            logger.debug("本地ASN数据库查找失败: {}", address.getHostAddress(), e);
+            return null;
+        }
+    }
+
+    private static BigDecimal toBigDecimal(Double value) {
+        return value != null ? BigDecimal.valueOf(value) : null;
+    }
+
+    /**
+     * 单个数据库文件的当前Reader和待关闭的旧Reader
+     */
+    private class DatabaseHolder {
+        private final String name;
+        private final AtomicReference<DatabaseReader> reader = new AtomicReference<>();
+        private volatile DatabaseReader retired;
+        private volatile String loadedVersion;
+
+        DatabaseHolder(String name) {
+            this.name = name;
+        }
+
+        synchronized boolean open(String path) {
+            if (path == null || path.isBlank()) {
+                return false;
+            }
+            Path file = Paths.get(path);
+            if (!Files.isReadable(file)) {
+                logger.warn("GeoIP {}数据库文件不存在或不可读: {}", name, path);
+                return false;
+            }
+            try {
+                String version = fileVersion(file);
+                DatabaseReader loaded = new DatabaseReader.Builder(file.toFile())
+                        .fileMode(Reader.FileMode.MEMORY_MAPPED)
+                        .withCache(new CHMCache())
+                        .locales(locales)
+                        .build();
+                // 在途查找可能仍在使用旧Reader，延迟到下一个检查周期再关闭
+                closeRetired();
+                retired = reader.getAndSet(loaded);
+                loadedVersion = version;
+                logger.info("GeoIP {}数据库已加载: path={}, build={}",
+                        name, path, loaded.getMetadata().getBuildDate());
+                return true;
+            } catch (IOException e) {
+                logger.error("加载GeoIP " + name + "数据库失败: " + path, e);
+                return false;
+            }
+        }
+
+        synchronized boolean reloadIfChanged(String path) {
+            closeRetired();
+            if (path == null || path.isBlank()) {
+                return false;
+            }
+            try {
+                Path file = Paths.get(path);
+                if (Files.isReadable(file) && !fileVersion(file).equals(loadedVersion)) {
+                    logger.info("检测到GeoIP {}数据库文件变化，重新加载: {}", name, path);
+                    return open(path);
+                }
+            } catch (IOException e) {
+                logger.debug("检查GeoIP {}数据库文件失败: {}", name, e.getMessage());
+            }
+            return false;
+        }
+
+        synchronized void close() {
+            closeRetired();
+            closeQuietly(reader.getAndSet(null));
+        }
+
+        private void closeRetired() {
+            DatabaseReader old = retired;
+            retired = null;
+            closeQuietly(old);
+        }
+
+        private void closeQuietly(DatabaseReader databaseReader) {
+            if (databaseReader == null) {
+                return;
+            }
+            try {
+                databaseReader.close();
+            } catch (IOException e) {
+                logger.debug("关闭GeoIP {}数据库失败: {}", name, e.getMessage());
+            }
+        }
+
+        private String fileVersion(Path file) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.lastModifiedTime().toMillis() + ":" + attributes.size() + ":" + attributes.fileKey();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.security.monitor.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.security.monitor.service.GeoLocationService.GeoLocationInfo;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * IP地理位置专用缓存
+ * 有数量上限，解析成功和失败的结果分别使用不同的过期时间；同一IP的并发查询只触发一次解析，
+ * 其余线程等待同一结果，撞库攻击期间每个不同的IP最多解析一次。
+ * Guava缓存只支持统一的写入过期时间：按两者中较长的一个设置作为上限，读取时再按条目类型检查各自的过期时间
+ */
+@Component
+public class GeoLocationCache implements OperationalStatusSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeoLocationCache.class);
+
+    @Value("${security.monitor.geo.cache.max-entries:100000}")
+    private long maxEntries;
+
+    @Value("${security.monitor.geo.cache.positive-ttl-minutes:1440}")
+    private long positiveTtlMinutes;
+
+    @Value("${security.monitor.geo.cache.negative-ttl-minutes:5}")
+    private long negativeTtlMinutes;
+
+    private Cache<String, CachedGeoLocation> cache;
+
+    private final AtomicLong negativeLoads = new AtomicLong();
+    private final AtomicLong negativeExpirations = new AtomicLong();
+    private final AtomicLong positiveExpirations = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Math.max(positiveTtlMinutes, negativeTtlMinutes), TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        logger.info("地理位置缓存已初始化: maxEntries={}, positiveTtl={}分钟, negativeTtl={}分钟",
+                maxEntries, positiveTtlMinutes, negativeTtlMinutes);
+    }
+
+    /**
+     * 获取IP地理位置，未命中时调用resolver解析（同一IP并发调用合并为一次）
+     * resolver返回null表示解析失败，按较短的过期时间缓存，返回null
+     */
+    public GeoLocationInfo get(String ipAddress, Function<String, GeoLocationInfo> resolver) {
+        CachedGeoLocation cached = load(ipAddress, resolver);
+        long ttlMillis = TimeUnit.MINUTES.toMillis(cached.info != null ? positiveTtlMinutes : negativeTtlMinutes);
+        if (System.currentTimeMillis() - cached.loadedAt >= ttlMillis) {
+            // 结果已按自身的过期时间过期：只移除这一条，随后的并发请求仍合并为一次重新解析
+            if (cache.asMap().remove(ipAddress, cached)) {
+                (cached.info != null ? positiveExpirations : negativeExpirations).incrementAndGet();
+            }
+            cached = load(ipAddress, resolver);
+        }
+        return cached.info;
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public String getStatusName() {
+        return "geo-cache";
+    }
+
+    /**
+     * 获取缓存指标
+     */
+    @Override
+    public Map<String, Object> getStatus() {
+        CacheStats stats = cache.stats();
+        Map<String, Object> status = new HashMap<>();
+        status.put("size", cache.size());
+        status.put("maxEntries", maxEntries);
+        status.put("hitCount", stats.hitCount());
+        status.put("missCount", stats.missCount());
+        status.put("hitRate", stats.hitRate());
+        status.put("loadCount", stats.loadCount());
+        status.put("loadFailureCount", stats.loadExceptionCount());
+        status.put("averageLoadMillis", stats.averageLoadPenalty() / 1_000_000.0);
+        status.put("evictionCount", stats.evictionCount());
+        status.put("negativeLoads", negativeLoads.get());
+        status.put("negativeExpirations", negativeExpirations.get());
+        status.put("positiveExpirations", positiveExpirations.get());
+        return status;
+    }
+
+    private CachedGeoLocation load(String ipAddress, Function<String, GeoLocationInfo> resolver) {
+        try {
+            return cache.get(ipAddress, () -> {
+                GeoLocationInfo info = resolver.apply(ipAddress);
+                if (info == null) {
+                    negativeLoads.incrementAndGet();
+                }
+                return new CachedGeoLocation(info, System.currentTimeMillis());
+            });
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            logger.debug("解析IP地理位置失败: {}", ipAddress, e.getCause());
+            return new CachedGeoLocation(null, System.currentTimeMillis());
+        }
+    }
+
+    private static class CachedGeoLocation {
+        private final GeoLocationInfo info;
+        private final long loadedAt;
+
+        CachedGeoLocation(GeoLocationInfo info, long loadedAt) {
+            this.info = info;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
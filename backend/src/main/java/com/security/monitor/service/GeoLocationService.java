@@ -4,8 +4,8 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 
@@ -16,6 +16,7 @@ import java.util.Map;
 
 /**
  * IP地理位置服务
+ * 优先使用本地GeoIP2数据库解析；本地数据库不可用或没有记录时，按配置回退到在线API
  */
 @Service
 public class GeoLocationService {
@@ -25,9 +26,21 @@ public class GeoLocationService {
     private final WebClient webClient;
     private final ObjectMapper objectMapper;
     
+    @Autowired
+    private GeoIpDatabaseResolver geoIpDatabaseResolver;
+
+    @Autowired
+    private GeoLocationCache geoLocationCache;
+    
     @Value("${security.monitor.geo.api-key:}")
     private String apiKey;
 
+    @Value("${security.monitor.geo.http-fallback.enabled:true}")
+    private boolean httpFallbackEnabled;
+
+    @Value("${security.monitor.geo.http-fallback.timeout-ms:5000}")
+    private long httpFallbackTimeoutMs;
+
     public GeoLocationService() {
         this.webClient = WebClient.builder()
                 .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(1024 * 1024))
@@ -36,16 +49,33 @@ public class GeoLocationService {
     }
 
     /**
-     * 获取IP地理位置信息（带缓存）
+     * 获取IP地理位置信息（带缓存，无法解析时返回Unknown）
      */
-    @Cacheable(value = "geoLocation", key = "#ipAddress")
     public GeoLocationInfo getGeoLocation(String ipAddress) {
         if (isPrivateIP(ipAddress)) {
             return createLocalGeoInfo();
         }
 
+        GeoLocationInfo info = geoLocationCache.get(ipAddress, this::resolveGeoLocation);
+        return info != null ? info : createUnknownGeoInfo();
+    }
+
+    /**
+     * 解析IP地理位置，无法解析时返回null（由缓存按失败结果缓存）
+     */
+    private GeoLocationInfo resolveGeoLocation(String ipAddress) {
+        // 本地数据库查找，不访问网络
+        GeoLocationInfo localInfo = geoIpDatabaseResolver.lookup(ipAddress);
+        if (localInfo != null) {
+            return localInfo;
+        }
+
+        if (!httpFallbackEnabled) {
+            return null;
+        }
+
         try {
-            // 首先尝试免费的ipapi.co服务
+            // 回退到免费的ipapi.co服务
             GeoLocationInfo info = getLocationFromIpApi(ipAddress);
             if (info != null) {
                 return info;
@@ -57,13 +87,13 @@ public class GeoLocationService {
                 return info;
             }
 
-            // 如果都失败，返回默认值
+            // 如果都失败，返回null
             logger.warn("无法获取IP地理位置信息: {}", ipAddress);
-            return createUnknownGeoInfo();
+            return null;
 
         } catch (Exception e) {
             logger.error("获取IP地理位置信息时发生错误: {}", ipAddress, e);
-            return createUnknownGeoInfo();
+            return null;
         }
     }
 
@@ -78,7 +108,7 @@ public class GeoLocationService {
                     .uri(url)
                     .retrieve()
                     .bodyToMono(String.class)
-                    .timeout(Duration.ofSeconds(5))
+                    .timeout(Duration.ofMillis(httpFallbackTimeoutMs))
                     .block();
 
             if (response != null) {
@@ -117,7 +147,7 @@ public class GeoLocationService {
                     .uri(url)
                     .retrieve()
                     .bodyToMono(String.class)
-                    .timeout(Duration.ofSeconds(5))
+                    .timeout(Duration.ofMillis(httpFallbackTimeoutMs))
                     .block();
 
             if (response != null) {
@@ -4,15 +4,19 @@ import com.security.monitor.model.IpWhitelist;
 import com.security.monitor.model.AccessControlLog;
 import com.security.monitor.repository.IpWhitelistRepository;
 import com.security.monitor.repository.AccessControlLogRepository;
+import com.security.monitor.util.IpPrefixTrie;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.regex.Pattern;
@@ -32,6 +36,9 @@ public class IpAccessControlService {
     @Autowired
     private AccessControlLogRepository accessLogRepository;
     
+    @Autowired
+    private AccessControlWriteBuffer writeBuffer;
+    
     @Value("${app.access-control.enabled:true}")
     private boolean accessControlEnabled;
     
@@ -46,10 +53,9 @@ public class IpAccessControlService {
         "^((25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)\\.){3}(25[0-5]|2[0-4][0-9]|[01]?[0-9][0-9]?)$"
     );
     
-    // IPv6地址模式
-    private static final Pattern IPV6_PATTERN = Pattern.compile(
-        "^([0-9a-fA-F]{1,4}:){7}[0-9a-fA-F]{1,4}$"
-    );
+    // 白名单索引：每个服务类型一棵前缀树（包含该类型和全部服务类型的条目），白名单变更后整体重建并替换
+    private volatile Map<IpWhitelist.WhitelistType, IpPrefixTrie<IpWhitelist>> whitelistIndex =
+        new EnumMap<>(IpWhitelist.WhitelistType.class);
     
     /**
      * 检查IP访问权限
@@ -152,7 +158,9 @@ public class IpAccessControlService {
         whitelist.setCreatedBy(createdBy);
         whitelist.setIpType(detectIpType(ipAddress));
         
-        return whitelistRepository.save(whitelist);
+        IpWhitelist saved = whitelistRepository.save(whitelist);
+        rebuildWhitelistIndexAfterCommit();
+        return saved;
     }
     
     /**
@@ -175,7 +183,9 @@ public class IpAccessControlService {
         whitelist.setDescription(description);
         whitelist.setCreatedBy(createdBy);
         
-        return whitelistRepository.save(whitelist);
+        IpWhitelist saved = whitelistRepository.save(whitelist);
+        rebuildWhitelistIndexAfterCommit();
+        return saved;
     }
     
     /**
@@ -187,6 +197,7 @@ public class IpAccessControlService {
         
         whitelist.setIsActive(false);
         whitelistRepository.save(whitelist);
+        rebuildWhitelistIndexAfterCommit();
     }
     
     /**
@@ -201,11 +212,39 @@ public class IpAccessControlService {
         }
         
         whitelistRepository.saveAll(expiredWhitelists);
+        if (!expiredWhitelists.isEmpty()) {
+            rebuildWhitelistIndexAfterCommit();
+        }
         
         logger.info("清理了 {} 个过期的白名单条目", expiredWhitelists.size());
         return expiredWhitelists.size();
     }
     
+    /**
+     * 从数据库重建白名单索引并原子替换，启动时和定时执行一次以同步其他节点或直接修改数据库的变更
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${app.access-control.index-refresh-ms:60000}", initialDelayString = "${app.access-control.index-refresh-ms:60000}")
+    @Transactional(readOnly = true)
+    public void rebuildWhitelistIndex() {
+        List<IpWhitelist> allServiceWhitelists = whitelistRepository
+            .findByWhitelistTypeAndIsActiveOrderByPriority(IpWhitelist.WhitelistType.ALL, true);
+        
+        Map<IpWhitelist.WhitelistType, IpPrefixTrie<IpWhitelist>> index = new EnumMap<>(IpWhitelist.WhitelistType.class);
+        for (IpWhitelist.WhitelistType type : IpWhitelist.WhitelistType.values()) {
+            IpPrefixTrie.Builder<IpWhitelist> builder = IpPrefixTrie.builder();
+            // 服务类型自身的条目先加入，优先级相同时优先于全部服务类型的条目
+            if (type != IpWhitelist.WhitelistType.ALL) {
+                addToIndex(builder, whitelistRepository.findByWhitelistTypeAndIsActiveOrderByPriority(type, true));
+            }
+            addToIndex(builder, allServiceWhitelists);
+            index.put(type, builder.build());
+        }
+        
+        whitelistIndex = index;
+        logger.debug("白名单索引已重建: {}", index.get(IpWhitelist.WhitelistType.ALL).getEntryCount());
+    }
+    
     /**
      * 获取访问统计
      */
@@ -240,123 +279,43 @@ public class IpAccessControlService {
      * 查找匹配的白名单条目
      */
     private IpWhitelist findMatchingWhitelist(String ipAddress, IpWhitelist.WhitelistType serviceType) {
-        List<IpWhitelist> whitelists = whitelistRepository
-            .findByWhitelistTypeAndIsActiveOrderByPriority(serviceType, true);
-        
-        // 也检查全部服务类型的白名单
-        List<IpWhitelist> allServiceWhitelists = whitelistRepository
-            .findByWhitelistTypeAndIsActiveOrderByPriority(IpWhitelist.WhitelistType.ALL, true);
-        
-        // 合并列表
-        List<IpWhitelist> allWhitelists = new ArrayList<>(whitelists);
-        allWhitelists.addAll(allServiceWhitelists);
-        
-        // 按优先级排序
-        allWhitelists.sort(Comparator.comparing(IpWhitelist::getPriority));
-        
-        for (IpWhitelist whitelist : allWhitelists) {
-            if (isIpMatched(ipAddress, whitelist)) {
-                return whitelist;
-            }
-        }
-        
-        return null;
+        IpPrefixTrie<IpWhitelist> trie = whitelistIndex.get(serviceType);
+        return trie != null ? trie.find(ipAddress) : null;
     }
     
     /**
-     * 检查IP是否匹配白名单条目
+     * 在当前事务提交后重建白名单索引，回滚的变更不会进入索引
      */
-    private boolean isIpMatched(String ipAddress, IpWhitelist whitelist) {
-        try {
-            switch (whitelist.getIpType()) {
-                case IPV4:
-                case IPV6:
-                    return ipAddress.equals(whitelist.getIpAddress());
-                
-                case CIDR:
-                    return isIpInCidr(ipAddress, whitelist.getCidrRange());
-                
-                case RANGE:
-                    // TODO: 实现IP范围匹配
-                    return false;
-                
-                default:
-                    return false;
-            }
-        } catch (Exception e) {
-            logger.error("IP匹配检查失败: ip={}, whitelist={}", ipAddress, whitelist.getId(), e);
-            return false;
+    private void rebuildWhitelistIndexAfterCommit() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    rebuildWhitelistIndex();
+                }
+            });
+        } else {
+            rebuildWhitelistIndex();
         }
     }
     
-    /**
-     * 检查IP是否在CIDR网段内
-     */
-    private boolean isIpInCidr(String ipAddress, String cidrRange) {
-        try {
-            String[] parts = cidrRange.split("/");
-            if (parts.length != 2) {
-                return false;
-            }
-            
-            InetAddress targetAddr = InetAddress.getByName(ipAddress);
-            InetAddress networkAddr = InetAddress.getByName(parts[0]);
-            int prefixLength = Integer.parseInt(parts[1]);
-            
-            // 简化的CIDR匹配实现
-            // 实际应用中可能需要更复杂的IPv6支持
-            if (targetAddr instanceof java.net.Inet4Address && 
-                networkAddr instanceof java.net.Inet4Address) {
-                return isIPv4InCidr(ipAddress, cidrRange);
+    private void addToIndex(IpPrefixTrie.Builder<IpWhitelist> builder, List<IpWhitelist> whitelists) {
+        for (IpWhitelist whitelist : whitelists) {
+            try {
+                builder.add(whitelist.getMatchableAddress(),
+                    whitelist.getPriority() != null ? whitelist.getPriority() : 0, whitelist);
+            } catch (IllegalArgumentException e) {
+                logger.warn("忽略无效的白名单条目: id={}, address={}, {}",
+                    whitelist.getId(), whitelist.getMatchableAddress(), e.getMessage());
             }
-            
-            return false;
-            
-        } catch (Exception e) {
-            logger.error("CIDR匹配检查失败: ip={}, cidr={}", ipAddress, cidrRange, e);
-            return false;
         }
     }
     
-    /**
-     * IPv4 CIDR匹配
-     */
-    private boolean isIPv4InCidr(String ipAddress, String cidrRange) {
-        try {
-            String[] cidrParts = cidrRange.split("/");
-            String networkAddress = cidrParts[0];
-            int prefixLength = Integer.parseInt(cidrParts[1]);
-            
-            long ipLong = ipToLong(ipAddress);
-            long networkLong = ipToLong(networkAddress);
-            long mask = (-1L << (32 - prefixLength)) & 0xFFFFFFFFL;
-            
-            return (ipLong & mask) == (networkLong & mask);
-            
-        } catch (Exception e) {
-            logger.error("IPv4 CIDR匹配失败", e);
-            return false;
-        }
-    }
-    
-    /**
-     * IP地址转换为长整型
-     */
-    private long ipToLong(String ipAddress) {
-        String[] parts = ipAddress.split("\\.");
-        long result = 0;
-        for (int i = 0; i < 4; i++) {
-            result |= (Long.parseLong(parts[i]) << (24 - i * 8));
-        }
-        return result & 0xFFFFFFFFL;
-    }
-    
     /**
      * 验证IP地址格式
      */
     private boolean isValidIpAddress(String ipAddress) {
-        return IPV4_PATTERN.matcher(ipAddress).matches() || 
-               IPV6_PATTERN.matcher(ipAddress).matches();
+        return IpPrefixTrie.isValidAddress(ipAddress);
     }
     
     /**
@@ -379,11 +338,8 @@ public class IpAccessControlService {
             // 检查前缀长度
             if (IPV4_PATTERN.matcher(ip).matches()) {
                 return prefix >= 0 && prefix <= 32;
-            } else if (IPV6_PATTERN.matcher(ip).matches()) {
-                return prefix >= 0 && prefix <= 128;
             }
-            
-            return false;
+            return prefix >= 0 && prefix <= 128;
             
         } catch (Exception e) {
             return false;
@@ -396,7 +352,7 @@ public class IpAccessControlService {
     private IpWhitelist.IpType detectIpType(String ipAddress) {
         if (IPV4_PATTERN.matcher(ipAddress).matches()) {
             return IpWhitelist.IpType.IPV4;
-        } else if (IPV6_PATTERN.matcher(ipAddress).matches()) {
+        } else if (IpPrefixTrie.isValidAddress(ipAddress)) {
             return IpWhitelist.IpType.IPV6;
         } else if (ipAddress.contains("/")) {
             return IpWhitelist.IpType.CIDR;
@@ -406,19 +362,14 @@ public class IpAccessControlService {
     }
     
     /**
-     * 更新白名单访问统计
+     * 更新白名单访问统计（写缓冲定时批量写回）
      */
     private void updateWhitelistAccess(IpWhitelist whitelist) {
-        try {
-            whitelist.incrementAccessCount();
-            whitelistRepository.save(whitelist);
-        } catch (Exception e) {
-            logger.error("更新白名单访问统计失败", e);
-        }
+        writeBuffer.recordWhitelistHit(whitelist.getId());
     }
     
     /**
-     * 记录访问日志
+     * 记录访问日志（写缓冲定时批量插入）
      */
     private void logAccess(AccessCheckResult result) {
         try {
@@ -440,7 +391,7 @@ public class IpAccessControlService {
                 log.setProcessingTimeMs(processingTime);
             }
             
-            accessLogRepository.save(log);
+            writeBuffer.recordAccessLog(log);
             
         } catch (Exception e) {
             logger.error("记录访问日志失败", e);
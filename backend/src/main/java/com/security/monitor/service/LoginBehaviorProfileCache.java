@@ -0,0 +1,760 @@
+package com.security.monitor.service;
+
+import com.security.monitor.model.LoginRecord;
+import com.security.monitor.model.UserLocation;
+import com.security.monitor.repository.LoginRecordRepository;
+import com.security.monitor.repository.UserLocationRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * 用户登录行为画像缓存
+ * 按用户在内存中维护常用位置（经纬度原始数组）、最近成功登录的设备指纹，以及最近登录的时间和地理位置环形缓冲区；
+ * 按IP维护24小时内分小时的登录计数。登录记录写入时增量更新，风险评分只读取内存，不再逐项查询数据库。
+ * 画像按数量上限和空闲时间淘汰，超过上限时由后台线程淘汰，登录线程上的插入保持O(1)；
+ * 登录线程上未命中时只建立空画像并记录本次登录，不访问数据库，
+ * 历史由风险评估工作线程在读取画像时从login_records/user_locations加载并合并。
+ * 启动时按最近活跃用户分批预热，每批只有几条集合查询；预热只加载ID小于启动时最大记录ID的历史，
+ * 之后的登录由recordLogin记录，两边不会重复计数
+ */
+@Component
+public class LoginBehaviorProfileCache implements OperationalStatusSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoginBehaviorProfileCache.class);
+
+    // 与原先查询最近10次成功登录保持一致
+    static final int DEVICE_HISTORY = 10;
+    // 登录频率阈值最高为10次/小时，环形缓冲区容量足够判定
+    static final int RECENT_LOGIN_CAPACITY = 64;
+    static final int IP_WINDOW_HOURS = 24;
+
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    @Autowired
+    private LoginRecordRepository loginRecordRepository;
+
+    @Autowired
+    private UserLocationRepository userLocationRepository;
+
+    @Value("${security.monitor.risk.time-window-minutes:60}")
+    private int timeWindowMinutes;
+
+    @Value("${security.monitor.risk.profile-cache.max-profiles:100000}")
+    private int maxProfiles;
+
+    @Value("${security.monitor.risk.profile-cache.idle-minutes:240}")
+    private long idleMinutes;
+
+    @Value("${security.monitor.risk.profile-cache.max-ip-entries:200000}")
+    private int maxIpEntries;
+
+    @Value("${security.monitor.risk.profile-cache.warmup-hours:24}")
+    private int warmupHours;
+
+    @Value("${security.monitor.risk.profile-cache.warmup-batch-size:1000}")
+    private int warmupBatchSize;
+
+    private final ConcurrentHashMap<Long, UserBehaviorProfile> profiles = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, IpActivity> ipActivities = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // 超过数量上限时的淘汰在单个后台线程上执行，同一时间最多排队一次
+    private final AtomicBoolean evictionPending = new AtomicBoolean();
+    private final ExecutorService evictor;
+
+    public LoginBehaviorProfileCache() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("login-profile-evict-");
+        threadFactory.setDaemon(true);
+        this.evictor = Executors.newSingleThreadExecutor(threadFactory);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        evictor.shutdownNow();
+    }
+
+    /**
+     * 启动时预热：加载最近活跃用户的画像和最近24小时的IP登录计数
+     * 只加载ID小于预热开始时水位的登录记录，水位之后的登录由recordLogin记入内存
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        long startedAt = System.currentTimeMillis();
+        try {
+            Long maxId = loginRecordRepository.findMaxId();
+            long watermark = maxId != null ? maxId + 1 : 1;
+            LocalDateTime since = LocalDateTime.now().minusHours(warmupHours);
+            List<Long> userIds = loginRecordRepository.findActiveUserIdsSince(since, PageRequest.of(0, maxProfiles));
+            int loadedProfiles = 0;
+            for (int i = 0; i < userIds.size(); i += warmupBatchSize) {
+                loadedProfiles += warmUpProfiles(userIds.subList(i, Math.min(i + warmupBatchSize, userIds.size())), watermark);
+            }
+            int loadedIps = warmUpIpActivities(watermark);
+            logger.info("用户行为画像预热完成: profiles={}, ips={}, 耗时{}ms",
+                    loadedProfiles, loadedIps, System.currentTimeMillis() - startedAt);
+        } catch (Exception e) {
+            logger.error("用户行为画像预热失败，画像将在登录时按需加载", e);
+        }
+    }
+
+    /**
+     * 登录记录写入后增量更新画像（成功、失败和被拦截的登录都计入频率和位置窗口）
+     * 在登录线程上调用，必须在登录记录保存之后：未命中时建立以本记录ID为历史水位的空画像，不查询数据库
+     */
+    public void recordLogin(LoginRecord loginRecord) {
+        if (loginRecord.getId() == null || loginRecord.getUser() == null) {
+            return;
+        }
+        Long userId = loginRecord.getUser().getId();
+        UserBehaviorProfile profile = profiles.get(userId);
+        if (profile == null) {
+            profile = putProfile(userId, new UserBehaviorProfile(loginRecord.getId()));
+        }
+        profile.record(loginRecord);
+
+        String ipAddress = loginRecord.getIpAddress();
+        if (ipAddress != null) {
+            IpActivity activity = ipActivities.get(ipAddress);
+            if (activity == null) {
+                activity = putIpActivity(ipAddress, new IpActivity(loginRecord.getId()));
+            }
+            activity.record(toEpochMillis(loginRecord.getLoginTime()));
+        }
+    }
+
+    /**
+     * 获取用户画像用于风险评分，在风险评估工作线程上调用，登录记录已提交。
+     * 未命中时从数据库加载（包含该记录）；登录线程建立的空画像在此加载水位之前的历史并合并
+     */
+    public UserBehaviorProfile getProfile(LoginRecord loginRecord) {
+        Long userId = loginRecord.getUser().getId();
+        UserBehaviorProfile profile = profiles.get(userId);
+        if (profile == null) {
+            misses.incrementAndGet();
+            return putProfile(userId, loadProfile(userId, null));
+        }
+        long watermark = profile.historyWatermark();
+        if (watermark > 0) {
+            misses.incrementAndGet();
+            profile.mergeHistory(loadProfile(userId, watermark));
+        } else {
+            hits.incrementAndGet();
+        }
+        profile.touch();
+        return profile;
+    }
+
+    /**
+     * 统计IP最近24小时的登录次数，在风险评估工作线程上调用，需要时加载并合并历史计数
+     */
+    public long countIpLoginsLastDay(LoginRecord loginRecord) {
+        String ipAddress = loginRecord.getIpAddress();
+        if (ipAddress == null) {
+            return 0;
+        }
+        IpActivity activity = ipActivities.get(ipAddress);
+        if (activity == null) {
+            activity = putIpActivity(ipAddress, loadIpActivity(ipAddress, null));
+        } else {
+            long watermark = activity.historyWatermark();
+            if (watermark > 0) {
+                activity.mergeHistory(loadIpActivity(ipAddress, watermark));
+            }
+        }
+        return activity.countLastDay(System.currentTimeMillis());
+    }
+
+    @Override
+    public String getStatusName() {
+        return "risk-profile-cache";
+    }
+
+    /**
+     * 获取缓存状态
+     */
+    @Override
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        status.put("profiles", profiles.size());
+        status.put("ipEntries", ipActivities.size());
+        status.put("hits", hits.get());
+        status.put("misses", misses.get());
+        status.put("evictions", evictions.get());
+        return status;
+    }
+
+    /**
+     * 定期淘汰空闲画像和24小时内没有登录的IP计数，并把数量压回上限以内
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdle() {
+        long now = System.currentTimeMillis();
+        long profileCutoff = now - TimeUnit.MINUTES.toMillis(idleMinutes);
+        long ipCutoff = now - IP_WINDOW_HOURS * HOUR_MILLIS;
+        int before = profiles.size() + ipActivities.size();
+        profiles.values().removeIf(profile -> profile.lastAccess < profileCutoff);
+        ipActivities.values().removeIf(activity -> activity.lastSeen < ipCutoff);
+        int removed = before - profiles.size() - ipActivities.size();
+        if (removed > 0) {
+            evictions.addAndGet(removed);
+            logger.debug("淘汰了{}个空闲的登录行为画像/IP计数", removed);
+        }
+        evictOverflow();
+    }
+
+    /**
+     * 插入画像，超过数量上限时只触发后台淘汰，不在调用线程上扫描
+     */
+    private UserBehaviorProfile putProfile(Long userId, UserBehaviorProfile loaded) {
+        UserBehaviorProfile existing = profiles.putIfAbsent(userId, loaded);
+        if (existing != null) {
+            return existing;
+        }
+        if (profiles.size() > maxProfiles) {
+            scheduleEviction();
+        }
+        return loaded;
+    }
+
+    private IpActivity putIpActivity(String ipAddress, IpActivity loaded) {
+        IpActivity existing = ipActivities.putIfAbsent(ipAddress, loaded);
+        if (existing != null) {
+            return existing;
+        }
+        if (ipActivities.size() > maxIpEntries) {
+            scheduleEviction();
+        }
+        return loaded;
+    }
+
+    private void scheduleEviction() {
+        if (!evictionPending.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            evictor.execute(() -> {
+                try {
+                    evictOverflow();
+                } finally {
+                    evictionPending.set(false);
+                }
+            });
+        } catch (RuntimeException e) {
+            // 正在关闭，由定时任务兜底
+            evictionPending.set(false);
+        }
+    }
+
+    private void evictOverflow() {
+        if (profiles.size() > maxProfiles) {
+            evictOldest(profiles, maxProfiles, profile -> profile.lastAccess);
+        }
+        if (ipActivities.size() > maxIpEntries) {
+            evictOldest(ipActivities, maxIpEntries, activity -> activity.lastSeen);
+        }
+    }
+
+    /**
+     * 超过数量上限时按最近访问时间淘汰最旧的约10%，避免每次插入都全量扫描
+     */
+    private <K, V> void evictOldest(ConcurrentHashMap<K, V> map, int limit, ToLongFunction<V> lastAccess) {
+        long[] accessTimes = map.values().stream().mapToLong(lastAccess).toArray();
+        if (accessTimes.length < limit) {
+            return;
+        }
+        Arrays.sort(accessTimes);
+        long cutoff = accessTimes[Math.max(accessTimes.length / 10, 1) - 1];
+        int before = map.size();
+        map.values().removeIf(value -> lastAccess.applyAsLong(value) <= cutoff);
+        evictions.addAndGet(Math.max(before - map.size(), 0));
+    }
+
+    /**
+     * 从数据库加载用户画像，只加载ID小于beforeRecordId的登录记录（为null时不限制），
+     * 不小于该ID的登录已由登录线程记录在内存中
+     */
+    private UserBehaviorProfile loadProfile(Long userId, Long beforeRecordId) {
+        UserBehaviorProfile profile = new UserBehaviorProfile(0);
+
+        for (UserLocation location : userLocationRepository.findByUserIdOrderByLoginCountDesc(userId)) {
+            profile.putLocation(locationKey(location.getCountry(), location.getRegion(), location.getCity()),
+                    location.getLatitude(), location.getLongitude());
+        }
+
+        List<LoginRecord> successfulLogins = loginRecordRepository.findSuccessfulLoginsByUserId(
+                userId, PageRequest.of(0, DEVICE_HISTORY + 1));
+        // 查询结果按时间倒序，倒着写入环形缓冲区以保持先后顺序
+        for (int i = successfulLogins.size() - 1; i >= 0; i--) {
+            LoginRecord record = successfulLogins.get(i);
+            if (isBefore(record.getId(), beforeRecordId)) {
+                profile.addDevice(record);
+            }
+        }
+
+        int windowMinutes = Math.max(timeWindowMinutes, 60);
+        List<LoginRecord> recentLogins = loginRecordRepository.findRecentLoginsByUserId(
+                userId, LocalDateTime.now().minusMinutes(windowMinutes));
+        for (LoginRecord record : recentLogins) {
+            if (isBefore(record.getId(), beforeRecordId)) {
+                profile.addRecentLogin(record);
+            }
+        }
+        return profile;
+    }
+
+    private IpActivity loadIpActivity(String ipAddress, Long beforeRecordId) {
+        IpActivity activity = new IpActivity(0);
+        List<Object[]> logins = loginRecordRepository.findLoginTimesByIpSince(
+                ipAddress, LocalDateTime.now().minusHours(IP_WINDOW_HOURS));
+        for (Object[] login : logins) {
+            if (isBefore((Long) login[0], beforeRecordId)) {
+                activity.record(toEpochMillis((LocalDateTime) login[1]));
+            }
+        }
+        return activity;
+    }
+
+    private static boolean isBefore(Long recordId, Long beforeRecordId) {
+        return beforeRecordId == null || recordId == null || recordId < beforeRecordId;
+    }
+
+    /**
+     * 用一批集合查询加载一批用户的画像（位置、各自最近的成功登录、时间窗口内的登录），
+     * 已有画像的用户（预热期间登录过）以现有画像为准
+     */
+    private int warmUpProfiles(List<Long> userIds, long watermark) {
+        Map<Long, UserBehaviorProfile> loaded = new HashMap<>(userIds.size() * 2);
+        for (Long userId : userIds) {
+            loaded.put(userId, new UserBehaviorProfile(0));
+        }
+
+        for (UserLocation location : userLocationRepository.findByUserIdInOrderByLoginCountDesc(userIds)) {
+            UserBehaviorProfile profile = loaded.get(location.getUser().getId());
+            if (profile != null) {
+                profile.putLocation(locationKey(location.getCountry(), location.getRegion(), location.getCity()),
+                        location.getLatitude(), location.getLongitude());
+            }
+        }
+
+        // 每个用户最多DEVICE_HISTORY + 1条，按时间先后写入环形缓冲区
+        List<LoginRecord> successfulLogins = new ArrayList<>(
+                loginRecordRepository.findRecentSuccessfulLoginsByUserIds(userIds, watermark, DEVICE_HISTORY + 1));
+        successfulLogins.sort(Comparator.comparing(LoginRecord::getLoginTime, Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(LoginRecord::getId));
+        for (LoginRecord record : successfulLogins) {
+            UserBehaviorProfile profile = loaded.get(record.getUser().getId());
+            if (profile != null) {
+                profile.addDevice(record);
+            }
+        }
+
+        int windowMinutes = Math.max(timeWindowMinutes, 60);
+        for (LoginRecord record : loginRecordRepository.findRecentLoginsByUserIds(
+                userIds, LocalDateTime.now().minusMinutes(windowMinutes), watermark)) {
+            UserBehaviorProfile profile = loaded.get(record.getUser().getId());
+            if (profile != null) {
+                profile.addRecentLogin(record);
+            }
+        }
+
+        int count = 0;
+        for (Map.Entry<Long, UserBehaviorProfile> entry : loaded.entrySet()) {
+            if (profiles.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private int warmUpIpActivities(long watermark) {
+        LocalDateTime since = LocalDateTime.now().minusHours(IP_WINDOW_HOURS);
+        Map<String, IpActivity> loaded = new HashMap<>();
+        long afterId = 0;
+        boolean reachedWatermark = false;
+        List<Object[]> batch;
+        do {
+            batch = loginRecordRepository.findLoginIpTimesSince(since, afterId, PageRequest.of(0, warmupBatchSize));
+            for (Object[] login : batch) {
+                afterId = (Long) login[0];
+                if (afterId >= watermark) {
+                    // 水位之后的登录已由recordLogin记录
+                    reachedWatermark = true;
+                    break;
+                }
+                if (login[1] != null) {
+                    loaded.computeIfAbsent((String) login[1], ip -> new IpActivity(0))
+                            .record(toEpochMillis((LocalDateTime) login[2]));
+                }
+            }
+        } while (!reachedWatermark && batch.size() == warmupBatchSize && loaded.size() < maxIpEntries);
+
+        int count = 0;
+        for (Map.Entry<String, IpActivity> entry : loaded.entrySet()) {
+            if (ipActivities.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static String locationKey(String country, String region, String city) {
+        if (country == null) {
+            return null;
+        }
+        return country + "|" + region + "|" + city;
+    }
+
+    static long toEpochMillis(LocalDateTime time) {
+        if (time == null) {
+            return System.currentTimeMillis();
+        }
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    static double toDegrees(BigDecimal value) {
+        return value != null ? value.doubleValue() : Double.NaN;
+    }
+
+    /**
+     * 使用Haversine公式计算两点间距离（公里），任一坐标未知时返回Double.MAX_VALUE
+     */
+    static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        if (Double.isNaN(lat1) || Double.isNaN(lon1) || Double.isNaN(lat2) || Double.isNaN(lon2)) {
+            return Double.MAX_VALUE;
+        }
+        double latDistance = Math.toRadians(lat2 - lat1);
+        double lonDistance = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return 6371 * c; // 地球半径6371公里
+    }
+
+    /**
+     * 单个用户的登录行为画像，所有读写都在画像对象上同步
+     */
+    public static class UserBehaviorProfile {
+        // 常用位置
+        private String[] locationKeys = new String[4];
+        private double[] locationLats = new double[4];
+        private double[] locationLons = new double[4];
+        private int locationCount;
+
+        // 最近成功登录的设备指纹（浏览器|操作系统，User-Agent缺失时为null）
+        private final long[] deviceRecordIds = new long[DEVICE_HISTORY];
+        private final String[] deviceFingerprints = new String[DEVICE_HISTORY];
+        private int deviceCount;
+        private int deviceNext;
+
+        // 最近登录的时间和地理位置
+        private final long[] loginTimes = new long[RECENT_LOGIN_CAPACITY];
+        private final double[] loginLats = new double[RECENT_LOGIN_CAPACITY];
+        private final double[] loginLons = new double[RECENT_LOGIN_CAPACITY];
+        private final String[] loginLocationKeys = new String[RECENT_LOGIN_CAPACITY];
+        private int loginCount;
+        private int loginNext;
+
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        // 大于0时画像尚未加载历史：ID不小于该值的登录已记录在内存中，更早的登录等待工作线程加载合并
+        private long historyWatermark;
+
+        UserBehaviorProfile(long historyWatermark) {
+            this.historyWatermark = historyWatermark;
+        }
+
+        synchronized long historyWatermark() {
+            return historyWatermark;
+        }
+
+        /**
+         * 合并从数据库加载的历史：历史在前，已在内存中记录的登录在后。重复合并时忽略
+         */
+        synchronized void mergeHistory(UserBehaviorProfile history) {
+            if (historyWatermark == 0) {
+                return;
+            }
+            for (int i = 0; i < locationCount; i++) {
+                history.putLocationDegrees(locationKeys[i], locationLats[i], locationLons[i]);
+            }
+            int deviceStart = (deviceNext - deviceCount + DEVICE_HISTORY) % DEVICE_HISTORY;
+            for (int i = 0; i < deviceCount; i++) {
+                int j = (deviceStart + i) % DEVICE_HISTORY;
+                history.addDeviceEntry(deviceRecordIds[j], deviceFingerprints[j]);
+            }
+            int loginStart = (loginNext - loginCount + RECENT_LOGIN_CAPACITY) % RECENT_LOGIN_CAPACITY;
+            for (int i = 0; i < loginCount; i++) {
+                int j = (loginStart + i) % RECENT_LOGIN_CAPACITY;
+                history.addLoginEntry(loginTimes[j], loginLats[j], loginLons[j], loginLocationKeys[j]);
+            }
+
+            locationKeys = history.locationKeys;
+            locationLats = history.locationLats;
+            locationLons = history.locationLons;
+            locationCount = history.locationCount;
+            System.arraycopy(history.deviceRecordIds, 0, deviceRecordIds, 0, DEVICE_HISTORY);
+            System.arraycopy(history.deviceFingerprints, 0, deviceFingerprints, 0, DEVICE_HISTORY);
+            deviceCount = history.deviceCount;
+            deviceNext = history.deviceNext;
+            System.arraycopy(history.loginTimes, 0, loginTimes, 0, RECENT_LOGIN_CAPACITY);
+            System.arraycopy(history.loginLats, 0, loginLats, 0, RECENT_LOGIN_CAPACITY);
+            System.arraycopy(history.loginLons, 0, loginLons, 0, RECENT_LOGIN_CAPACITY);
+            System.arraycopy(history.loginLocationKeys, 0, loginLocationKeys, 0, RECENT_LOGIN_CAPACITY);
+            loginCount = history.loginCount;
+            loginNext = history.loginNext;
+            historyWatermark = 0;
+        }
+
+        synchronized void record(LoginRecord loginRecord) {
+            addRecentLogin(loginRecord);
+            if (loginRecord.getLoginStatus() == LoginRecord.LoginStatus.SUCCESS) {
+                addDevice(loginRecord);
+            }
+            touch();
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+
+        /**
+         * 新增或更新常用位置
+         */
+        public synchronized void putLocation(String key, BigDecimal latitude, BigDecimal longitude) {
+            putLocationDegrees(key, toDegrees(latitude), toDegrees(longitude));
+        }
+
+        private void putLocationDegrees(String key, double latitude, double longitude) {
+            for (int i = 0; i < locationCount; i++) {
+                if (locationKeys[i].equals(key)) {
+                    locationLats[i] = latitude;
+                    locationLons[i] = longitude;
+                    return;
+                }
+            }
+            if (locationCount == locationKeys.length) {
+                int capacity = locationCount * 2;
+                locationKeys = Arrays.copyOf(locationKeys, capacity);
+                locationLats = Arrays.copyOf(locationLats, capacity);
+                locationLons = Arrays.copyOf(locationLons, capacity);
+            }
+            locationKeys[locationCount] = key;
+            locationLats[locationCount] = latitude;
+            locationLons[locationCount] = longitude;
+            locationCount++;
+        }
+
+        public synchronized boolean hasKnownLocations() {
+            return locationCount > 0;
+        }
+
+        /**
+         * 到最近常用位置的距离（公里），坐标未知时为Double.MAX_VALUE
+         */
+        public synchronized double minDistanceToKnownLocation(BigDecimal latitude, BigDecimal longitude) {
+            double lat = toDegrees(latitude);
+            double lon = toDegrees(longitude);
+            double minDistance = Double.MAX_VALUE;
+            for (int i = 0; i < locationCount; i++) {
+                minDistance = Math.min(minDistance, distanceKm(locationLats[i], locationLons[i], lat, lon));
+            }
+            return minDistance;
+        }
+
+        /**
+         * 除当前记录外是否有最近成功登录的设备记录
+         */
+        public synchronized boolean hasDeviceHistory(Long currentRecordId) {
+            for (int i = 0; i < deviceCount; i++) {
+                if (!Objects.equals(deviceRecordIds[i], currentRecordId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 当前设备是否与最近成功登录的设备相似（浏览器和操作系统相同）
+         */
+        public synchronized boolean isKnownDevice(LoginRecord loginRecord) {
+            String fingerprint = deviceFingerprint(loginRecord);
+            if (fingerprint == null) {
+                return false;
+            }
+            for (int i = 0; i < deviceCount; i++) {
+                if (!Objects.equals(deviceRecordIds[i], loginRecord.getId())
+                        && fingerprint.equals(deviceFingerprints[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public synchronized int countLoginsSince(long sinceMillis) {
+            int count = 0;
+            for (int i = 0; i < loginCount; i++) {
+                if (loginTimes[i] >= sinceMillis) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        public synchronized int countDistinctLocationsSince(long sinceMillis) {
+            Set<String> locations = new HashSet<>();
+            for (int i = 0; i < loginCount; i++) {
+                if (loginTimes[i] >= sinceMillis && loginLocationKeys[i] != null) {
+                    locations.add(loginLocationKeys[i]);
+                }
+            }
+            return locations.size();
+        }
+
+        /**
+         * 时间窗口内登录位置与给定坐标的最大距离（公里），忽略坐标未知的登录
+         */
+        public synchronized double maxDistanceSince(long sinceMillis, BigDecimal latitude, BigDecimal longitude) {
+            double lat = toDegrees(latitude);
+            double lon = toDegrees(longitude);
+            if (Double.isNaN(lat) || Double.isNaN(lon)) {
+                return 0;
+            }
+            double maxDistance = 0;
+            for (int i = 0; i < loginCount; i++) {
+                if (loginTimes[i] >= sinceMillis && !Double.isNaN(loginLats[i]) && !Double.isNaN(loginLons[i])) {
+                    maxDistance = Math.max(maxDistance, distanceKm(loginLats[i], loginLons[i], lat, lon));
+                }
+            }
+            return maxDistance;
+        }
+
+        private void addDevice(LoginRecord loginRecord) {
+            addDeviceEntry(loginRecord.getId() != null ? loginRecord.getId() : -1L, deviceFingerprint(loginRecord));
+        }
+
+        private void addDeviceEntry(long recordId, String fingerprint) {
+            deviceRecordIds[deviceNext] = recordId;
+            deviceFingerprints[deviceNext] = fingerprint;
+            deviceNext = (deviceNext + 1) % DEVICE_HISTORY;
+            deviceCount = Math.min(deviceCount + 1, DEVICE_HISTORY);
+        }
+
+        private void addRecentLogin(LoginRecord loginRecord) {
+            addLoginEntry(toEpochMillis(loginRecord.getLoginTime()),
+                    toDegrees(loginRecord.getLatitude()), toDegrees(loginRecord.getLongitude()),
+                    locationKey(loginRecord.getCountry(), loginRecord.getRegion(), loginRecord.getCity()));
+        }
+
+        private void addLoginEntry(long time, double latitude, double longitude, String locationKey) {
+            loginTimes[loginNext] = time;
+            loginLats[loginNext] = latitude;
+            loginLons[loginNext] = longitude;
+            loginLocationKeys[loginNext] = locationKey;
+            loginNext = (loginNext + 1) % RECENT_LOGIN_CAPACITY;
+            loginCount = Math.min(loginCount + 1, RECENT_LOGIN_CAPACITY);
+        }
+
+        private static String deviceFingerprint(LoginRecord loginRecord) {
+            if (loginRecord.getUserAgent() == null || loginRecord.getBrowser() == null || loginRecord.getOs() == null) {
+                return null;
+            }
+            return loginRecord.getBrowser() + "|" + loginRecord.getOs();
+        }
+    }
+
+    /**
+     * 单个IP最近24小时的分小时登录计数
+     */
+    static class IpActivity {
+        private final long[] hourStarts = new long[IP_WINDOW_HOURS];
+        private final int[] counts = new int[IP_WINDOW_HOURS];
+        private volatile long lastSeen;
+        // 含义同UserBehaviorProfile.historyWatermark
+        private long historyWatermark;
+
+        IpActivity(long historyWatermark) {
+            this.historyWatermark = historyWatermark;
+        }
+
+        synchronized long historyWatermark() {
+            return historyWatermark;
+        }
+
+        /**
+         * 按小时槽位累加从数据库加载的历史计数，重复合并时忽略
+         */
+        synchronized void mergeHistory(IpActivity history) {
+            if (historyWatermark == 0) {
+                return;
+            }
+            for (int i = 0; i < IP_WINDOW_HOURS; i++) {
+                if (history.hourStarts[i] == hourStarts[i]) {
+                    counts[i] += history.counts[i];
+                } else if (history.hourStarts[i] > hourStarts[i]) {
+                    hourStarts[i] = history.hourStarts[i];
+                    counts[i] = history.counts[i];
+                }
+            }
+            lastSeen = Math.max(lastSeen, history.lastSeen);
+            historyWatermark = 0;
+        }
+
+        synchronized void record(long timeMillis) {
+            long hour = timeMillis / HOUR_MILLIS;
+            int slot = (int) (hour % IP_WINDOW_HOURS);
+            if (hour < hourStarts[slot]) {
+                return; // 比该槽位现有数据早24小时以上，已在窗口外
+            }
+            if (hourStarts[slot] != hour) {
+                hourStarts[slot] = hour;
+                counts[slot] = 0;
+            }
+            counts[slot]++;
+            lastSeen = Math.max(lastSeen, timeMillis);
+        }
+
+        synchronized long countLastDay(long nowMillis) {
+            long currentHour = nowMillis / HOUR_MILLIS;
+            long total = 0;
+            for (int i = 0; i < IP_WINDOW_HOURS; i++) {
+                if (currentHour - hourStarts[i] < IP_WINDOW_HOURS) {
+                    total += counts[i];
+                }
+            }
+            return total;
+        }
+    }
+}
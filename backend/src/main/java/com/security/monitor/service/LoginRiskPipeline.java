@@ -0,0 +1,392 @@
+package com.security.monitor.service;
+
+import com.security.monitor.model.LoginRecord;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 登录风险评估流水线
+ * 登录事务提交后只把登录记录ID放入有界队列，由固定数量的工作线程调用AnomalousLoginDetectionService完成评分、
+ * 常用位置更新和警报，签发JWT不再等待这些数据库操作。队列已满时不在提交线程上评估（那会把背压传回登录请求），
+ * 而是放入有界的重试队列，由定时任务在工作队列降到一半以下时低优先级补交；重试队列也满时丢弃并计入droppedTasks。
+ * 可选的内联判定只读取内存中最近的异步评估结果：同一用户从刚被评为极高风险的IP再次登录时在签发令牌前直接拒绝。
+ * 判定按（用户, IP）记录：风险评分主要来自用户自身的行为基线（异地、新设备、时间异常），
+ * 共享出口IP（NAT、代理）后面的其他用户不受影响；针对IP本身的封禁由IpAccessControlService负责
+ */
+@Component
+public class LoginRiskPipeline implements OperationalStatusSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoginRiskPipeline.class);
+
+    @Autowired
+    private AnomalousLoginDetectionService anomalousLoginDetectionService;
+
+    @Value("${security.monitor.risk.pipeline.workers:4}")
+    private int workers;
+
+    @Value("${security.monitor.risk.pipeline.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${security.monitor.risk.pipeline.retry-capacity:10000}")
+    private int retryCapacity;
+
+    @Value("${security.monitor.risk.inline-verdict.enabled:false}")
+    private boolean inlineVerdictEnabled;
+
+    @Value("${security.monitor.risk.inline-verdict.block-threshold:90}")
+    private int blockThreshold;
+
+    @Value("${security.monitor.risk.inline-verdict.ttl-minutes:30}")
+    private long verdictTtlMinutes;
+
+    @Value("${security.monitor.risk.inline-verdict.max-entries:100000}")
+    private int maxVerdictEntries;
+
+    private ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, CachedVerdict> verdicts = new ConcurrentHashMap<>();
+    // 工作队列已满时推迟评估的登录记录ID，只保存ID，大小受retryCapacity限制
+    private final ConcurrentLinkedDeque<Long> deferred = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger deferredSize = new AtomicInteger();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong deferredTasks = new AtomicLong();
+    private final AtomicLong retriedTasks = new AtomicLong();
+    private final AtomicLong droppedTasks = new AtomicLong();
+    private final AtomicLong inlineBlocked = new AtomicLong();
+    private final AtomicLong totalQueueWaitMillis = new AtomicLong();
+    private final AtomicLong maxQueueWaitMillis = new AtomicLong();
+    private final AtomicLong totalProcessingMillis = new AtomicLong();
+    private final AtomicInteger queueHighWater = new AtomicInteger();
+
+    @PostConstruct
+    public void start() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("login-risk-");
+        threadFactory.setDaemon(true);
+        executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory);
+        logger.info("登录风险评估流水线已启动: workers={}, queueCapacity={}, inlineVerdict={}",
+                workers, queueCapacity, inlineVerdictEnabled);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            // 尽量评估完已排队的登录
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("登录风险评估流水线关闭时仍有{}条登录未评估", executor.getQueue().size());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 提交登录记录进行异步评估，在当前事务提交后入队（工作线程需要读到已提交的记录）
+     */
+    public void submit(LoginRecord loginRecord) {
+        Long loginRecordId = loginRecord.getId();
+        if (loginRecordId == null) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(loginRecordId);
+                }
+            });
+        } else {
+            enqueue(loginRecordId);
+        }
+    }
+
+    /**
+     * 内联判定：只使用内存中的状态，不访问数据库。需要拒绝时在登录记录上写入评分并返回true
+     */
+    public boolean shouldBlock(LoginRecord loginRecord) {
+        String key = verdictKey(loginRecord);
+        if (!inlineVerdictEnabled || key == null) {
+            return false;
+        }
+        CachedVerdict verdict = verdicts.get(key);
+        if (verdict == null) {
+            return false;
+        }
+        if (verdict.isExpired(System.currentTimeMillis())) {
+            verdicts.remove(key, verdict);
+            return false;
+        }
+        loginRecord.setRiskScore(verdict.riskScore);
+        loginRecord.setIsSuspicious(true);
+        inlineBlocked.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public String getStatusName() {
+        return "risk-pipeline";
+    }
+
+    /**
+     * 获取流水线状态和背压指标
+     */
+    @Override
+    public LoginRiskPipelineStatus getStatus() {
+        LoginRiskPipelineStatus status = new LoginRiskPipelineStatus();
+        long done = completed.get();
+        status.setWorkers(workers);
+        status.setQueueCapacity(queueCapacity);
+        status.setQueueDepth(executor.getQueue().size());
+        status.setQueueHighWater(queueHighWater.get());
+        status.setActiveWorkers(executor.getActiveCount());
+        status.setSubmitted(submitted.get());
+        status.setCompleted(done);
+        status.setFailed(failed.get());
+        status.setDeferredTasks(deferredTasks.get());
+        status.setRetriedTasks(retriedTasks.get());
+        status.setDroppedTasks(droppedTasks.get());
+        status.setRetryQueueDepth(deferredSize.get());
+        status.setInlineVerdictEnabled(inlineVerdictEnabled);
+        status.setInlineBlocked(inlineBlocked.get());
+        status.setCachedVerdicts(verdicts.size());
+        status.setAverageQueueWaitMillis(done > 0 ? (double) totalQueueWaitMillis.get() / done : 0);
+        status.setMaxQueueWaitMillis(maxQueueWaitMillis.get());
+        status.setAverageProcessingMillis(done > 0 ? (double) totalProcessingMillis.get() / done : 0);
+        return status;
+    }
+
+    /**
+     * 工作队列降到一半以下时补交推迟的评估，重试不与新登录争抢队列空间
+     */
+    @Scheduled(fixedDelayString = "${security.monitor.risk.pipeline.retry-interval-ms:1000}")
+    public void retryDeferred() {
+        if (executor == null || executor.isShutdown()) {
+            return;
+        }
+        Long loginRecordId;
+        while (executor.getQueue().remainingCapacity() > queueCapacity / 2 && (loginRecordId = deferred.pollFirst()) != null) {
+            deferredSize.decrementAndGet();
+            if (!tryExecute(loginRecordId)) {
+                deferred.offerFirst(loginRecordId);
+                deferredSize.incrementAndGet();
+                return;
+            }
+            retriedTasks.incrementAndGet();
+        }
+    }
+
+    private void enqueue(Long loginRecordId) {
+        submitted.incrementAndGet();
+        if (!tryExecute(loginRecordId)) {
+            // 队列已满或正在关闭：不在提交线程上评估，推迟到重试队列
+            defer(loginRecordId);
+        }
+    }
+
+    private boolean tryExecute(Long loginRecordId) {
+        try {
+            executor.execute(new RiskTask(loginRecordId));
+            queueHighWater.accumulateAndGet(executor.getQueue().size(), Math::max);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 放入重试队列，重试队列已满或流水线已关闭时丢弃
+     */
+    private void defer(Long loginRecordId) {
+        if (!executor.isShutdown() && deferredSize.incrementAndGet() <= retryCapacity) {
+            deferred.offerLast(loginRecordId);
+            deferredTasks.incrementAndGet();
+            return;
+        }
+        if (!executor.isShutdown()) {
+            deferredSize.decrementAndGet();
+        }
+        long dropped = droppedTasks.incrementAndGet();
+        // 持续过载时每1000条记录一次日志
+        if (dropped % 1000 == 1) {
+            logger.warn("登录风险评估队列和重试队列已满，丢弃评估: loginRecord={}, dropped={}", loginRecordId, dropped);
+        }
+    }
+
+    /**
+     * 记录极高风险的（用户, IP），供内联判定使用
+     */
+    private void rememberVerdict(LoginRecord loginRecord) {
+        Integer riskScore = loginRecord.getRiskScore();
+        String key = verdictKey(loginRecord);
+        if (!inlineVerdictEnabled || riskScore == null || key == null || riskScore < blockThreshold) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (verdicts.size() >= maxVerdictEntries) {
+            verdicts.values().removeIf(verdict -> verdict.isExpired(now));
+            if (verdicts.size() >= maxVerdictEntries) {
+                logger.warn("内联判定缓存已满，忽略高风险登录: {}", key);
+                return;
+            }
+        }
+        verdicts.put(key, new CachedVerdict(riskScore, now + TimeUnit.MINUTES.toMillis(verdictTtlMinutes)));
+    }
+
+    /**
+     * 判定缓存键：用户ID|IP，缺少任一项时不参与内联判定
+     */
+    private static String verdictKey(LoginRecord loginRecord) {
+        if (loginRecord.getUser() == null || loginRecord.getUser().getId() == null || loginRecord.getIpAddress() == null) {
+            return null;
+        }
+        return loginRecord.getUser().getId() + "|" + loginRecord.getIpAddress();
+    }
+
+    /**
+     * 单条登录的评估任务
+     */
+    private class RiskTask implements Runnable {
+        private final Long loginRecordId;
+        private final long enqueuedAt = System.currentTimeMillis();
+
+        RiskTask(Long loginRecordId) {
+            this.loginRecordId = loginRecordId;
+        }
+
+        @Override
+        public void run() {
+            long startedAt = System.currentTimeMillis();
+            long queueWait = startedAt - enqueuedAt;
+            totalQueueWaitMillis.addAndGet(queueWait);
+            maxQueueWaitMillis.accumulateAndGet(queueWait, Math::max);
+            try {
+                LoginRecord scored = anomalousLoginDetectionService.detectAnomalousLogin(loginRecordId);
+                if (scored != null) {
+                    rememberVerdict(scored);
+                }
+            } catch (Exception e) {
+                failed.incrementAndGet();
+                logger.error("登录风险评估失败: loginRecord={}", loginRecordId, e);
+            } finally {
+                totalProcessingMillis.addAndGet(System.currentTimeMillis() - startedAt);
+                completed.incrementAndGet();
+            }
+        }
+    }
+
+    private static class CachedVerdict {
+        private final int riskScore;
+        private final long expiresAt;
+
+        CachedVerdict(int riskScore, long expiresAt) {
+            this.riskScore = riskScore;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+
+    /**
+     * 登录风险评估流水线状态
+     */
+    public static class LoginRiskPipelineStatus {
+        private int workers;
+        private int queueCapacity;
+        private int queueDepth;
+        private int queueHighWater;
+        private int activeWorkers;
+        private long submitted;
+        private long completed;
+        private long failed;
+        private long deferredTasks;
+        private long retriedTasks;
+        private long droppedTasks;
+        private int retryQueueDepth;
+        private boolean inlineVerdictEnabled;
+        private long inlineBlocked;
+        private int cachedVerdicts;
+        private double averageQueueWaitMillis;
+        private long maxQueueWaitMillis;
+        private double averageProcessingMillis;
+
+        // Getters and Setters
+        public int getWorkers() { return workers; }
+        public void setWorkers(int workers) { this.workers = workers; }
+
+        public int getQueueCapacity() { return queueCapacity; }
+        public void setQueueCapacity(int queueCapacity) { this.queueCapacity = queueCapacity; }
+
+        public int getQueueDepth() { return queueDepth; }
+        public void setQueueDepth(int queueDepth) { this.queueDepth = queueDepth; }
+
+        public int getQueueHighWater() { return queueHighWater; }
+        public void setQueueHighWater(int queueHighWater) { this.queueHighWater = queueHighWater; }
+
+        public int getActiveWorkers() { return activeWorkers; }
+        public void setActiveWorkers(int activeWorkers) { this.activeWorkers = activeWorkers; }
+
+        public long getSubmitted() { return submitted; }
+        public void setSubmitted(long submitted) { this.submitted = submitted; }
+
+        public long getCompleted() { return completed; }
+        public void setCompleted(long completed) { this.completed = completed; }
+
+        public long getFailed() { return failed; }
+        public void setFailed(long failed) { this.failed = failed; }
+
+        public long getDeferredTasks() { return deferredTasks; }
+        public void setDeferredTasks(long deferredTasks) { this.deferredTasks = deferredTasks; }
+
+        public long getRetriedTasks() { return retriedTasks; }
+        public void setRetriedTasks(long retriedTasks) { this.retriedTasks = retriedTasks; }
+
+        public long getDroppedTasks() { return droppedTasks; }
+        public void setDroppedTasks(long droppedTasks) { this.droppedTasks = droppedTasks; }
+
+        public int getRetryQueueDepth() { return retryQueueDepth; }
+        public void setRetryQueueDepth(int retryQueueDepth) { this.retryQueueDepth = retryQueueDepth; }
+
+        public boolean isInlineVerdictEnabled() { return inlineVerdictEnabled; }
+        public void setInlineVerdictEnabled(boolean inlineVerdictEnabled) { this.inlineVerdictEnabled = inlineVerdictEnabled; }
+
+        public long getInlineBlocked() { return inlineBlocked; }
+        public void setInlineBlocked(long inlineBlocked) { this.inlineBlocked = inlineBlocked; }
+
+        public int getCachedVerdicts() { return cachedVerdicts; }
+        public void setCachedVerdicts(int cachedVerdicts) { this.cachedVerdicts = cachedVerdicts; }
+
+        public double getAverageQueueWaitMillis() { return averageQueueWaitMillis; }
+        public void setAverageQueueWaitMillis(double averageQueueWaitMillis) { this.averageQueueWaitMillis = averageQueueWaitMillis; }
+
+        public long getMaxQueueWaitMillis() { return maxQueueWaitMillis; }
+        public void setMaxQueueWaitMillis(long maxQueueWaitMillis) { this.maxQueueWaitMillis = maxQueueWaitMillis; }
+
+        public double getAverageProcessingMillis() { return averageProcessingMillis; }
+        public void setAverageProcessingMillis(double averageProcessingMillis) { this.averageProcessingMillis = averageProcessingMillis; }
+    }
+}
@@ -42,7 +42,10 @@ public class LoginService {
     private GeoLocationService geoLocationService;
 
     @Autowired
-    private AnomalousLoginDetectionService anomalousLoginDetectionService;
+    private LoginRiskPipeline loginRiskPipeline;
+
+    @Autowired
+    private LoginBehaviorProfileCache loginBehaviorProfileCache;
 
     @Autowired
     private JwtService jwtService;
@@ -64,6 +67,18 @@ public class LoginService {
             // 记录成功登录
             LoginRecord loginRecord = recordLogin(user, request, LoginRecord.LoginStatus.SUCCESS);
             
+            // 内联判定：只使用内存中的评估结果，命中极高风险时不签发令牌
+            if (loginRiskPipeline.shouldBlock(loginRecord)) {
+                loginRecord.setLoginStatus(LoginRecord.LoginStatus.BLOCKED);
+                loginRecordRepository.save(loginRecord);
+                loginBehaviorProfileCache.recordLogin(loginRecord);
+                logger.warn("用户 {} 的登录被风险判定拦截，IP: {}", username, loginRecord.getIpAddress());
+                return LoginResult.failure("登录存在安全风险，已被拦截");
+            }
+
+            // 最终状态确定后计入用户行为画像
+            loginBehaviorProfileCache.recordLogin(loginRecord);
+            
             // 更新用户最后登录时间
             user.setLastLogin(LocalDateTime.now());
             userRepository.save(user);
@@ -71,8 +86,8 @@ public class LoginService {
             // 生成JWT令牌
             String token = jwtService.generateToken(user);
 
-            // 执行异地登录检测
-            anomalousLoginDetectionService.detectAnomalousLogin(loginRecord);
+            // 异地登录检测在事务提交后由风险评估流水线异步执行
+            loginRiskPipeline.submit(loginRecord);
 
             logger.info("用户 {} 登录成功", username);
             
@@ -84,7 +99,8 @@ public class LoginService {
             // 查找用户（即使登录失败也要记录）
             User user = userRepository.findByUsername(username).orElse(null);
             if (user != null) {
-                recordLogin(user, request, LoginRecord.LoginStatus.FAILED);
+                LoginRecord loginRecord = recordLogin(user, request, LoginRecord.LoginStatus.FAILED);
+                loginBehaviorProfileCache.recordLogin(loginRecord);
             }
             
             return LoginResult.failure("用户名或密码错误");
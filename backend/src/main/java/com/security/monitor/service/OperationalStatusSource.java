@@ -0,0 +1,18 @@
+package com.security.monitor.service;
+
+/**
+ * 运维状态来源
+ * 实现该接口的组件由运维状态接口（/dashboard/ops）统一汇总，新增组件不需要再加单独的接口
+ */
+public interface OperationalStatusSource {
+
+    /**
+     * 状态名，作为汇总结果的键和单项查询的路径
+     */
+    String getStatusName();
+
+    /**
+     * 当前状态快照，序列化为JSON返回
+     */
+    Object getStatus();
+}
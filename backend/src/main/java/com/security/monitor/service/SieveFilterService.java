@@ -2,16 +2,15 @@ package com.security.monitor.service;
 
 import com.security.monitor.model.EmailMessage;
 import com.security.monitor.model.SieveFilter;
-import com.security.monitor.model.SieveFilterLog;
 import com.security.monitor.model.User;
 import com.security.monitor.repository.SieveFilterRepository;
-import com.security.monitor.repository.SieveFilterLogRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.regex.Pattern;
@@ -31,7 +30,13 @@ public class SieveFilterService {
     private SieveFilterRepository filterRepository;
     
     @Autowired
-    private SieveFilterLogRepository filterLogRepository;
+    private AuditLogSink auditLogSink;
+    
+    private static final String INSERT_FILTER_LOG_SQL = "INSERT INTO sieve_filter_logs "
+            + "(message_id, filter_id, filter_matched, executed_action, action_parameters, execution_time_ms, "
+            + "error_occurred, executed_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    // 与sieve_filter_logs.action_parameters列长度一致
+    private static final int MAX_ACTION_PARAMETERS_LENGTH = 1000;
     
     // Sieve命令模式
     private static final Pattern IF_PATTERN = Pattern.compile("if\\s+(.+?)\\s*\\{", Pattern.CASE_INSENSITIVE);
@@ -527,18 +532,18 @@ public class SieveFilterService {
     }
     
     private void logFilterExecution(EmailMessage message, SieveFilter filter, FilterExecutionResult result) {
+        if (message.getId() == null) {
+            return; // 未持久化的邮件没有可引用的message_id
+        }
         try {
-            SieveFilterLog log = new SieveFilterLog();
-            log.setMessage(message);
-            log.setFilter(filter);
-            log.setFilterMatched(result.isMatched());
-            log.setExecutedAction(result.getAction());
-            log.setActionParameters(result.getActionParameters() != null ? 
-                result.getActionParameters().toString() : null);
-            log.setExecutionTimeMs(result.getExecutionTimeMs());
-            log.setExecutedAt(LocalDateTime.now());
-            
-            filterLogRepository.save(log);
+            // 未命中的过滤器占大多数，过载时只对它们采样
+            auditLogSink.submit(INSERT_FILTER_LOG_SQL, new Object[] {
+                message.getId(), filter.getId(), result.isMatched(), result.getAction(),
+                result.getActionParameters() != null
+                    ? AuditLogSink.truncate(result.getActionParameters().toString(), MAX_ACTION_PARAMETERS_LENGTH)
+                    : null,
+                result.getExecutionTimeMs(), false, Timestamp.valueOf(LocalDateTime.now())
+            }, result.isMatched());
             
         } catch (Exception e) {
             logger.error("保存过滤器执行日志失败", e);
@@ -0,0 +1,281 @@
+package com.security.monitor.service;
+
+import com.security.monitor.model.EmailMessage;
+import com.security.monitor.model.SpamFilterRule;
+import com.security.monitor.repository.SpamFilterRuleRepository;
+import com.security.monitor.util.KeywordAutomaton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * 编译后的自定义反垃圾规则
+ * 启用的SpamFilterRule只加载一次，按字段分组编译：contains/not_contains的所有关键词合成一个Aho-Corasick自动机，
+ * equals按小写值建哈希表，regex预编译。每封邮件每个字段只扫描一遍关键词，规则表变化（条数或最后更新时间）后
+ * 重新编译并整体替换
+ */
+@Component
+public class SpamRuleEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpamRuleEngine.class);
+
+    @Autowired
+    private SpamFilterRuleRepository ruleRepository;
+
+    private volatile CompiledRuleSet ruleSet;
+
+    /**
+     * 计算邮件命中自定义规则的总分
+     */
+    public double evaluate(EmailMessage message) {
+        CompiledRuleSet current = ruleSet;
+        if (current == null) {
+            reloadRules();
+            current = ruleSet;
+        }
+        double score = 0.0;
+        for (FieldRules fieldRules : current.fields) {
+            score += fieldRules.evaluate(getMessageFieldValue(message, fieldRules.field));
+        }
+        return score;
+    }
+
+    /**
+     * 从数据库加载并编译规则，原子替换当前规则集
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void reloadRules() {
+        String version = currentVersion();
+        List<SpamFilterRule> rules = ruleRepository.findActiveRules();
+        CompiledRuleSet compiled = compile(rules, version);
+        ruleSet = compiled;
+        logger.info("自定义反垃圾规则已编译: {} 条规则, {} 个字段", compiled.ruleCount, compiled.fields.size());
+    }
+
+    /**
+     * 定时检查规则表是否变化
+     */
+    @Scheduled(fixedDelayString = "${app.antispam.rules.refresh-interval-ms:30000}")
+    public void refreshIfChanged() {
+        try {
+            CompiledRuleSet current = ruleSet;
+            if (current == null || !Objects.equals(current.version, currentVersion())) {
+                reloadRules();
+            }
+        } catch (Exception e) {
+            logger.warn("检查自定义反垃圾规则变更失败", e);
+        }
+    }
+
+    public int getRuleCount() {
+        CompiledRuleSet current = ruleSet;
+        return current != null ? current.ruleCount : 0;
+    }
+
+    /**
+     * 当前规则集可能得到的最高分（所有正分规则同时命中），用于评分流水线提前结束
+     */
+    public double getMaxScore() {
+        CompiledRuleSet current = ruleSet;
+        return current != null ? current.maxScore : Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * 规则表版本：总条数 + 最后更新时间，启用/停用和修改都会更新updated_at
+     */
+    private String currentVersion() {
+        LocalDateTime latestUpdate = ruleRepository.findLatestUpdateTime();
+        return ruleRepository.count() + "@" + latestUpdate;
+    }
+
+    private CompiledRuleSet compile(List<SpamFilterRule> rules, String version) {
+        Map<String, FieldRulesBuilder> builders = new LinkedHashMap<>();
+        int ruleCount = 0;
+        double maxScore = 0.0;
+        for (SpamFilterRule rule : rules) {
+            if (rule.getFieldName() == null || rule.getOperator() == null || rule.getPattern() == null
+                    || rule.getScoreModifier() == null) {
+                logger.warn("忽略不完整的自定义规则: {}", rule.getRuleName());
+                continue;
+            }
+            String field = rule.getFieldName().toLowerCase(Locale.ROOT);
+            FieldRulesBuilder builder = builders.computeIfAbsent(field, FieldRulesBuilder::new);
+            String pattern = rule.getPattern();
+            double score = rule.getScoreModifier();
+            switch (rule.getOperator().toLowerCase(Locale.ROOT)) {
+                case "contains":
+                    builder.addKeyword(pattern, score, false);
+                    break;
+                case "not_contains":
+                    builder.addKeyword(pattern, score, true);
+                    break;
+                case "equals":
+                    builder.equalsScores.merge(pattern.toLowerCase(), score, Double::sum);
+                    break;
+                case "regex":
+                    try {
+                        builder.regexes.add(Pattern.compile(pattern, Pattern.CASE_INSENSITIVE));
+                        builder.regexScores.add(score);
+                    } catch (PatternSyntaxException e) {
+                        logger.warn("忽略无效的正则规则: {}, {}", rule.getRuleName(), e.getMessage());
+                        continue;
+                    }
+                    break;
+                default:
+                    continue;
+            }
+            ruleCount++;
+            maxScore += Math.max(0.0, score);
+        }
+        List<FieldRules> fields = new ArrayList<>(builders.size());
+        for (FieldRulesBuilder builder : builders.values()) {
+            fields.add(builder.build());
+        }
+        return new CompiledRuleSet(fields, ruleCount, maxScore, version);
+    }
+
+    /**
+     * 获取邮件字段值，未知字段视为空字符串
+     */
+    private String getMessageFieldValue(EmailMessage message, String field) {
+        String value;
+        switch (field) {
+            case "subject":
+                value = message.getSubject();
+                break;
+            case "from":
+                value = message.getFromAddress();
+                break;
+            case "to":
+                value = message.getToAddresses();
+                break;
+            case "body":
+                value = message.getBodyText();
+                break;
+            case "body_html":
+                value = message.getBodyHtml();
+                break;
+            default:
+                value = "";
+        }
+        return value != null ? value : "";
+    }
+
+    /**
+     * 编译后的规则集（不可变）
+     */
+    private static class CompiledRuleSet {
+        private final List<FieldRules> fields;
+        private final int ruleCount;
+        private final double maxScore;
+        private final String version;
+
+        CompiledRuleSet(List<FieldRules> fields, int ruleCount, double maxScore, String version) {
+            this.fields = fields;
+            this.ruleCount = ruleCount;
+            this.maxScore = maxScore;
+            this.version = version;
+        }
+    }
+
+    /**
+     * 单个字段上的全部规则
+     */
+    private static class FieldRules {
+        private final String field;
+        private final KeywordAutomaton keywords;
+        private final double[] keywordScores;
+        private final boolean[] keywordNegated;
+        // 空关键词：contains恒为真
+        private final double emptyContainsScore;
+        private final Map<String, Double> equalsScores;
+        private final Pattern[] regexes;
+        private final double[] regexScores;
+
+        FieldRules(FieldRulesBuilder builder) {
+            this.field = builder.field;
+            this.keywords = builder.keywords.isEmpty() ? null : new KeywordAutomaton(builder.keywords);
+            this.keywordScores = builder.keywordScores.stream().mapToDouble(Double::doubleValue).toArray();
+            this.keywordNegated = new boolean[builder.keywordNegated.size()];
+            for (int i = 0; i < keywordNegated.length; i++) {
+                keywordNegated[i] = builder.keywordNegated.get(i);
+            }
+            this.emptyContainsScore = builder.emptyContainsScore;
+            this.equalsScores = builder.equalsScores;
+            this.regexes = builder.regexes.toArray(new Pattern[0]);
+            this.regexScores = builder.regexScores.stream().mapToDouble(Double::doubleValue).toArray();
+        }
+
+        double evaluate(String value) {
+            double score = emptyContainsScore;
+            if (keywords != null) {
+                boolean[] matched = new boolean[keywordScores.length];
+                keywords.scan(value, matched);
+                for (int i = 0; i < matched.length; i++) {
+                    if (matched[i] != keywordNegated[i]) {
+                        score += keywordScores[i];
+                    }
+                }
+            }
+            if (!equalsScores.isEmpty()) {
+                Double equalsScore = equalsScores.get(value.toLowerCase());
+                if (equalsScore != null) {
+                    score += equalsScore;
+                }
+            }
+            for (int i = 0; i < regexes.length; i++) {
+                if (regexes[i].matcher(value).find()) {
+                    score += regexScores[i];
+                }
+            }
+            return score;
+        }
+    }
+
+    private static class FieldRulesBuilder {
+        private final String field;
+        private final List<String> keywords = new ArrayList<>();
+        private final List<Double> keywordScores = new ArrayList<>();
+        private final List<Boolean> keywordNegated = new ArrayList<>();
+        private double emptyContainsScore;
+        private final Map<String, Double> equalsScores = new HashMap<>();
+        private final List<Pattern> regexes = new ArrayList<>();
+        private final List<Double> regexScores = new ArrayList<>();
+
+        FieldRulesBuilder(String field) {
+            this.field = field;
+        }
+
+        void addKeyword(String keyword, double score, boolean negated) {
+            if (keyword.isEmpty()) {
+                // 任何值都包含空串：contains恒命中，not_contains恒不命中
+                if (!negated) {
+                    emptyContainsScore += score;
+                }
+                return;
+            }
+            keywords.add(keyword);
+            keywordScores.add(score);
+            keywordNegated.add(negated);
+        }
+
+        FieldRules build() {
+            return new FieldRules(this);
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.security.monitor.service;
+
+import com.security.monitor.model.VirusDefinition;
+import com.security.monitor.repository.VirusDefinitionRepository;
+import com.security.monitor.util.ByteSignatureMatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 流式附件特征码扫描
+ * 内置特征码和病毒定义库中启用的PATTERN/BYTE_SEQUENCE特征合成一个字节级Aho-Corasick自动机，
+ * 可疑模式（原先的6个正则）合成另一个忽略ASCII大小写的自动机。文件按固定大小的缓冲区顺序读取，
+ * 两个自动机的状态跨缓冲区延续，一遍扫描完成全部匹配，内存占用与文件大小无关，命中特征码后立即停止
+ */
+@Component
+public class VirusSignatureScanner implements OperationalStatusSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirusSignatureScanner.class);
+
+    // 内置病毒特征码（病毒定义库为空时仍然生效）
+    private static final Map<String, String> BUILTIN_SIGNATURES = Map.of(
+        "EICAR-TEST-SIGNATURE", "X5O!P%@AP[4\\PZX54(P^)7CC)7}$EICAR-STANDARD-ANTIVIRUS-TEST-FILE!$H+H*",
+        "JS-MALWARE-1", "eval(unescape(",
+        "VBA-MALWARE-1", "Auto_Open()",
+        "PDF-MALWARE-1", "/JavaScript",
+        "DOC-MALWARE-1", "macros"
+    );
+
+    // 可疑模式关键词，编号即下标；组合规则见scan，与原正则的语义一致：
+    // powershell.*-encodedcommand、base64.*decode（同一行内先后出现）、eval\s*\(、
+    // invoke-expression、downloadstring、document\.write
+    private static final String[] HEURISTIC_KEYWORDS = {
+        "powershell", "-encodedcommand", "base64", "decode", "eval",
+        "invoke-expression", "downloadstring", "document.write"
+    };
+    private static final int H_POWERSHELL = 0;
+    private static final int H_ENCODED_COMMAND = 1;
+    private static final int H_BASE64 = 2;
+    private static final int H_DECODE = 3;
+    private static final int H_EVAL = 4;
+
+    private static final ByteSignatureMatcher HEURISTICS = buildHeuristics();
+
+    private static final Pattern HEX_PATTERN = Pattern.compile("(?:[0-9a-fA-F]{2}\\s*)+");
+
+    @Autowired
+    private VirusDefinitionRepository virusDefinitionRepository;
+
+    @Value("${app.antivirus.scan-buffer-size:65536}")
+    private int bufferSize;
+
+    private volatile SignatureSet signatureSet;
+
+    private final AtomicLong scannedFiles = new AtomicLong();
+    private final AtomicLong scannedBytes = new AtomicLong();
+    private final AtomicLong infectedFiles = new AtomicLong();
+    private final AtomicLong suspiciousFiles = new AtomicLong();
+
+    /**
+     * 扫描文件内容
+     */
+    public SignatureScanResult scan(Path file) throws IOException {
+        SignatureSet current = signatureSet;
+        if (current == null) {
+            reloadSignatures();
+            current = signatureSet;
+        }
+        ByteSignatureMatcher signatures = current.matcher;
+
+        int signatureState = signatures.initialState();
+        int heuristicState = HEURISTICS.initialState();
+        long offset = 0;
+        // 当前行内第一次出现powershell/base64的结束位置，-1表示未出现
+        long powershellEnd = -1;
+        long base64End = -1;
+        boolean evalPending = false;
+        boolean suspicious = false;
+
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        byte[] data = buffer.array();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            int read;
+            while ((read = channel.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++, offset++) {
+                    byte b = data[i];
+                    if (!suspicious) {
+                        if (evalPending && b == '(') {
+                            suspicious = true;
+                        } else if (evalPending && !isRegexWhitespace(b)) {
+                            evalPending = false;
+                        }
+                        if (b == '\n' || b == '\r') {
+                            powershellEnd = -1;
+                            base64End = -1;
+                        }
+                        heuristicState = HEURISTICS.next(heuristicState, b);
+                        for (int keyword : HEURISTICS.matches(heuristicState)) {
+                            switch (keyword) {
+                                case H_POWERSHELL:
+                                    powershellEnd = powershellEnd < 0 ? offset : powershellEnd;
+                                    break;
+                                case H_BASE64:
+                                    base64End = base64End < 0 ? offset : base64End;
+                                    break;
+                                case H_ENCODED_COMMAND:
+                                    suspicious |= powershellEnd >= 0
+                                        && powershellEnd <= offset - HEURISTIC_KEYWORDS[keyword].length();
+                                    break;
+                                case H_DECODE:
+                                    suspicious |= base64End >= 0
+                                        && base64End <= offset - HEURISTIC_KEYWORDS[keyword].length();
+                                    break;
+                                case H_EVAL:
+                                    evalPending = true;
+                                    break;
+                                default:
+                                    suspicious = true;
+                            }
+                        }
+                    }
+
+                    signatureState = signatures.next(signatureState, b);
+                    int[] hits = signatures.matches(signatureState);
+                    if (hits.length > 0) {
+                        String threatName = current.names[hits[0]];
+                        logger.warn("发现病毒特征码: {} in file: {}", threatName, file);
+                        record(offset + 1);
+                        infectedFiles.incrementAndGet();
+                        return new SignatureScanResult(threatName, false, offset + 1);
+                    }
+                }
+                buffer.clear();
+            }
+        }
+        record(offset);
+        if (suspicious) {
+            suspiciousFiles.incrementAndGet();
+        }
+        return new SignatureScanResult(null, suspicious, offset);
+    }
+
+    /**
+     * 从病毒定义库加载特征码并编译，原子替换当前特征集
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void reloadSignatures() {
+        List<String> names = new ArrayList<>();
+        List<byte[]> patterns = new ArrayList<>();
+        for (Map.Entry<String, String> signature : BUILTIN_SIGNATURES.entrySet()) {
+            names.add(signature.getKey());
+            patterns.add(signature.getValue().getBytes(StandardCharsets.UTF_8));
+        }
+        int builtinCount = names.size();
+
+        List<VirusDefinition> definitions = new ArrayList<>(virusDefinitionRepository.findActivePatternDefinitions());
+        definitions.addAll(virusDefinitionRepository.findBySignatureTypeAndIsActive(
+            VirusDefinition.SignatureType.BYTE_SEQUENCE, true));
+        for (VirusDefinition definition : definitions) {
+            byte[] pattern = toBytes(definition);
+            if (pattern == null || pattern.length == 0) {
+                logger.warn("忽略无效的病毒特征: {}", definition.getVirusName());
+                continue;
+            }
+            names.add(definition.getVirusName());
+            patterns.add(pattern);
+        }
+
+        ByteSignatureMatcher matcher = new ByteSignatureMatcher(patterns, false);
+        signatureSet = new SignatureSet(matcher, names.toArray(new String[0]), builtinCount, LocalDateTime.now());
+        logger.info("病毒特征码已编译: {} 条特征（内置 {} 条）, {} 个状态",
+            names.size(), builtinCount, matcher.getStateCount());
+    }
+
+    /**
+     * 定时重新加载病毒定义库
+     */
+    @Scheduled(fixedDelayString = "${app.antivirus.signatures.refresh-interval-ms:300000}")
+    public void refreshSignatures() {
+        try {
+            reloadSignatures();
+        } catch (Exception e) {
+            logger.warn("重新加载病毒特征码失败", e);
+        }
+    }
+
+    @Override
+    public String getStatusName() {
+        return "virus-signatures";
+    }
+
+    @Override
+    public Map<String, Object> getStatus() {
+        Map<String, Object> status = new HashMap<>();
+        SignatureSet current = signatureSet;
+        if (current != null) {
+            status.put("signatureCount", current.names.length);
+            status.put("builtinSignatureCount", current.builtinCount);
+            status.put("automatonStates", current.matcher.getStateCount());
+            status.put("loadedAt", current.loadedAt);
+        }
+        status.put("heuristicKeywords", HEURISTIC_KEYWORDS.length);
+        status.put("bufferSize", bufferSize);
+        status.put("scannedFiles", scannedFiles.get());
+        status.put("scannedBytes", scannedBytes.get());
+        status.put("infectedFiles", infectedFiles.get());
+        status.put("suspiciousFiles", suspiciousFiles.get());
+        return status;
+    }
+
+    private void record(long bytes) {
+        scannedFiles.incrementAndGet();
+        scannedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * PATTERN按UTF-8编码匹配；BYTE_SEQUENCE为十六进制时按字节解码，否则同样按UTF-8编码
+     */
+    private static byte[] toBytes(VirusDefinition definition) {
+        if (definition.getSignatureType() == VirusDefinition.SignatureType.PATTERN) {
+            String pattern = definition.getPatternSignature();
+            if (pattern == null && definition.getSignatureValue() != null
+                    && definition.getSignatureValue().startsWith("pattern:")) {
+                pattern = definition.getSignatureValue().substring(8);
+            }
+            return pattern != null ? pattern.getBytes(StandardCharsets.UTF_8) : null;
+        }
+        String value = definition.getSignatureValue();
+        if (value == null) {
+            return null;
+        }
+        if (HEX_PATTERN.matcher(value).matches()) {
+            String hex = value.replaceAll("\\s+", "");
+            byte[] bytes = new byte[hex.length() / 2];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) Integer.parseInt(hex.substring(i * 2, i * 2 + 2), 16);
+            }
+            return bytes;
+        }
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static ByteSignatureMatcher buildHeuristics() {
+        List<byte[]> keywords = new ArrayList<>(HEURISTIC_KEYWORDS.length);
+        for (String keyword : HEURISTIC_KEYWORDS) {
+            keywords.add(keyword.getBytes(StandardCharsets.US_ASCII));
+        }
+        return new ByteSignatureMatcher(keywords, true);
+    }
+
+    /**
+     * 与正则\s一致：空格、\t、\n、\x0B、\f、\r
+     */
+    private static boolean isRegexWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    /**
+     * 编译后的特征集（不可变）
+     */
+    private static class SignatureSet {
+        private final ByteSignatureMatcher matcher;
+        private final String[] names;
+        private final int builtinCount;
+        private final LocalDateTime loadedAt;
+
+        SignatureSet(ByteSignatureMatcher matcher, String[] names, int builtinCount, LocalDateTime loadedAt) {
+            this.matcher = matcher;
+            this.names = names;
+            this.builtinCount = builtinCount;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    /**
+     * 单个文件的扫描结果
+     */
+    public static class SignatureScanResult {
+        private final String threatName;
+        private final boolean suspicious;
+        private final long bytesScanned;
+
+        public SignatureScanResult(String threatName, boolean suspicious, long bytesScanned) {
+            this.threatName = threatName;
+            this.suspicious = suspicious;
+            this.bytesScanned = bytesScanned;
+        }
+
+        public boolean isInfected() { return threatName != null; }
+        public String getThreatName() { return threatName; }
+        public boolean isSuspicious() { return suspicious; }
+        public long getBytesScanned() { return bytesScanned; }
+    }
+}
@@ -0,0 +1,193 @@
+package com.security.monitor.service.protocol;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * 阻塞式会话驱动器
+ * 在一个线程（平台线程或虚拟线程）上以阻塞读的方式驱动协议会话
+ */
+public class BlockingSessionDriver implements Runnable {
+    
+    private static final Logger logger = LoggerFactory.getLogger(BlockingSessionDriver.class);
+    
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_BUFFER_SIZE = 64 * 1024;
+    
+    private final ProtocolSession session;
+    private final int timeout;
+    private final Runnable closeCallback;
+    private volatile Socket socket;
+    private InputStream in;
+    private int pregreetDelay;
+    private ConnectionAdmissionController.Ticket pregreetTicket;
+    private String protocol;
+    
+    public BlockingSessionDriver(Socket socket, ProtocolSession session, int timeout, Runnable closeCallback) {
+        this.socket = socket;
+        this.session = session;
+        this.timeout = timeout;
+        this.closeCallback = closeCallback;
+    }
+    
+    /**
+     * 启用pregreet检查：延迟发送欢迎消息，期间客户端抢先发送数据则直接断开
+     */
+    public BlockingSessionDriver withPregreetCheck(int delayMillis, ConnectionAdmissionController.Ticket ticket, String protocol) {
+        this.pregreetDelay = delayMillis;
+        this.pregreetTicket = ticket;
+        this.protocol = protocol;
+        return this;
+    }
+    
+    @Override
+    public void run() {
+        StreamTransport transport = null;
+        try {
+            socket.setSoTimeout(timeout);
+            socket.setTcpNoDelay(true);
+            
+            if (pregreetDelay > 0 && clientSpokeFirst()) {
+                return;
+            }
+            
+            transport = new StreamTransport();
+            session.onOpen(transport);
+            transport.flush();
+            
+            in = socket.getInputStream();
+            ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            
+            while (!session.isFinished() && !socket.isClosed()) {
+                if (!buffer.hasRemaining()) {
+                    // 会话无法消费已缓冲的数据（超长行），扩容或放弃连接
+                    if (buffer.capacity() >= MAX_BUFFER_SIZE) {
+                        logger.warn("输入行超过最大长度，关闭连接: {}", session.getId());
+                        break;
+                    }
+                    ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    buffer = larger;
+                }
+                
+                int read = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                if (read < 0) {
+                    break;
+                }
+                buffer.position(buffer.position() + read);
+                
+                buffer.flip();
+                session.onInput(buffer);
+                buffer.compact();
+                transport.flush();
+            }
+        
+        } catch (SocketTimeoutException e) {
+            session.onTimeout();
+            flushQuietly(transport);
+        } catch (IOException e) {
+            logger.debug("会话IO错误: {} - {}", session.getId(), e.getMessage());
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                logger.debug("关闭Socket时发生错误: {}", session.getId());
+            }
+            session.onClose();
+            if (closeCallback != null) {
+                closeCallback.run();
+            }
+        }
+    }
+    
+    /**
+     * 在欢迎消息之前等待一小段时间，客户端抢先发送数据或关闭连接时返回true
+     */
+    private boolean clientSpokeFirst() throws IOException {
+        socket.setSoTimeout(pregreetDelay);
+        try {
+            int first = socket.getInputStream().read();
+            if (first >= 0) {
+                pregreetTicket.reportPregreet(protocol);
+            }
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        } finally {
+            if (!socket.isClosed()) {
+                socket.setSoTimeout(timeout);
+            }
+        }
+    }
+    
+    private void flushQuietly(StreamTransport transport) {
+        if (transport == null) {
+            return;
+        }
+        try {
+            transport.flush();
+        } catch (IOException e) {
+            logger.debug("发送超时响应失败: {}", session.getId());
+        }
+    }
+    
+    /**
+     * 基于Socket输出流的传输层
+     */
+    private class StreamTransport implements ConnectionTransport {
+        private OutputStream out;
+        
+        StreamTransport() throws IOException {
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 8 * 1024);
+        }
+        
+        @Override
+        public void write(byte[] data, int offset, int length) throws IOException {
+            out.write(data, offset, length);
+        }
+        
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+        
+        @Override
+        public void startTls(MailTlsContextManager tlsContext) throws IOException {
+            out.flush();
+            // 在原连接上叠加TLS，之后的读写都经过新的SSLSocket
+            socket = tlsContext.wrapServerSocket(socket);
+            in = socket.getInputStream();
+            out = new BufferedOutputStream(socket.getOutputStream(), 8 * 1024);
+        }
+        
+        @Override
+        public void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // 忽略关闭异常
+            }
+        }
+        
+        @Override
+        public SocketAddress getRemoteAddress() {
+            return socket.getRemoteSocketAddress();
+        }
+        
+        @Override
+        public boolean isSecure() {
+            return socket instanceof SSLSocket;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.security.monitor.service.protocol;
+
+import com.security.monitor.config.AttackDetectionAndProtectionSystem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 邮件协议连接准入控制
+ * 在accept之后、创建协议会话之前执行，按来源IP和所在网段（IPv4 /24、IPv6 /64）限制并发连接数和每分钟新建连接数，
+ * 并拒绝黑名单IP和抢先发送（pregreet）被临时封禁的IP，使滥用客户端在占用线程、数据库调用或TLS握手之前就被丢弃。
+ * 计数器均基于CAS实现，准入判断不加锁
+ */
+@Component
+public class ConnectionAdmissionController {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionAdmissionController.class);
+    
+    private static final long RATE_WINDOW_MILLIS = 60_000;
+    
+    @Autowired
+    private AttackDetectionAndProtectionSystem attackDetectionSystem;
+    
+    @Value("${mail.admission.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${mail.admission.max-connections-per-ip:20}")
+    private int maxConnectionsPerIp;
+    
+    @Value("${mail.admission.max-connections-per-subnet:100}")
+    private int maxConnectionsPerSubnet;
+    
+    @Value("${mail.admission.max-rate-per-ip:60}") // 每分钟
+    private int maxRatePerIp;
+    
+    @Value("${mail.admission.max-rate-per-subnet:300}") // 每分钟
+    private int maxRatePerSubnet;
+    
+    @Value("${mail.admission.pregreet-ban-seconds:600}")
+    private int pregreetBanSeconds;
+    
+    private final ConcurrentHashMap<String, SourceCounter> ipCounters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SourceCounter> subnetCounters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Long> penaltyBox = new ConcurrentHashMap<>();
+    private final AtomicLong admittedConnections = new AtomicLong();
+    private final AtomicLongArray rejectedByReason = new AtomicLongArray(RejectReason.values().length);
+    
+    /**
+     * 拒绝原因
+     */
+    public enum RejectReason {
+        BLACKLISTED, PREGREET_BANNED, IP_CONCURRENCY, SUBNET_CONCURRENCY, IP_RATE, SUBNET_RATE
+    }
+    
+    /**
+     * 判断新连接是否准入
+     * 返回的准入凭证在连接关闭时必须调用release()释放并发计数；被拒绝的凭证无需释放
+     */
+    public Ticket admit(SocketAddress remoteAddress, String protocol) {
+        if (!enabled || !(remoteAddress instanceof InetSocketAddress)
+                || ((InetSocketAddress) remoteAddress).getAddress() == null) {
+            return Ticket.UNTRACKED;
+        }
+        
+        InetAddress address = ((InetSocketAddress) remoteAddress).getAddress();
+        String ip = address.getHostAddress();
+        if (attackDetectionSystem.isWhitelisted(ip)) {
+            admittedConnections.incrementAndGet();
+            return Ticket.UNTRACKED;
+        }
+        if (attackDetectionSystem.isBlacklisted(ip)) {
+            return reject(RejectReason.BLACKLISTED, ip, protocol);
+        }
+        
+        Long bannedUntil = penaltyBox.get(ip);
+        if (bannedUntil != null) {
+            if (bannedUntil > System.currentTimeMillis()) {
+                return reject(RejectReason.PREGREET_BANNED, ip, protocol);
+            }
+            penaltyBox.remove(ip, bannedUntil);
+        }
+        
+        long now = System.currentTimeMillis();
+        SourceCounter ipCounter = counter(ipCounters, ip);
+        SourceCounter subnetCounter = counter(subnetCounters, subnetOf(address));
+        
+        if (!ipCounter.tryRate(now, maxRatePerIp)) {
+            return reject(RejectReason.IP_RATE, ip, protocol);
+        }
+        if (!subnetCounter.tryRate(now, maxRatePerSubnet)) {
+            return reject(RejectReason.SUBNET_RATE, ip, protocol);
+        }
+        if (!ipCounter.tryAcquire(maxConnectionsPerIp)) {
+            return reject(RejectReason.IP_CONCURRENCY, ip, protocol);
+        }
+        if (!subnetCounter.tryAcquire(maxConnectionsPerSubnet)) {
+            ipCounter.release();
+            return reject(RejectReason.SUBNET_CONCURRENCY, ip, protocol);
+        }
+        
+        admittedConnections.incrementAndGet();
+        return new Ticket(this, ip, ipCounter, subnetCounter);
+    }
+    
+    /**
+     * 记录在欢迎消息之前抢先发送数据的客户端，并临时封禁其IP
+     */
+    public void reportPregreet(String ip, String protocol) {
+        if (ip == null || pregreetBanSeconds <= 0) {
+            return;
+        }
+        penaltyBox.put(ip, System.currentTimeMillis() + pregreetBanSeconds * 1000L);
+        logger.warn("{} 客户端在欢迎消息前发送数据，临时封禁: {} ({}秒)", protocol, ip, pregreetBanSeconds);
+    }
+    
+    /**
+     * 清理已空闲的计数器和过期的封禁记录
+     */
+    @Scheduled(fixedDelay = 60000)
+    public void cleanup() {
+        long now = System.currentTimeMillis();
+        ipCounters.entrySet().removeIf(entry -> entry.getValue().isIdle(now));
+        subnetCounters.entrySet().removeIf(entry -> entry.getValue().isIdle(now));
+        penaltyBox.entrySet().removeIf(entry -> entry.getValue() <= now);
+    }
+    
+    // 统计信息
+    public long getAdmittedConnections() { return admittedConnections.get(); }
+    public long getRejectedConnections(RejectReason reason) { return rejectedByReason.get(reason.ordinal()); }
+    public int getTrackedSources() { return ipCounters.size(); }
+    public int getBannedSources() { return penaltyBox.size(); }
+    
+    public long getRejectedConnections() {
+        long total = 0;
+        for (int i = 0; i < rejectedByReason.length(); i++) {
+            total += rejectedByReason.get(i);
+        }
+        return total;
+    }
+    
+    private Ticket reject(RejectReason reason, String ip, String protocol) {
+        rejectedByReason.incrementAndGet(reason.ordinal());
+        logger.debug("{} 拒绝连接: {} - {}", protocol, ip, reason);
+        return new Ticket(reason, ip);
+    }
+    
+    private static SourceCounter counter(ConcurrentHashMap<String, SourceCounter> counters, String key) {
+        SourceCounter counter = counters.get(key);
+        return counter != null ? counter : counters.computeIfAbsent(key, k -> new SourceCounter());
+    }
+    
+    /**
+     * IPv4按/24、IPv6按/64聚合
+     */
+    private static String subnetOf(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet4Address) {
+            return (bytes[0] & 0xff) + "." + (bytes[1] & 0xff) + "." + (bytes[2] & 0xff) + ".0/24";
+        }
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 0; i < 8; i += 2) {
+            prefix.append(Integer.toHexString(((bytes[i] & 0xff) << 8) | (bytes[i + 1] & 0xff))).append(':');
+        }
+        return prefix.append(":/64").toString();
+    }
+    
+    /**
+     * 单个来源（IP或网段）的并发连接计数和固定窗口速率计数
+     * 速率状态打包为一个long：高32位为窗口序号，低32位为窗口内连接数
+     */
+    private static class SourceCounter {
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicLong rateState = new AtomicLong();
+        
+        boolean tryAcquire(int limit) {
+            while (true) {
+                int current = active.get();
+                if (limit > 0 && current >= limit) {
+                    return false;
+                }
+                if (active.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+        
+        void release() {
+            active.decrementAndGet();
+        }
+        
+        boolean tryRate(long now, int limit) {
+            long window = now / RATE_WINDOW_MILLIS;
+            while (true) {
+                long state = rateState.get();
+                long count = (state >>> 32) == window ? (state & 0xffffffffL) : 0;
+                if (limit > 0 && count >= limit) {
+                    return false;
+                }
+                if (rateState.compareAndSet(state, (window << 32) | (count + 1))) {
+                    return true;
+                }
+            }
+        }
+        
+        boolean isIdle(long now) {
+            return active.get() <= 0 && (rateState.get() >>> 32) < now / RATE_WINDOW_MILLIS;
+        }
+    }
+    
+    /**
+     * 准入凭证
+     */
+    public static class Ticket {
+        static final Ticket UNTRACKED = new Ticket((RejectReason) null, null);
+        
+        private final ConnectionAdmissionController controller;
+        private final String ip;
+        private final RejectReason rejectReason;
+        private final SourceCounter ipCounter;
+        private final SourceCounter subnetCounter;
+        private final AtomicBoolean released = new AtomicBoolean();
+        
+        private Ticket(ConnectionAdmissionController controller, String ip, SourceCounter ipCounter, SourceCounter subnetCounter) {
+            this.controller = controller;
+            this.ip = ip;
+            this.rejectReason = null;
+            this.ipCounter = ipCounter;
+            this.subnetCounter = subnetCounter;
+        }
+        
+        private Ticket(RejectReason rejectReason, String ip) {
+            this.controller = null;
+            this.ip = ip;
+            this.rejectReason = rejectReason;
+            this.ipCounter = null;
+            this.subnetCounter = null;
+        }
+        
+        public boolean isAdmitted() { return rejectReason == null; }
+        public RejectReason getRejectReason() { return rejectReason; }
+        public String getIp() { return ip; }
+        
+        /**
+         * 连接关闭时释放并发计数（可重复调用）
+         */
+        public void release() {
+            if (ipCounter != null && released.compareAndSet(false, true)) {
+                ipCounter.release();
+                subnetCounter.release();
+            }
+        }
+        
+        /**
+         * 客户端在欢迎消息之前发送了数据
+         */
+        public void reportPregreet(String protocol) {
+            if (controller != null) {
+                controller.reportPregreet(ip, protocol);
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.security.monitor.service.protocol;
+
+/**
+ * 连接引擎类型
+ */
+public enum ConnectionEngineType {
+    
+    /**
+     * 固定线程池，每个连接独占一个平台线程
+     */
+    POOLED,
+    
+    /**
+     * 基于Selector的NIO反应器，空闲连接不占用线程
+     */
+    NIO,
+    
+    /**
+     * 每个连接一个虚拟线程（需要Java 21及以上运行时）
+     */
+    VIRTUAL;
+    
+    /**
+     * 解析配置值，无法识别时使用NIO
+     */
+    public static ConnectionEngineType fromProperty(String value) {
+        if (value == null) {
+            return NIO;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return NIO;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.security.monitor.service.protocol;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+
+/**
+ * 连接传输层抽象
+ * 屏蔽阻塞Socket与NIO通道之间的差异，协议会话只负责解析输入和写入响应
+ */
+public interface ConnectionTransport {
+    
+    /**
+     * 写入响应数据（仅进入输出缓冲区，调用flush后才真正发送）
+     */
+    void write(byte[] data, int offset, int length) throws IOException;
+    
+    /**
+     * 写入完整字节数组
+     */
+    default void write(byte[] data) throws IOException {
+        write(data, 0, data.length);
+    }
+    
+    /**
+     * 将输出缓冲区中的数据发送到客户端
+     */
+    void flush() throws IOException;
+    
+    /**
+     * 升级为TLS（STARTTLS/STLS）
+     * 调用前写入的响应以明文发送，之后的读写均经过TLS；调用方应丢弃输入缓冲区中剩余的明文
+     */
+    void startTls(MailTlsContextManager tlsContext) throws IOException;
+    
+    /**
+     * 关闭底层连接
+     */
+    void close();
+    
+    /**
+     * 获取远端地址
+     */
+    SocketAddress getRemoteAddress();
+    
+    /**
+     * 当前连接是否已加密
+     */
+    boolean isSecure();
+}
@@ -0,0 +1,70 @@
+package com.security.monitor.service.protocol;
+
+import com.security.monitor.repository.EmailFolderRepository;
+import com.security.monitor.repository.EmailMessageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * IMAP UID分配
+ * 邮件进入文件夹（投递、发送、移动）的事务提交后，在一个只锁定文件夹行的短事务中按邮件ID顺序分配文件夹内的UID。
+ * UID分配和UIDNEXT推进在同一个锁内完成并立即提交，UID严格递增且按分配顺序对其他连接可见，
+ * 移入的旧邮件同样得到新的UID，不需要递增UIDVALIDITY；投递事务本身不再持有文件夹行锁
+ */
+@Component
+public class ImapUidAllocator {
+    
+    private static final Logger logger = LoggerFactory.getLogger(ImapUidAllocator.class);
+    
+    @Autowired
+    private EmailFolderRepository folderRepository;
+    
+    @Autowired
+    private EmailMessageRepository messageRepository;
+    
+    /**
+     * 为文件夹中尚未分配UID的消息分配UID，返回新分配的 [UID, 已读, 星标, 大小, 修改序列]，按UID升序。
+     * 总是在新事务中执行，可以在其他事务的afterCommit回调中调用
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public List<Object[]> assignPending(Long folderId) {
+        Long uidNext = folderRepository.lockUidNext(folderId);
+        if (uidNext == null) {
+            return Collections.emptyList();
+        }
+        if (uidNext == 0) {
+            uidNext = convertLegacyFolder(folderId);
+        }
+        
+        List<Object[]> pending = messageRepository.findImapUnassigned(folderId);
+        if (pending.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Object[]> assigned = new ArrayList<>(pending.size());
+        for (Object[] row : pending) {
+            long uid = uidNext++;
+            messageRepository.assignImapUid((Long) row[0], folderId, uid);
+            assigned.add(new Object[]{uid, row[1], row[2], row[3], row[4]});
+        }
+        folderRepository.updateUidNext(folderId, uidNext);
+        return assigned;
+    }
+    
+    /**
+     * 旧文件夹的UID就是邮件ID：现有消息沿用邮件ID作为UID，UIDNEXT取大于所有邮件ID的值，客户端缓存继续有效
+     */
+    private long convertLegacyFolder(Long folderId) {
+        int adopted = messageRepository.adoptLegacyImapUids(folderId);
+        folderRepository.initUidNext(folderId);
+        logger.info("文件夹转换为按文件夹分配IMAP UID: folder={}, messages={}", folderId, adopted);
+        return folderRepository.lockUidNext(folderId);
+    }
+}
@@ -31,6 +31,9 @@ public class MailProtocolManager implements ApplicationRunner {
     @Autowired
     private OptimizedPop3Server pop3Server;
     
+    @Autowired
+    private ConnectionAdmissionController admissionController;
+    
     private ScheduledExecutorService monitoringExecutor;
     private volatile boolean running = false;
     
@@ -184,6 +187,13 @@ public class MailProtocolManager implements ApplicationRunner {
                        smtpStatus.getSmtpPort(),
                        smtpStatus.getSslPort(),
                        smtpStatus.getSubmissionPort());
+            logger.info("SMTP连接引擎: 类型={}, 已接受={}, 已拒绝={}, 排队任务={}, 工作线程={}/{}", 
+                       smtpStatus.getConnectionEngine(),
+                       smtpStatus.getAcceptedConnections(),
+                       smtpStatus.getRejectedConnections(),
+                       smtpStatus.getQueuedTasks(),
+                       smtpStatus.getBusyWorkers(),
+                       smtpStatus.getWorkerThreads());
             
             logger.info("IMAP: 运行状态={}, 活动连接={}/{}, 端口={}/{}, IDLE={}", 
                        imapStatus.isRunning(),
@@ -201,6 +211,12 @@ public class MailProtocolManager implements ApplicationRunner {
                        pop3Status.getSslPort(),
                        pop3Status.isDeleteOnRetr());
             
+            logger.info("连接准入: 已准入={}, 已拒绝={}, 跟踪来源={}, 封禁来源={}", 
+                       admissionController.getAdmittedConnections(),
+                       admissionController.getRejectedConnections(),
+                       admissionController.getTrackedSources(),
+                       admissionController.getBannedSources());
+            
             logger.info("==============================");
             
         } catch (Exception e) {
@@ -0,0 +1,289 @@
+package com.security.monitor.service.protocol;
+
+import com.security.monitor.model.SslCertificate;
+import com.security.monitor.service.SslCertificateService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 邮件协议共享TLS上下文
+ * 从SslCertificateService加载邮件域名的活跃证书，供SMTP/IMAP/POP3的隐式TLS端口和STARTTLS/STLS共用；
+ * 证书续期后原子替换SSLContext，已建立的连接不受影响，新连接立即使用新证书，监听端口无需重启。
+ * 无状态会话票据是JVM全局设置，本组件不修改，需要时在启动参数中加入
+ * -Djdk.tls.server.enableSessionTicketExtension=true
+ */
+@Component
+public class MailTlsContextManager {
+    
+    private static final Logger logger = LoggerFactory.getLogger(MailTlsContextManager.class);
+    
+    private static final char[] KEY_PASSWORD = new char[0];
+    
+    @Autowired
+    private SslCertificateService certificateService;
+    
+    @Value("${mail.tls.domain:mail.example.com}")
+    private String tlsDomain;
+    
+    @Value("${mail.tls.protocols:TLSv1.3,TLSv1.2}")
+    private String[] enabledProtocols;
+    
+    @Value("${mail.tls.session-cache-size:20000}")
+    private int sessionCacheSize;
+    
+    @Value("${mail.tls.session-timeout:86400}") // 24 hours, seconds
+    private int sessionTimeout;
+    
+    private final AtomicReference<SSLContext> context = new AtomicReference<>();
+    private volatile String loadedFingerprint;
+    private volatile long reloadCount = 0;
+    
+    /**
+     * 获取当前TLS上下文，首次调用时加载证书
+     */
+    public SSLContext getContext() {
+        SSLContext current = context.get();
+        if (current == null) {
+            synchronized (this) {
+                current = context.get();
+                if (current == null) {
+                    reload();
+                    current = context.get();
+                }
+            }
+        }
+        return current;
+    }
+    
+    /**
+     * 为NIO连接创建服务端SSLEngine
+     */
+    public SSLEngine createEngine() {
+        SSLEngine engine = getContext().createSSLEngine();
+        engine.setUseClientMode(false);
+        configureProtocols(engine.getSupportedProtocols(), engine::setEnabledProtocols);
+        return engine;
+    }
+    
+    /**
+     * 在已连接的明文Socket上叠加服务端TLS（隐式TLS端口的新连接或STARTTLS升级）
+     * 握手在第一次读写时进行，不阻塞调用线程
+     */
+    public SSLSocket wrapServerSocket(Socket socket) throws IOException {
+        SSLSocket sslSocket = (SSLSocket) getContext().getSocketFactory().createSocket(socket, null, true);
+        configureProtocols(sslSocket.getSupportedProtocols(), sslSocket::setEnabledProtocols);
+        return sslSocket;
+    }
+    
+    /**
+     * 重新加载证书并原子替换TLS上下文
+     * 加载失败时保留当前上下文；从未加载成功时回退到JVM默认上下文
+     */
+    public synchronized void reload() {
+        try {
+            Optional<SslCertificate> certificate = certificateService.getActiveCertificate(tlsDomain);
+            if (certificate.isPresent() && certificate.get().getCertificatePath() != null) {
+                SSLContext loaded = buildContext(certificate.get());
+                context.set(loaded);
+                loadedFingerprint = fingerprint(certificate.get());
+                reloadCount++;
+                logger.info("邮件TLS证书已加载: domain={}, expires={}", tlsDomain, certificate.get().getExpiresAt());
+                return;
+            }
+            logger.warn("邮件域名没有可用的活跃证书: {}", tlsDomain);
+        } catch (Exception e) {
+            logger.error("加载邮件TLS证书失败: domain=" + tlsDomain, e);
+        }
+        
+        if (context.get() == null) {
+            try {
+                context.set(configureSessions(SSLContext.getDefault()));
+                logger.warn("邮件TLS使用JVM默认SSL上下文");
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("无法初始化邮件TLS上下文", e);
+            }
+        }
+    }
+    
+    /**
+     * 证书续期完成通知，续期的是邮件域名证书时立即替换上下文
+     */
+    public void onCertificateRenewed(SslCertificate certificate) {
+        if (certificate != null && tlsDomain.equalsIgnoreCase(certificate.getDomainName())
+                && certificate.getStatus() == SslCertificate.CertificateStatus.ACTIVE) {
+            logger.info("邮件域名证书已续期，重新加载TLS上下文: {}", tlsDomain);
+            reload();
+        }
+    }
+    
+    /**
+     * 定期检查证书是否变化（上传新证书、外部工具替换证书文件）
+     */
+    @Scheduled(fixedDelayString = "${mail.tls.reload-check-interval:300000}")
+    public void checkForCertificateChange() {
+        if (context.get() == null) {
+            return;
+        }
+        try {
+            Optional<SslCertificate> certificate = certificateService.getActiveCertificate(tlsDomain);
+            if (certificate.isPresent() && !fingerprint(certificate.get()).equals(loadedFingerprint)) {
+                logger.info("检测到邮件域名证书变化，重新加载TLS上下文: {}", tlsDomain);
+                reload();
+            }
+        } catch (Exception e) {
+            logger.debug("检查邮件TLS证书变化失败: {}", e.getMessage());
+        }
+    }
+    
+    public long getReloadCount() { return reloadCount; }
+    public String getTlsDomain() { return tlsDomain; }
+    
+    private SSLContext buildContext(SslCertificate certificate) throws IOException, GeneralSecurityException {
+        List<Certificate> chain = readCertificates(Paths.get(certificate.getCertificatePath()));
+        if (certificate.getCertificateChainPath() != null && chain.size() == 1) {
+            chain.addAll(readCertificates(Paths.get(certificate.getCertificateChainPath())));
+        }
+        if (chain.isEmpty()) {
+            throw new GeneralSecurityException("证书文件中没有证书: " + certificate.getCertificatePath());
+        }
+        PrivateKey privateKey = readPrivateKey(Paths.get(certificate.getPrivateKeyPath()));
+        
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("mail", privateKey, KEY_PASSWORD, chain.toArray(new Certificate[0]));
+        
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, KEY_PASSWORD);
+        
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+        return configureSessions(sslContext);
+    }
+    
+    /**
+     * 配置会话缓存，重连的客户端可恢复会话，省去完整握手的非对称运算
+     */
+    private SSLContext configureSessions(SSLContext sslContext) {
+        SSLSessionContext sessions = sslContext.getServerSessionContext();
+        if (sessions != null) {
+            sessions.setSessionCacheSize(sessionCacheSize);
+            sessions.setSessionTimeout(sessionTimeout);
+        }
+        return sslContext;
+    }
+    
+    private void configureProtocols(String[] supported, Consumer<String[]> setter) {
+        List<String> protocols = new ArrayList<>();
+        for (String protocol : enabledProtocols) {
+            for (String candidate : supported) {
+                if (candidate.equals(protocol.trim())) {
+                    protocols.add(candidate);
+                }
+            }
+        }
+        if (!protocols.isEmpty()) {
+            setter.accept(protocols.toArray(new String[0]));
+        }
+    }
+    
+    private List<Certificate> readCertificates(Path path) throws IOException, GeneralSecurityException {
+        CertificateFactory factory = CertificateFactory.getInstance("X.509");
+        return new ArrayList<>(factory.generateCertificates(new ByteArrayInputStream(Files.readAllBytes(path))));
+    }
+    
+    /**
+     * 读取PEM私钥，支持PKCS#8（BEGIN PRIVATE KEY）和PKCS#1（BEGIN RSA PRIVATE KEY）
+     */
+    private PrivateKey readPrivateKey(Path path) throws IOException, GeneralSecurityException {
+        String pem = new String(Files.readAllBytes(path), StandardCharsets.US_ASCII);
+        boolean pkcs1 = pem.contains("BEGIN RSA PRIVATE KEY");
+        String base64 = pem.replaceAll("-----(BEGIN|END)[A-Z ]*-----", "").replaceAll("\\s", "");
+        byte[] der = Base64.getDecoder().decode(base64);
+        if (pkcs1) {
+            der = wrapPkcs1(der);
+        }
+        
+        PKCS8EncodedKeySpec spec = new PKCS8EncodedKeySpec(der);
+        for (String algorithm : new String[]{"RSA", "EC"}) {
+            try {
+                return KeyFactory.getInstance(algorithm).generatePrivate(spec);
+            } catch (InvalidKeySpecException e) {
+                // 尝试下一种算法
+            }
+        }
+        throw new InvalidKeySpecException("不支持的私钥格式: " + path);
+    }
+    
+    /**
+     * 将PKCS#1 RSA私钥包装为PKCS#8结构
+     */
+    private static byte[] wrapPkcs1(byte[] pkcs1) {
+        byte[] algorithm = {0x30, 0x0d, 0x06, 0x09, 0x2a, (byte) 0x86, 0x48, (byte) 0x86, (byte) 0xf7, 0x0d, 0x01, 0x01, 0x01, 0x05, 0x00};
+        byte[] version = {0x02, 0x01, 0x00};
+        byte[] octetHeader = derHeader(0x04, pkcs1.length);
+        int bodyLength = version.length + algorithm.length + octetHeader.length + pkcs1.length;
+        byte[] sequenceHeader = derHeader(0x30, bodyLength);
+        
+        byte[] result = new byte[sequenceHeader.length + bodyLength];
+        int offset = 0;
+        for (byte[] part : new byte[][]{sequenceHeader, version, algorithm, octetHeader, pkcs1}) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+        return result;
+    }
+    
+    private static byte[] derHeader(int tag, int length) {
+        if (length < 0x80) {
+            return new byte[]{(byte) tag, (byte) length};
+        } else if (length < 0x100) {
+            return new byte[]{(byte) tag, (byte) 0x81, (byte) length};
+        } else if (length < 0x10000) {
+            return new byte[]{(byte) tag, (byte) 0x82, (byte) (length >> 8), (byte) length};
+        }
+        return new byte[]{(byte) tag, (byte) 0x83, (byte) (length >> 16), (byte) (length >> 8), (byte) length};
+    }
+    
+    private static String fingerprint(SslCertificate certificate) {
+        long modified = 0;
+        try {
+            if (certificate.getCertificatePath() != null) {
+                modified = Files.getLastModifiedTime(Paths.get(certificate.getCertificatePath())).toMillis();
+            }
+        } catch (IOException e) {
+            // 文件不可读时只比较证书记录
+        }
+        return certificate.getId() + ":" + certificate.getSerialNumber() + ":" + modified;
+    }
+}
@@ -0,0 +1,324 @@
+package com.security.monitor.service.protocol;
+
+import com.security.monitor.model.EmailFolder;
+import com.security.monitor.model.EmailMessage;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 邮箱变更事件总线
+ * 新邮件、标志修改、移动和删除在事务提交后按文件夹发布，同一文件夹在合并窗口内的变更合并为一批，
+ * 由分发线程一次性推送给该文件夹的所有订阅者（被IMAP连接选中的邮箱索引）。
+ * 事件携带订阅者需要的数据，一次投递只产生O(订阅者)次内存更新和对IDLE连接的通知，不需要客户端轮询数据库。
+ * 订阅者回调在唯一的分发线程上执行，不能阻塞（不能写套接字或等待连接的锁）
+ */
+@Component
+public class MailboxEventBus {
+    
+    private static final Logger logger = LoggerFactory.getLogger(MailboxEventBus.class);
+    
+    @Autowired
+    private ImapUidAllocator uidAllocator;
+    
+    @Value("${mail.events.coalesce-millis:50}")
+    private long coalesceMillis;
+    
+    private final ConcurrentHashMap<Long, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, List<MailboxEvent>> pending = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor dispatcher;
+    private final AtomicLong publishedEvents = new AtomicLong();
+    private final AtomicLong dispatchedBatches = new AtomicLong();
+    private final AtomicLong assignedUids = new AtomicLong();
+    // 同一文件夹的UID分配和APPEND入队串行执行，事件按UID升序到达订阅者
+    private final Object[] assignLocks = new Object[64];
+    
+    public MailboxEventBus() {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("mailbox-events-");
+        threadFactory.setDaemon(true);
+        this.dispatcher = new ScheduledThreadPoolExecutor(1, threadFactory);
+        for (int i = 0; i < assignLocks.length; i++) {
+            assignLocks[i] = new Object();
+        }
+    }
+    
+    /**
+     * 文件夹变更订阅者，回调在分发线程上执行，不应阻塞
+     */
+    public interface Subscriber {
+        void onMailboxChanges(List<MailboxEvent> events);
+    }
+    
+    public void subscribe(Long folderId, Subscriber subscriber) {
+        subscribers.computeIfAbsent(folderId, k -> ConcurrentHashMap.newKeySet()).add(subscriber);
+    }
+    
+    public void unsubscribe(Long folderId, Subscriber subscriber) {
+        subscribers.computeIfPresent(folderId, (id, folderSubscribers) -> {
+            folderSubscribers.remove(subscriber);
+            return folderSubscribers.isEmpty() ? null : folderSubscribers;
+        });
+    }
+    
+    /**
+     * 新消息进入文件夹（投递、发送、移动的目标文件夹）
+     * 事务提交后再由ImapUidAllocator在独立的短事务中分配文件夹内的UID，然后按UID顺序发布APPEND事件。
+     * 没有订阅者的文件夹不立即分配，下次SELECT或增量同步时由assignUids补上
+     */
+    public void publishAppend(EmailMessage message) {
+        Long folderId = folderIdOf(message.getFolder());
+        if (folderId == null || !subscribers.containsKey(folderId)) {
+            return;
+        }
+        afterCommit(() -> assignUids(folderId));
+    }
+    
+    /**
+     * 为文件夹中尚未分配UID的消息分配UID并通知订阅者，返回新分配的数量
+     */
+    public int assignUids(Long folderId) {
+        synchronized (assignLocks[Math.floorMod(folderId.hashCode(), assignLocks.length)]) {
+            List<Object[]> assigned;
+            try {
+                assigned = uidAllocator.assignPending(folderId);
+            } catch (Exception e) {
+                // 未分配的消息在下次SELECT或增量同步时重试
+                logger.warn("分配IMAP UID失败: folder={} - {}", folderId, e.getMessage());
+                return 0;
+            }
+            if (assigned.isEmpty()) {
+                return 0;
+            }
+            assignedUids.addAndGet(assigned.size());
+            if (subscribers.containsKey(folderId)) {
+                List<MailboxEvent> events = new ArrayList<>(assigned.size());
+                for (Object[] row : assigned) {
+                    long size = row[3] != null ? (Long) row[3] : 0;
+                    long modSeq = row[4] != null ? (Long) row[4] : 1;
+                    events.add(MailboxEvent.append((Long) row[0], size,
+                            Boolean.TRUE.equals(row[1]), Boolean.TRUE.equals(row[2]), modSeq));
+                }
+                enqueue(folderId, events);
+            }
+            return assigned.size();
+        }
+    }
+    
+    /**
+     * 单条消息的标志变化，尚未在该文件夹分配UID的消息对客户端不可见，不需要通知
+     */
+    public void publishFlag(EmailMessage message, MailboxIndex.Flag flag, boolean value) {
+        Long folderId = folderIdOf(message.getFolder());
+        Long uid = imapUidIn(message, folderId);
+        if (uid == null) {
+            return;
+        }
+        publish(folderId, () -> Collections.singletonList(
+                MailboxEvent.flag(uid, flag, value, modSeqOf(message), null)));
+    }
+    
+    /**
+     * 消息离开文件夹（删除或移动的源文件夹），使用它在源文件夹中的UID
+     */
+    public void publishExpunge(EmailMessage message, EmailFolder folder) {
+        Long folderId = folderIdOf(folder);
+        Long uid = imapUidIn(message, folderId);
+        if (uid == null) {
+            return;
+        }
+        publish(folderId, () -> Collections.singletonList(
+                MailboxEvent.expunge(uid, modSeqOf(message), null)));
+    }
+    
+    /**
+     * 批量标志变化，origin为发起修改的订阅者（它已自行应用，不再回送）
+     */
+    public void publishFlags(Long folderId, Collection<Long> uids, MailboxIndex.Flag flag, boolean value,
+                             long modSeq, Subscriber origin) {
+        if (folderId == null) {
+            return;
+        }
+        List<MailboxEvent> events = new ArrayList<>(uids.size());
+        for (Long uid : uids) {
+            events.add(MailboxEvent.flag(uid, flag, value, modSeq, origin));
+        }
+        publish(folderId, () -> events);
+    }
+    
+    public void publishExpunge(Long folderId, Collection<Long> uids, long modSeq, Subscriber origin) {
+        if (folderId == null) {
+            return;
+        }
+        List<MailboxEvent> events = new ArrayList<>(uids.size());
+        for (Long uid : uids) {
+            events.add(MailboxEvent.expunge(uid, modSeq, origin));
+        }
+        publish(folderId, () -> events);
+    }
+    
+    // 统计信息
+    public int getSubscriberCount() { return subscribers.values().stream().mapToInt(Set::size).sum(); }
+    public long getPublishedEvents() { return publishedEvents.get(); }
+    public long getDispatchedBatches() { return dispatchedBatches.get(); }
+    public long getAssignedUids() { return assignedUids.get(); }
+    
+    @PreDestroy
+    public void shutdown() {
+        dispatcher.shutdownNow();
+    }
+    
+    /**
+     * 在当前事务提交后入队，没有订阅者的文件夹直接丢弃
+     */
+    private void publish(Long folderId, Supplier<List<MailboxEvent>> events) {
+        if (!subscribers.containsKey(folderId)) {
+            return;
+        }
+        afterCommit(() -> enqueue(folderId, events.get()));
+    }
+    
+    /**
+     * 在当前事务提交后执行，没有事务时立即执行
+     */
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+    
+    /**
+     * 合并同一文件夹的待分发事件，文件夹由空变为非空时安排一次分发
+     */
+    private void enqueue(Long folderId, List<MailboxEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        publishedEvents.addAndGet(events.size());
+        boolean[] schedule = {false};
+        pending.compute(folderId, (id, batch) -> {
+            if (batch == null) {
+                batch = new ArrayList<>();
+                schedule[0] = true;
+            }
+            batch.addAll(events);
+            return batch;
+        });
+        if (schedule[0]) {
+            dispatcher.schedule(() -> dispatch(folderId), coalesceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    private void dispatch(Long folderId) {
+        List<MailboxEvent> batch = pending.remove(folderId);
+        Set<Subscriber> targets = subscribers.get(folderId);
+        if (batch == null || targets == null) {
+            return;
+        }
+        dispatchedBatches.incrementAndGet();
+        List<MailboxEvent> events = Collections.unmodifiableList(batch);
+        for (Subscriber subscriber : targets) {
+            try {
+                subscriber.onMailboxChanges(events);
+            } catch (Exception e) {
+                logger.warn("分发邮箱变更事件失败: folder={} - {}", folderId, e.getMessage());
+            }
+        }
+    }
+    
+    private static Long folderIdOf(EmailFolder folder) {
+        return folder != null ? folder.getId() : null;
+    }
+    
+    /**
+     * 消息在指定文件夹中的UID，尚未在该文件夹分配时返回null
+     */
+    private static Long imapUidIn(EmailMessage message, Long folderId) {
+        if (folderId == null || !folderId.equals(message.getImapFolderId())) {
+            return null;
+        }
+        return message.getImapUid();
+    }
+    
+    private static long modSeqOf(EmailMessage message) {
+        return message.getModSeq() != null ? message.getModSeq() : 0;
+    }
+    
+    /**
+     * 邮箱变更事件
+     */
+    public static class MailboxEvent {
+        
+        public enum Type {
+            APPEND, FLAG, EXPUNGE
+        }
+        
+        private final Type type;
+        private final long uid;
+        private final long size;
+        private final boolean seen;
+        private final boolean flagged;
+        private final MailboxIndex.Flag flag;
+        private final boolean value;
+        private final long modSeq;
+        private final Subscriber origin;
+        
+        private MailboxEvent(Type type, long uid, long size, boolean seen, boolean flagged,
+                             MailboxIndex.Flag flag, boolean value, long modSeq, Subscriber origin) {
+            this.type = type;
+            this.uid = uid;
+            this.size = size;
+            this.seen = seen;
+            this.flagged = flagged;
+            this.flag = flag;
+            this.value = value;
+            this.modSeq = modSeq;
+            this.origin = origin;
+        }
+        
+        static MailboxEvent append(long uid, long size, boolean seen, boolean flagged, long modSeq) {
+            return new MailboxEvent(Type.APPEND, uid, size, seen, flagged, null, false, modSeq, null);
+        }
+        
+        static MailboxEvent flag(long uid, MailboxIndex.Flag flag, boolean value, long modSeq, Subscriber origin) {
+            return new MailboxEvent(Type.FLAG, uid, 0, false, false, flag, value, modSeq, origin);
+        }
+        
+        static MailboxEvent expunge(long uid, long modSeq, Subscriber origin) {
+            return new MailboxEvent(Type.EXPUNGE, uid, 0, false, false, null, false, modSeq, origin);
+        }
+        
+        public Type getType() { return type; }
+        public long getUid() { return uid; }
+        public long getSize() { return size; }
+        public boolean isSeen() { return seen; }
+        public boolean isFlagged() { return flagged; }
+        public MailboxIndex.Flag getFlag() { return flag; }
+        public boolean getValue() { return value; }
+        public long getModSeq() { return modSeq; }
+        public Subscriber getOrigin() { return origin; }
+    }
+}
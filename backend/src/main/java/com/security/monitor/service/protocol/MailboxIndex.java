@@ -0,0 +1,402 @@
+package com.security.monitor.service.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * IMAP邮箱索引
+ * SELECT时由投影查询构建，按UID升序保存所选文件夹中消息的UID、大小和标志位，
+ * 序列号与UID的转换、标志读写和按标志搜索都在内存中完成，FETCH/STORE/SEARCH不再加载整个文件夹的消息实体。
+ * 每个连接持有自己的索引（序列号只在本连接报告EXPUNGE时变化），通过MailboxEventBus订阅文件夹变更：
+ * 新消息直接追加，其他来源的标志变化立即生效并记录下来等待以FETCH响应通知，删除在下一次允许发送EXPUNGE时移除。
+ * 每条消息同时保存修改序列（CONDSTORE MODSEQ），CHANGEDSINCE和QRESYNC据此只返回变化过的消息
+ */
+public class MailboxIndex implements MailboxEventBus.Subscriber {
+    
+    private static final int INITIAL_CAPACITY = 64;
+    
+    /**
+     * 索引支持的IMAP系统标志
+     * \Seen和\Flagged持久化为消息的已读和星标字段，\Deleted只在内存中保留到EXPUNGE
+     */
+    public enum Flag {
+        SEEN("\\Seen"), FLAGGED("\\Flagged"), DELETED("\\Deleted");
+        
+        private final String imapName;
+        
+        Flag(String imapName) {
+            this.imapName = imapName;
+        }
+        
+        public String getImapName() { return imapName; }
+        
+        public static Flag fromImapName(String name) {
+            for (Flag flag : values()) {
+                if (flag.imapName.equalsIgnoreCase(name)) {
+                    return flag;
+                }
+            }
+            return null;
+        }
+    }
+    
+    private final Long folderId;
+    private final String folderName;
+    private final long uidValidity;
+    private final long uidNext;
+    private long[] uids = new long[INITIAL_CAPACITY];
+    private long[] sizes = new long[INITIAL_CAPACITY];
+    private long[] modSeqs = new long[INITIAL_CAPACITY];
+    private long highestModSeq = 1;
+    private int count = 0;
+    private final BitSet[] flags = new BitSet[Flag.values().length];
+    private final List<Long> pendingExpunges = new ArrayList<>();
+    private final Set<Long> changedFlags = new LinkedHashSet<>();
+    // 在事件总线分发线程上调用，只能做标记之类的非阻塞操作
+    private volatile Runnable changeListener;
+    private volatile long lastResync = System.currentTimeMillis();
+    
+    public MailboxIndex(Long folderId, String folderName, long uidValidity, long uidNext) {
+        this.folderId = folderId;
+        this.folderName = folderName;
+        this.uidValidity = uidValidity;
+        this.uidNext = uidNext;
+        for (int i = 0; i < flags.length; i++) {
+            flags[i] = new BitSet();
+        }
+    }
+    
+    public Long getFolderId() { return folderId; }
+    public String getFolderName() { return folderName; }
+    public long getUidValidity() { return uidValidity; }
+    public long getLastResync() { return lastResync; }
+    public void setLastResync(long lastResync) { this.lastResync = lastResync; }
+    
+    /**
+     * 设置变更监听器（IDLE中的连接），事件应用到索引后在分发线程上调用
+     */
+    public void setChangeListener(Runnable changeListener) { this.changeListener = changeListener; }
+    
+    @Override
+    public void onMailboxChanges(List<MailboxEventBus.MailboxEvent> events) {
+        synchronized (this) {
+            for (MailboxEventBus.MailboxEvent event : events) {
+                if (event.getOrigin() == this) {
+                    continue;
+                }
+                switch (event.getType()) {
+                    case APPEND:
+                        append(event.getUid(), event.getSize(), event.isSeen(), event.isFlagged(), event.getModSeq());
+                        break;
+                    case FLAG:
+                        setFlagByUid(event.getUid(), event.getFlag(), event.getValue(), event.getModSeq());
+                        changedFlags.add(event.getUid());
+                        break;
+                    case EXPUNGE:
+                        pendingExpunges.add(event.getUid());
+                        raiseHighestModSeq(event.getModSeq());
+                        break;
+                }
+            }
+        }
+        Runnable listener = changeListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+    
+    /**
+     * 追加一条消息，UID必须大于当前最大UID，否则忽略（重复的增量加载）
+     */
+    public synchronized boolean append(long uid, long size, boolean seen, boolean flagged, long modSeq) {
+        if (count > 0 && uid <= uids[count - 1]) {
+            return false;
+        }
+        if (count == uids.length) {
+            uids = Arrays.copyOf(uids, count * 2);
+            sizes = Arrays.copyOf(sizes, count * 2);
+            modSeqs = Arrays.copyOf(modSeqs, count * 2);
+        }
+        uids[count] = uid;
+        sizes[count] = size;
+        modSeqs[count] = modSeq;
+        raiseHighestModSeq(modSeq);
+        flags[Flag.SEEN.ordinal()].set(count, seen);
+        flags[Flag.FLAGGED.ordinal()].set(count, flagged);
+        count++;
+        return true;
+    }
+    
+    public synchronized int size() { return count; }
+    
+    public synchronized long getLastUid() { return count > 0 ? uids[count - 1] : 0; }
+    
+    /**
+     * SELECT时公布的UIDNEXT，最大UID的消息被移出或删除后也不会变小
+     */
+    public synchronized long getUidNext() { return Math.max(uidNext, getLastUid() + 1); }
+    
+    /**
+     * 序列号（从1开始）对应的UID
+     */
+    public synchronized long uidAt(int seq) {
+        return uids[seq - 1];
+    }
+    
+    public synchronized long sizeAt(int seq) {
+        return sizes[seq - 1];
+    }
+    
+    public synchronized long modSeqAt(int seq) {
+        return modSeqs[seq - 1];
+    }
+    
+    /**
+     * 邮箱的最大修改序列（HIGHESTMODSEQ），只增不减：删除消息后依然保留
+     */
+    public synchronized long getHighestModSeq() { return highestModSeq; }
+    
+    public synchronized void raiseHighestModSeq(long modSeq) {
+        if (modSeq > highestModSeq) {
+            highestModSeq = modSeq;
+        }
+    }
+    
+    /**
+     * UID对应的序列号，不存在时返回0
+     */
+    public synchronized int seqOf(long uid) {
+        int pos = Arrays.binarySearch(uids, 0, count, uid);
+        return pos >= 0 ? pos + 1 : 0;
+    }
+    
+    public synchronized boolean hasFlag(int seq, Flag flag) {
+        return flags[flag.ordinal()].get(seq - 1);
+    }
+    
+    /**
+     * 设置标志，发生变化时把消息的修改序列更新为modSeq，返回标志是否发生了变化
+     */
+    public synchronized boolean setFlag(int seq, Flag flag, boolean value, long modSeq) {
+        BitSet bits = flags[flag.ordinal()];
+        if (bits.get(seq - 1) == value) {
+            return false;
+        }
+        bits.set(seq - 1, value);
+        modSeqs[seq - 1] = modSeq;
+        raiseHighestModSeq(modSeq);
+        return true;
+    }
+    
+    /**
+     * 按UID设置标志（同步其他连接的修改），消息不在索引中时忽略
+     */
+    public synchronized void setFlagByUid(long uid, Flag flag, boolean value, long modSeq) {
+        int pos = Arrays.binarySearch(uids, 0, count, uid);
+        if (pos >= 0) {
+            flags[flag.ordinal()].set(pos, value);
+            modSeqs[pos] = Math.max(modSeqs[pos], modSeq);
+        }
+        raiseHighestModSeq(modSeq);
+    }
+    
+    /**
+     * 应用增量同步查到的标志（不经过事件总线的写入），修改序列不大于索引中的值时忽略，
+     * 标志发生变化的消息等待以FETCH响应通知
+     */
+    public synchronized void syncFlags(long uid, boolean seen, boolean flagged, long modSeq) {
+        int pos = Arrays.binarySearch(uids, 0, count, uid);
+        if (pos < 0 || modSeqs[pos] >= modSeq) {
+            return;
+        }
+        BitSet seenBits = flags[Flag.SEEN.ordinal()];
+        BitSet flaggedBits = flags[Flag.FLAGGED.ordinal()];
+        if (seenBits.get(pos) != seen || flaggedBits.get(pos) != flagged) {
+            seenBits.set(pos, seen);
+            flaggedBits.set(pos, flagged);
+            changedFlags.add(uid);
+        }
+        modSeqs[pos] = modSeq;
+        raiseHighestModSeq(modSeq);
+    }
+    
+    /**
+     * 应用增量同步查到的删除，消息在下一次允许发送EXPUNGE时移除
+     */
+    public synchronized void syncExpunged(long uid) {
+        if (seqOf(uid) > 0 && !pendingExpunges.contains(uid)) {
+            pendingExpunges.add(uid);
+        }
+    }
+    
+    /**
+     * 统计带有（或不带）指定标志的消息数
+     */
+    public synchronized int countFlag(Flag flag, boolean value) {
+        int set = flags[flag.ordinal()].get(0, count).cardinality();
+        return value ? set : count - set;
+    }
+    
+    /**
+     * 第一条不带指定标志的消息序列号，不存在时返回0
+     */
+    public synchronized int firstWithout(Flag flag) {
+        int pos = flags[flag.ordinal()].nextClearBit(0);
+        return pos < count ? pos + 1 : 0;
+    }
+    
+    /**
+     * 格式化消息标志，例如 (\Seen \Flagged)
+     */
+    public synchronized String formatFlags(int seq) {
+        StringBuilder result = new StringBuilder("(");
+        for (Flag flag : Flag.values()) {
+            if (flags[flag.ordinal()].get(seq - 1)) {
+                if (result.length() > 1) {
+                    result.append(' ');
+                }
+                result.append(flag.imapName);
+            }
+        }
+        return result.append(')').toString();
+    }
+    
+    /**
+     * 将序列集（1,3:5,7:*）解析为升序去重的序列号
+     * UID集合通过二分查找定位范围边界，不会逐个展开 1:4294967295 这样的大范围
+     */
+    public synchronized int[] resolve(String sequenceSet, boolean byUid) {
+        BitSet selected = new BitSet(count + 1);
+        for (String part : sequenceSet.split(",")) {
+            int colon = part.indexOf(':');
+            long first = parseSetNumber(colon < 0 ? part : part.substring(0, colon), byUid);
+            long last = colon < 0 ? first : parseSetNumber(part.substring(colon + 1), byUid);
+            long low = Math.min(first, last);
+            long high = Math.max(first, last);
+            
+            if (byUid) {
+                int from = insertionPoint(low, false);
+                int to = insertionPoint(high, true);
+                if (from < to) {
+                    selected.set(from + 1, to + 1);
+                }
+            } else if (count > 0 && low <= count) {
+                selected.set((int) Math.max(low, 1), (int) Math.min(high, count) + 1);
+            }
+        }
+        return selected.stream().toArray();
+    }
+    
+    /**
+     * 将UID集解析为闭区间 [low, high] 列表，* 表示当前最大UID
+     */
+    public synchronized List<long[]> uidRanges(String uidSet) {
+        List<long[]> ranges = new ArrayList<>();
+        for (String part : uidSet.split(",")) {
+            int colon = part.indexOf(':');
+            long first = parseSetNumber(colon < 0 ? part : part.substring(0, colon), true);
+            long last = colon < 0 ? first : parseSetNumber(part.substring(colon + 1), true);
+            ranges.add(new long[]{Math.min(first, last), Math.max(first, last)});
+        }
+        return ranges;
+    }
+    
+    /**
+     * 所有带\Deleted标志的消息UID
+     */
+    public synchronized long[] deletedUids() {
+        BitSet deleted = flags[Flag.DELETED.ordinal()];
+        long[] result = new long[deleted.get(0, count).cardinality()];
+        int i = 0;
+        for (int pos = deleted.nextSetBit(0); pos >= 0 && pos < count; pos = deleted.nextSetBit(pos + 1)) {
+            result[i++] = uids[pos];
+        }
+        return result;
+    }
+    
+    /**
+     * 从索引中移除消息，返回被移除消息的序列号（降序，可直接依次作为EXPUNGE响应发送）
+     */
+    public synchronized int[] remove(long[] removedUids) {
+        BitSet removed = new BitSet(count);
+        for (long uid : removedUids) {
+            int pos = Arrays.binarySearch(uids, 0, count, uid);
+            if (pos >= 0) {
+                removed.set(pos);
+            }
+        }
+        if (removed.isEmpty()) {
+            return new int[0];
+        }
+        
+        int[] expunged = new int[removed.cardinality()];
+        int e = expunged.length;
+        int write = 0;
+        for (int read = 0; read < count; read++) {
+            if (removed.get(read)) {
+                expunged[--e] = read + 1;
+                continue;
+            }
+            uids[write] = uids[read];
+            sizes[write] = sizes[read];
+            modSeqs[write] = modSeqs[read];
+            for (BitSet bits : flags) {
+                bits.set(write, bits.get(read));
+            }
+            write++;
+        }
+        for (BitSet bits : flags) {
+            bits.clear(write, count);
+        }
+        count = write;
+        return expunged;
+    }
+    
+    /**
+     * 取出其他来源修改过标志的消息UID，用于发送未经请求的FETCH FLAGS响应
+     */
+    public synchronized long[] drainChangedFlags() {
+        long[] result = new long[changedFlags.size()];
+        int i = 0;
+        for (Long uid : changedFlags) {
+            result[i++] = uid;
+        }
+        changedFlags.clear();
+        return result;
+    }
+    
+    public synchronized long[] drainPendingExpunges() {
+        long[] result = new long[pendingExpunges.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = pendingExpunges.get(i);
+        }
+        pendingExpunges.clear();
+        return result;
+    }
+    
+    /**
+     * UID在数组中的插入位置；inclusive为true时返回第一个大于uid的位置，否则返回第一个不小于uid的位置
+     */
+    private int insertionPoint(long uid, boolean inclusive) {
+        int pos = Arrays.binarySearch(uids, 0, count, uid);
+        if (pos < 0) {
+            return -pos - 1;
+        }
+        return inclusive ? pos + 1 : pos;
+    }
+    
+    private long parseSetNumber(String value, boolean byUid) {
+        if ("*".equals(value)) {
+            return byUid ? getLastUid() : count;
+        }
+        long number = Long.parseLong(value);
+        if (number <= 0) {
+            throw new IllegalArgumentException("Invalid sequence number: " + value);
+        }
+        return number;
+    }
+}
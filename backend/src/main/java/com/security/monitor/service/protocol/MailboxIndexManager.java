@@ -0,0 +1,237 @@
+package com.security.monitor.service.protocol;
+
+import com.security.monitor.model.EmailFolder;
+import com.security.monitor.model.EmailMessage;
+import com.security.monitor.repository.EmailFolderRepository;
+import com.security.monitor.repository.EmailMessageRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IMAP邮箱索引管理
+ * 负责用投影查询构建和增量更新MailboxIndex，按FETCH实际需要的数据项分批加载信封或原文位置，
+ * 持久化STORE/EXPUNGE的修改并通过MailboxEventBus通知选中同一文件夹的其他连接。
+ * 文件夹的UIDVALIDITY、UIDNEXT和已公布的HIGHESTMODSEQ持久化在文件夹上，重新连接的客户端可以增量同步；
+ * UID按文件夹由ImapUidAllocator分配并保存在消息上，所有按UID的查询都限定在索引所属的文件夹内
+ */
+@Component
+public class MailboxIndexManager {
+    
+    private static final Logger logger = LoggerFactory.getLogger(MailboxIndexManager.class);
+    
+    private static final int LOAD_BATCH_SIZE = 500;
+    
+    @Autowired
+    private EmailMessageRepository messageRepository;
+    
+    @Autowired
+    private EmailFolderRepository folderRepository;
+    
+    @Autowired
+    private MailboxEventBus eventBus;
+    
+    private final AtomicLong indexBuilds = new AtomicLong();
+    private final AtomicLong incrementalLoads = new AtomicLong();
+    
+    /**
+     * SELECT时为文件夹构建索引并登记为打开状态
+     */
+    public MailboxIndex open(EmailFolder folder) {
+        // 没有订阅者时到达的消息还没有UID，先补上分配（旧文件夹在此转换），再读取UIDNEXT
+        eventBus.assignUids(folder.getId());
+        Object[] state = loadImapState(folder.getId());
+        long uidNext = state[2] != null ? (Long) state[2] : 1;
+        MailboxIndex index = new MailboxIndex(folder.getId(), folder.getFolderName(), (Long) state[0], uidNext);
+        // 先订阅再加载，加载期间分配的新消息由append按UID去重
+        eventBus.subscribe(folder.getId(), index);
+        loadEntries(index);
+        
+        // HIGHESTMODSEQ取已删除消息和之前公布值中的最大者，消息被移出文件夹后也不会变小
+        Long maxModSeq = messageRepository.findMaxModSeq(folder.getId());
+        index.raiseHighestModSeq(maxModSeq != null ? maxModSeq : 0);
+        index.raiseHighestModSeq(state[1] != null ? (Long) state[1] : 0);
+        folderRepository.raiseHighestModSeq(folder.getId(), index.getHighestModSeq());
+        indexBuilds.incrementAndGet();
+        logger.debug("IMAP邮箱索引已构建: folder={}, messages={}", folder.getId(), index.size());
+        return index;
+    }
+    
+    /**
+     * 连接取消选择或关闭时释放索引
+     */
+    public void close(MailboxIndex index) {
+        if (index == null) {
+            return;
+        }
+        index.setChangeListener(null);
+        eventBus.unsubscribe(index.getFolderId(), index);
+        folderRepository.raiseHighestModSeq(index.getFolderId(), index.getHighestModSeq());
+    }
+    
+    /**
+     * 增量同步不经过事件总线的写入（其他节点、批量SQL），返回新增消息数量
+     * 先为这些写入分配UID，再与文件夹的UIDNEXT和最大修改序列比较：
+     * UIDNEXT超过索引时加载新消息，修改序列超过索引时同步标志变化和删除，都没有变化时不再查询消息
+     */
+    public int loadNewMessages(MailboxIndex index) {
+        incrementalLoads.incrementAndGet();
+        index.setLastResync(System.currentTimeMillis());
+        Long folderId = index.getFolderId();
+        eventBus.assignUids(folderId);
+        
+        long knownModSeq = index.getHighestModSeq();
+        long knownLastUid = index.getLastUid();
+        Object[] state = firstRow(folderRepository.findImapState(folderId));
+        long uidNext = state[2] != null ? (Long) state[2] : 0;
+        int added = uidNext > index.getUidNext() ? loadEntries(index) : 0;
+        
+        Long maxModSeq = messageRepository.findMaxModSeq(folderId);
+        if (maxModSeq != null && maxModSeq > knownModSeq) {
+            // 新加载的消息不算标志变化，只检查之前已知的UID
+            for (Object[] row : messageRepository.findImapChangedSince(folderId, knownModSeq, knownLastUid)) {
+                index.syncFlags((Long) row[0], Boolean.TRUE.equals(row[1]), Boolean.TRUE.equals(row[2]), (Long) row[3]);
+            }
+            for (Long uid : messageRepository.findExpungedSince(folderId, knownModSeq)) {
+                index.syncExpunged(uid);
+            }
+            index.raiseHighestModSeq(maxModSeq);
+        }
+        return added;
+    }
+    
+    /**
+     * 持久化标志修改及其修改序列并同步到同一文件夹的其他索引
+     * \Deleted只保存在内存中，直到EXPUNGE时才写入数据库，但修改序列照常更新
+     */
+    public void storeFlag(MailboxIndex source, List<Long> uids, MailboxIndex.Flag flag, boolean value, long modSeq) {
+        if (uids.isEmpty()) {
+            return;
+        }
+        for (List<Long> batch : batches(uids)) {
+            if (flag == MailboxIndex.Flag.SEEN) {
+                messageRepository.updateReadFlag(source.getFolderId(), batch, value, modSeq);
+            } else if (flag == MailboxIndex.Flag.FLAGGED) {
+                messageRepository.updateStarredFlag(source.getFolderId(), batch, value, modSeq);
+            } else {
+                messageRepository.updateModSeq(source.getFolderId(), batch, modSeq);
+            }
+        }
+        eventBus.publishFlags(source.getFolderId(), uids, flag, value, modSeq, source);
+    }
+    
+    /**
+     * 删除消息（软删除并分配新的修改序列），其他选中该文件夹的连接在下一次NOOP或IDLE中收到EXPUNGE
+     */
+    public void expunge(MailboxIndex source, long[] uids) {
+        if (uids.length == 0) {
+            return;
+        }
+        long modSeq = EmailMessage.nextModSeq();
+        List<Long> uidList = new ArrayList<>(uids.length);
+        for (long uid : uids) {
+            uidList.add(uid);
+        }
+        for (List<Long> batch : batches(uidList)) {
+            messageRepository.softDeleteFolderMessages(source.getFolderId(), batch, modSeq);
+        }
+        source.raiseHighestModSeq(modSeq);
+        eventBus.publishExpunge(source.getFolderId(), uidList, modSeq, source);
+    }
+    
+    /**
+     * 修改序列大于指定值之后被删除的消息UID（QRESYNC VANISHED (EARLIER)）
+     */
+    public List<Long> findExpungedSince(MailboxIndex index, long modSeq) {
+        return messageRepository.findExpungedSince(index.getFolderId(), modSeq);
+    }
+    
+    /**
+     * 分批加载信封投影，返回 UID -> [uid, receivedAt, sentAt, subject, from, to, cc, replyTo, messageId]
+     */
+    public Map<Long, Object[]> loadEnvelopes(MailboxIndex index, List<Long> uids) {
+        Map<Long, Object[]> result = new HashMap<>(uids.size() * 2);
+        for (List<Long> batch : batches(uids)) {
+            for (Object[] row : messageRepository.findImapEnvelopes(index.getFolderId(), batch)) {
+                result.put((Long) row[0], row);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 分批加载原文位置投影，返回 UID -> [uid, rawMessagePath, rawHeaderLength, rawDotLines]
+     */
+    public Map<Long, Object[]> loadRawLocations(MailboxIndex index, List<Long> uids) {
+        Map<Long, Object[]> result = new HashMap<>(uids.size() * 2);
+        for (List<Long> batch : batches(uids)) {
+            for (Object[] row : messageRepository.findImapRawLocations(index.getFolderId(), batch)) {
+                result.put((Long) row[0], row);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 分批加载完整消息实体，返回 UID -> 消息，只用于FETCH正文时渲染没有原文文件的旧邮件
+     */
+    public Map<Long, EmailMessage> loadMessages(MailboxIndex index, List<Long> uids) {
+        Map<Long, EmailMessage> result = new HashMap<>(uids.size() * 2);
+        for (List<Long> batch : batches(uids)) {
+            for (EmailMessage message : messageRepository.findImapMessages(index.getFolderId(), batch)) {
+                result.put(message.getImapUid(), message);
+            }
+        }
+        return result;
+    }
+    
+    // 统计信息
+    public int getOpenIndexCount() { return eventBus.getSubscriberCount(); }
+    public long getIndexBuilds() { return indexBuilds.get(); }
+    public long getIncrementalLoads() { return incrementalLoads.get(); }
+    
+    private int loadEntries(MailboxIndex index) {
+        int added = 0;
+        for (Object[] row : messageRepository.findImapIndexEntries(index.getFolderId(), index.getLastUid())) {
+            long size = row[3] != null ? (Long) row[3] : 0;
+            // 启用修改序列之前写入的消息没有MODSEQ，按最小值1处理
+            long modSeq = row[4] != null ? (Long) row[4] : 1;
+            if (index.append((Long) row[0], size, Boolean.TRUE.equals(row[1]), Boolean.TRUE.equals(row[2]), modSeq)) {
+                added++;
+            }
+        }
+        return added;
+    }
+    
+    /**
+     * 读取文件夹的[UIDVALIDITY, HIGHESTMODSEQ, UIDNEXT]，没有UIDVALIDITY的旧文件夹在此分配并持久化
+     */
+    private Object[] loadImapState(Long folderId) {
+        Object[] state = firstRow(folderRepository.findImapState(folderId));
+        if (state[0] == null) {
+            folderRepository.initUidValidity(folderId, System.currentTimeMillis() / 1000);
+            // 重新读取，并发SELECT时以先写入的值为准
+            state = firstRow(folderRepository.findImapState(folderId));
+        }
+        return state;
+    }
+    
+    private static Object[] firstRow(List<Object[]> rows) {
+        return rows.isEmpty() ? new Object[3] : rows.get(0);
+    }
+    
+    private static List<List<Long>> batches(List<Long> ids) {
+        List<List<Long>> result = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i += LOAD_BATCH_SIZE) {
+            result.add(ids.subList(i, Math.min(i + LOAD_BATCH_SIZE, ids.size())));
+        }
+        return result;
+    }
+}
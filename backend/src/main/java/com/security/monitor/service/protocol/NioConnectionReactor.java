@@ -0,0 +1,948 @@
+package com.security.monitor.service.protocol;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于Selector的NIO连接反应器
+ * 单个反应器线程负责accept和读写就绪事件，命令处理交给有界工作线程池；
+ * 空闲连接只占用一个通道和选择键，不占用线程和输入缓冲区；
+ * 工作队列有界，队列满时暂停读取就绪连接、拒绝新连接，队列回落到一半以下后恢复读取；
+ * TLS连接的加解密和握手（包括委托任务）都在工作线程上完成，反应器线程只搬运密文；
+ * 新连接先经过准入控制，未通过的连接在创建会话之前即被关闭
+ */
+public class NioConnectionReactor {
+    
+    private static final Logger logger = LoggerFactory.getLogger(NioConnectionReactor.class);
+    
+    private static final int INITIAL_INPUT_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_INPUT_BUFFER_SIZE = 128 * 1024;
+    private static final int OUTPUT_CHUNK_SIZE = 8 * 1024;
+    private static final int MAX_PENDING_OUTPUT = 256 * 1024;
+    private static final long IDLE_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int DEFAULT_QUEUE_CAPACITY_PER_WORKER = 32;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    
+    /**
+     * 会话工厂
+     */
+    @FunctionalInterface
+    public interface SessionFactory {
+        ProtocolSession create(SocketChannel channel) throws IOException;
+    }
+    
+    private final String name;
+    private final int maxConnections;
+    private final long idleTimeoutNanos;
+    private final ThreadPoolExecutor workers;
+    private final ConnectionAdmissionController admissionController;
+    private final Set<ChannelConnection> connections = ConcurrentHashMap.newKeySet();
+    private final Queue<Runnable> reactorTasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<ChannelConnection> pendingGreetings =
+        new PriorityQueue<>((a, b) -> Long.compare(a.greetAt, b.greetAt));
+    // 因工作队列已满而暂停读取的连接（只在反应器线程访问）
+    private final ArrayDeque<ChannelConnection> throttledConnections = new ArrayDeque<>();
+    private final List<ServerSocketChannel> serverChannels = new CopyOnWriteArrayList<>();
+    private final AtomicLong acceptedConnections = new AtomicLong();
+    private final AtomicLong rejectedConnections = new AtomicLong();
+    private final AtomicLong rejectedTasks = new AtomicLong();
+    private final AtomicLong throttledReads = new AtomicLong();
+    private final int queueCapacity;
+    
+    private Selector selector;
+    private Thread reactorThread;
+    private volatile boolean running = false;
+    private long lastIdleCheck = System.nanoTime();
+    
+    public NioConnectionReactor(String name, int workerThreads, int maxConnections, int idleTimeoutMillis) {
+        this(name, workerThreads, maxConnections, idleTimeoutMillis, null);
+    }
+    
+    public NioConnectionReactor(String name, int workerThreads, int maxConnections, int idleTimeoutMillis,
+                                ConnectionAdmissionController admissionController) {
+        this(name, workerThreads, maxConnections, idleTimeoutMillis, admissionController,
+            workerThreads * DEFAULT_QUEUE_CAPACITY_PER_WORKER);
+    }
+    
+    /**
+     * @param queueCapacity 工作队列容量，队列满时反应器暂停读取并拒绝新连接
+     */
+    public NioConnectionReactor(String name, int workerThreads, int maxConnections, int idleTimeoutMillis,
+                                ConnectionAdmissionController admissionController, int queueCapacity) {
+        this.name = name;
+        this.admissionController = admissionController;
+        this.maxConnections = maxConnections;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(this.queueCapacity), new CustomizableThreadFactory(name.toLowerCase() + "-worker-"));
+    }
+    
+    /**
+     * 启动反应器线程
+     */
+    public void start() throws IOException {
+        selector = Selector.open();
+        running = true;
+        
+        reactorThread = new Thread(this::runLoop, name.toLowerCase() + "-reactor");
+        reactorThread.setDaemon(true);
+        reactorThread.start();
+        
+        logger.info("{} NIO反应器已启动 - 工作线程: {}, 工作队列: {}, 最大连接数: {}",
+            name, workers.getCorePoolSize(), queueCapacity, maxConnections);
+    }
+    
+    /**
+     * 绑定监听端口
+     *
+     * @param busyResponse 超过最大连接数时尽力发送给客户端的响应，可为null
+     */
+    public void bind(int port, SessionFactory factory, String busyResponse) throws IOException {
+        bind(port, factory, busyResponse, null, 0);
+    }
+    
+    /**
+     * 绑定监听端口
+     *
+     * @param implicitTls 不为null时新连接直接进入TLS握手（SMTPS/IMAPS/POP3S）
+     * @param pregreetDelayMillis 大于0时延迟发送欢迎消息，期间客户端抢先发送数据视为违规并断开
+     */
+    public void bind(int port, SessionFactory factory, String busyResponse, MailTlsContextManager implicitTls,
+                     int pregreetDelayMillis) throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        server.bind(new InetSocketAddress(port), 1024);
+        server.configureBlocking(false);
+        serverChannels.add(server);
+        
+        Listener listener = new Listener(factory, busyResponse != null
+            ? (busyResponse + "\r\n").getBytes(StandardCharsets.US_ASCII) : null, implicitTls,
+            TimeUnit.MILLISECONDS.toNanos(pregreetDelayMillis));
+        runOnReactor(() -> {
+            try {
+                server.register(selector, SelectionKey.OP_ACCEPT, listener);
+                logger.info("{} NIO监听端口: {}", name, port);
+            } catch (IOException e) {
+                logger.error(name + " 注册监听端口失败: " + port, e);
+            }
+        });
+    }
+    
+    /**
+     * 停止反应器并关闭所有连接
+     */
+    public void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        
+        if (reactorThread != null) {
+            try {
+                reactorThread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        for (ServerSocketChannel server : serverChannels) {
+            try {
+                server.close();
+            } catch (IOException e) {
+                logger.debug("关闭监听通道时发生错误", e);
+            }
+        }
+        serverChannels.clear();
+        
+        connections.forEach(ChannelConnection::close);
+        connections.clear();
+        
+        workers.shutdown();
+        try {
+            if (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+        } catch (IOException e) {
+            logger.debug("关闭Selector时发生错误", e);
+        }
+    }
+    
+    private void runLoop() {
+        while (running) {
+            try {
+                selector.select(selectTimeout());
+                runReactorTasks();
+                
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    handleKey(key);
+                }
+                
+                resumeThrottledReads();
+                
+                long now = System.nanoTime();
+                sendDueGreetings(now);
+                if (now - lastIdleCheck >= IDLE_CHECK_INTERVAL_NANOS) {
+                    lastIdleCheck = now;
+                    checkIdleConnections(now);
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (Exception e) {
+                logger.error(name + " 反应器循环发生错误", e);
+            }
+        }
+    }
+    
+    private void handleKey(SelectionKey key) {
+        try {
+            if (!key.isValid()) {
+                return;
+            }
+            if (key.isAcceptable()) {
+                accept(key);
+                return;
+            }
+            
+            ChannelConnection connection = (ChannelConnection) key.attachment();
+            if (key.isWritable()) {
+                connection.onWritable();
+            }
+            if (key.isValid() && key.isReadable()) {
+                if (isQueueFull()) {
+                    // 数据留在内核缓冲区，TCP窗口把压力传回客户端
+                    connection.throttle();
+                    throttledConnections.add(connection);
+                    throttledReads.incrementAndGet();
+                } else {
+                    connection.onReadable();
+                }
+            }
+        } catch (CancelledKeyException e) {
+            // 连接已关闭
+        }
+    }
+    
+    private void accept(SelectionKey key) {
+        ServerSocketChannel server = (ServerSocketChannel) key.channel();
+        Listener listener = (Listener) key.attachment();
+        
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (IOException e) {
+                if (running) {
+                    logger.error(name + " 接受连接时发生错误", e);
+                }
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            
+            acceptedConnections.incrementAndGet();
+            
+            if (connections.size() >= maxConnections) {
+                rejectedConnections.incrementAndGet();
+                logger.warn("{} 达到最大连接数限制，拒绝连接", name);
+                rejectBusy(channel, listener.busyResponse);
+                continue;
+            }
+            if (isQueueFull()) {
+                rejectedConnections.incrementAndGet();
+                logger.warn("{} 工作队列已满，拒绝连接", name);
+                rejectBusy(channel, listener.busyResponse);
+                continue;
+            }
+            
+            ConnectionAdmissionController.Ticket ticket = ConnectionAdmissionController.Ticket.UNTRACKED;
+            if (admissionController != null) {
+                try {
+                    ticket = admissionController.admit(channel.getRemoteAddress(), name);
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                    continue;
+                }
+                if (!ticket.isAdmitted()) {
+                    rejectedConnections.incrementAndGet();
+                    rejectBusy(channel, listener.busyResponse);
+                    continue;
+                }
+            }
+            
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                
+                ChannelConnection connection = new ChannelConnection(channel, ticket);
+                if (listener.implicitTls != null) {
+                    connection.beginTls(listener.implicitTls);
+                }
+                connection.session = listener.factory.create(channel);
+                connection.key = channel.register(selector, 0, connection);
+                connections.add(connection);
+                
+                if (listener.pregreetDelayNanos > 0) {
+                    // 等待期间只监听读事件，用于发现抢先发送的客户端
+                    connection.greetAt = System.nanoTime() + listener.pregreetDelayNanos;
+                    pendingGreetings.add(connection);
+                    synchronized (connection) {
+                        connection.updateInterest();
+                    }
+                } else {
+                    connection.greeted = true;
+                    connection.processing = true;
+                    dispatch(connection, connection::open);
+                }
+            } catch (IOException e) {
+                logger.warn("{} 初始化连接失败: {}", name, e.getMessage());
+                ticket.release();
+                closeQuietly(channel);
+            }
+        }
+    }
+    
+    private void rejectBusy(SocketChannel channel, byte[] busyResponse) {
+        try {
+            if (busyResponse != null) {
+                channel.configureBlocking(false);
+                channel.write(ByteBuffer.wrap(busyResponse));
+            }
+        } catch (IOException e) {
+            // 尽力而为
+        }
+        closeQuietly(channel);
+    }
+    
+    /**
+     * 有等待发送欢迎消息的连接时缩短select超时
+     */
+    private long selectTimeout() {
+        ChannelConnection next = pendingGreetings.peek();
+        if (next == null) {
+            return 1000;
+        }
+        long waitMillis = TimeUnit.NANOSECONDS.toMillis(next.greetAt - System.nanoTime());
+        return Math.max(1, Math.min(1000, waitMillis));
+    }
+    
+    /**
+     * 等待期满且未抢先发送数据的连接开始会话
+     */
+    private void sendDueGreetings(long now) {
+        ChannelConnection connection;
+        while ((connection = pendingGreetings.peek()) != null && connection.greetAt - now <= 0) {
+            pendingGreetings.poll();
+            synchronized (connection) {
+                if (connection.closed) {
+                    continue;
+                }
+                connection.greeted = true;
+                connection.processing = true;
+                connection.updateInterest();
+            }
+            dispatch(connection, connection::open);
+        }
+    }
+    
+    private void checkIdleConnections(long now) {
+        for (ChannelConnection connection : connections) {
+            connection.checkIdle(now);
+        }
+    }
+    
+    private void dispatch(ChannelConnection connection, Runnable task) {
+        try {
+            workers.execute(task);
+        } catch (Exception e) {
+            rejectedTasks.incrementAndGet();
+            logger.warn("{} 工作线程池拒绝任务，关闭连接: {}", name, connection.session.getId());
+            connection.abort();
+        }
+    }
+    
+    private boolean isQueueFull() {
+        return workers.getQueue().remainingCapacity() == 0;
+    }
+    
+    /**
+     * 工作队列回落到一半以下后恢复暂停读取的连接
+     */
+    private void resumeThrottledReads() {
+        if (throttledConnections.isEmpty() || workers.getQueue().size() > queueCapacity / 2) {
+            return;
+        }
+        ChannelConnection connection;
+        while ((connection = throttledConnections.poll()) != null) {
+            connection.resume();
+        }
+    }
+    
+    private void runOnReactor(Runnable task) {
+        reactorTasks.add(task);
+        selector.wakeup();
+    }
+    
+    private void runReactorTasks() {
+        Runnable task;
+        while ((task = reactorTasks.poll()) != null) {
+            task.run();
+        }
+    }
+    
+    private static void closeQuietly(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+    }
+    
+    // 统计信息
+    public long getAcceptedConnections() { return acceptedConnections.get(); }
+    public long getRejectedConnections() { return rejectedConnections.get(); }
+    public int getActiveConnections() { return connections.size(); }
+    public int getQueuedTasks() { return workers.getQueue().size(); }
+    public int getQueueCapacity() { return queueCapacity; }
+    public long getRejectedTasks() { return rejectedTasks.get(); }
+    public long getThrottledReads() { return throttledReads.get(); }
+    public int getBusyWorkers() { return workers.getActiveCount(); }
+    public int getWorkerThreads() { return workers.getCorePoolSize(); }
+    
+    /**
+     * 监听端口及其会话工厂
+     */
+    private static class Listener {
+        private final SessionFactory factory;
+        private final byte[] busyResponse;
+        private final MailTlsContextManager implicitTls;
+        private final long pregreetDelayNanos;
+        
+        Listener(SessionFactory factory, byte[] busyResponse, MailTlsContextManager implicitTls, long pregreetDelayNanos) {
+            this.factory = factory;
+            this.busyResponse = busyResponse;
+            this.implicitTls = implicitTls;
+            this.pregreetDelayNanos = pregreetDelayNanos;
+        }
+    }
+    
+    /**
+     * 单个NIO连接
+     * 输入缓冲区只在反应器线程（读就绪）和工作线程（处理中）之间交替使用：
+     * 处理期间暂停读事件，处理完成后再恢复，因此同一会话的回调天然串行。
+     * 启用TLS后input保存密文，解密结果放入plainInput交给会话；
+     * 待发送的明文在握手完成前保留在pendingPlain中，加密后的记录进入pendingOutput
+     */
+    private class ChannelConnection implements ConnectionTransport {
+        private final SocketChannel channel;
+        private final ConnectionAdmissionController.Ticket ticket;
+        private final ArrayDeque<ByteBuffer> pendingOutput = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> pendingPlain = new ArrayDeque<>();
+        private ProtocolSession session;
+        private SelectionKey key;
+        private ByteBuffer input;
+        private ByteBuffer staging;
+        private SSLEngine tls;
+        private ByteBuffer plainInput;
+        private ByteBuffer wrapBuffer;
+        private int pendingOutputBytes = 0;
+        private volatile long lastActivity = System.nanoTime();
+        private boolean processing = false;
+        private boolean greeted = false;
+        private long greetAt;
+        private boolean closeAfterFlush = false;
+        private boolean throttled = false;
+        private boolean closed = false;
+        
+        ChannelConnection(SocketChannel channel, ConnectionAdmissionController.Ticket ticket) {
+            this.channel = channel;
+            this.ticket = ticket;
+        }
+        
+        /**
+         * 工作线程：发送欢迎消息
+         */
+        void open() {
+            try {
+                session.onOpen(this);
+                flush();
+            } catch (Exception e) {
+                logger.warn("{} 会话初始化失败: {}", name, e.getMessage());
+                close();
+            } finally {
+                finishProcessing();
+            }
+        }
+        
+        /**
+         * 反应器线程：读取可用数据并交给工作线程处理
+         */
+        void onReadable() {
+            if (input == null) {
+                input = ByteBuffer.allocate(INITIAL_INPUT_BUFFER_SIZE);
+            } else if (!input.hasRemaining()) {
+                if (input.capacity() >= MAX_INPUT_BUFFER_SIZE) {
+                    logger.warn("{} 输入行超过最大长度，关闭连接: {}", name, session.getId());
+                    close();
+                    return;
+                }
+                ByteBuffer larger = ByteBuffer.allocate(input.capacity() * 2);
+                input.flip();
+                larger.put(input);
+                input = larger;
+            }
+            
+            int read;
+            try {
+                read = channel.read(input);
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            
+            if (read < 0) {
+                close();
+                return;
+            }
+            if (read == 0) {
+                return;
+            }
+            if (!greeted) {
+                // 客户端在欢迎消息之前发送数据（pregreet），通常是不等待应答的垃圾邮件程序
+                ticket.reportPregreet(name);
+                close();
+                return;
+            }
+            
+            lastActivity = System.nanoTime();
+            synchronized (this) {
+                processing = true;
+                updateInterest();
+            }
+            dispatch(this, this::process);
+        }
+        
+        /**
+         * 工作线程：处理已读取的输入
+         */
+        void process() {
+            try {
+                if (tls != null) {
+                    decrypt();
+                } else {
+                    input.flip();
+                    session.onInput(input);
+                    // 释放空闲连接的输入缓冲区
+                    input = compactOrRelease(input);
+                }
+                
+                if (session.isFinished()) {
+                    synchronized (this) {
+                        closeAfterFlush = true;
+                    }
+                }
+                flush();
+            } catch (Exception e) {
+                logger.debug("{} 会话处理错误: {} - {}", name, session.getId(), e.getMessage());
+                close();
+            } finally {
+                finishProcessing();
+            }
+        }
+        
+        /**
+         * 工作线程：解密已读取的密文并驱动握手，得到的明文交给会话
+         */
+        private void decrypt() throws IOException {
+            input.flip();
+            while (input.hasRemaining()) {
+                if (plainInput == null) {
+                    plainInput = ByteBuffer.allocate(tls.getSession().getApplicationBufferSize());
+                }
+                SSLEngineResult result = tls.unwrap(input, plainInput);
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    if (plainInput.capacity() >= MAX_INPUT_BUFFER_SIZE) {
+                        throw new IOException("输入行超过最大长度");
+                    }
+                    ByteBuffer larger = ByteBuffer.allocate(plainInput.capacity() + tls.getSession().getApplicationBufferSize());
+                    plainInput.flip();
+                    larger.put(plainInput);
+                    plainInput = larger;
+                    continue;
+                }
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    // 记录不完整，等待更多密文
+                    break;
+                }
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    synchronized (this) {
+                        closeAfterFlush = true;
+                    }
+                    input.position(input.limit());
+                    break;
+                }
+                runHandshake(result.getHandshakeStatus());
+            }
+            input = compactOrRelease(input);
+            
+            if (plainInput != null && plainInput.position() > 0) {
+                plainInput.flip();
+                session.onInput(plainInput);
+                plainInput = compactOrRelease(plainInput);
+            }
+        }
+        
+        private ByteBuffer compactOrRelease(ByteBuffer buffer) {
+            buffer.compact();
+            return buffer.position() == 0 ? null : buffer;
+        }
+        
+        /**
+         * 执行握手中需要本端完成的步骤：委托任务和发送握手记录
+         */
+        private synchronized void runHandshake(SSLEngineResult.HandshakeStatus status) throws IOException {
+            while (true) {
+                if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    Runnable task;
+                    while ((task = tls.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                    status = tls.getHandshakeStatus();
+                } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    SSLEngineResult result = wrap(EMPTY);
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED && result.bytesProduced() == 0) {
+                        return;
+                    }
+                    status = result.getHandshakeStatus();
+                } else {
+                    return;
+                }
+            }
+        }
+        
+        /**
+         * 加密一段明文（或生成握手记录），结果追加到待发送队列
+         */
+        private SSLEngineResult wrap(ByteBuffer source) throws IOException {
+            while (true) {
+                int packetSize = tls.getSession().getPacketBufferSize();
+                if (wrapBuffer == null || wrapBuffer.capacity() < packetSize) {
+                    wrapBuffer = ByteBuffer.allocate(packetSize);
+                }
+                wrapBuffer.clear();
+                SSLEngineResult result = tls.wrap(source, wrapBuffer);
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    wrapBuffer = ByteBuffer.allocate(wrapBuffer.capacity() * 2);
+                    continue;
+                }
+                
+                wrapBuffer.flip();
+                if (wrapBuffer.hasRemaining()) {
+                    ByteBuffer record = ByteBuffer.allocate(wrapBuffer.remaining());
+                    record.put(wrapBuffer).flip();
+                    pendingOutput.add(record);
+                    pendingOutputBytes += record.remaining();
+                }
+                return result;
+            }
+        }
+        
+        /**
+         * 加密等待发送的明文；握手尚未完成时保留在队列中，握手完成后的flush再发送
+         */
+        private void encryptPending() throws IOException {
+            while (!pendingPlain.isEmpty()) {
+                ByteBuffer head = pendingPlain.peek();
+                SSLEngineResult result = wrap(head);
+                runHandshake(result.getHandshakeStatus());
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    pendingPlain.clear();
+                    return;
+                }
+                if (!head.hasRemaining()) {
+                    pendingPlain.poll();
+                } else if (result.bytesConsumed() == 0
+                        && tls.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_WRAP
+                        && tls.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    return;
+                }
+            }
+        }
+        
+        /**
+         * 启用TLS：之后写入的数据经过加密，读到的数据先解密再交给会话
+         */
+        private synchronized void beginTls(MailTlsContextManager tlsContext) throws IOException {
+            tls = tlsContext.createEngine();
+            tls.beginHandshake();
+        }
+        
+        /**
+         * 工作线程：处理空闲超时
+         */
+        void timeout() {
+            try {
+                session.onTimeout();
+                synchronized (this) {
+                    closeAfterFlush = true;
+                }
+                flush();
+            } catch (Exception e) {
+                close();
+            } finally {
+                finishProcessing();
+            }
+        }
+        
+        void checkIdle(long now) {
+            synchronized (this) {
+                if (processing || closed || !greeted || now - lastActivity < idleTimeoutNanos) {
+                    return;
+                }
+                processing = true;
+                updateInterest();
+            }
+            dispatch(this, this::timeout);
+        }
+        
+        /**
+         * 反应器线程：工作队列已满，暂停读事件
+         */
+        synchronized void throttle() {
+            throttled = true;
+            updateInterest();
+        }
+        
+        /**
+         * 反应器线程：恢复读事件
+         */
+        synchronized void resume() {
+            throttled = false;
+            updateInterest();
+        }
+        
+        /**
+         * 已标记处理中的任务被线程池拒绝：任务不会执行，由这里代替finishProcessing通知会话关闭
+         */
+        void abort() {
+            boolean alreadyClosed;
+            synchronized (this) {
+                processing = false;
+                alreadyClosed = closed;
+            }
+            if (alreadyClosed) {
+                // 关闭发生在处理中，会话通知留给了不会执行的任务
+                session.onClose();
+            } else {
+                close();
+            }
+        }
+        
+        private void finishProcessing() {
+            boolean notifySession;
+            synchronized (this) {
+                processing = false;
+                notifySession = closed;
+                if (!closed) {
+                    if (closeAfterFlush && pendingOutputBytes == 0) {
+                        close();
+                        return;
+                    }
+                    updateInterest();
+                }
+            }
+            if (notifySession) {
+                session.onClose();
+            }
+        }
+        
+        /**
+         * 反应器线程：继续发送积压的输出
+         */
+        void onWritable() {
+            synchronized (this) {
+                try {
+                    writePending();
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+                if (pendingOutputBytes == 0 && closeAfterFlush && !processing) {
+                    close();
+                    return;
+                }
+                updateInterest();
+            }
+        }
+        
+        @Override
+        public synchronized void write(byte[] data, int offset, int length) {
+            while (length > 0) {
+                if (staging == null || !staging.hasRemaining()) {
+                    if (staging != null) {
+                        enqueue(staging);
+                    }
+                    staging = ByteBuffer.allocate(Math.max(OUTPUT_CHUNK_SIZE, Math.min(length, MAX_PENDING_OUTPUT)));
+                }
+                int chunk = Math.min(length, staging.remaining());
+                staging.put(data, offset, chunk);
+                offset += chunk;
+                length -= chunk;
+            }
+        }
+        
+        /**
+         * 将写满的暂存块放入发送队列，TLS连接先进入明文队列等待加密
+         */
+        private void enqueue(ByteBuffer chunk) {
+            chunk.flip();
+            if (tls != null) {
+                pendingPlain.add(chunk);
+            } else {
+                pendingOutput.add(chunk);
+                pendingOutputBytes += chunk.remaining();
+            }
+        }
+        
+        @Override
+        public synchronized void flush() throws IOException {
+            if (closed) {
+                return;
+            }
+            if (staging != null && staging.position() > 0) {
+                enqueue(staging);
+                staging = null;
+            }
+            if (tls != null) {
+                encryptPending();
+            }
+            writePending();
+            updateInterest();
+        }
+        
+        private void writePending() throws IOException {
+            while (!pendingOutput.isEmpty()) {
+                ByteBuffer head = pendingOutput.peek();
+                int written = channel.write(head);
+                pendingOutputBytes -= written;
+                if (head.hasRemaining()) {
+                    return;
+                }
+                pendingOutput.poll();
+            }
+        }
+        
+        /**
+         * 根据处理状态和积压输出计算关注的事件：
+         * 处理中、工作队列已满或输出积压过多时暂停读，存在积压输出时关注写
+         */
+        private void updateInterest() {
+            if (closed || key == null || !key.isValid()) {
+                return;
+            }
+            int ops = 0;
+            if (!processing && !throttled && !closeAfterFlush && pendingOutputBytes < MAX_PENDING_OUTPUT) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (!pendingOutput.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+                if (Thread.currentThread() != reactorThread) {
+                    selector.wakeup();
+                }
+            }
+        }
+        
+        @Override
+        public void close() {
+            boolean notifySession;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                notifySession = !processing;
+                pendingOutput.clear();
+                pendingPlain.clear();
+                staging = null;
+                pendingOutputBytes = 0;
+            }
+            
+            if (key != null) {
+                key.cancel();
+            }
+            closeQuietly(channel);
+            connections.remove(this);
+            ticket.release();
+            
+            if (notifySession && session != null) {
+                session.onClose();
+            }
+        }
+        
+        @Override
+        public synchronized void startTls(MailTlsContextManager tlsContext) throws IOException {
+            // 升级前的响应以明文发送
+            flush();
+            beginTls(tlsContext);
+        }
+        
+        @Override
+        public SocketAddress getRemoteAddress() {
+            try {
+                return channel.getRemoteAddress();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        
+        @Override
+        public synchronized boolean isSecure() {
+            return tls != null;
+        }
+    }
+}
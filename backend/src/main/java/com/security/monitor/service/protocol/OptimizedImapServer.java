@@ -12,14 +12,19 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
-import javax.net.ssl.SSLServerSocketFactory;
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * 优化的IMAP服务器实现
@@ -30,12 +35,38 @@ public class OptimizedImapServer {
     
     private static final Logger logger = LoggerFactory.getLogger(OptimizedImapServer.class);
     
+    private static final int FETCH_BATCH_SIZE = 200;
+    private static final DateTimeFormatter INTERNAL_DATE_FORMAT = DateTimeFormatter.ofPattern("dd-MMM-yyyy HH:mm:ss Z", Locale.ENGLISH);
+    private static final DateTimeFormatter SEARCH_DATE_FORMAT = DateTimeFormatter.ofPattern("d-MMM-yyyy", Locale.ENGLISH);
+    private static final Pattern BODY_SECTION = Pattern.compile("BODY(\\.PEEK)?\\[([^\\]]*)\\](?:<(\\d+)\\.(\\d+)>)?|RFC822(\\.HEADER|\\.TEXT)?(?![.\\w])");
+    // 支持的节：整封、HEADER、TEXT、HEADER.FIELDS[.NOT]、部件编号及其MIME头；message/rfc822部件内的节不支持
+    private static final Pattern SECTION_SPEC = Pattern.compile("|HEADER|TEXT|HEADER\\.FIELDS(\\.NOT)?\\s*\\([^)]*\\)|[1-9]\\d*(\\.[1-9]\\d*)*(\\.MIME)?");
+    private static final Pattern HEADER_FIELDS = Pattern.compile("HEADER\\.FIELDS(\\.NOT)?\\s*\\(([^)]*)\\)");
+    private static final Pattern STORE_MODIFIERS = Pattern.compile("^\\(UNCHANGEDSINCE (\\d+)\\)\\s*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FETCH_MODIFIERS = Pattern.compile("\\s*\\(CHANGEDSINCE (\\d+)( VANISHED)?\\)\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern QRESYNC_PARAMETERS = Pattern.compile(
+            "\\(QRESYNC \\((\\d+) (\\d+)(?: ([0-9:,*]+))?(?: \\([^)]*\\))?\\)\\)", Pattern.CASE_INSENSITIVE);
+    private static final byte[] BUSY_RESPONSE = "* BYE Too many connections, try again later\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String CAPABILITIES = "IMAP4rev1 STARTTLS AUTH=PLAIN AUTH=LOGIN IDLE ENABLE CONDSTORE QRESYNC";
+    
     @Autowired
     private EmailService emailService;
     
     @Autowired
     private SecurityService securityService;
     
+    @Autowired
+    private MailTlsContextManager tlsContext;
+    
+    @Autowired
+    private ConnectionAdmissionController admissionController;
+    
+    @Autowired
+    private MailboxIndexManager mailboxIndexManager;
+    
+    @Autowired
+    private RawMessageStore rawMessageStore;
+    
     @Value("${imap.port:143}")
     private int imapPort;
     
@@ -51,6 +82,13 @@ public class OptimizedImapServer {
     @Value("${imap.enable-idle:true}")
     private boolean enableIdle;
     
+    // IDLE期间读取客户端输入的轮询间隔，也是推送变更的最大延迟
+    @Value("${imap.idle.poll-interval-ms:250}")
+    private int idlePollInterval;
+    
+    @Value("${imap.mailbox-resync-interval:60000}")
+    private long mailboxResyncInterval;
+    
     @Value("${imap.cache-size:1000}")
     private int cacheSize;
     
@@ -58,7 +96,6 @@ public class OptimizedImapServer {
     private ServerSocket sslServerSocket;
     private ExecutorService connectionPool;
     private final ConcurrentHashMap<String, ImapConnection> activeConnections = new ConcurrentHashMap<>();
-    private final Map<String, List<EmailMessage>> folderCache = new ConcurrentHashMap<>();
     private volatile boolean running = false;
     
     /**
@@ -70,13 +107,12 @@ public class OptimizedImapServer {
         // 创建连接池
         connectionPool = Executors.newFixedThreadPool(maxConnections);
         
-        // 启动标准IMAP服务器 (端口143)
-        serverSocket = new ServerSocket(imapPort);
+        // 启动标准IMAP服务器 (端口143)，由通道接受的明文连接可以用transferTo发送邮件原文
+        serverSocket = ServerSocketChannel.open().bind(new InetSocketAddress(imapPort)).socket();
         startServerListener(serverSocket, false, "IMAP");
         
         // 启动SSL IMAP服务器 (端口993)
-        SSLServerSocketFactory sslFactory = (SSLServerSocketFactory) SSLServerSocketFactory.getDefault();
-        sslServerSocket = sslFactory.createServerSocket(imapSslPort);
+        sslServerSocket = new ServerSocket(imapSslPort);
         startServerListener(sslServerSocket, true, "IMAPS");
         
         running = true;
@@ -94,15 +130,35 @@ public class OptimizedImapServer {
                 try {
                     Socket clientSocket = socket.accept();
                     
+                    // 准入控制：黑名单、每IP/网段的并发数和速率，未通过的连接不占用处理线程
+                    ConnectionAdmissionController.Ticket ticket =
+                        admissionController.admit(clientSocket.getRemoteSocketAddress(), serverType);
+                    if (!ticket.isAdmitted()) {
+                        rejectConnection(clientSocket, isSSL);
+                        continue;
+                    }
+                    
                     // 检查连接数限制
                     if (activeConnections.size() >= maxConnections) {
                         logger.warn("达到最大连接数限制，拒绝连接: {}", clientSocket.getRemoteSocketAddress());
+                        ticket.release();
                         clientSocket.close();
                         continue;
                     }
                     
+                    if (isSSL) {
+                        // 使用当前共享TLS上下文包装，证书续期后新连接立即使用新证书
+                        try {
+                            clientSocket = tlsContext.wrapServerSocket(clientSocket);
+                        } catch (IOException e) {
+                            ticket.release();
+                            clientSocket.close();
+                            throw e;
+                        }
+                    }
+                    
                     // 创建IMAP连接处理器
-                    ImapConnection connection = new ImapConnection(clientSocket, isSSL, serverType);
+                    ImapConnection connection = new ImapConnection(clientSocket, isSSL, serverType, ticket);
                     activeConnections.put(connection.getId(), connection);
                     
                     // 提交到线程池处理
@@ -117,6 +173,24 @@ public class OptimizedImapServer {
         });
     }
     
+    /**
+     * 拒绝未通过准入控制的连接，明文端口尽力发送BYE响应
+     */
+    private void rejectConnection(Socket clientSocket, boolean isSSL) {
+        try {
+            if (!isSSL) {
+                clientSocket.getOutputStream().write(BUSY_RESPONSE);
+            }
+        } catch (IOException e) {
+            // 尽力而为，客户端可能已经重置连接
+        }
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+    }
+    
     /**
      * 停止IMAP服务器
      */
@@ -160,24 +234,34 @@ public class OptimizedImapServer {
      */
     private class ImapConnection implements Runnable {
         private final String id;
-        private final Socket socket;
-        private final boolean isSSL;
+        private Socket socket;
+        private boolean isSSL;
         private final String serverType;
+        private final ConnectionAdmissionController.Ticket ticket;
         private BufferedReader reader;
         private PrintWriter writer;
+        private RawMessageWriter rawWriter;
         private boolean authenticated = false;
         private User currentUser;
         private String selectedFolder;
+        private MailboxIndex mailbox;
         private ImapState state = ImapState.NOT_AUTHENTICATED;
         private final Map<String, Object> sessionData = new ConcurrentHashMap<>();
         private LocalDateTime lastActivity;
-        private boolean idling = false;
+        private volatile boolean idling = false;
+        // 事件总线分发线程只设置该标记，变更由连接线程写出
+        private volatile boolean idleChangesPending = false;
+        private String idleTag;
+        private int announcedExists;
+        private boolean condstore = false;
+        private boolean qresync = false;
         
-        public ImapConnection(Socket socket, boolean isSSL, String serverType) {
+        public ImapConnection(Socket socket, boolean isSSL, String serverType, ConnectionAdmissionController.Ticket ticket) {
             this.id = "imap-" + System.currentTimeMillis() + "-" + socket.hashCode();
             this.socket = socket;
             this.isSSL = isSSL;
             this.serverType = serverType;
+            this.ticket = ticket;
             this.lastActivity = LocalDateTime.now();
         }
         
@@ -190,19 +274,24 @@ public class OptimizedImapServer {
                 // 初始化输入输出流
                 reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
                 writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+                rawWriter = rawMessageStore.newWriter(socket);
                 
                 logger.info("IMAP连接建立: {} from {}", id, socket.getRemoteSocketAddress());
                 
                 // 发送欢迎消息
-                sendResponse("* OK [CAPABILITY IMAP4rev1 STARTTLS AUTH=PLAIN AUTH=LOGIN IDLE] IMAP server ready");
+                sendResponse("* OK [CAPABILITY " + CAPABILITIES + "] IMAP server ready");
                 
                 // 处理IMAP命令
                 String line;
-                while ((line = reader.readLine()) != null && running) {
+                while ((line = idling ? readIdleLine() : reader.readLine()) != null && running) {
                     lastActivity = LocalDateTime.now();
                     
-                    if (idling && !line.toUpperCase().startsWith("DONE")) {
-                        continue; // 在IDLE状态下只处理DONE命令
+                    if (idling) {
+                        // 在IDLE状态下只处理DONE命令（DONE不带标签）
+                        if (line.trim().equalsIgnoreCase("DONE")) {
+                            handleDone();
+                        }
+                        continue;
                     }
                     
                     handleCommand(line.trim());
@@ -243,6 +332,9 @@ public class OptimizedImapServer {
                     case "CAPABILITY":
                         handleCapability(tag);
                         break;
+                    case "ENABLE":
+                        handleEnable(tag, arguments);
+                        break;
                     case "STARTTLS":
                         handleStartTls(tag);
                         break;
@@ -329,10 +421,34 @@ public class OptimizedImapServer {
          * 处理CAPABILITY命令
          */
         private void handleCapability(String tag) {
-            sendResponse("* CAPABILITY IMAP4rev1 STARTTLS AUTH=PLAIN AUTH=LOGIN IDLE NAMESPACE QUOTA");
+            sendResponse("* CAPABILITY " + CAPABILITIES + " NAMESPACE QUOTA");
             sendResponse(tag + " OK CAPABILITY completed");
         }
         
+        /**
+         * 处理ENABLE命令（RFC 5161），QRESYNC同时启用CONDSTORE
+         */
+        private void handleEnable(String tag, String arguments) {
+            if (!authenticated) {
+                sendResponse(tag + " NO Must be authenticated");
+                return;
+            }
+            
+            StringBuilder enabled = new StringBuilder("* ENABLED");
+            for (String extension : arguments.trim().toUpperCase().split("\\s+")) {
+                if (extension.equals("CONDSTORE") && !condstore) {
+                    condstore = true;
+                    enabled.append(" CONDSTORE");
+                } else if (extension.equals("QRESYNC") && !qresync) {
+                    condstore = true;
+                    qresync = true;
+                    enabled.append(" QRESYNC");
+                }
+            }
+            sendResponse(enabled.toString());
+            sendResponse(tag + " OK ENABLE completed");
+        }
+        
         /**
          * 处理STARTTLS命令
          */
@@ -342,9 +458,32 @@ public class OptimizedImapServer {
                 return;
             }
             
+            if (authenticated) {
+                sendResponse(tag + " BAD Command not valid in this state");
+                return;
+            }
+            
             sendResponse(tag + " OK Begin TLS negotiation now");
-            // 这里应该升级连接到TLS
-            logger.info("STARTTLS initiated for connection: {}", id);
+            try {
+                upgradeToTls();
+                logger.info("STARTTLS已启动: {}", id);
+            } catch (IOException e) {
+                logger.warn("STARTTLS升级失败: {} - {}", id, e.getMessage());
+                state = ImapState.LOGOUT;
+            }
+        }
+        
+        /**
+         * 在当前连接上叠加TLS并重建读写流
+         * 新的读取器同时丢弃了客户端在升级命令之后流水线发送的明文
+         */
+        private void upgradeToTls() throws IOException {
+            writer.flush();
+            socket = tlsContext.wrapServerSocket(socket);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            rawWriter = rawMessageStore.newWriter(socket);
+            isSSL = true;
         }
         
         /**
@@ -444,13 +583,28 @@ public class OptimizedImapServer {
         /**
          * 处理SELECT命令
          */
-        private void handleSelect(String tag, String folderName) {
+        private void handleSelect(String tag, String arguments) {
             if (!authenticated) {
                 sendResponse(tag + " NO Must be authenticated");
                 return;
             }
             
-            folderName = unquote(folderName);
+            // 邮箱名之后可以带 (CONDSTORE) 或 (QRESYNC (uidvalidity modseq [known-uids [seq-match]]))
+            String[] nameAndParameters = splitMailboxArgument(arguments);
+            String folderName = nameAndParameters[0];
+            String parameters = nameAndParameters[1].toUpperCase();
+            Matcher qresyncParameters = QRESYNC_PARAMETERS.matcher(parameters);
+            boolean resyncRequested = qresyncParameters.find();
+            if (resyncRequested && !qresync) {
+                sendResponse(tag + " BAD QRESYNC must be enabled first");
+                return;
+            }
+            if (parameters.contains("CONDSTORE")) {
+                condstore = true;
+            }
+            
+            // 选择新文件夹（无论成功与否）都会取消之前的选择
+            deselect();
             
             try {
                 EmailFolder folder = getFolderByName(folderName);
@@ -459,18 +613,30 @@ public class OptimizedImapServer {
                     return;
                 }
                 
+                mailbox = mailboxIndexManager.open(folder);
                 selectedFolder = folderName;
                 state = ImapState.SELECTED;
                 
-                // 发送文件夹状态信息
-                sendResponse("* " + folder.getMessageCount() + " EXISTS");
-                sendResponse("* " + folder.getUnreadCount() + " RECENT");
-                sendResponse("* OK [UNSEEN " + folder.getUnreadCount() + "] Message " + folder.getUnreadCount() + " is first unseen");
-                sendResponse("* OK [UIDVALIDITY " + System.currentTimeMillis() + "] UIDs valid");
-                sendResponse("* OK [UIDNEXT " + (folder.getMessageCount() + 1) + "] Predicted next UID");
+                // 发送文件夹状态信息（来自索引，而不是文件夹上可能过期的计数字段）
+                int unseen = mailbox.countFlag(MailboxIndex.Flag.SEEN, false);
+                int firstUnseen = mailbox.firstWithout(MailboxIndex.Flag.SEEN);
+                announcedExists = mailbox.size();
+                sendResponse("* " + announcedExists + " EXISTS");
+                sendResponse("* " + unseen + " RECENT");
+                if (firstUnseen > 0) {
+                    sendResponse("* OK [UNSEEN " + firstUnseen + "] Message " + firstUnseen + " is first unseen");
+                }
+                sendResponse("* OK [UIDVALIDITY " + mailbox.getUidValidity() + "] UIDs valid");
+                sendResponse("* OK [UIDNEXT " + mailbox.getUidNext() + "] Predicted next UID");
+                sendResponse("* OK [HIGHESTMODSEQ " + mailbox.getHighestModSeq() + "] Highest");
                 sendResponse("* FLAGS (\\Answered \\Flagged \\Deleted \\Seen \\Draft)");
                 sendResponse("* OK [PERMANENTFLAGS (\\Answered \\Flagged \\Deleted \\Seen \\Draft \\*)] Limited");
                 
+                // UIDVALIDITY未变时只报告客户端上次同步之后的删除和标志变化
+                if (resyncRequested && Long.parseLong(qresyncParameters.group(1)) == mailbox.getUidValidity()) {
+                    quickResync(Long.parseLong(qresyncParameters.group(2)), qresyncParameters.group(3));
+                }
+                
                 sendResponse(tag + " OK [READ-WRITE] SELECT completed");
                 logger.debug("IMAP文件夹选择: {} - {}", id, folderName);
                 
@@ -480,6 +646,20 @@ public class OptimizedImapServer {
             }
         }
         
+        /**
+         * QRESYNC快速重新同步：先发送VANISHED (EARLIER)，再发送修改序列大于客户端已知值的消息标志
+         */
+        private void quickResync(long knownModSeq, String knownUids) {
+            reportVanishedSince(knownUids != null ? knownUids : "1:*", knownModSeq);
+            
+            for (int seq = 1; seq <= mailbox.size(); seq++) {
+                if (mailbox.modSeqAt(seq) > knownModSeq) {
+                    sendResponse("* " + seq + " FETCH (UID " + mailbox.uidAt(seq) + " FLAGS " + mailbox.formatFlags(seq)
+                            + " MODSEQ (" + mailbox.modSeqAt(seq) + "))");
+                }
+            }
+        }
+        
         /**
          * 处理LIST命令
          */
@@ -518,6 +698,15 @@ public class OptimizedImapServer {
          * 处理FETCH命令
          */
         private void handleFetch(String tag, String arguments) {
+            fetch(tag, arguments, false);
+        }
+        
+        /**
+         * 处理FETCH/UID FETCH
+         * UID、FLAGS、RFC822.SIZE直接由索引回答；信封和正文只在被请求时按批加载对应的投影或实体
+         */
+        private void fetch(String tag, String arguments, boolean byUid) {
+            String command = byUid ? "UID FETCH" : "FETCH";
             if (state != ImapState.SELECTED) {
                 sendResponse(tag + " NO Must select a folder first");
                 return;
@@ -526,28 +715,549 @@ public class OptimizedImapServer {
             try {
                 String[] parts = arguments.split("\\s+", 2);
                 if (parts.length < 2) {
-                    sendResponse(tag + " BAD FETCH expects sequence set and items");
+                    sendResponse(tag + " BAD " + command + " expects sequence set and items");
                     return;
                 }
                 
-                String sequenceSet = parts[0];
-                String items = parts[1];
+                // CONDSTORE修饰符：(CHANGEDSINCE modseq [VANISHED])
+                String itemList = parts[1];
+                long changedSince = -1;
+                Matcher modifiers = FETCH_MODIFIERS.matcher(itemList);
+                if (modifiers.find()) {
+                    changedSince = Long.parseLong(modifiers.group(1));
+                    itemList = itemList.substring(0, modifiers.start());
+                    if (modifiers.group(2) != null) {
+                        if (!byUid || !qresync) {
+                            sendResponse(tag + " BAD VANISHED requires UID FETCH with QRESYNC enabled");
+                            return;
+                        }
+                        reportVanishedSince(parts[0], changedSince);
+                    }
+                    condstore = true;
+                }
                 
-                List<EmailMessage> messages = getMessagesInFolder(selectedFolder);
-                List<Integer> messageNumbers = parseSequenceSet(sequenceSet, messages.size());
+                int[] sequence = mailbox.resolve(parts[0], byUid);
+                FetchItems items = FetchItems.parse(itemList, byUid);
+                if (items.unsupportedSection != null) {
+                    sendResponse(tag + " BAD Unsupported section BODY[" + items.unsupportedSection + "]");
+                    return;
+                }
+                items.modSeq |= changedSince >= 0;
+                condstore |= items.modSeq;
+                if (changedSince >= 0) {
+                    sequence = changedSince(sequence, changedSince);
+                }
                 
-                for (int msgNum : messageNumbers) {
-                    if (msgNum > 0 && msgNum <= messages.size()) {
-                        EmailMessage message = messages.get(msgNum - 1);
-                        sendFetchResponse(msgNum, message, items);
+                for (int from = 0; from < sequence.length; from += FETCH_BATCH_SIZE) {
+                    int to = Math.min(from + FETCH_BATCH_SIZE, sequence.length);
+                    List<Long> uids = new ArrayList<>(to - from);
+                    for (int i = from; i < to; i++) {
+                        uids.add(mailbox.uidAt(sequence[i]));
+                    }
+                    
+                    Map<Long, Object[]> envelopes = items.needsEnvelope()
+                            ? mailboxIndexManager.loadEnvelopes(mailbox, uids) : Collections.emptyMap();
+                    Map<Long, Object[]> rawLocations = items.needsMessage()
+                            ? mailboxIndexManager.loadRawLocations(mailbox, uids) : Collections.emptyMap();
+                    // 只有没有原文文件的旧邮件才加载完整实体用于渲染
+                    Map<Long, EmailMessage> legacyMessages = items.needsMessage()
+                            ? mailboxIndexManager.loadMessages(mailbox, withoutRawMessage(uids, rawLocations)) : Collections.emptyMap();
+                    
+                    List<Long> newlySeen = new ArrayList<>();
+                    long modSeq = items.setsSeen() ? EmailMessage.nextModSeq() : 0;
+                    for (int i = from; i < to; i++) {
+                        int seq = sequence[i];
+                        long uid = uids.get(i - from);
+                        boolean seenChanged = items.setsSeen() && mailbox.setFlag(seq, MailboxIndex.Flag.SEEN, true, modSeq);
+                        if (seenChanged) {
+                            newlySeen.add(uid);
+                        }
+                        try (RawMessage raw = items.needsMessage() ? openRaw(rawLocations.get(uid), legacyMessages.get(uid)) : null) {
+                            sendFetchResponse(seq, uid, items, envelopes.get(uid), raw, seenChanged);
+                        }
                     }
+                    mailboxIndexManager.storeFlag(mailbox, newlySeen, MailboxIndex.Flag.SEEN, true, modSeq);
                 }
                 
-                sendResponse(tag + " OK FETCH completed");
+                sendResponse(tag + " OK " + command + " completed");
                 
+            } catch (IllegalArgumentException e) {
+                sendResponse(tag + " BAD Invalid sequence set");
             } catch (Exception e) {
                 logger.error("FETCH处理错误", e);
-                sendResponse(tag + " NO FETCH failed");
+                sendResponse(tag + " NO " + command + " failed");
+            }
+        }
+        
+        private List<Long> withoutRawMessage(List<Long> uids, Map<Long, Object[]> rawLocations) {
+            List<Long> result = new ArrayList<>();
+            for (Long uid : uids) {
+                Object[] location = rawLocations.get(uid);
+                if (location == null || location[1] == null) {
+                    result.add(uid);
+                }
+            }
+            return result;
+        }
+        
+        /**
+         * 打开邮件原文，没有原文文件的旧邮件由实体渲染，消息已不存在时返回null
+         */
+        private RawMessage openRaw(Object[] location, EmailMessage legacy) throws IOException {
+            RawMessage raw = location != null
+                    ? rawMessageStore.open((String) location[1], (Long) location[2], (Boolean) location[3]) : null;
+            if (raw == null && legacy != null) {
+                raw = rawMessageStore.renderMessage(legacy);
+            }
+            return raw;
+        }
+        
+        /**
+         * 只保留修改序列大于指定值的消息
+         */
+        private int[] changedSince(int[] sequence, long modSeq) {
+            return Arrays.stream(sequence).filter(seq -> mailbox.modSeqAt(seq) > modSeq).toArray();
+        }
+        
+        /**
+         * 报告UID集中在指定修改序列之后被删除的消息（VANISHED (EARLIER)），来源是软删除记录
+         * 集合中的 * 不受当前最大UID限制，已删除的最大UID消息也要报告
+         */
+        private void reportVanishedSince(String uidSet, long modSeq) {
+            List<long[]> ranges = mailbox.uidRanges(uidSet.replace("*", String.valueOf(Long.MAX_VALUE)));
+            List<Long> vanished = new ArrayList<>();
+            for (long uid : mailboxIndexManager.findExpungedSince(mailbox, modSeq)) {
+                for (long[] range : ranges) {
+                    if (uid >= range[0] && uid <= range[1]) {
+                        vanished.add(uid);
+                        break;
+                    }
+                }
+            }
+            if (!vanished.isEmpty()) {
+                sendResponse("* VANISHED (EARLIER) " + formatUidSet(toRanges(vanished)));
+            }
+        }
+        
+        /**
+         * 处理STORE命令
+         */
+        private void handleStore(String tag, String arguments) {
+            store(tag, arguments, false);
+        }
+        
+        /**
+         * 处理STORE/UID STORE，修改索引中的标志位并按标志批量持久化
+         * 同一命令修改的消息共用一个新的修改序列；带UNCHANGEDSINCE时跳过之后被修改过的消息并以MODIFIED报告
+         */
+        private void store(String tag, String arguments, boolean byUid) {
+            String command = byUid ? "UID STORE" : "STORE";
+            if (state != ImapState.SELECTED) {
+                sendResponse(tag + " NO Must select a folder first");
+                return;
+            }
+            
+            String[] setAndRest = arguments.split("\\s+", 2);
+            long unchangedSince = -1;
+            if (setAndRest.length == 2) {
+                Matcher modifiers = STORE_MODIFIERS.matcher(setAndRest[1]);
+                if (modifiers.find()) {
+                    unchangedSince = Long.parseLong(modifiers.group(1));
+                    arguments = setAndRest[0] + " " + setAndRest[1].substring(modifiers.end());
+                    condstore = true;
+                }
+            }
+            
+            String[] parts = arguments.split("\\s+", 3);
+            if (parts.length < 3) {
+                sendResponse(tag + " BAD " + command + " expects sequence set, action and flags");
+                return;
+            }
+            
+            String action = parts[1].toUpperCase();
+            boolean silent = action.endsWith(".SILENT");
+            if (silent) {
+                action = action.substring(0, action.length() - ".SILENT".length());
+            }
+            if (!action.equals("FLAGS") && !action.equals("+FLAGS") && !action.equals("-FLAGS")) {
+                sendResponse(tag + " BAD Invalid STORE action");
+                return;
+            }
+            
+            // 只维护索引支持的系统标志，其他标志（\Answered、\Draft、关键字）被忽略
+            EnumSet<MailboxIndex.Flag> requested = EnumSet.noneOf(MailboxIndex.Flag.class);
+            for (String name : parts[2].replaceAll("[()]", " ").trim().split("\\s+")) {
+                MailboxIndex.Flag flag = MailboxIndex.Flag.fromImapName(name);
+                if (flag != null) {
+                    requested.add(flag);
+                }
+            }
+            
+            try {
+                int[] sequence = mailbox.resolve(parts[0], byUid);
+                Map<MailboxIndex.Flag, List<Long>> added = new EnumMap<>(MailboxIndex.Flag.class);
+                Map<MailboxIndex.Flag, List<Long>> removed = new EnumMap<>(MailboxIndex.Flag.class);
+                BitSet conflicts = new BitSet();
+                long modSeq = EmailMessage.nextModSeq();
+                
+                for (int seq : sequence) {
+                    long uid = mailbox.uidAt(seq);
+                    if (unchangedSince >= 0 && mailbox.modSeqAt(seq) > unchangedSince) {
+                        conflicts.set(seq);
+                        continue;
+                    }
+                    for (MailboxIndex.Flag flag : MailboxIndex.Flag.values()) {
+                        boolean value;
+                        if (action.equals("FLAGS")) {
+                            value = requested.contains(flag);
+                        } else if (requested.contains(flag)) {
+                            value = action.equals("+FLAGS");
+                        } else {
+                            continue;
+                        }
+                        if (mailbox.setFlag(seq, flag, value, modSeq)) {
+                            (value ? added : removed).computeIfAbsent(flag, f -> new ArrayList<>()).add(uid);
+                        }
+                    }
+                }
+                
+                for (Map.Entry<MailboxIndex.Flag, List<Long>> entry : added.entrySet()) {
+                    mailboxIndexManager.storeFlag(mailbox, entry.getValue(), entry.getKey(), true, modSeq);
+                }
+                for (Map.Entry<MailboxIndex.Flag, List<Long>> entry : removed.entrySet()) {
+                    mailboxIndexManager.storeFlag(mailbox, entry.getValue(), entry.getKey(), false, modSeq);
+                }
+                
+                List<Long> modified = new ArrayList<>();
+                for (int seq : sequence) {
+                    if (conflicts.get(seq)) {
+                        modified.add(byUid ? mailbox.uidAt(seq) : seq);
+                        continue;
+                    }
+                    // .SILENT时仍需把新的修改序列告诉启用了CONDSTORE的客户端
+                    boolean changed = mailbox.modSeqAt(seq) == modSeq;
+                    if (!silent) {
+                        sendResponse("* " + seq + " FETCH (" + (byUid ? "UID " + mailbox.uidAt(seq) + " " : "")
+                                + "FLAGS " + mailbox.formatFlags(seq)
+                                + (condstore ? " MODSEQ (" + mailbox.modSeqAt(seq) + ")" : "") + ")");
+                    } else if (silent && condstore && changed) {
+                        sendResponse("* " + seq + " FETCH (" + (byUid ? "UID " + mailbox.uidAt(seq) + " " : "")
+                                + "MODSEQ (" + modSeq + "))");
+                    }
+                }
+                if (!modified.isEmpty()) {
+                    sendResponse(tag + " OK [MODIFIED " + formatUidSet(toRanges(modified)) + "] Conditional " + command + " failed");
+                } else {
+                    sendResponse(tag + " OK " + command + " completed");
+                }
+                
+            } catch (IllegalArgumentException e) {
+                sendResponse(tag + " BAD Invalid sequence set");
+            } catch (Exception e) {
+                logger.error("STORE处理错误", e);
+                sendResponse(tag + " NO " + command + " failed");
+            }
+        }
+        
+        /**
+         * 处理SEARCH命令
+         */
+        private void handleSearch(String tag, String arguments) {
+            search(tag, arguments, false);
+        }
+        
+        /**
+         * 处理SEARCH/UID SEARCH
+         * 标志、大小和序列集条件由索引直接求值；地址、主题和日期条件只加载信封投影，不支持正文搜索
+         */
+        private void search(String tag, String arguments, boolean byUid) {
+            String command = byUid ? "UID SEARCH" : "SEARCH";
+            if (state != ImapState.SELECTED) {
+                sendResponse(tag + " NO Must select a folder first");
+                return;
+            }
+            
+            try {
+                List<String> keys = tokenizeSearch(arguments);
+                List<IntPredicate> criteria = new ArrayList<>();
+                Map<Long, Object[]> envelopes = null;
+                boolean negate = false;
+                boolean modSeqSearch = false;
+                
+                for (int i = 0; i < keys.size(); i++) {
+                    String key = keys.get(i).toUpperCase();
+                    IntPredicate criterion;
+                    switch (key) {
+                        case "CHARSET":
+                            i++;
+                            continue;
+                        case "NOT":
+                            negate = !negate;
+                            continue;
+                        case "ALL":
+                            criterion = seq -> true;
+                            break;
+                        case "SEEN":
+                        case "UNSEEN":
+                            criterion = flagCriterion(MailboxIndex.Flag.SEEN, key.equals("SEEN"));
+                            break;
+                        case "FLAGGED":
+                        case "UNFLAGGED":
+                            criterion = flagCriterion(MailboxIndex.Flag.FLAGGED, key.equals("FLAGGED"));
+                            break;
+                        case "DELETED":
+                        case "UNDELETED":
+                            criterion = flagCriterion(MailboxIndex.Flag.DELETED, key.equals("DELETED"));
+                            break;
+                        case "LARGER":
+                        case "SMALLER": {
+                            long limit = Long.parseLong(keys.get(++i));
+                            boolean larger = key.equals("LARGER");
+                            criterion = seq -> larger ? mailbox.sizeAt(seq) > limit : mailbox.sizeAt(seq) < limit;
+                            break;
+                        }
+                        case "UID":
+                            criterion = setCriterion(keys.get(++i), true);
+                            break;
+                        case "MODSEQ": {
+                            // 可选的 entry-name entry-type-req 只有系统标志，按整体修改序列比较
+                            if (!keys.get(i + 1).matches("\\d+")) {
+                                i += 2;
+                            }
+                            long modSeq = Long.parseLong(keys.get(++i));
+                            criterion = seq -> mailbox.modSeqAt(seq) >= modSeq;
+                            modSeqSearch = true;
+                            condstore = true;
+                            break;
+                        }
+                        case "FROM":
+                        case "TO":
+                        case "CC":
+                        case "SUBJECT":
+                        case "SINCE":
+                        case "BEFORE":
+                        case "ON": {
+                            if (envelopes == null) {
+                                envelopes = loadAllEnvelopes();
+                            }
+                            criterion = envelopeCriterion(envelopes, key, keys.get(++i));
+                            break;
+                        }
+                        default:
+                            if (!key.matches("[0-9*:,]+")) {
+                                sendResponse(tag + " BAD Unsupported search criteria: " + key);
+                                return;
+                            }
+                            criterion = setCriterion(key, false);
+                            break;
+                    }
+                    criteria.add(negate ? criterion.negate() : criterion);
+                    negate = false;
+                }
+                
+                StringBuilder response = new StringBuilder("* SEARCH");
+                long highestMatched = 0;
+                for (int seq = 1; seq <= mailbox.size(); seq++) {
+                    boolean matches = true;
+                    for (IntPredicate criterion : criteria) {
+                        if (!criterion.test(seq)) {
+                            matches = false;
+                            break;
+                        }
+                    }
+                    if (matches) {
+                        response.append(' ').append(byUid ? mailbox.uidAt(seq) : seq);
+                        highestMatched = Math.max(highestMatched, mailbox.modSeqAt(seq));
+                    }
+                }
+                if (modSeqSearch && highestMatched > 0) {
+                    response.append(" (MODSEQ ").append(highestMatched).append(')');
+                }
+                sendResponse(response.toString());
+                sendResponse(tag + " OK " + command + " completed");
+                
+            } catch (IndexOutOfBoundsException | IllegalArgumentException | java.time.format.DateTimeParseException e) {
+                sendResponse(tag + " BAD Invalid search criteria");
+            } catch (Exception e) {
+                logger.error("SEARCH处理错误", e);
+                sendResponse(tag + " NO " + command + " failed");
+            }
+        }
+        
+        private IntPredicate flagCriterion(MailboxIndex.Flag flag, boolean value) {
+            return seq -> mailbox.hasFlag(seq, flag) == value;
+        }
+        
+        private IntPredicate setCriterion(String sequenceSet, boolean byUid) {
+            BitSet matches = new BitSet();
+            for (int seq : mailbox.resolve(sequenceSet, byUid)) {
+                matches.set(seq);
+            }
+            return matches::get;
+        }
+        
+        private IntPredicate envelopeCriterion(Map<Long, Object[]> envelopes, String key, String value) {
+            if (key.equals("SINCE") || key.equals("BEFORE") || key.equals("ON")) {
+                LocalDate date = LocalDate.parse(value, SEARCH_DATE_FORMAT);
+                return seq -> {
+                    Object[] envelope = envelopes.get(mailbox.uidAt(seq));
+                    if (envelope == null || envelope[1] == null) {
+                        return false;
+                    }
+                    LocalDate received = ((LocalDateTime) envelope[1]).toLocalDate();
+                    return key.equals("SINCE") ? !received.isBefore(date)
+                            : key.equals("BEFORE") ? received.isBefore(date) : received.equals(date);
+                };
+            }
+            int column = key.equals("FROM") ? 4 : key.equals("TO") ? 5 : key.equals("CC") ? 6 : 3;
+            String needle = value.toLowerCase();
+            return seq -> {
+                Object[] envelope = envelopes.get(mailbox.uidAt(seq));
+                return envelope != null && envelope[column] != null
+                        && envelope[column].toString().toLowerCase().contains(needle);
+            };
+        }
+        
+        private Map<Long, Object[]> loadAllEnvelopes() {
+            List<Long> uids = new ArrayList<>(mailbox.size());
+            for (int seq = 1; seq <= mailbox.size(); seq++) {
+                uids.add(mailbox.uidAt(seq));
+            }
+            return mailboxIndexManager.loadEnvelopes(mailbox, uids);
+        }
+        
+        /**
+         * 处理UID命令
+         */
+        private void handleUid(String tag, String arguments) {
+            String[] parts = arguments.split("\\s+", 2);
+            String rest = parts.length > 1 ? parts[1] : "";
+            switch (parts[0].toUpperCase()) {
+                case "FETCH":
+                    fetch(tag, rest, true);
+                    break;
+                case "STORE":
+                    store(tag, rest, true);
+                    break;
+                case "SEARCH":
+                    search(tag, rest, true);
+                    break;
+                default:
+                    sendResponse(tag + " BAD UID command not supported");
+                    break;
+            }
+        }
+        
+        /**
+         * 处理EXPUNGE命令
+         */
+        private void handleExpunge(String tag) {
+            if (state != ImapState.SELECTED) {
+                sendResponse(tag + " NO Must select a folder first");
+                return;
+            }
+            
+            try {
+                expungeDeleted(true);
+                sendResponse(tag + " OK EXPUNGE completed");
+            } catch (Exception e) {
+                logger.error("EXPUNGE处理错误", e);
+                sendResponse(tag + " NO EXPUNGE failed");
+            }
+        }
+        
+        /**
+         * 处理CLOSE命令：静默删除带\Deleted标志的消息并取消选择
+         */
+        private void handleClose(String tag) {
+            if (state != ImapState.SELECTED) {
+                sendResponse(tag + " NO Must select a folder first");
+                return;
+            }
+            
+            try {
+                expungeDeleted(false);
+                deselect();
+                sendResponse(tag + " OK CLOSE completed");
+            } catch (Exception e) {
+                logger.error("CLOSE处理错误", e);
+                sendResponse(tag + " NO CLOSE failed");
+            }
+        }
+        
+        private void expungeDeleted(boolean report) {
+            long[] deleted = mailbox.deletedUids();
+            mailboxIndexManager.expunge(mailbox, deleted);
+            int[] expunged = mailbox.remove(deleted);
+            announcedExists -= expunged.length;
+            if (report) {
+                sendExpunged(deleted, expunged);
+            }
+        }
+        
+        /**
+         * 报告被删除的消息：启用QRESYNC的客户端用一条VANISHED代替逐条的EXPUNGE
+         */
+        private void sendExpunged(long[] uids, int[] expunged) {
+            if (expunged.length == 0) {
+                return;
+            }
+            if (qresync) {
+                List<Long> sorted = new ArrayList<>(uids.length);
+                for (long uid : uids) {
+                    sorted.add(uid);
+                }
+                Collections.sort(sorted);
+                sendResponse("* VANISHED " + formatUidSet(toRanges(sorted)));
+                return;
+            }
+            for (int seq : expunged) {
+                sendResponse("* " + seq + " EXPUNGE");
+            }
+        }
+        
+        /**
+         * 发送事件总线送达的邮箱变更：其他来源删除的消息、新到达的消息和其他来源修改的标志
+         * resync为true时，距上次增量同步超过间隔则先同步一次，兜底不经过事件总线的新消息、标志修改和删除
+         */
+        private void reportMailboxChanges(boolean resync) {
+            if (mailbox == null) {
+                return;
+            }
+            if (resync && System.currentTimeMillis() - mailbox.getLastResync() >= mailboxResyncInterval) {
+                mailboxIndexManager.loadNewMessages(mailbox);
+            }
+            
+            // 只报告本连接已知的消息，未公布过的UID不能出现在VANISHED中
+            long[] pendingExpunges = Arrays.stream(mailbox.drainPendingExpunges())
+                    .filter(uid -> mailbox.seqOf(uid) > 0).toArray();
+            int[] expunged = mailbox.remove(pendingExpunges);
+            sendExpunged(pendingExpunges, expunged);
+            announcedExists -= expunged.length;
+            
+            if (mailbox.size() > announcedExists) {
+                announcedExists = mailbox.size();
+                sendResponse("* " + announcedExists + " EXISTS");
+            }
+            
+            for (long uid : mailbox.drainChangedFlags()) {
+                int seq = mailbox.seqOf(uid);
+                if (seq > 0) {
+                    sendResponse("* " + seq + " FETCH (UID " + uid + " FLAGS " + mailbox.formatFlags(seq)
+                            + (condstore ? " MODSEQ (" + mailbox.modSeqAt(seq) + ")" : "") + ")");
+                }
+            }
+        }
+        
+        /**
+         * 取消当前选择的文件夹，释放邮箱索引
+         */
+        private void deselect() {
+            mailboxIndexManager.close(mailbox);
+            mailbox = null;
+            selectedFolder = null;
+            if (state == ImapState.SELECTED) {
+                state = ImapState.AUTHENTICATED;
             }
         }
         
@@ -565,21 +1275,68 @@ public class OptimizedImapServer {
                 return;
             }
             
-            sendResponse("+ idling");
+            idleTag = tag;
             idling = true;
-            
-            // 在实际实现中，这里应该监听文件夹变化并推送更新
+            sendResponse("+ idling");
+            // 事件总线回调只做标记，不能在分发线程上写套接字
+            mailbox.setChangeListener(() -> idleChangesPending = true);
+            idleChangesPending = false;
+            reportMailboxChanges(true);
             logger.debug("IMAP进入IDLE状态: {}", id);
         }
         
+        /**
+         * IDLE期间读取一行：套接字以短超时轮询，在超时间隙中由本连接线程写出事件总线标记的变更；
+         * 逐字符读取，超时不会丢失已读入的部分输入。超过连接超时没有输入时与普通读取一样抛出超时异常
+         */
+        private String readIdleLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            long lastInput = System.currentTimeMillis();
+            socket.setSoTimeout(idlePollInterval);
+            try {
+                while (true) {
+                    if (idleChangesPending) {
+                        idleChangesPending = false;
+                        reportMailboxChanges(false);
+                    }
+                    if (state == ImapState.LOGOUT) {
+                        return null;
+                    }
+                    int c;
+                    try {
+                        c = reader.read();
+                    } catch (SocketTimeoutException e) {
+                        if (connectionTimeout > 0 && System.currentTimeMillis() - lastInput >= connectionTimeout) {
+                            throw e;
+                        }
+                        continue;
+                    }
+                    if (c < 0) {
+                        return line.length() > 0 ? line.toString() : null;
+                    }
+                    lastInput = System.currentTimeMillis();
+                    if (c == '\n') {
+                        int end = line.length();
+                        if (end > 0 && line.charAt(end - 1) == '\r') {
+                            line.setLength(end - 1);
+                        }
+                        return line.toString();
+                    }
+                    line.append((char) c);
+                }
+            } finally {
+                socket.setSoTimeout(connectionTimeout);
+            }
+        }
+        
         /**
          * 处理DONE命令
          */
         private void handleDone() {
             if (idling) {
                 idling = false;
-                // 这里应该有对应的tag，简化处理
-                sendResponse("OK IDLE terminated");
+                mailbox.setChangeListener(null);
+                sendResponse(idleTag + " OK IDLE terminated");
                 logger.debug("IMAP退出IDLE状态: {}", id);
             }
         }
@@ -589,6 +1346,9 @@ public class OptimizedImapServer {
          */
         private void handleNoop(String tag) {
             // 发送任何待处理的更新
+            if (state == ImapState.SELECTED) {
+                reportMailboxChanges(true);
+            }
             sendResponse(tag + " OK NOOP completed");
         }
         
@@ -610,12 +1370,7 @@ public class OptimizedImapServer {
         private void handleRename(String tag, String arguments) { /* 实现 */ }
         private void handleSubscribe(String tag, String arguments) { /* 实现 */ }
         private void handleUnsubscribe(String tag, String arguments) { /* 实现 */ }
-        private void handleStore(String tag, String arguments) { /* 实现 */ }
         private void handleCopy(String tag, String arguments) { /* 实现 */ }
-        private void handleSearch(String tag, String arguments) { /* 实现 */ }
-        private void handleUid(String tag, String arguments) { /* 实现 */ }
-        private void handleExpunge(String tag) { /* 实现 */ }
-        private void handleClose(String tag) { /* 实现 */ }
         
         /**
          * 发送响应
@@ -628,37 +1383,148 @@ public class OptimizedImapServer {
         /**
          * 发送FETCH响应
          */
-        private void sendFetchResponse(int messageNumber, EmailMessage message, String items) {
+        private void sendFetchResponse(int seq, long uid, FetchItems items, Object[] envelope, RawMessage raw, boolean flagsChanged) throws IOException {
             StringBuilder response = new StringBuilder();
-            response.append("* ").append(messageNumber).append(" FETCH (");
+            response.append("* ").append(seq).append(" FETCH (");
             
-            if (items.toUpperCase().contains("UID")) {
-                response.append("UID ").append(message.getId()).append(" ");
+            if (items.uid) {
+                response.append("UID ").append(uid).append(' ');
             }
-            
-            if (items.toUpperCase().contains("FLAGS")) {
-                response.append("FLAGS (");
-                if (message.getIsRead()) response.append("\\Seen ");
-                if (message.getIsStarred()) response.append("\\Flagged ");
-                response.append(") ");
+            if (items.flags || flagsChanged) {
+                response.append("FLAGS ").append(mailbox.formatFlags(seq)).append(' ');
             }
-            
-            if (items.toUpperCase().contains("ENVELOPE")) {
-                response.append("ENVELOPE (");
-                response.append("\"").append(formatDate(message.getReceivedAt())).append("\" ");
-                response.append("\"").append(escapeString(message.getSubject())).append("\" ");
-                // 其他envelope字段...
-                response.append(") ");
+            if (items.modSeq || (condstore && flagsChanged)) {
+                response.append("MODSEQ (").append(mailbox.modSeqAt(seq)).append(") ");
             }
-            
-            if (items.toUpperCase().contains("RFC822.SIZE")) {
-                response.append("RFC822.SIZE ").append(message.getMessageSize()).append(" ");
+            if (items.internalDate && envelope != null) {
+                response.append("INTERNALDATE \"").append(formatDate((LocalDateTime) envelope[1])).append("\" ");
+            }
+            if (items.size) {
+                response.append("RFC822.SIZE ").append(mailbox.sizeAt(seq)).append(' ');
+            }
+            if (items.envelope && envelope != null) {
+                response.append("ENVELOPE ").append(formatEnvelope(envelope)).append(' ');
+            }
+            for (Section section : items.sections) {
+                response.append(section.label()).append(' ');
+                if (raw == null || !sendSectionLiteral(response, raw, section)) {
+                    response.append("NIL");
+                }
+                response.append(' ');
             }
             
+            if (response.charAt(response.length() - 1) == ' ') {
+                response.setLength(response.length() - 1);
+            }
             response.append(")");
             sendResponse(response.toString());
         }
         
+        /**
+         * 信封：(date subject from sender reply-to to cc bcc in-reply-to message-id)
+         */
+        private String formatEnvelope(Object[] envelope) {
+            LocalDateTime date = envelope[2] != null ? (LocalDateTime) envelope[2] : (LocalDateTime) envelope[1];
+            String from = formatAddresses((String) envelope[4]);
+            String replyTo = envelope[7] != null ? formatAddresses((String) envelope[7]) : from;
+            return "(" + (date != null ? quote(date.atZone(ZoneId.systemDefault()).format(DateTimeFormatter.RFC_1123_DATE_TIME)) : "NIL")
+                    + " " + quote((String) envelope[3])
+                    + " " + from + " " + from + " " + replyTo
+                    + " " + formatAddresses((String) envelope[5])
+                    + " " + formatAddresses((String) envelope[6])
+                    + " NIL NIL " + quote((String) envelope[8]) + ")";
+        }
+        
+        /**
+         * 地址列表，兼容JSON数组格式和逗号分隔格式
+         */
+        private String formatAddresses(String addresses) {
+            if (addresses == null || addresses.replaceAll("[\\[\\]\"\\s]", "").isEmpty()) {
+                return "NIL";
+            }
+            StringBuilder result = new StringBuilder("(");
+            for (String address : addresses.replaceAll("[\\[\\]\"]", "").split(",")) {
+                address = extractAddress(address.trim());
+                if (address.isEmpty()) {
+                    continue;
+                }
+                int at = address.lastIndexOf('@');
+                String mailboxName = at > 0 ? address.substring(0, at) : address;
+                String host = at > 0 ? address.substring(at + 1) : null;
+                result.append("(NIL NIL ").append(quote(mailboxName)).append(' ').append(quote(host)).append(')');
+            }
+            return result.length() > 1 ? result.append(')').toString() : "NIL";
+        }
+        
+        private String extractAddress(String address) {
+            int open = address.indexOf('<');
+            int close = address.indexOf('>', open + 1);
+            return open >= 0 && close > open ? address.substring(open + 1, close) : address;
+        }
+        
+        /**
+         * 以字面量发送正文节：先写出已生成的响应文本和长度前缀，再按字节区间发送原文，
+         * 请求了部分区间<origin.count>时只发送该区间；节不存在（如超出范围的部件编号）时返回false
+         */
+        private boolean sendSectionLiteral(StringBuilder response, RawMessage raw, Section section) throws IOException {
+            long position = 0;
+            long count;
+            byte[] fields = null;
+            switch (section.spec) {
+                case "":
+                case "RFC822":
+                    count = raw.size();
+                    break;
+                case "HEADER":
+                case "RFC822.HEADER":
+                    count = raw.headerLength();
+                    break;
+                case "TEXT":
+                case "RFC822.TEXT":
+                    position = raw.headerLength();
+                    count = raw.bodyLength();
+                    break;
+                default:
+                    Matcher matcher = HEADER_FIELDS.matcher(section.spec);
+                    if (matcher.matches()) {
+                        Set<String> names = new HashSet<>(Arrays.asList(matcher.group(2).replace("\"", "").trim().split("\\s+")));
+                        fields = raw.filterHeader(names, matcher.group(1) != null);
+                        count = fields.length;
+                        break;
+                    }
+                    // 部件编号，如 1、2.1、2.MIME
+                    boolean mime = section.spec.endsWith(".MIME");
+                    String path = mime ? section.spec.substring(0, section.spec.length() - 5) : section.spec;
+                    long[] part = raw.locatePart(Arrays.stream(path.split("\\.")).mapToInt(Integer::parseInt).toArray());
+                    if (part == null) {
+                        return false;
+                    }
+                    position = mime ? part[0] : part[1];
+                    count = mime ? part[1] - part[0] : part[2] - part[1];
+            }
+            
+            if (section.origin >= 0) {
+                long skip = Math.min(section.origin, count);
+                long length = Math.min(section.length, count - skip);
+                if (fields != null) {
+                    fields = Arrays.copyOfRange(fields, (int) skip, (int) (skip + length));
+                }
+                position += skip;
+                count = length;
+            }
+            
+            response.append('{').append(count).append("}\r\n");
+            writer.print(response);
+            writer.flush();
+            response.setLength(0);
+            if (fields != null) {
+                rawWriter.write(fields);
+            } else {
+                rawWriter.write(raw, position, count);
+            }
+            return true;
+        }
+        
         /**
          * 关闭连接
          */
@@ -667,10 +1533,18 @@ public class OptimizedImapServer {
                 if (socket != null && !socket.isClosed()) {
                     socket.close();
                 }
-                activeConnections.remove(id);
                 logger.info("IMAP连接关闭: {}", id);
             } catch (IOException e) {
                 logger.warn("关闭IMAP连接时发生错误: " + id, e);
+            } finally {
+                // 无论套接字能否正常关闭，都要归还准入名额
+                activeConnections.remove(id);
+                ticket.release();
+                try {
+                    mailboxIndexManager.close(mailbox);
+                } catch (RuntimeException e) {
+                    logger.warn("释放邮箱索引失败: " + id, e);
+                }
             }
         }
         
@@ -696,33 +1570,72 @@ public class OptimizedImapServer {
         
         private String escapeString(String str) {
             if (str == null) return "";
-            return str.replace("\"", "\\\"");
+            return str.replace("\\", "\\\\").replace("\"", "\\\"");
         }
         
-        private String formatDate(LocalDateTime dateTime) {
-            return dateTime.format(DateTimeFormatter.ofPattern("dd-MMM-yyyy HH:mm:ss ZZZ"));
+        private String quote(String str) {
+            return str == null ? "NIL" : "\"" + escapeString(str) + "\"";
         }
         
-        private List<Integer> parseSequenceSet(String sequenceSet, int maxSeq) {
-            List<Integer> result = new ArrayList<>();
-            String[] parts = sequenceSet.split(",");
-            
-            for (String part : parts) {
-                if (part.contains(":")) {
-                    String[] range = part.split(":");
-                    int start = "*".equals(range[0]) ? maxSeq : Integer.parseInt(range[0]);
-                    int end = "*".equals(range[1]) ? maxSeq : Integer.parseInt(range[1]);
-                    
-                    for (int i = Math.min(start, end); i <= Math.max(start, end); i++) {
-                        result.add(i);
-                    }
+        /**
+         * 拆分SELECT参数为邮箱名（去掉引号）和其后的参数列表
+         */
+        private String[] splitMailboxArgument(String arguments) {
+            String trimmed = arguments.trim();
+            int end = trimmed.startsWith("\"") ? trimmed.indexOf('"', 1) + 1 : trimmed.indexOf(' ');
+            if (end <= 0) {
+                return new String[]{unquote(trimmed), ""};
+            }
+            return new String[]{unquote(trimmed.substring(0, end)), trimmed.substring(end).trim()};
+        }
+        
+        /**
+         * 把升序UID合并为闭区间
+         */
+        private List<long[]> toRanges(List<Long> sortedUids) {
+            List<long[]> ranges = new ArrayList<>();
+            for (long uid : sortedUids) {
+                long[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+                if (last != null && uid == last[1] + 1) {
+                    last[1] = uid;
                 } else {
-                    int seq = "*".equals(part) ? maxSeq : Integer.parseInt(part);
-                    result.add(seq);
+                    ranges.add(new long[]{uid, uid});
                 }
             }
-            
-            return result;
+            return ranges;
+        }
+        
+        /**
+         * 格式化为IMAP序列集，例如 1:3,7
+         */
+        private String formatUidSet(List<long[]> ranges) {
+            StringBuilder result = new StringBuilder();
+            for (long[] range : ranges) {
+                if (result.length() > 0) {
+                    result.append(',');
+                }
+                result.append(range[0]);
+                if (range[1] != range[0]) {
+                    result.append(':').append(range[1]);
+                }
+            }
+            return result.toString();
+        }
+        
+        private String formatDate(LocalDateTime dateTime) {
+            return dateTime.atZone(ZoneId.systemDefault()).format(INTERNAL_DATE_FORMAT);
+        }
+        
+        /**
+         * 拆分SEARCH参数，保留引号中的空格
+         */
+        private List<String> tokenizeSearch(String arguments) {
+            List<String> tokens = new ArrayList<>();
+            Matcher matcher = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"|(\\S+)").matcher(arguments);
+            while (matcher.find()) {
+                tokens.add(matcher.group(1) != null ? matcher.group(1).replaceAll("\\\\(.)", "$1") : matcher.group(2));
+            }
+            return tokens;
         }
         
         @Cacheable("folders")
@@ -734,11 +1647,6 @@ public class OptimizedImapServer {
         private List<EmailFolder> getFoldersForUser(Long userId) {
             return emailService.getFoldersForUser(userId);
         }
-        
-        @Cacheable("folderMessages")
-        private List<EmailMessage> getMessagesInFolder(String folderName) {
-            return emailService.getMessagesInFolder(currentUser.getId(), folderName);
-        }
     }
     
     /**
@@ -748,6 +1656,87 @@ public class OptimizedImapServer {
         NOT_AUTHENTICATED, AUTHENTICATED, SELECTED, LOGOUT
     }
     
+    /**
+     * FETCH数据项，决定需要从索引之外加载哪些数据
+     */
+    private static class FetchItems {
+        boolean uid;
+        boolean flags;
+        boolean internalDate;
+        boolean size;
+        boolean envelope;
+        boolean modSeq;
+        boolean setsSeen;
+        String unsupportedSection;
+        final List<Section> sections = new ArrayList<>();
+        
+        static FetchItems parse(String items, boolean byUid) {
+            FetchItems result = new FetchItems();
+            String upper = items.trim().toUpperCase();
+            String macro = upper.replaceAll("[()]", "").trim();
+            boolean all = macro.equals("ALL") || macro.equals("FULL");
+            boolean fast = all || macro.equals("FAST");
+            // 关键字匹配时去掉节说明，避免 BODY[HEADER.FIELDS (...)] 中的内容被误认为数据项
+            String plain = upper.replaceAll("\\[[^\\]]*\\]", "[]");
+            
+            result.uid = byUid || plain.contains("UID");
+            result.flags = fast || plain.contains("FLAGS");
+            result.internalDate = fast || plain.contains("INTERNALDATE");
+            result.size = fast || plain.contains("RFC822.SIZE");
+            result.envelope = all || plain.contains("ENVELOPE");
+            result.modSeq = plain.contains("MODSEQ");
+            
+            Matcher matcher = BODY_SECTION.matcher(upper);
+            while (matcher.find()) {
+                if (matcher.group(0).startsWith("RFC822")) {
+                    result.sections.add(new Section(matcher.group(0), false, -1, 0));
+                    result.setsSeen |= !matcher.group(0).equals("RFC822.HEADER");
+                } else {
+                    String spec = matcher.group(2).trim();
+                    if (!SECTION_SPEC.matcher(spec).matches()) {
+                        result.unsupportedSection = spec;
+                    }
+                    long origin = matcher.group(3) != null ? Long.parseLong(matcher.group(3)) : -1;
+                    long length = matcher.group(4) != null ? Long.parseLong(matcher.group(4)) : 0;
+                    result.sections.add(new Section(spec, true, origin, length));
+                    result.setsSeen |= matcher.group(1) == null;
+                }
+            }
+            return result;
+        }
+        
+        boolean needsEnvelope() { return envelope || internalDate; }
+        boolean needsMessage() { return !sections.isEmpty(); }
+        boolean setsSeen() { return setsSeen; }
+    }
+    
+    /**
+     * FETCH请求的正文节，origin为部分区间<origin.length>的起点，-1表示整个节
+     */
+    private static class Section {
+        final String spec;
+        final boolean body;
+        final long origin;
+        final long length;
+        
+        Section(String spec, boolean body, long origin, long length) {
+            this.spec = spec;
+            this.body = body;
+            this.origin = origin;
+            this.length = length;
+        }
+        
+        /**
+         * 响应中的数据项名，部分区间只回显起点（RFC 3501 6.4.5）
+         */
+        String label() {
+            if (!body) {
+                return spec;
+            }
+            return "BODY[" + spec + "]" + (origin >= 0 ? "<" + origin + ">" : "");
+        }
+    }
+    
     /**
      * 获取服务器状态
      */
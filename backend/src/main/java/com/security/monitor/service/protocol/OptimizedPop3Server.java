@@ -2,22 +2,22 @@ package com.security.monitor.service.protocol;
 
 import com.security.monitor.model.EmailMessage;
 import com.security.monitor.model.User;
+import com.security.monitor.repository.EmailMessageRepository;
 import com.security.monitor.service.EmailService;
 import com.security.monitor.service.SecurityService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
-import javax.net.ssl.SSLServerSocketFactory;
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.*;
 
@@ -30,12 +30,26 @@ public class OptimizedPop3Server {
     
     private static final Logger logger = LoggerFactory.getLogger(OptimizedPop3Server.class);
     
+    private static final byte[] BUSY_RESPONSE = "-ERR Too many connections, try again later\r\n".getBytes(StandardCharsets.US_ASCII);
+    
     @Autowired
     private EmailService emailService;
     
     @Autowired
     private SecurityService securityService;
     
+    @Autowired
+    private MailTlsContextManager tlsContext;
+    
+    @Autowired
+    private RawMessageStore rawMessageStore;
+    
+    @Autowired
+    private EmailMessageRepository messageRepository;
+    
+    @Autowired
+    private ConnectionAdmissionController admissionController;
+    
     @Value("${pop3.port:110}")
     private int pop3Port;
     
@@ -66,13 +80,12 @@ public class OptimizedPop3Server {
         // 创建连接池
         connectionPool = Executors.newFixedThreadPool(maxConnections);
         
-        // 启动标准POP3服务器 (端口110)
-        serverSocket = new ServerSocket(pop3Port);
+        // 启动标准POP3服务器 (端口110)，由通道接受的明文连接可以用transferTo发送邮件原文
+        serverSocket = ServerSocketChannel.open().bind(new InetSocketAddress(pop3Port)).socket();
         startServerListener(serverSocket, false, "POP3");
         
         // 启动SSL POP3服务器 (端口995)
-        SSLServerSocketFactory sslFactory = (SSLServerSocketFactory) SSLServerSocketFactory.getDefault();
-        sslServerSocket = sslFactory.createServerSocket(pop3SslPort);
+        sslServerSocket = new ServerSocket(pop3SslPort);
         startServerListener(sslServerSocket, true, "POP3S");
         
         running = true;
@@ -90,15 +103,35 @@ public class OptimizedPop3Server {
                 try {
                     Socket clientSocket = socket.accept();
                     
+                    // 准入控制：黑名单、每IP/网段的并发数和速率，未通过的连接不占用处理线程
+                    ConnectionAdmissionController.Ticket ticket =
+                        admissionController.admit(clientSocket.getRemoteSocketAddress(), serverType);
+                    if (!ticket.isAdmitted()) {
+                        rejectConnection(clientSocket, isSSL);
+                        continue;
+                    }
+                    
                     // 检查连接数限制
                     if (activeConnections.size() >= maxConnections) {
                         logger.warn("达到最大连接数限制，拒绝连接: {}", clientSocket.getRemoteSocketAddress());
+                        ticket.release();
                         clientSocket.close();
                         continue;
                     }
                     
+                    if (isSSL) {
+                        // 使用当前共享TLS上下文包装，证书续期后新连接立即使用新证书
+                        try {
+                            clientSocket = tlsContext.wrapServerSocket(clientSocket);
+                        } catch (IOException e) {
+                            ticket.release();
+                            clientSocket.close();
+                            throw e;
+                        }
+                    }
+                    
                     // 创建POP3连接处理器
-                    Pop3Connection connection = new Pop3Connection(clientSocket, isSSL, serverType);
+                    Pop3Connection connection = new Pop3Connection(clientSocket, isSSL, serverType, ticket);
                     activeConnections.put(connection.getId(), connection);
                     
                     // 提交到线程池处理
@@ -113,6 +146,24 @@ public class OptimizedPop3Server {
         });
     }
     
+    /**
+     * 拒绝未通过准入控制的连接，明文端口尽力发送-ERR响应
+     */
+    private void rejectConnection(Socket clientSocket, boolean isSSL) {
+        try {
+            if (!isSSL) {
+                clientSocket.getOutputStream().write(BUSY_RESPONSE);
+            }
+        } catch (IOException e) {
+            // 尽力而为，客户端可能已经重置连接
+        }
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+    }
+    
     /**
      * 停止POP3服务器
      */
@@ -156,23 +207,25 @@ public class OptimizedPop3Server {
      */
     private class Pop3Connection implements Runnable {
         private final String id;
-        private final Socket socket;
-        private final boolean isSSL;
+        private Socket socket;
+        private boolean isSSL;
         private final String serverType;
+        private final ConnectionAdmissionController.Ticket ticket;
         private BufferedReader reader;
         private PrintWriter writer;
+        private RawMessageWriter rawWriter;
         private boolean authenticated = false;
         private User currentUser;
         private Pop3State state = Pop3State.AUTHORIZATION;
-        private List<EmailMessage> messages;
-        private boolean[] markedForDeletion;
+        private Pop3Maildrop maildrop;
         private LocalDateTime connectTime;
         
-        public Pop3Connection(Socket socket, boolean isSSL, String serverType) {
+        public Pop3Connection(Socket socket, boolean isSSL, String serverType, ConnectionAdmissionController.Ticket ticket) {
             this.id = "pop3-" + System.currentTimeMillis() + "-" + socket.hashCode();
             this.socket = socket;
             this.isSSL = isSSL;
             this.serverType = serverType;
+            this.ticket = ticket;
             this.connectTime = LocalDateTime.now();
         }
         
@@ -185,6 +238,7 @@ public class OptimizedPop3Server {
                 // 初始化输入输出流
                 reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
                 writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+                rawWriter = rawMessageStore.newWriter(socket);
                 
                 logger.info("POP3连接建立: {} from {}", id, socket.getRemoteSocketAddress());
                 
@@ -338,7 +392,7 @@ public class OptimizedPop3Server {
                     // 加载用户邮件
                     loadUserMessages();
                     
-                    sendResponse("+OK Mailbox open, " + messages.size() + " messages");
+                    sendResponse("+OK Mailbox open, " + maildrop.size() + " messages");
                     logger.info("POP3认证成功: {} - {}", id, username);
                 } else {
                     sendResponse("-ERR Authentication failed");
@@ -370,9 +424,32 @@ public class OptimizedPop3Server {
                 return;
             }
             
+            if (state != Pop3State.AUTHORIZATION) {
+                sendResponse("-ERR Command not valid in this state");
+                return;
+            }
+            
             sendResponse("+OK Begin TLS negotiation");
-            // 这里应该升级连接到TLS
-            logger.info("STLS initiated for connection: {}", id);
+            try {
+                upgradeToTls();
+                logger.info("STLS已启动: {}", id);
+            } catch (IOException e) {
+                logger.warn("STLS升级失败: {} - {}", id, e.getMessage());
+                state = Pop3State.QUIT;
+            }
+        }
+        
+        /**
+         * 在当前连接上叠加TLS并重建读写流
+         * 新的读取器同时丢弃了客户端在升级命令之后流水线发送的明文
+         */
+        private void upgradeToTls() throws IOException {
+            writer.flush();
+            socket = tlsContext.wrapServerSocket(socket);
+            reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            rawWriter = rawMessageStore.newWriter(socket);
+            isSSL = true;
         }
         
         /**
@@ -384,17 +461,14 @@ public class OptimizedPop3Server {
                 return;
             }
             
-            int messageCount = 0;
             long totalSize = 0;
-            
-            for (int i = 0; i < messages.size(); i++) {
-                if (!markedForDeletion[i]) {
-                    messageCount++;
-                    totalSize += messages.get(i).getMessageSize();
+            for (int i = 1; i <= maildrop.size(); i++) {
+                if (!maildrop.isDeleted(i)) {
+                    totalSize += messageSize(i);
                 }
             }
             
-            sendResponse("+OK " + messageCount + " " + totalSize);
+            sendResponse("+OK " + maildrop.activeCount() + " " + totalSize);
         }
         
         /**
@@ -409,9 +483,9 @@ public class OptimizedPop3Server {
             if (argument.isEmpty()) {
                 // 列出所有消息
                 sendResponse("+OK");
-                for (int i = 0; i < messages.size(); i++) {
-                    if (!markedForDeletion[i]) {
-                        sendResponse((i + 1) + " " + messages.get(i).getMessageSize());
+                for (int i = 1; i <= maildrop.size(); i++) {
+                    if (!maildrop.isDeleted(i)) {
+                        sendResponse(i + " " + messageSize(i));
                     }
                 }
                 sendResponse(".");
@@ -419,12 +493,12 @@ public class OptimizedPop3Server {
                 // 列出指定消息
                 try {
                     int messageNum = Integer.parseInt(argument);
-                    if (messageNum < 1 || messageNum > messages.size()) {
+                    if (!maildrop.isValid(messageNum)) {
                         sendResponse("-ERR Invalid message number");
-                    } else if (markedForDeletion[messageNum - 1]) {
+                    } else if (maildrop.isDeleted(messageNum)) {
                         sendResponse("-ERR Message deleted");
                     } else {
-                        sendResponse("+OK " + messageNum + " " + messages.get(messageNum - 1).getMessageSize());
+                        sendResponse("+OK " + messageNum + " " + messageSize(messageNum));
                     }
                 } catch (NumberFormatException e) {
                     sendResponse("-ERR Invalid message number");
@@ -443,33 +517,37 @@ public class OptimizedPop3Server {
             
             try {
                 int messageNum = Integer.parseInt(argument);
-                if (messageNum < 1 || messageNum > messages.size()) {
+                if (!maildrop.isValid(messageNum)) {
                     sendResponse("-ERR Invalid message number");
                     return;
                 }
                 
-                if (markedForDeletion[messageNum - 1]) {
+                if (maildrop.isDeleted(messageNum)) {
                     sendResponse("-ERR Message deleted");
                     return;
                 }
                 
-                EmailMessage message = messages.get(messageNum - 1);
-                
-                sendResponse("+OK " + message.getMessageSize() + " octets");
-                
-                // 发送邮件内容
-                sendEmailContent(message);
-                sendResponse(".");
+                try (RawMessage raw = openMessage(messageNum)) {
+                    if (raw == null) {
+                        sendResponse("-ERR Message no longer available");
+                        return;
+                    }
+                    sendResponse("+OK " + raw.size() + " octets");
+                    sendRawLines(raw, raw.size());
+                }
                 
                 // 如果配置为检索后删除，标记删除
                 if (deleteOnRetr) {
-                    markedForDeletion[messageNum - 1] = true;
+                    maildrop.markDeleted(messageNum);
                 }
                 
                 logger.debug("POP3检索邮件: {} - 消息{}", id, messageNum);
                 
             } catch (NumberFormatException e) {
                 sendResponse("-ERR Invalid message number");
+            } catch (IOException e) {
+                logger.error("POP3发送邮件原文失败: " + id, e);
+                sendResponse("-ERR Unable to read message");
             }
         }
         
@@ -484,12 +562,12 @@ public class OptimizedPop3Server {
             
             try {
                 int messageNum = Integer.parseInt(argument);
-                if (messageNum < 1 || messageNum > messages.size()) {
+                if (!maildrop.isValid(messageNum)) {
                     sendResponse("-ERR Invalid message number");
-                } else if (markedForDeletion[messageNum - 1]) {
+                } else if (maildrop.isDeleted(messageNum)) {
                     sendResponse("-ERR Message already deleted");
                 } else {
-                    markedForDeletion[messageNum - 1] = true;
+                    maildrop.markDeleted(messageNum);
                     sendResponse("+OK Message " + messageNum + " deleted");
                     logger.debug("POP3标记删除: {} - 消息{}", id, messageNum);
                 }
@@ -515,9 +593,7 @@ public class OptimizedPop3Server {
             }
             
             // 取消所有删除标记
-            for (int i = 0; i < markedForDeletion.length; i++) {
-                markedForDeletion[i] = false;
-            }
+            maildrop.reset();
             
             sendResponse("+OK");
             logger.debug("POP3重置删除标记: {}", id);
@@ -542,26 +618,32 @@ public class OptimizedPop3Server {
                 int messageNum = Integer.parseInt(parts[0]);
                 int lineCount = Integer.parseInt(parts[1]);
                 
-                if (messageNum < 1 || messageNum > messages.size()) {
+                if (!maildrop.isValid(messageNum)) {
                     sendResponse("-ERR Invalid message number");
                     return;
                 }
                 
-                if (markedForDeletion[messageNum - 1]) {
+                if (maildrop.isDeleted(messageNum)) {
                     sendResponse("-ERR Message deleted");
                     return;
                 }
                 
-                EmailMessage message = messages.get(messageNum - 1);
-                
-                sendResponse("+OK");
-                sendEmailHeaders(message);
-                sendResponse(""); // 空行分隔头部和正文
-                sendEmailBodyLines(message, lineCount);
-                sendResponse(".");
+                try (RawMessage raw = openMessage(messageNum)) {
+                    if (raw == null) {
+                        sendResponse("-ERR Message no longer available");
+                        return;
+                    }
+                    // 邮件头（含分隔空行）加正文前lineCount行
+                    long end = raw.bodyLinesEnd(lineCount);
+                    sendResponse("+OK");
+                    sendRawLines(raw, end);
+                }
                 
             } catch (NumberFormatException e) {
                 sendResponse("-ERR Invalid arguments");
+            } catch (IOException e) {
+                logger.error("POP3发送邮件原文失败: " + id, e);
+                sendResponse("-ERR Unable to read message");
             }
         }
         
@@ -577,9 +659,9 @@ public class OptimizedPop3Server {
             if (argument.isEmpty()) {
                 // 列出所有消息的UID
                 sendResponse("+OK");
-                for (int i = 0; i < messages.size(); i++) {
-                    if (!markedForDeletion[i]) {
-                        sendResponse((i + 1) + " " + generateUID(messages.get(i)));
+                for (int i = 1; i <= maildrop.size(); i++) {
+                    if (!maildrop.isDeleted(i)) {
+                        sendResponse(i + " " + maildrop.uidAt(i));
                     }
                 }
                 sendResponse(".");
@@ -587,12 +669,12 @@ public class OptimizedPop3Server {
                 // 列出指定消息的UID
                 try {
                     int messageNum = Integer.parseInt(argument);
-                    if (messageNum < 1 || messageNum > messages.size()) {
+                    if (!maildrop.isValid(messageNum)) {
                         sendResponse("-ERR Invalid message number");
-                    } else if (markedForDeletion[messageNum - 1]) {
+                    } else if (maildrop.isDeleted(messageNum)) {
                         sendResponse("-ERR Message deleted");
                     } else {
-                        sendResponse("+OK " + messageNum + " " + generateUID(messages.get(messageNum - 1)));
+                        sendResponse("+OK " + messageNum + " " + maildrop.uidAt(messageNum));
                     }
                 } catch (NumberFormatException e) {
                     sendResponse("-ERR Invalid message number");
@@ -607,14 +689,12 @@ public class OptimizedPop3Server {
             if (state == Pop3State.TRANSACTION) {
                 // 执行实际删除操作
                 int deletedCount = 0;
-                for (int i = 0; i < messages.size(); i++) {
-                    if (markedForDeletion[i]) {
-                        try {
-                            emailService.deleteMessage(messages.get(i).getId());
-                            deletedCount++;
-                        } catch (Exception e) {
-                            logger.error("删除邮件失败: " + messages.get(i).getId(), e);
-                        }
+                for (long messageId : maildrop.deletedIds()) {
+                    try {
+                        emailService.deleteMessage(messageId);
+                        deletedCount++;
+                    } catch (Exception e) {
+                        logger.error("删除邮件失败: " + messageId, e);
                     }
                 }
                 
@@ -636,76 +716,58 @@ public class OptimizedPop3Server {
         }
         
         /**
-         * 发送邮件内容
+         * 发送原文前end个字节并以"."结束多行响应，原文按字节区间点转义后直接写入连接
          */
-        private void sendEmailContent(EmailMessage message) {
-            // 发送邮件头
-            sendEmailHeaders(message);
-            
-            // 空行分隔头部和正文
-            sendResponse("");
-            
-            // 发送邮件正文
-            String body = message.getBodyText();
-            if (body != null) {
-                String[] lines = body.split("\n");
-                for (String line : lines) {
-                    // POP3点转义
-                    if (line.startsWith(".")) {
-                        line = "." + line;
-                    }
-                    sendResponse(line);
-                }
+        private void sendRawLines(RawMessage raw, long end) throws IOException {
+            writer.flush();
+            rawWriter.writeDotStuffed(raw, 0, end);
+            if (!raw.endsWithLineBreak(end)) {
+                writer.print("\r\n");
             }
+            sendResponse(".");
         }
         
         /**
-         * 发送邮件头
+         * 加载用户收件箱快照，只查询ID和大小
          */
-        private void sendEmailHeaders(EmailMessage message) {
-            sendResponse("Message-ID: " + (message.getMessageId() != null ? message.getMessageId() : generateMessageId()));
-            sendResponse("From: " + message.getFromAddress());
-            
-            if (message.getToAddresses() != null && !message.getToAddresses().isEmpty()) {
-                sendResponse("To: " + String.join(", ", message.getToAddresses()));
-            }
-            
-            if (message.getSubject() != null) {
-                sendResponse("Subject: " + message.getSubject());
-            }
-            
-            sendResponse("Date: " + formatDate(message.getReceivedAt()));
-            
-            // 其他标准头部
-            sendResponse("Content-Type: text/plain; charset=UTF-8");
-            sendResponse("Content-Transfer-Encoding: 8bit");
+        private void loadUserMessages() {
+            maildrop = Pop3Maildrop.fromProjection(messageRepository.findPop3Maildrop(currentUser.getId()));
         }
         
         /**
-         * 发送邮件正文行
+         * 打开消息原文，没有原文文件的旧邮件加载实体渲染，消息已被其他会话删除时返回null
          */
-        private void sendEmailBodyLines(EmailMessage message, int lineCount) {
-            String body = message.getBodyText();
-            if (body != null) {
-                String[] lines = body.split("\n");
-                int count = Math.min(lineCount, lines.length);
-                
-                for (int i = 0; i < count; i++) {
-                    String line = lines[i];
-                    if (line.startsWith(".")) {
-                        line = "." + line;
-                    }
-                    sendResponse(line);
-                }
-            }
+        private RawMessage openMessage(int messageNum) throws IOException {
+            Long messageId = maildrop.idAt(messageNum);
+            List<Object[]> locations = messageRepository.findRawMessageLocations(Collections.singletonList(messageId));
+            if (locations.isEmpty()) {
+                return null;
+            }
+            Object[] location = locations.get(0);
+            RawMessage raw = rawMessageStore.open((String) location[1], (Long) location[2], (Boolean) location[3]);
+            if (raw == null) {
+                EmailMessage message = messageRepository.findById(messageId).orElse(null);
+                raw = message != null ? rawMessageStore.renderMessage(message) : null;
+            }
+            return raw;
         }
         
         /**
-         * 加载用户邮件
+         * 消息大小，快照中缺少大小的旧邮件在第一次需要时按原文计算
          */
-        private void loadUserMessages() {
-            messages = getInboxMessagesForUser(currentUser.getId());
-            markedForDeletion = new boolean[messages.size()];
+        private long messageSize(int messageNum) {
+            if (!maildrop.hasSize(messageNum)) {
+                long size = 0;
+                try (RawMessage raw = openMessage(messageNum)) {
+                    if (raw != null) {
+                        size = raw.size();
+                    }
+                } catch (IOException e) {
+                    logger.warn("计算POP3消息大小失败: {} - {}", maildrop.idAt(messageNum), e.getMessage());
+                }
+                maildrop.setSize(messageNum, size);
+            }
+            return maildrop.sizeAt(messageNum);
         }
         
         /**
@@ -716,32 +778,18 @@ public class OptimizedPop3Server {
                 if (socket != null && !socket.isClosed()) {
                     socket.close();
                 }
-                activeConnections.remove(id);
                 logger.info("POP3连接关闭: {}", id);
             } catch (IOException e) {
                 logger.warn("关闭POP3连接时发生错误: " + id, e);
+            } finally {
+                // 无论套接字能否正常关闭，都要归还准入名额
+                activeConnections.remove(id);
+                ticket.release();
             }
         }
         
         // 辅助方法
         public String getId() { return id; }
-        
-        private String generateUID(EmailMessage message) {
-            return "msg" + message.getId() + "@" + System.currentTimeMillis();
-        }
-        
-        private String generateMessageId() {
-            return "<" + System.currentTimeMillis() + "@pop3.example.com>";
-        }
-        
-        private String formatDate(LocalDateTime dateTime) {
-            return dateTime.format(DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss ZZZ"));
-        }
-        
-        @Cacheable("inboxMessages")
-        private List<EmailMessage> getInboxMessagesForUser(Long userId) {
-            return emailService.getInboxMessagesForUser(userId);
-        }
     }
     
     /**
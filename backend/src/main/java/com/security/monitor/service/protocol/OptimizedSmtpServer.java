@@ -10,18 +10,23 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import javax.net.ssl.SSLServerSocketFactory;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Base64;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 优化的SMTP服务器实现
  * 支持连接池、SSL/TLS、认证和反垃圾邮件
+ * 连接引擎可选：固定线程池（pooled）、NIO反应器（nio）或虚拟线程（virtual）
  */
 @Service
 public class OptimizedSmtpServer {
@@ -34,6 +39,18 @@ public class OptimizedSmtpServer {
     @Autowired
     private SecurityService securityService;
     
+    @Autowired
+    private MailTlsContextManager tlsContext;
+    
+    @Autowired
+    private RawMessageStore rawMessageStore;
+    
+    @Autowired
+    private ConnectionAdmissionController admissionController;
+    
+    @Autowired
+    private MailboxEventBus mailboxEventBus;
+    
     @Value("${smtp.port:25}")
     private int smtpPort;
     
@@ -58,11 +75,45 @@ public class OptimizedSmtpServer {
     @Value("${smtp.require-tls:false}")
     private boolean requireTls;
     
+    @Value("${smtp.connection-engine:nio}")
+    private String connectionEngine;
+    
+    @Value("${smtp.nio.worker-threads:32}")
+    private int nioWorkerThreads;
+    
+    @Value("${smtp.nio.max-connections:20000}")
+    private int nioMaxConnections;
+    
+    @Value("${smtp.nio.worker-queue-capacity:1024}") // 队列满时反应器暂停读取并拒绝新连接
+    private int nioWorkerQueueCapacity;
+    
+    @Value("${smtp.spool.directory:${java.io.tmpdir}/mail-spool}")
+    private String spoolDirectory;
+    
+    @Value("${smtp.spool.memory-threshold:262144}") // 256KB
+    private int spoolMemoryThreshold;
+    
+    // 端口25延迟发送欢迎消息的毫秒数，默认关闭。开启后每个连接（包括正常的MTA）的欢迎消息都推迟这么久，
+    // 换取拦截不等待应答就发送数据的垃圾邮件程序；建议取值500-1000，只在端口25生效
+    @Value("${smtp.pregreet-delay:0}")
+    private int pregreetDelay;
+    
+    private static final AtomicLong CONNECTION_SEQUENCE = new AtomicLong();
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final int MAX_BODY_TEXT_BYTES = 1024 * 1024;
+    private static final String BUSY_REPLY = "421 mail.example.com Too many connections, try again later";
+    private static final byte[] BUSY_RESPONSE = (BUSY_REPLY + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    
     private ServerSocket serverSocket;
     private ServerSocket sslServerSocket;
     private ServerSocket submissionServerSocket;
     private ExecutorService connectionPool;
+    private NioConnectionReactor reactor;
+    private ConnectionEngineType engineType;
     private final ConcurrentHashMap<String, SmtpConnection> activeConnections = new ConcurrentHashMap<>();
+    private final AtomicLong acceptedConnections = new AtomicLong();
+    private final AtomicLong rejectedConnections = new AtomicLong();
+    private final AtomicInteger blockingConnections = new AtomicInteger();
     private volatile boolean running = false;
     
     /**
@@ -71,58 +122,155 @@ public class OptimizedSmtpServer {
     public void start() throws IOException {
         logger.info("启动SMTP服务器...");
         
-        // 创建连接池
-        connectionPool = Executors.newFixedThreadPool(maxConnections);
+        running = true;
+        engineType = ConnectionEngineType.fromProperty(connectionEngine);
+        Files.createDirectories(Paths.get(spoolDirectory));
         
-        // 启动标准SMTP服务器 (端口25)
-        serverSocket = new ServerSocket(smtpPort);
-        startServerListener(serverSocket, false, "SMTP");
+        // 预先加载共享TLS上下文，避免首个TLS连接在反应器线程上读取证书
+        tlsContext.getContext();
         
-        // 启动SSL SMTP服务器 (端口465)
-        SSLServerSocketFactory sslFactory = (SSLServerSocketFactory) SSLServerSocketFactory.getDefault();
-        sslServerSocket = sslFactory.createServerSocket(smtpSslPort);
-        startServerListener(sslServerSocket, true, "SMTPS");
+        if (engineType == ConnectionEngineType.VIRTUAL) {
+            connectionPool = createVirtualThreadExecutor();
+            if (connectionPool == null) {
+                logger.warn("当前运行时不支持虚拟线程，SMTP连接引擎回退为NIO");
+                engineType = ConnectionEngineType.NIO;
+            }
+        } else if (engineType == ConnectionEngineType.POOLED) {
+            // 创建连接池（监听线程独立创建，不占用连接池线程）
+            connectionPool = Executors.newFixedThreadPool(maxConnections);
+        }
         
-        // 启动邮件提交服务器 (端口587)
-        submissionServerSocket = new ServerSocket(submissionPort);
-        startServerListener(submissionServerSocket, false, "Submission");
+        if (engineType == ConnectionEngineType.NIO) {
+            // 全部端口由NIO反应器承载，空闲会话不占用线程；SMTPS在工作线程上完成TLS握手
+            // 开启pregreet检查时端口25延迟发送欢迎消息，抢先发送的客户端被断开并临时封禁
+            reactor = new NioConnectionReactor("SMTP", nioWorkerThreads, nioMaxConnections, connectionTimeout,
+                admissionController, nioWorkerQueueCapacity);
+            reactor.start();
+            reactor.bind(smtpPort, channel -> new SmtpConnection(channel.getRemoteAddress(), false, "SMTP"),
+                BUSY_REPLY, null, pregreetDelay);
+            reactor.bind(smtpSslPort, channel -> new SmtpConnection(channel.getRemoteAddress(), true, "SMTPS"),
+                null, tlsContext, 0);
+            reactor.bind(submissionPort, channel -> new SmtpConnection(channel.getRemoteAddress(), false, "Submission"),
+                BUSY_REPLY);
+        } else {
+            // 启动标准SMTP服务器 (端口25)
+            serverSocket = new ServerSocket(smtpPort);
+            startServerListener(serverSocket, false, "SMTP");
+            
+            // 启动SSL SMTP服务器 (端口465)，接受连接后使用当前TLS上下文包装，证书续期无需重建监听端口
+            sslServerSocket = new ServerSocket(smtpSslPort);
+            startServerListener(sslServerSocket, true, "SMTPS");
+            
+            // 启动邮件提交服务器 (端口587)
+            submissionServerSocket = new ServerSocket(submissionPort);
+            startServerListener(submissionServerSocket, false, "Submission");
+        }
         
-        running = true;
-        logger.info("SMTP服务器启动完成 - 端口: {}, {}, {}", smtpPort, smtpSslPort, submissionPort);
+        logger.info("SMTP服务器启动完成 - 端口: {}, {}, {}, 连接引擎: {}", smtpPort, smtpSslPort, submissionPort, engineType);
     }
     
     /**
      * 启动服务器监听器
+     * 每个监听端口使用独立的守护线程执行accept，连接交给连接池处理
      */
     private void startServerListener(ServerSocket socket, boolean isSSL, String serverType) {
-        connectionPool.submit(() -> {
+        Thread acceptor = new Thread(() -> {
             logger.info("{} 服务器监听端口: {}", serverType, socket.getLocalPort());
             
             while (running && !socket.isClosed()) {
                 try {
                     Socket clientSocket = socket.accept();
+                    acceptedConnections.incrementAndGet();
+                    
+                    // 准入控制：黑名单、pregreet封禁、每IP/网段的并发数和速率
+                    ConnectionAdmissionController.Ticket ticket =
+                        admissionController.admit(clientSocket.getRemoteSocketAddress(), serverType);
+                    if (!ticket.isAdmitted()) {
+                        rejectedConnections.incrementAndGet();
+                        rejectConnection(clientSocket, isSSL);
+                        continue;
+                    }
                     
                     // 检查连接数限制
-                    if (activeConnections.size() >= maxConnections) {
+                    if (blockingConnections.get() >= maxConnections) {
+                        rejectedConnections.incrementAndGet();
                         logger.warn("达到最大连接数限制，拒绝连接: {}", clientSocket.getRemoteSocketAddress());
+                        ticket.release();
                         clientSocket.close();
                         continue;
                     }
                     
+                    if (isSSL) {
+                        try {
+                            clientSocket = tlsContext.wrapServerSocket(clientSocket);
+                        } catch (IOException e) {
+                            logger.warn("{} TLS初始化失败: {}", serverType, e.getMessage());
+                            ticket.release();
+                            clientSocket.close();
+                            continue;
+                        }
+                    }
+                    
                     // 创建SMTP连接处理器
-                    SmtpConnection connection = new SmtpConnection(clientSocket, isSSL, serverType);
-                    activeConnections.put(connection.getId(), connection);
+                    SmtpConnection connection = new SmtpConnection(clientSocket.getRemoteSocketAddress(), isSSL, serverType);
+                    BlockingSessionDriver driver = new BlockingSessionDriver(clientSocket, connection, connectionTimeout, () -> {
+                        blockingConnections.decrementAndGet();
+                        ticket.release();
+                    });
+                    if ("SMTP".equals(serverType)) {
+                        driver.withPregreetCheck(pregreetDelay, ticket, serverType);
+                    }
                     
                     // 提交到线程池处理
-                    connectionPool.submit(connection);
-                    
+                    blockingConnections.incrementAndGet();
+                    try {
+                        connectionPool.submit(driver);
+                    } catch (RejectedExecutionException e) {
+                        blockingConnections.decrementAndGet();
+                        ticket.release();
+                        clientSocket.close();
+                        logger.warn("{} 连接池已关闭，停止接受连接", serverType);
+                        break;
+                    }
+                
                 } catch (IOException e) {
                     if (running) {
                         logger.error(serverType + " 服务器接受连接时发生错误", e);
                     }
                 }
             }
-        });
+        }, serverType.toLowerCase() + "-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+    
+    /**
+     * 拒绝未通过准入控制的连接，明文端口尽力发送421响应
+     */
+    private void rejectConnection(Socket clientSocket, boolean isSSL) {
+        try {
+            if (!isSSL) {
+                clientSocket.getOutputStream().write(BUSY_RESPONSE);
+            }
+        } catch (IOException e) {
+            // 尽力而为
+        }
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            // 忽略关闭异常
+        }
+    }
+    
+    /**
+     * 通过反射创建虚拟线程执行器，运行时低于Java 21时返回null
+     */
+    private ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
     }
     
     /**
@@ -143,6 +291,12 @@ public class OptimizedSmtpServer {
                 submissionServerSocket.close();
             }
             
+            // 关闭NIO反应器
+            if (reactor != null) {
+                reactor.stop();
+                reactor = null;
+            }
+            
             // 关闭所有活动连接
             activeConnections.values().forEach(SmtpConnection::close);
             activeConnections.clear();
@@ -168,66 +322,123 @@ public class OptimizedSmtpServer {
     
     /**
      * SMTP连接处理器
+     * 输入驱动：由连接引擎把读到的字节交给onInput，多步命令（AUTH、DATA）以状态保存；
+     * 一次onInput会处理缓冲区中所有完整的命令，客户端流水线发送的MAIL/RCPT只需一次往返
      */
-    private class SmtpConnection implements Runnable {
+    private class SmtpConnection implements ProtocolSession {
         private final String id;
-        private final Socket socket;
-        private final boolean isSSL;
+        private boolean isSSL;
         private final String serverType;
-        private BufferedReader reader;
-        private PrintWriter writer;
+        private ConnectionTransport transport;
         private boolean authenticated = false;
         private String username;
         private String clientIP;
         private LocalDateTime connectTime;
         private SmtpState state = SmtpState.INITIAL;
+        private AuthStep authStep = AuthStep.NONE;
+        private String pendingAuthUser;
         private String mailFrom;
         private String[] rcptTo;
-        private StringBuilder messageData;
+        private SpooledMessage spool;
+        private boolean dataAtLineStart;
+        private boolean dataOversized;
+        private boolean binaryMime;
+        private long chunkRemaining;
+        private boolean chunkLast;
+        private String chunkRejection;
+        private SmtpState stateBeforeChunk;
+        private boolean discardInput;
         
-        public SmtpConnection(Socket socket, boolean isSSL, String serverType) {
-            this.id = "smtp-" + System.currentTimeMillis() + "-" + socket.hashCode();
-            this.socket = socket;
+        public SmtpConnection(SocketAddress remoteAddress, boolean isSSL, String serverType) {
+            this.id = "smtp-" + System.currentTimeMillis() + "-" + CONNECTION_SEQUENCE.incrementAndGet();
             this.isSSL = isSSL;
             this.serverType = serverType;
-            this.clientIP = socket.getRemoteSocketAddress().toString();
+            this.clientIP = String.valueOf(remoteAddress);
             this.connectTime = LocalDateTime.now();
-            this.messageData = new StringBuilder();
         }
         
         @Override
-        public void run() {
-            try {
-                // 设置连接超时
-                socket.setSoTimeout(connectionTimeout);
-                
-                // 初始化输入输出流
-                reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
-                writer = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
-                
-                logger.info("SMTP连接建立: {} from {}", id, clientIP);
-                
-                // 发送欢迎消息
-                sendResponse("220", "mail.example.com ESMTP Ready");
-                
-                // 处理SMTP命令
-                String line;
-                while ((line = reader.readLine()) != null && running) {
-                    handleCommand(line.trim());
-                    
-                    if (state == SmtpState.QUIT) {
-                        break;
+        public String getId() { return id; }
+        
+        @Override
+        public void onOpen(ConnectionTransport transport) {
+            this.transport = transport;
+            activeConnections.put(id, this);
+            
+            logger.info("SMTP连接建立: {} from {}", id, clientIP);
+            
+            // 发送欢迎消息
+            sendResponse("220", "mail.example.com ESMTP Ready");
+        }
+        
+        @Override
+        public void onInput(ByteBuffer input) throws IOException {
+            while (running && state != SmtpState.QUIT && input.hasRemaining()) {
+                if (state == SmtpState.DATA) {
+                    // 邮件内容按字节流直接写入暂存区，不做逐行解码
+                    if (!consumeData(input)) {
+                        return;
                     }
+                    continue;
+                }
+                if (state == SmtpState.BDAT) {
+                    // BDAT数据块按声明的字节数原样复制，不做行扫描
+                    consumeChunk(input);
+                    continue;
                 }
                 
-            } catch (SocketTimeoutException e) {
-                logger.info("SMTP连接超时: {}", id);
-                sendResponse("421", "Timeout, closing connection");
-            } catch (IOException e) {
-                logger.warn("SMTP连接IO错误: " + id, e);
-            } finally {
-                close();
+                String line = readLine(input);
+                if (line == null) {
+                    return;
+                }
+                if (authStep != AuthStep.NONE) {
+                    continueAuth(line.trim());
+                } else {
+                    handleCommand(line.trim());
+                }
+                if (discardInput) {
+                    // STARTTLS之后丢弃客户端流水线发送的明文命令（RFC 3207）
+                    input.position(input.limit());
+                    discardInput = false;
+                    return;
+                }
+            }
+        }
+        
+        @Override
+        public void onTimeout() {
+            logger.info("SMTP连接超时: {}", id);
+            sendResponse("421", "Timeout, closing connection");
+        }
+        
+        @Override
+        public boolean isFinished() {
+            return state == SmtpState.QUIT || !running;
+        }
+        
+        @Override
+        public void onClose() {
+            releaseSpool();
+            activeConnections.remove(id);
+            logger.info("SMTP连接关闭: {}", id);
+        }
+        
+        /**
+         * 从输入缓冲区读取一行（不含行结束符），不完整的行保留在缓冲区中
+         */
+        private String readLine(ByteBuffer input) {
+            int start = input.position();
+            int limit = input.limit();
+            for (int i = start; i < limit; i++) {
+                if (input.get(i) == '\n') {
+                    int end = (i > start && input.get(i - 1) == '\r') ? i - 1 : i;
+                    byte[] bytes = new byte[end - start];
+                    input.get(bytes);
+                    input.position(i + 1);
+                    return new String(bytes, StandardCharsets.UTF_8);
+                }
             }
+            return null;
         }
         
         /**
@@ -261,6 +472,9 @@ public class OptimizedSmtpServer {
                     case "DATA":
                         handleData();
                         break;
+                    case "BDAT":
+                        handleBdat(argument);
+                        break;
                     case "RSET":
                         handleRset();
                         break;
@@ -288,13 +502,15 @@ public class OptimizedSmtpServer {
                 sendResponse("250-mail.example.com Hello " + hostname);
                 sendResponse("250-SIZE " + maxMessageSize);
                 sendResponse("250-8BITMIME");
+                sendResponse("250-BINARYMIME");
+                sendResponse("250-CHUNKING");
                 sendResponse("250-PIPELINING");
                 
                 if (enableAuth && !authenticated) {
                     sendResponse("250-AUTH PLAIN LOGIN");
                 }
                 
-                if (!isSSL && !requireTls) {
+                if (!isSSL) {
                     sendResponse("250-STARTTLS");
                 }
                 
@@ -325,10 +541,16 @@ public class OptimizedSmtpServer {
             
             switch (mechanism) {
                 case "PLAIN":
-                    handleAuthPlain(parts.length > 1 ? parts[1] : null);
+                    if (parts.length > 1) {
+                        handleAuthPlain(parts[1]);
+                    } else {
+                        authStep = AuthStep.PLAIN;
+                        sendResponse("334", "");
+                    }
                     break;
                 case "LOGIN":
-                    handleAuthLogin();
+                    authStep = AuthStep.LOGIN_USERNAME;
+                    sendResponse("334", Base64.getEncoder().encodeToString("Username:".getBytes()));
                     break;
                 default:
                     sendResponse("504", "Authentication mechanism not supported");
@@ -336,16 +558,46 @@ public class OptimizedSmtpServer {
             }
         }
         
+        /**
+         * 处理认证过程中的客户端应答行
+         */
+        private void continueAuth(String line) {
+            AuthStep step = authStep;
+            authStep = AuthStep.NONE;
+            
+            if ("*".equals(line)) {
+                pendingAuthUser = null;
+                sendResponse("501", "Authentication cancelled");
+                return;
+            }
+            
+            switch (step) {
+                case PLAIN:
+                    handleAuthPlain(line);
+                    break;
+                case LOGIN_USERNAME:
+                    try {
+                        pendingAuthUser = new String(Base64.getDecoder().decode(line), StandardCharsets.UTF_8);
+                        authStep = AuthStep.LOGIN_PASSWORD;
+                        sendResponse("334", Base64.getEncoder().encodeToString("Password:".getBytes()));
+                    } catch (IllegalArgumentException e) {
+                        sendResponse("501", "Invalid base64 data");
+                    }
+                    break;
+                case LOGIN_PASSWORD:
+                    handleAuthLogin(pendingAuthUser, line);
+                    pendingAuthUser = null;
+                    break;
+                default:
+                    break;
+            }
+        }
+        
         /**
          * 处理PLAIN认证
          */
         private void handleAuthPlain(String credentials) {
             try {
-                if (credentials == null) {
-                    sendResponse("334", "");
-                    credentials = reader.readLine();
-                }
-                
                 byte[] decoded = Base64.getDecoder().decode(credentials);
                 String[] authData = new String(decoded, StandardCharsets.UTF_8).split("\0");
                 
@@ -375,14 +627,8 @@ public class OptimizedSmtpServer {
         /**
          * 处理LOGIN认证
          */
-        private void handleAuthLogin() {
+        private void handleAuthLogin(String username, String passBase64) {
             try {
-                sendResponse("334", Base64.getEncoder().encodeToString("Username:".getBytes()));
-                String userBase64 = reader.readLine();
-                String username = new String(Base64.getDecoder().decode(userBase64), StandardCharsets.UTF_8);
-                
-                sendResponse("334", Base64.getEncoder().encodeToString("Password:".getBytes()));
-                String passBase64 = reader.readLine();
                 String password = new String(Base64.getDecoder().decode(passBase64), StandardCharsets.UTF_8);
                 
                 if (authenticateUser(username, password)) {
@@ -410,10 +656,31 @@ public class OptimizedSmtpServer {
                 return;
             }
             
+            if (authStep != AuthStep.NONE || state == SmtpState.DATA || state == SmtpState.BDAT) {
+                sendResponse("503", "Bad sequence of commands");
+                return;
+            }
+            
             sendResponse("220", "Ready to start TLS");
-            // 这里应该升级连接到TLS
-            // 实际实现需要SSL上下文和证书配置
-            logger.info("STARTTLS initiated for connection: {}", id);
+            try {
+                transport.startTls(tlsContext);
+            } catch (IOException e) {
+                logger.warn("STARTTLS升级失败: {} - {}", id, e.getMessage());
+                close();
+                return;
+            }
+            
+            // TLS建立后丢弃此前协商的所有状态，客户端需要重新EHLO
+            isSSL = true;
+            discardInput = true;
+            authenticated = false;
+            username = null;
+            mailFrom = null;
+            rcptTo = null;
+            binaryMime = false;
+            releaseSpool();
+            state = SmtpState.INITIAL;
+            logger.info("STARTTLS已启动: {}", id);
         }
         
         /**
@@ -430,17 +697,39 @@ public class OptimizedSmtpServer {
                 return;
             }
             
+            if (spool != null) {
+                // BDAT事务进行中
+                sendResponse("503", "Bad sequence of commands");
+                return;
+            }
+            
             if (!argument.toUpperCase().startsWith("FROM:")) {
                 sendResponse("501", "Syntax error in parameters");
                 return;
             }
             
-            String fromAddress = extractEmailAddress(argument.substring(5));
+            String[] mailArgs = argument.substring(5).trim().split("\\s+");
+            String fromAddress = extractEmailAddress(mailArgs[0]);
             if (fromAddress == null) {
                 sendResponse("501", "Invalid sender address");
                 return;
             }
             
+            // 解析MAIL参数（BODY=7BIT/8BITMIME/BINARYMIME）
+            boolean binary = false;
+            for (int i = 1; i < mailArgs.length; i++) {
+                String param = mailArgs[i].toUpperCase();
+                if (param.startsWith("BODY=")) {
+                    String body = param.substring(5);
+                    if ("BINARYMIME".equals(body)) {
+                        binary = true;
+                    } else if (!"7BIT".equals(body) && !"8BITMIME".equals(body)) {
+                        sendResponse("501", "Unsupported BODY type");
+                        return;
+                    }
+                }
+            }
+            
             // 验证发件人权限
             if (authenticated && !canSendFrom(username, fromAddress)) {
                 sendResponse("550", "Sender address rejected");
@@ -448,6 +737,7 @@ public class OptimizedSmtpServer {
             }
             
             mailFrom = fromAddress;
+            binaryMime = binary;
             state = SmtpState.MAIL;
             sendResponse("250", "Sender OK");
             
@@ -458,7 +748,7 @@ public class OptimizedSmtpServer {
          * 处理RCPT TO命令
          */
         private void handleRcpt(String argument) {
-            if (state != SmtpState.MAIL && state != SmtpState.RCPT) {
+            if ((state != SmtpState.MAIL && state != SmtpState.RCPT) || spool != null) {
                 sendResponse("503", "Bad sequence of commands");
                 return;
             }
@@ -499,61 +789,225 @@ public class OptimizedSmtpServer {
         /**
          * 处理DATA命令
          */
-        private void handleData() throws IOException {
-            if (state != SmtpState.RCPT) {
+        private void handleData() {
+            if (state != SmtpState.RCPT || spool != null) {
                 sendResponse("503", "Bad sequence of commands");
                 return;
             }
             
+            if (binaryMime) {
+                sendResponse("503", "BINARYMIME requires BDAT");
+                return;
+            }
+            
             sendResponse("354", "Start mail input; end with <CRLF>.<CRLF>");
             
-            messageData.setLength(0);
-            String line;
-            long totalSize = 0;
+            spool = new SpooledMessage(Paths.get(spoolDirectory), spoolMemoryThreshold);
+            dataAtLineStart = true;
+            dataOversized = false;
+            state = SmtpState.DATA;
+        }
+        
+        /**
+         * 消费DATA阶段的邮件内容
+         * 在字节层面识别结束标记和点转义，连续的内容块整体写入暂存区；
+         * 行首的'.'需要向后查看最多两个字节，字节不足时保留在缓冲区等待后续数据
+         *
+         * @return 是否已读到结束标记
+         */
+        private boolean consumeData(ByteBuffer input) throws IOException {
+            int runStart = input.position();
+            int limit = input.limit();
             
-            while ((line = reader.readLine()) != null) {
-                if (".".equals(line)) {
-                    break;
-                }
+            for (int i = runStart; i < limit; i++) {
+                byte b = input.get(i);
                 
-                // 检查消息大小限制
-                totalSize += line.length() + 2; // +2 for CRLF
-                if (totalSize > maxMessageSize) {
-                    sendResponse("552", "Message size exceeds maximum limit");
-                    return;
+                if (dataAtLineStart) {
+                    dataAtLineStart = false;
+                    if (b == '.') {
+                        if (i + 1 >= limit) {
+                            dataAtLineStart = true;
+                            spoolRange(input, runStart, i);
+                            return false;
+                        }
+                        byte next = input.get(i + 1);
+                        if (next == '\r' && i + 2 >= limit) {
+                            dataAtLineStart = true;
+                            spoolRange(input, runStart, i);
+                            return false;
+                        }
+                        if (next == '\n' || (next == '\r' && input.get(i + 2) == '\n')) {
+                            spoolRange(input, runStart, i);
+                            input.position(i + (next == '\n' ? 2 : 3));
+                            finishData();
+                            return true;
+                        }
+                        
+                        // 处理点转义：跳过行首的'.'
+                        spoolRange(input, runStart, i);
+                        runStart = i + 1;
+                        continue;
+                    }
                 }
                 
-                // 处理点转义
-                if (line.startsWith(".")) {
-                    line = line.substring(1);
+                if (b == '\n') {
+                    dataAtLineStart = true;
                 }
-                
-                messageData.append(line).append("\r\n");
             }
             
-            // 处理邮件消息
+            spoolRange(input, runStart, limit);
+            return false;
+        }
+        
+        /**
+         * 将输入缓冲区中[from, to)区间写入暂存区，并把position移动到to
+         * 超过大小限制后丢弃内容，只继续寻找结束标记
+         */
+        private void spoolRange(ByteBuffer input, int from, int to) throws IOException {
+            input.position(to);
+            if (to <= from || dataOversized) {
+                return;
+            }
+            
+            // 检查消息大小限制
+            if (spool.getSize() + (to - from) > maxMessageSize) {
+                dataOversized = true;
+                spool.discard();
+                return;
+            }
+            
+            ByteBuffer chunk = input.duplicate();
+            chunk.limit(to).position(from);
+            spool.write(chunk);
+        }
+        
+        /**
+         * 处理BDAT命令（RFC 3030 CHUNKING）
+         * 无论命令是否被接受，都必须按声明的长度读走数据块，之后再给出响应
+         */
+        private void handleBdat(String argument) {
+            String[] parts = argument.split("\\s+");
+            long chunkSize;
             try {
-                processMessage(messageData.toString());
-                sendResponse("250", "Message accepted for delivery");
-                logger.info("邮件处理成功: {} - {} -> {}", id, mailFrom, String.join(", ", rcptTo));
-            } catch (Exception e) {
-                logger.error("邮件处理失败: " + id, e);
-                sendResponse("554", "Transaction failed");
+                chunkSize = Long.parseLong(parts[0]);
+            } catch (NumberFormatException e) {
+                chunkSize = -1;
+            }
+            boolean last = parts.length > 1 && "LAST".equalsIgnoreCase(parts[1]);
+            if (chunkSize < 0 || parts.length > 2 || (parts.length == 2 && !last)) {
+                // 无法确定数据块长度，只能按命令错误处理
+                sendResponse("501", "Syntax error in parameters");
+                return;
             }
             
-            // 重置状态
-            handleRset();
+            chunkRejection = null;
+            if (state != SmtpState.RCPT) {
+                chunkRejection = "503 Bad sequence of commands";
+            } else if (spool == null) {
+                spool = new SpooledMessage(Paths.get(spoolDirectory), spoolMemoryThreshold);
+                dataOversized = false;
+            }
+            
+            stateBeforeChunk = state;
+            chunkRemaining = chunkSize;
+            chunkLast = last;
+            state = SmtpState.BDAT;
+            
+            if (chunkRemaining == 0) {
+                finishChunk();
+            }
+        }
+        
+        /**
+         * 消费BDAT数据块，按剩余字节数整体写入暂存区
+         */
+        private void consumeChunk(ByteBuffer input) throws IOException {
+            int from = input.position();
+            int to = from + (int) Math.min(input.remaining(), chunkRemaining);
+            if (chunkRejection == null) {
+                spoolRange(input, from, to);
+            } else {
+                input.position(to);
+            }
+            
+            chunkRemaining -= to - from;
+            if (chunkRemaining == 0) {
+                finishChunk();
+            }
+        }
+        
+        /**
+         * 数据块接收完毕后响应；LAST块完成整封邮件的处理
+         */
+        private void finishChunk() {
+            if (chunkRejection != null) {
+                state = stateBeforeChunk;
+                sendResponse(chunkRejection);
+                return;
+            }
+            
+            state = SmtpState.RCPT;
+            if (chunkLast) {
+                finishData();
+            } else if (dataOversized) {
+                sendResponse("552", "Message size exceeds maximum limit");
+                resetTransaction();
+            } else {
+                sendResponse("250", spool.getSize() + " octets received");
+            }
+        }
+        
+        /**
+         * 收到结束标记后处理邮件
+         */
+        private void finishData() {
+            if (dataOversized) {
+                sendResponse("552", "Message size exceeds maximum limit");
+            } else {
+                // 处理邮件消息
+                try {
+                    spool.complete();
+                    processMessage(spool);
+                    sendResponse("250", "Message accepted for delivery");
+                    logger.info("邮件处理成功: {} - {} -> {} ({} bytes)", id, mailFrom, String.join(", ", rcptTo), spool.getSize());
+                } catch (Exception e) {
+                    logger.error("邮件处理失败: " + id, e);
+                    sendResponse("554", "Transaction failed");
+                }
+            }
+            
+            // 重置事务状态
+            resetTransaction();
+        }
+        
+        /**
+         * 释放暂存区（删除暂存文件）
+         */
+        private void releaseSpool() {
+            if (spool != null) {
+                spool.close();
+                spool = null;
+            }
         }
         
         /**
          * 处理RSET命令
          */
         private void handleRset() {
+            resetTransaction();
+            sendResponse("250", "Reset OK");
+        }
+        
+        /**
+         * 清除当前邮件事务
+         */
+        private void resetTransaction() {
             mailFrom = null;
             rcptTo = null;
-            messageData.setLength(0);
+            releaseSpool();
+            dataOversized = false;
+            binaryMime = false;
             state = SmtpState.HELO;
-            sendResponse("250", "Reset OK");
         }
         
         /**
@@ -568,77 +1022,87 @@ public class OptimizedSmtpServer {
          * 发送响应
          */
         private void sendResponse(String code, String message) {
-            String response = code + " " + message;
-            writer.println(response);
+            sendResponse(code + " " + message);
+        }
+        
+        /**
+         * 发送原始响应行
+         * 响应只写入输出缓冲区，由连接引擎在当前输入批次处理完后统一flush（RFC 2920 PIPELINING）
+         */
+        private void sendResponse(String response) {
+            try {
+                transport.write(response.getBytes(StandardCharsets.UTF_8));
+                transport.write(CRLF);
+            } catch (IOException e) {
+                logger.debug("发送SMTP响应失败: {} - {}", id, e.getMessage());
+                transport.close();
+            }
             logger.debug("SMTP响应: {} - {}", id, response);
         }
         
         /**
          * 处理邮件消息
+         * 只解析暂存时保留的邮件头，原文移动到邮件存储目录供IMAP/POP3直接发送，正文以流的方式交给邮件服务按需读取
          */
-        private void processMessage(String messageData) {
+        private void processMessage(SpooledMessage message) throws IOException {
             // 创建邮件消息对象
             EmailMessage emailMessage = new EmailMessage();
             emailMessage.setFromAddress(mailFrom);
             emailMessage.setToAddresses(java.util.Arrays.asList(rcptTo));
             emailMessage.setReceivedAt(LocalDateTime.now());
-            emailMessage.setMessageSize((long) messageData.length());
+            emailMessage.setMessageSize(message.getSize());
             
-            // 解析邮件头和正文
-            parseMessageData(emailMessage, messageData);
+            // 解析邮件头
+            String subject = message.getHeader("Subject");
+            if (subject != null) {
+                emailMessage.setSubject(subject);
+            }
+            String messageId = message.getHeader("Message-ID");
+            if (messageId != null) {
+                emailMessage.setMessageId(messageId);
+            }
+            
+            // 正文供反垃圾规则、贝叶斯分类和IMAP SEARCH BODY使用，只读取有界前缀；完整原文以文件保存
+            String bodyText = readBodyText(message);
+            emailMessage.setBodyText(bodyText);
+            String contentType = message.getHeader("Content-Type");
+            if (contentType != null && contentType.toLowerCase().startsWith("text/html")) {
+                emailMessage.setBodyHtml(bodyText);
+            }
             
-            // 保存邮件
-            emailService.saveIncomingEmail(emailMessage);
+            // 原文只写入一次，保存失败时删除
+            rawMessageStore.store(emailMessage, message);
+            try {
+                emailService.saveIncomingEmail(emailMessage);
+            } catch (RuntimeException e) {
+                rawMessageStore.delete(emailMessage);
+                throw e;
+            }
+            // 保存后邮件已归入收件人的文件夹，通知选中该文件夹的IMAP连接
+            mailboxEventBus.publishAppend(emailMessage);
         }
         
         /**
-         * 解析邮件数据
+         * 读取正文的前MAX_BODY_TEXT_BYTES字节，行结束符统一为\n
          */
-        private void parseMessageData(EmailMessage email, String data) {
-            String[] lines = data.split("\r\n");
-            boolean inHeaders = true;
-            StringBuilder bodyText = new StringBuilder();
-            
-            for (String line : lines) {
-                if (inHeaders) {
-                    if (line.isEmpty()) {
-                        inHeaders = false;
-                        continue;
-                    }
-                    
-                    // 解析邮件头
-                    if (line.toLowerCase().startsWith("subject:")) {
-                        email.setSubject(line.substring(8).trim());
-                    } else if (line.toLowerCase().startsWith("message-id:")) {
-                        email.setMessageId(line.substring(11).trim());
-                    }
-                    // 其他邮件头解析...
-                } else {
-                    bodyText.append(line).append("\n");
-                }
+        private String readBodyText(SpooledMessage message) throws IOException {
+            byte[] prefix;
+            try (InputStream body = message.openBody()) {
+                prefix = body.readNBytes(MAX_BODY_TEXT_BYTES);
             }
-            
-            email.setBodyText(bodyText.toString());
+            return new String(prefix, StandardCharsets.UTF_8).replace("\r\n", "\n");
         }
         
         /**
          * 关闭连接
          */
         public void close() {
-            try {
-                if (socket != null && !socket.isClosed()) {
-                    socket.close();
-                }
-                activeConnections.remove(id);
-                logger.info("SMTP连接关闭: {}", id);
-            } catch (IOException e) {
-                logger.warn("关闭SMTP连接时发生错误: " + id, e);
+            if (transport != null) {
+                transport.close();
             }
         }
         
         // 辅助方法
-        public String getId() { return id; }
-        
         private String extractEmailAddress(String input) {
             // 简化的邮件地址提取
             input = input.trim();
@@ -673,7 +1137,14 @@ public class OptimizedSmtpServer {
      * SMTP状态枚举
      */
     private enum SmtpState {
-        INITIAL, HELO, MAIL, RCPT, DATA, QUIT
+        INITIAL, HELO, MAIL, RCPT, DATA, BDAT, QUIT
+    }
+    
+    /**
+     * SMTP认证步骤枚举
+     */
+    private enum AuthStep {
+        NONE, PLAIN, LOGIN_USERNAME, LOGIN_PASSWORD
     }
     
     /**
@@ -687,6 +1158,19 @@ public class OptimizedSmtpServer {
         status.setSmtpPort(smtpPort);
         status.setSslPort(smtpSslPort);
         status.setSubmissionPort(submissionPort);
+        status.setConnectionEngine(engineType != null ? engineType.name().toLowerCase() : connectionEngine);
+        status.setAcceptedConnections(acceptedConnections.get());
+        status.setRejectedConnections(rejectedConnections.get());
+        
+        NioConnectionReactor currentReactor = reactor;
+        if (currentReactor != null) {
+            status.setMaxConnections(nioMaxConnections);
+            status.setAcceptedConnections(status.getAcceptedConnections() + currentReactor.getAcceptedConnections());
+            status.setRejectedConnections(status.getRejectedConnections() + currentReactor.getRejectedConnections());
+            status.setQueuedTasks(currentReactor.getQueuedTasks());
+            status.setBusyWorkers(currentReactor.getBusyWorkers());
+            status.setWorkerThreads(currentReactor.getWorkerThreads());
+        }
         return status;
     }
     
@@ -700,6 +1184,12 @@ public class OptimizedSmtpServer {
         private int smtpPort;
         private int sslPort;
         private int submissionPort;
+        private String connectionEngine;
+        private long acceptedConnections;
+        private long rejectedConnections;
+        private int queuedTasks;
+        private int busyWorkers;
+        private int workerThreads;
         
         // Getters and Setters
         public boolean isRunning() { return running; }
@@ -719,5 +1209,23 @@ public class OptimizedSmtpServer {
         
         public int getSubmissionPort() { return submissionPort; }
         public void setSubmissionPort(int submissionPort) { this.submissionPort = submissionPort; }
+        
+        public String getConnectionEngine() { return connectionEngine; }
+        public void setConnectionEngine(String connectionEngine) { this.connectionEngine = connectionEngine; }
+        
+        public long getAcceptedConnections() { return acceptedConnections; }
+        public void setAcceptedConnections(long acceptedConnections) { this.acceptedConnections = acceptedConnections; }
+        
+        public long getRejectedConnections() { return rejectedConnections; }
+        public void setRejectedConnections(long rejectedConnections) { this.rejectedConnections = rejectedConnections; }
+        
+        public int getQueuedTasks() { return queuedTasks; }
+        public void setQueuedTasks(int queuedTasks) { this.queuedTasks = queuedTasks; }
+        
+        public int getBusyWorkers() { return busyWorkers; }
+        public void setBusyWorkers(int busyWorkers) { this.busyWorkers = busyWorkers; }
+        
+        public int getWorkerThreads() { return workerThreads; }
+        public void setWorkerThreads(int workerThreads) { this.workerThreads = workerThreads; }
     }
 }
\ No newline at end of file
@@ -0,0 +1,107 @@
+package com.security.monitor.service.protocol;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * POP3邮件投递箱快照
+ * 会话进入TRANSACTION状态时由投影查询（ID、大小）构建，消息编号在会话内固定不变；
+ * ID和大小保存在基本类型数组中，删除标记用BitSet，正文只在RETR/TOP时读取。
+ * 缺少大小的旧邮件在第一次需要时由调用方计算后回填。
+ * UIDL由消息ID生成，跨会话保持不变，"保留在服务器上"的客户端不会重复下载
+ */
+public class Pop3Maildrop {
+    
+    private static final long UNKNOWN_SIZE = -1;
+    
+    private final long[] ids;
+    private final long[] sizes;
+    private final BitSet deleted;
+    
+    private Pop3Maildrop(long[] ids, long[] sizes) {
+        this.ids = ids;
+        this.sizes = sizes;
+        this.deleted = new BitSet(ids.length);
+    }
+    
+    /**
+     * 由[id, messageSize]投影按ID升序构建，大小为空或不大于0的视为未知
+     */
+    public static Pop3Maildrop fromProjection(List<Object[]> rows) {
+        long[] ids = new long[rows.size()];
+        long[] sizes = new long[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            Object[] row = rows.get(i);
+            ids[i] = (Long) row[0];
+            Long size = (Long) row[1];
+            sizes[i] = size != null && size > 0 ? size : UNKNOWN_SIZE;
+        }
+        return new Pop3Maildrop(ids, sizes);
+    }
+    
+    /**
+     * 快照中的消息总数（含已标记删除的）
+     */
+    public int size() {
+        return ids.length;
+    }
+    
+    /**
+     * 消息编号是否在快照范围内（从1开始）
+     */
+    public boolean isValid(int messageNum) {
+        return messageNum >= 1 && messageNum <= ids.length;
+    }
+    
+    public boolean isDeleted(int messageNum) {
+        return deleted.get(messageNum - 1);
+    }
+    
+    public void markDeleted(int messageNum) {
+        deleted.set(messageNum - 1);
+    }
+    
+    /**
+     * RSET：取消所有删除标记
+     */
+    public void reset() {
+        deleted.clear();
+    }
+    
+    public long idAt(int messageNum) {
+        return ids[messageNum - 1];
+    }
+    
+    /**
+     * 稳定的唯一标识，只由消息ID决定
+     */
+    public String uidAt(int messageNum) {
+        return "msg" + ids[messageNum - 1];
+    }
+    
+    public boolean hasSize(int messageNum) {
+        return sizes[messageNum - 1] != UNKNOWN_SIZE;
+    }
+    
+    public long sizeAt(int messageNum) {
+        return sizes[messageNum - 1];
+    }
+    
+    public void setSize(int messageNum, long size) {
+        sizes[messageNum - 1] = size;
+    }
+    
+    /**
+     * 未删除的消息数量
+     */
+    public int activeCount() {
+        return ids.length - deleted.cardinality();
+    }
+    
+    /**
+     * 标记删除的消息ID（QUIT时提交）
+     */
+    public long[] deletedIds() {
+        return deleted.stream().mapToLong(i -> ids[i]).toArray();
+    }
+}
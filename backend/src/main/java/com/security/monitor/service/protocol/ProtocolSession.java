@@ -0,0 +1,42 @@
+package com.security.monitor.service.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 协议会话
+ * 由连接引擎驱动的输入驱动型协议处理器，同一会话的回调保证串行执行
+ */
+public interface ProtocolSession {
+    
+    /**
+     * 会话标识
+     */
+    String getId();
+    
+    /**
+     * 连接建立，发送欢迎消息
+     */
+    void onOpen(ConnectionTransport transport) throws IOException;
+    
+    /**
+     * 消费输入缓冲区（读模式）中的可用字节
+     * 不完整的命令行应保留在缓冲区中，等待后续数据到达
+     */
+    void onInput(ByteBuffer input) throws IOException;
+    
+    /**
+     * 连接空闲超时
+     */
+    void onTimeout();
+    
+    /**
+     * 会话是否已结束（例如收到QUIT）
+     */
+    boolean isFinished();
+    
+    /**
+     * 连接关闭后的清理
+     */
+    void onClose();
+}
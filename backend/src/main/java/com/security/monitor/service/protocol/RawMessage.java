@@ -0,0 +1,332 @@
+package com.security.monitor.service.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 打开的邮件原文
+ * 原文文件通过FileChannel按位置读取，不移动文件位置，可以按任意字节区间发送；
+ * 没有原文文件的旧邮件由实体字段渲染到内存，对调用方表现一致
+ */
+public class RawMessage implements Closeable {
+    
+    private static final int SCAN_BUFFER_SIZE = 8 * 1024;
+    // 解析部件头时最多读取的字节数
+    private static final int MAX_PART_HEADER = 64 * 1024;
+    private static final Pattern CONTENT_TYPE = Pattern.compile("(?im)^content-type:\\s*([^\\r\\n]*)");
+    private static final Pattern BOUNDARY = Pattern.compile("(?i);\\s*boundary\\s*=\\s*(?:\"([^\"]*)\"|([^;\\s]+))");
+    
+    private final FileChannel channel;
+    private final byte[] content;
+    private final long size;
+    private final long headerLength;
+    private final boolean dotLines;
+    
+    private RawMessage(FileChannel channel, byte[] content, long size, long headerLength, boolean dotLines) {
+        this.channel = channel;
+        this.content = content;
+        this.size = size;
+        this.headerLength = Math.min(headerLength, size);
+        this.dotLines = dotLines;
+    }
+    
+    static RawMessage open(Path file, long headerLength, boolean dotLines) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        return new RawMessage(channel, null, channel.size(), headerLength, dotLines);
+    }
+    
+    static RawMessage of(byte[] content, long headerLength, boolean dotLines) {
+        return new RawMessage(null, content, content.length, headerLength, dotLines);
+    }
+    
+    public long size() { return size; }
+    public long headerLength() { return headerLength; }
+    public long bodyLength() { return size - headerLength; }
+    public boolean hasDotLines() { return dotLines; }
+    public boolean isFileBacked() { return channel != null; }
+    
+    /**
+     * 从指定位置读取到缓冲区，返回读取的字节数，到达末尾返回-1
+     */
+    public int read(long position, byte[] buffer, int offset, int length) throws IOException {
+        if (position >= size) {
+            return -1;
+        }
+        int count = (int) Math.min(length, size - position);
+        if (channel == null) {
+            System.arraycopy(content, (int) position, buffer, offset, count);
+            return count;
+        }
+        return channel.read(ByteBuffer.wrap(buffer, offset, count), position);
+    }
+    
+    /**
+     * 把文件区间直接交给目标通道（sendfile），只用于文件原文
+     */
+    long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+        long done = 0;
+        while (done < count) {
+            long transferred = channel.transferTo(position + done, count - done, target);
+            if (transferred <= 0) {
+                throw new EOFException("邮件原文文件已被截断");
+            }
+            done += transferred;
+        }
+        return done;
+    }
+    
+    /**
+     * 区间是否以换行结束（空区间视为已换行）
+     */
+    public boolean endsWithLineBreak(long end) throws IOException {
+        if (end <= 0) {
+            return true;
+        }
+        byte[] last = new byte[1];
+        return read(end - 1, last, 0, 1) == 1 && last[0] == '\n';
+    }
+    
+    /**
+     * 正文前lines行结束的位置（POP3 TOP），行数超过正文时返回原文末尾
+     */
+    public long bodyLinesEnd(int lines) throws IOException {
+        long position = headerLength;
+        if (lines <= 0) {
+            return position;
+        }
+        byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        int remaining = lines;
+        int read;
+        while ((read = read(position, buffer, 0, buffer.length)) > 0) {
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n' && --remaining == 0) {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+    
+    /**
+     * 读取完整的邮件头（含结束空行）
+     */
+    public byte[] readHeader() throws IOException {
+        byte[] header = new byte[(int) headerLength];
+        int done = 0;
+        while (done < header.length) {
+            int read = read(done, header, done, header.length - done);
+            if (read <= 0) {
+                throw new EOFException("邮件原文文件已被截断");
+            }
+            done += read;
+        }
+        return header;
+    }
+    
+    /**
+     * 按字段名过滤邮件头（IMAP HEADER.FIELDS / HEADER.FIELDS.NOT），折行随所属字段保留，结果以空行结束
+     */
+    public byte[] filterHeader(Set<String> names, boolean exclude) throws IOException {
+        byte[] header = readHeader();
+        ByteArrayOutputStream result = new ByteArrayOutputStream(256);
+        boolean keep = false;
+        int lineStart = 0;
+        while (lineStart < header.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < header.length && header[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            lineEnd = Math.min(lineEnd + 1, header.length);
+            byte first = header[lineStart];
+            if (first == '\r' || first == '\n') {
+                break;
+            }
+            if (first != ' ' && first != '\t') {
+                int colon = lineStart;
+                while (colon < lineEnd && header[colon] != ':') {
+                    colon++;
+                }
+                String name = new String(header, lineStart, colon - lineStart, StandardCharsets.US_ASCII).trim().toUpperCase();
+                keep = names.contains(name) != exclude;
+            }
+            if (keep) {
+                result.write(header, lineStart, lineEnd - lineStart);
+            }
+            lineStart = lineEnd;
+        }
+        result.write('\r');
+        result.write('\n');
+        return result.toByteArray();
+    }
+    
+    /**
+     * 按部件编号定位MIME部件（IMAP BODY[1.2]），返回[部件头起点, 部件正文起点, 部件末尾]，部件不存在时返回null。
+     * 非multipart实体只有部件1，即其正文；message/rfc822部件不再展开
+     */
+    public long[] locatePart(int[] path) throws IOException {
+        Cursor cursor = new Cursor();
+        long headerStart = 0;
+        long bodyStart = headerLength;
+        long end = size;
+        boolean leaf = false;
+        for (int number : path) {
+            byte[] delimiter = leaf ? null : multipartDelimiter(headerStart, bodyStart);
+            if (delimiter == null) {
+                if (leaf || number != 1) {
+                    return null;
+                }
+                leaf = true;
+                continue;
+            }
+            long[] part = findPart(cursor, bodyStart, end, delimiter, number);
+            if (part == null) {
+                return null;
+            }
+            headerStart = part[0];
+            end = part[1];
+            bodyStart = headerEnd(cursor, headerStart, end);
+        }
+        return new long[] {headerStart, bodyStart, end};
+    }
+    
+    /**
+     * 实体头声明为multipart时返回分隔行前缀（"--" + boundary），否则返回null
+     */
+    private byte[] multipartDelimiter(long headerStart, long headerEnd) throws IOException {
+        byte[] header = new byte[(int) Math.min(headerEnd - headerStart, MAX_PART_HEADER)];
+        int done = 0;
+        while (done < header.length) {
+            int read = read(headerStart + done, header, done, header.length - done);
+            if (read <= 0) {
+                break;
+            }
+            done += read;
+        }
+        String text = new String(header, 0, done, StandardCharsets.ISO_8859_1).replaceAll("\\r?\\n[ \\t]+", " ");
+        Matcher contentType = CONTENT_TYPE.matcher(text);
+        if (!contentType.find() || !contentType.group(1).trim().toLowerCase().startsWith("multipart/")) {
+            return null;
+        }
+        Matcher boundary = BOUNDARY.matcher(contentType.group(1));
+        if (!boundary.find()) {
+            return null;
+        }
+        String value = boundary.group(1) != null ? boundary.group(1) : boundary.group(2);
+        return ("--" + value).getBytes(StandardCharsets.ISO_8859_1);
+    }
+    
+    /**
+     * 在[from, to)中查找第number个部件，返回[部件起点, 部件末尾]；分隔行前的换行属于分隔行。
+     * 缺少结束分隔行时最后一个部件延伸到区间末尾
+     */
+    private static long[] findPart(Cursor cursor, long from, long to, byte[] delimiter, int number) throws IOException {
+        int index = 0;
+        long partStart = -1;
+        long lineStart = from;
+        while (lineStart < to) {
+            long lineEnd = cursor.lineEnd(lineStart, to);
+            if (cursor.startsWith(lineStart, to, delimiter)) {
+                if (partStart >= 0) {
+                    long partEnd = lineStart;
+                    if (partEnd > partStart && cursor.byteAt(partEnd - 1) == '\n') {
+                        partEnd--;
+                        if (partEnd > partStart && cursor.byteAt(partEnd - 1) == '\r') {
+                            partEnd--;
+                        }
+                    }
+                    return new long[] {partStart, partEnd};
+                }
+                long afterDelimiter = lineStart + delimiter.length;
+                boolean closing = afterDelimiter + 1 < to
+                        && cursor.byteAt(afterDelimiter) == '-' && cursor.byteAt(afterDelimiter + 1) == '-';
+                if (closing) {
+                    return null;
+                }
+                if (++index == number) {
+                    partStart = lineEnd;
+                }
+            }
+            lineStart = lineEnd;
+        }
+        return partStart >= 0 ? new long[] {partStart, to} : null;
+    }
+    
+    /**
+     * 部件头结束（含空行）的位置，没有空行时整个部件都是头
+     */
+    private static long headerEnd(Cursor cursor, long from, long to) throws IOException {
+        long lineStart = from;
+        while (lineStart < to) {
+            long lineEnd = cursor.lineEnd(lineStart, to);
+            int first = cursor.byteAt(lineStart);
+            if (first == '\n' || (first == '\r' && lineEnd - lineStart == 2)) {
+                return lineEnd;
+            }
+            lineStart = lineEnd;
+        }
+        return to;
+    }
+    
+    /**
+     * 按位置随机访问原文的小缓冲区，扫描部件时避免逐行读取文件
+     */
+    private final class Cursor {
+        private final byte[] buffer = new byte[SCAN_BUFFER_SIZE];
+        private long bufferStart;
+        private int bufferLength;
+        
+        int byteAt(long position) throws IOException {
+            if (position < bufferStart || position >= bufferStart + bufferLength) {
+                bufferStart = position;
+                bufferLength = Math.max(read(position, buffer, 0, buffer.length), 0);
+                if (bufferLength == 0) {
+                    return -1;
+                }
+            }
+            return buffer[(int) (position - bufferStart)] & 0xFF;
+        }
+        
+        /**
+         * 行末（换行之后）的位置，最后一行没有换行时返回to
+         */
+        long lineEnd(long lineStart, long to) throws IOException {
+            for (long position = lineStart; position < to; position++) {
+                if (byteAt(position) == '\n') {
+                    return position + 1;
+                }
+            }
+            return to;
+        }
+        
+        boolean startsWith(long position, long to, byte[] prefix) throws IOException {
+            if (position + prefix.length > to) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (byteAt(position + i) != (prefix[i] & 0xFF)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.security.monitor.service.protocol;
+
+import com.security.monitor.model.EmailMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 邮件原文存储
+ * 投递时把RFC 822原文写入一次（SMTP暂存文件直接移动），同时记录邮件头长度和是否含有以'.'开头的行；
+ * IMAP FETCH BODY[]/RFC822和POP3 RETR/TOP按字节区间从原文文件发送，不再为每封邮件按行构造字符串。
+ * 原文路径相对于邮件存储根目录保存，存储目录可以整体迁移
+ */
+@Component
+public class RawMessageStore {
+    
+    private static final Logger logger = LoggerFactory.getLogger(RawMessageStore.class);
+    
+    private static final DateTimeFormatter DIRECTORY_FORMAT = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    
+    @Value("${app.mail.storage.path:/opt/mail-storage}")
+    private String mailStoragePath;
+    
+    @Value("${mail.raw.transfer-buffer-size:65536}")
+    private int transferBufferSize;
+    
+    private final AtomicLong storedMessages = new AtomicLong();
+    private final AtomicLong renderedMessages = new AtomicLong();
+    private final AtomicLong zeroCopyBytes = new AtomicLong();
+    private final AtomicLong copiedBytes = new AtomicLong();
+    
+    /**
+     * 原文生成回调，例如JavaMail的Message::writeTo
+     */
+    @FunctionalInterface
+    public interface ContentWriter {
+        void writeTo(OutputStream out) throws Exception;
+    }
+    
+    /**
+     * 保存SMTP接收的原文：暂存文件直接移动到存储目录，邮件大小以原文为准
+     */
+    public void store(EmailMessage message, SpooledMessage spool) throws IOException {
+        String relativePath = newRelativePath();
+        spool.persistTo(resolve(relativePath));
+        attach(message, relativePath, spool.getBodyOffset(), spool.hasDotLines(), spool.getSize());
+    }
+    
+    /**
+     * 保存由回调生成的原文，写入时统计大小、邮件头长度和点开头行
+     */
+    public void store(EmailMessage message, ContentWriter content) throws IOException {
+        String relativePath = newRelativePath();
+        Path file = resolve(relativePath);
+        Files.createDirectories(file.getParent());
+        ScanningOutputStream out = new ScanningOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), WRITE_BUFFER_SIZE));
+        try (out) {
+            content.writeTo(out);
+        } catch (Exception e) {
+            Files.deleteIfExists(file);
+            throw e instanceof IOException ? (IOException) e : new IOException("写入邮件原文失败", e);
+        }
+        attach(message, relativePath, out.getHeaderLength(), out.hasDotLines(), out.getSize());
+    }
+    
+    /**
+     * 保存由实体字段渲染的原文（没有原始MIME内容的投递方式）
+     */
+    public void storeRendered(EmailMessage message) throws IOException {
+        byte[] content = render(message);
+        store(message, out -> out.write(content));
+    }
+    
+    /**
+     * 删除邮件的原文文件（投递失败回滚时使用）
+     */
+    public void delete(EmailMessage message) {
+        if (message.getRawMessagePath() == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(resolve(message.getRawMessagePath()));
+        } catch (IOException e) {
+            logger.warn("删除邮件原文失败: {} - {}", message.getRawMessagePath(), e.getMessage());
+        }
+        message.setRawMessagePath(null);
+        message.setRawHeaderLength(null);
+        message.setRawDotLines(null);
+    }
+    
+    /**
+     * 打开邮件原文，没有原文文件（或文件丢失）的旧邮件由实体字段渲染
+     */
+    public RawMessage open(EmailMessage message) throws IOException {
+        RawMessage raw = open(message.getRawMessagePath(), message.getRawHeaderLength(), message.getRawDotLines());
+        return raw != null ? raw : renderMessage(message);
+    }
+    
+    /**
+     * 按投影中的原文位置打开，没有原文时返回null
+     */
+    public RawMessage open(String relativePath, Long headerLength, Boolean dotLines) throws IOException {
+        if (relativePath == null) {
+            return null;
+        }
+        Path file = resolve(relativePath);
+        if (!Files.exists(file)) {
+            logger.warn("邮件原文文件不存在: {}", file);
+            return null;
+        }
+        // 缺少扫描结果时按最保守的方式处理：整封视为邮件头，并逐行检查点转义
+        return RawMessage.open(file, headerLength != null ? headerLength : Long.MAX_VALUE, !Boolean.FALSE.equals(dotLines));
+    }
+    
+    /**
+     * 由实体字段渲染的内存原文
+     */
+    public RawMessage renderMessage(EmailMessage message) {
+        renderedMessages.incrementAndGet();
+        byte[] content = render(message);
+        String text = new String(content, StandardCharsets.UTF_8);
+        int headerEnd = text.indexOf("\r\n\r\n");
+        long headerLength = text.substring(0, headerEnd + 4).getBytes(StandardCharsets.UTF_8).length;
+        return RawMessage.of(content, headerLength, text.startsWith(".") || text.contains("\n."));
+    }
+    
+    /**
+     * 为连接创建原文写出器，TLS升级后需要重新创建
+     */
+    public RawMessageWriter newWriter(Socket socket) throws IOException {
+        return new RawMessageWriter(this, socket, transferBufferSize);
+    }
+    
+    // 统计信息
+    public long getStoredMessages() { return storedMessages.get(); }
+    public long getRenderedMessages() { return renderedMessages.get(); }
+    public long getZeroCopyBytes() { return zeroCopyBytes.get(); }
+    public long getCopiedBytes() { return copiedBytes.get(); }
+    
+    void recordZeroCopy(long bytes) { zeroCopyBytes.addAndGet(bytes); }
+    void recordCopied(long bytes) { copiedBytes.addAndGet(bytes); }
+    
+    private void attach(EmailMessage message, String relativePath, long headerLength, boolean dotLines, long size) {
+        message.setRawMessagePath(relativePath);
+        message.setRawHeaderLength(headerLength);
+        message.setRawDotLines(dotLines);
+        message.setMessageSize(size);
+        storedMessages.incrementAndGet();
+    }
+    
+    private String newRelativePath() {
+        return "messages/" + LocalDate.now().format(DIRECTORY_FORMAT) + "/" + UUID.randomUUID() + ".eml";
+    }
+    
+    private Path resolve(String relativePath) {
+        return Paths.get(mailStoragePath).resolve(relativePath);
+    }
+    
+    /**
+     * 按实体字段渲染RFC 822原文，行尾统一为CRLF
+     */
+    private static byte[] render(EmailMessage message) {
+        StringBuilder content = new StringBuilder(256);
+        LocalDateTime date = message.getSentAt() != null ? message.getSentAt() : message.getReceivedAt();
+        if (message.getMessageId() != null) {
+            content.append("Message-ID: ").append(message.getMessageId()).append("\r\n");
+        }
+        if (date != null) {
+            content.append("Date: ").append(date.atZone(ZoneId.systemDefault()).format(DateTimeFormatter.RFC_1123_DATE_TIME)).append("\r\n");
+        }
+        content.append("From: ").append(message.getFromAddress()).append("\r\n");
+        if (message.getToAddresses() != null) {
+            content.append("To: ").append(message.getToAddresses().replaceAll("[\\[\\]\"]", "")).append("\r\n");
+        }
+        if (message.getCcAddresses() != null) {
+            content.append("Cc: ").append(message.getCcAddresses().replaceAll("[\\[\\]\"]", "")).append("\r\n");
+        }
+        if (message.getSubject() != null) {
+            content.append("Subject: ").append(message.getSubject()).append("\r\n");
+        }
+        boolean html = message.getBodyText() == null && message.getBodyHtml() != null;
+        content.append("MIME-Version: 1.0\r\n");
+        content.append("Content-Type: ").append(html ? "text/html" : "text/plain").append("; charset=UTF-8\r\n");
+        content.append("Content-Transfer-Encoding: 8bit\r\n");
+        content.append("\r\n");
+        String body = html ? message.getBodyHtml() : message.getBodyText();
+        if (body != null) {
+            content.append(body.replaceAll("\r?\n", "\r\n"));
+        }
+        return content.toString().getBytes(StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * 写入时识别邮件头结束位置（第一个空行）和以'.'开头的行
+     */
+    private static class ScanningOutputStream extends FilterOutputStream {
+        private long size;
+        private long headerLength = -1;
+        private int headerLineLength;
+        private boolean atLineStart = true;
+        private boolean dotLines;
+        
+        ScanningOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            scan((byte) b);
+            out.write(b);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                scan(b[i]);
+            }
+            out.write(b, off, len);
+        }
+        
+        private void scan(byte b) {
+            size++;
+            if (headerLength < 0) {
+                if (b == '\n') {
+                    if (headerLineLength == 0) {
+                        headerLength = size;
+                    }
+                    headerLineLength = 0;
+                } else if (b != '\r') {
+                    headerLineLength++;
+                }
+            }
+            if (atLineStart && b == '.') {
+                dotLines = true;
+            }
+            atLineStart = b == '\n';
+        }
+        
+        long getSize() { return size; }
+        long getHeaderLength() { return headerLength < 0 ? size : headerLength; }
+        boolean hasDotLines() { return dotLines; }
+    }
+}
@@ -0,0 +1,102 @@
+package com.security.monitor.service.protocol;
+
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 把邮件原文区间写入客户端连接
+ * 明文连接（由ServerSocketChannel接受的套接字）用FileChannel.transferTo直接从页缓存发送；
+ * TLS连接必须经过SSL引擎加密，使用每个连接复用的大缓冲区按块复制。
+ * 调用方在写入前需要先刷新自己的字符输出，保证响应文本和原文字节的顺序
+ */
+public class RawMessageWriter {
+    
+    private final RawMessageStore store;
+    private final OutputStream out;
+    private final SocketChannel channel;
+    private final int bufferSize;
+    private byte[] buffer;
+    
+    RawMessageWriter(RawMessageStore store, Socket socket, int bufferSize) throws IOException {
+        this.store = store;
+        this.out = socket.getOutputStream();
+        // 叠加在明文连接上的SSLSocket会返回底层通道，直接写入会绕过加密
+        this.channel = socket instanceof SSLSocket ? null : socket.getChannel();
+        this.bufferSize = bufferSize;
+    }
+    
+    /**
+     * 原样写出区间[position, position + count)
+     */
+    public void write(RawMessage message, long position, long count) throws IOException {
+        if (count <= 0) {
+            return;
+        }
+        if (channel != null && message.isFileBacked()) {
+            store.recordZeroCopy(message.transferTo(position, count, channel));
+            return;
+        }
+        byte[] chunk = buffer();
+        long end = position + count;
+        while (position < end) {
+            int read = message.read(position, chunk, 0, (int) Math.min(chunk.length, end - position));
+            if (read <= 0) {
+                throw new IOException("邮件原文文件已被截断");
+            }
+            out.write(chunk, 0, read);
+            position += read;
+        }
+        out.flush();
+        store.recordCopied(count);
+    }
+    
+    /**
+     * 写出区间并对以'.'开头的行做点转义（POP3多行响应），没有这种行的原文直接按原样写出
+     */
+    public void writeDotStuffed(RawMessage message, long position, long count) throws IOException {
+        if (!message.hasDotLines()) {
+            write(message, position, count);
+            return;
+        }
+        byte[] chunk = buffer();
+        long end = position + count;
+        boolean lineStart = position == 0 || message.endsWithLineBreak(position);
+        while (position < end) {
+            int read = message.read(position, chunk, 0, (int) Math.min(chunk.length, end - position));
+            if (read <= 0) {
+                throw new IOException("邮件原文文件已被截断");
+            }
+            int flushed = 0;
+            for (int i = 0; i < read; i++) {
+                if (lineStart && chunk[i] == '.') {
+                    out.write(chunk, flushed, i - flushed);
+                    out.write('.');
+                    flushed = i;
+                }
+                lineStart = chunk[i] == '\n';
+            }
+            out.write(chunk, flushed, read - flushed);
+            position += read;
+        }
+        out.flush();
+        store.recordCopied(count);
+    }
+    
+    /**
+     * 写出内存中的内容（过滤后的邮件头等）
+     */
+    public void write(byte[] data) throws IOException {
+        out.write(data);
+        out.flush();
+    }
+    
+    private byte[] buffer() {
+        if (buffer == null) {
+            buffer = new byte[bufferSize];
+        }
+        return buffer;
+    }
+}
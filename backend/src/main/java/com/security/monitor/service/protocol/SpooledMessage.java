@@ -0,0 +1,293 @@
+package com.security.monitor.service.protocol;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 落盘暂存的邮件原文
+ * 小邮件保存在有界内存缓冲区中，超过阈值后整体转存到暂存文件；
+ * 写入过程中增量识别邮件头结束位置和以'.'开头的行，正文按需以流的方式读取；
+ * 投递时可以把原文直接转存为邮件原文文件，之后不再删除
+ */
+public class SpooledMessage implements Closeable {
+    
+    private static final int MAX_HEADER_BYTES = 64 * 1024;
+    
+    private final Path spoolDirectory;
+    private final int memoryThreshold;
+    private byte[] memory;
+    private int memoryLength;
+    private Path file;
+    private FileChannel fileChannel;
+    private long size;
+    private long bodyOffset = -1;
+    private int headerLineLength = 0;
+    private final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream(1024);
+    private List<String> headerLines;
+    private boolean completed = false;
+    private boolean atLineStart = true;
+    private boolean dotLines = false;
+    private boolean retained = false;
+    
+    public SpooledMessage(Path spoolDirectory, int memoryThreshold) {
+        this.spoolDirectory = spoolDirectory;
+        this.memoryThreshold = memoryThreshold;
+    }
+    
+    /**
+     * 追加缓冲区中position到limit之间的字节，写入后position移动到limit
+     */
+    public void write(ByteBuffer source) throws IOException {
+        if (completed) {
+            throw new IllegalStateException("暂存邮件已完成写入");
+        }
+        int length = source.remaining();
+        if (length == 0) {
+            return;
+        }
+        
+        if (bodyOffset < 0) {
+            scanHeaders(source);
+        }
+        if (!dotLines) {
+            scanDotLines(source);
+        }
+        
+        if (fileChannel == null && memoryLength + length > memoryThreshold) {
+            spillToFile();
+        }
+        
+        if (fileChannel != null) {
+            while (source.hasRemaining()) {
+                fileChannel.write(source);
+            }
+        } else {
+            ensureMemoryCapacity(memoryLength + length);
+            source.get(memory, memoryLength, length);
+            memoryLength += length;
+        }
+        size += length;
+    }
+    
+    /**
+     * 增量识别邮件头结束位置（第一个空行），同时保留有界的邮件头副本
+     */
+    private void scanHeaders(ByteBuffer source) {
+        int start = source.position();
+        int limit = source.limit();
+        int i = start;
+        for (; i < limit; i++) {
+            byte b = source.get(i);
+            if (b == '\n') {
+                if (headerLineLength == 0) {
+                    bodyOffset = size + (i - start) + 1;
+                    i++;
+                    break;
+                }
+                headerLineLength = 0;
+            } else if (b != '\r') {
+                headerLineLength++;
+            }
+        }
+        
+        int headerChunk = Math.min(i - start, MAX_HEADER_BYTES - headerBytes.size());
+        for (int j = 0; j < headerChunk; j++) {
+            headerBytes.write(source.get(start + j));
+        }
+    }
+    
+    /**
+     * 检查是否有以'.'开头的行，找到一行后不再扫描
+     */
+    private void scanDotLines(ByteBuffer source) {
+        for (int i = source.position(), limit = source.limit(); i < limit; i++) {
+            byte b = source.get(i);
+            if (atLineStart && b == '.') {
+                dotLines = true;
+                return;
+            }
+            atLineStart = b == '\n';
+        }
+    }
+    
+    private void ensureMemoryCapacity(int required) {
+        if (memory == null) {
+            memory = new byte[Math.min(memoryThreshold, Math.max(required, 8 * 1024))];
+        } else if (memory.length < required) {
+            byte[] larger = new byte[Math.min(memoryThreshold, Math.max(required, memory.length * 2))];
+            System.arraycopy(memory, 0, larger, 0, memoryLength);
+            memory = larger;
+        }
+    }
+    
+    private void spillToFile() throws IOException {
+        Files.createDirectories(spoolDirectory);
+        file = Files.createTempFile(spoolDirectory, "msg-", ".eml");
+        fileChannel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        if (memoryLength > 0) {
+            ByteBuffer buffered = ByteBuffer.wrap(memory, 0, memoryLength);
+            while (buffered.hasRemaining()) {
+                fileChannel.write(buffered);
+            }
+        }
+        memory = null;
+        memoryLength = 0;
+    }
+    
+    /**
+     * 结束写入，关闭写通道
+     */
+    public void complete() throws IOException {
+        completed = true;
+        if (bodyOffset < 0) {
+            // 没有空行时整个邮件都视为邮件头
+            bodyOffset = size;
+        }
+        if (fileChannel != null) {
+            fileChannel.close();
+            fileChannel = null;
+        }
+    }
+    
+    /**
+     * 丢弃已写入的内容（例如超过大小限制）
+     */
+    public void discard() {
+        deleteFile();
+        memory = null;
+        memoryLength = 0;
+        size = 0;
+    }
+    
+    /**
+     * 把原文保存到目标文件：暂存文件直接移动（跨文件系统时复制），内存中的内容写出。
+     * 之后原文读取改为目标文件，close不再删除它
+     */
+    public void persistTo(Path target) throws IOException {
+        if (!completed) {
+            throw new IllegalStateException("暂存邮件尚未完成写入");
+        }
+        Files.createDirectories(target.getParent());
+        if (file == null) {
+            Files.write(target, memory != null ? Arrays.copyOf(memory, memoryLength) : new byte[0],
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            memory = null;
+            memoryLength = 0;
+        } else {
+            try {
+                Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(file, target);
+            }
+        }
+        file = target;
+        retained = true;
+    }
+    
+    /**
+     * 获取指定邮件头的值（不区分大小写，自动展开折行），不存在时返回null
+     */
+    public String getHeader(String name) {
+        String prefix = name.toLowerCase() + ":";
+        for (String line : getHeaderLines()) {
+            if (line.toLowerCase().startsWith(prefix)) {
+                return line.substring(prefix.length()).trim();
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * 获取展开折行后的邮件头列表
+     */
+    public List<String> getHeaderLines() {
+        if (headerLines == null) {
+            headerLines = new ArrayList<>();
+            String block = headerBytes.toString(StandardCharsets.UTF_8);
+            StringBuilder current = null;
+            for (String line : block.split("\r?\n")) {
+                if (line.isEmpty()) {
+                    break;
+                }
+                if ((line.charAt(0) == ' ' || line.charAt(0) == '\t') && current != null) {
+                    current.append(' ').append(line.trim());
+                } else {
+                    if (current != null) {
+                        headerLines.add(current.toString());
+                    }
+                    current = new StringBuilder(line);
+                }
+            }
+            if (current != null) {
+                headerLines.add(current.toString());
+            }
+        }
+        return headerLines;
+    }
+    
+    /**
+     * 打开完整邮件原文的输入流
+     */
+    public InputStream openStream() throws IOException {
+        return openStream(0);
+    }
+    
+    /**
+     * 打开邮件正文的输入流（跳过邮件头）
+     */
+    public InputStream openBody() throws IOException {
+        return openStream(Math.max(bodyOffset, 0));
+    }
+    
+    private InputStream openStream(long offset) throws IOException {
+        if (!completed) {
+            throw new IllegalStateException("暂存邮件尚未完成写入");
+        }
+        if (file == null) {
+            int from = (int) Math.min(offset, memoryLength);
+            return new ByteArrayInputStream(memory != null ? memory : new byte[0], from, memoryLength - from);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        channel.position(offset);
+        return new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024);
+    }
+    
+    public long getSize() { return size; }
+    public long getBodyOffset() { return bodyOffset; }
+    public long getBodySize() { return bodyOffset < 0 ? 0 : size - bodyOffset; }
+    public Path getFile() { return file; }
+    public boolean isInMemory() { return file == null; }
+    public boolean hasDotLines() { return dotLines; }
+    
+    @Override
+    public void close() {
+        deleteFile();
+        memory = null;
+    }
+    
+    private void deleteFile() {
+        try {
+            if (fileChannel != null) {
+                fileChannel.close();
+                fileChannel = null;
+            }
+            if (file != null && !retained) {
+                Files.deleteIfExists(file);
+            }
+            file = null;
+        } catch (IOException e) {
+            // 暂存文件删除失败不影响邮件处理
+        }
+    }
+}
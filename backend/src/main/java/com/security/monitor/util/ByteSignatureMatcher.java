@@ -0,0 +1,157 @@
+package com.security.monitor.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * 字节级多特征码匹配（Aho-Corasick）
+ * 匹配状态只是一个int，调用方逐字节推进，可以跨缓冲区连续扫描任意长的数据流而不需要重叠窗口；
+ * 子节点按字节值排序后二分查找，失败链接上的输出在构建时合并。可选按ASCII忽略大小写
+ */
+public class ByteSignatureMatcher {
+
+    private static final int[] NO_MATCHES = new int[0];
+
+    private final byte[][] edgeBytes;
+    private final int[][] edgeTargets;
+    private final int[] fail;
+    private final int[][] outputs;
+    private final int signatureCount;
+    private final boolean ignoreAsciiCase;
+
+    /**
+     * 特征码编号即其在列表中的下标，空特征码永不命中
+     */
+    public ByteSignatureMatcher(List<byte[]> signatures, boolean ignoreAsciiCase) {
+        this.signatureCount = signatures.size();
+        this.ignoreAsciiCase = ignoreAsciiCase;
+
+        List<TreeMap<Integer, Integer>> gotoTable = new ArrayList<>();
+        List<List<Integer>> stateOutputs = new ArrayList<>();
+        gotoTable.add(new TreeMap<>());
+        stateOutputs.add(new ArrayList<>());
+        for (int k = 0; k < signatures.size(); k++) {
+            byte[] signature = signatures.get(k);
+            if (signature == null || signature.length == 0) {
+                continue;
+            }
+            int state = 0;
+            for (byte b : signature) {
+                int value = fold(b & 0xFF);
+                Integer next = gotoTable.get(state).get(value);
+                if (next == null) {
+                    next = gotoTable.size();
+                    gotoTable.get(state).put(value, next);
+                    gotoTable.add(new TreeMap<>());
+                    stateOutputs.add(new ArrayList<>());
+                }
+                state = next;
+            }
+            stateOutputs.get(state).add(k);
+        }
+
+        int stateCount = gotoTable.size();
+        this.edgeBytes = new byte[stateCount][];
+        this.edgeTargets = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            TreeMap<Integer, Integer> edges = gotoTable.get(state);
+            edgeBytes[state] = new byte[edges.size()];
+            edgeTargets[state] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Integer> edge : edges.entrySet()) {
+                // 按无符号值排序，存储时转为byte，查找时再按无符号比较
+                edgeBytes[state][i] = (byte) edge.getKey().intValue();
+                edgeTargets[state][i] = edge.getValue();
+                i++;
+            }
+        }
+
+        // BFS计算失败链接并合并输出
+        this.fail = new int[stateCount];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : edgeTargets[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int i = 0; i < edgeBytes[state].length; i++) {
+                int value = edgeBytes[state][i] & 0xFF;
+                int child = edgeTargets[state][i];
+                int f = fail[state];
+                int target;
+                while ((target = child(f, value)) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = target >= 0 ? target : 0;
+                stateOutputs.get(child).addAll(stateOutputs.get(fail[child]));
+                queue.add(child);
+            }
+        }
+
+        this.outputs = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            List<Integer> matched = stateOutputs.get(state);
+            outputs[state] = matched.isEmpty() ? NO_MATCHES : matched.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * 初始状态
+     */
+    public int initialState() {
+        return 0;
+    }
+
+    /**
+     * 读入一个字节后的状态
+     */
+    public int next(int state, byte b) {
+        int value = fold(b & 0xFF);
+        int target;
+        while ((target = child(state, value)) < 0 && state != 0) {
+            state = fail[state];
+        }
+        return target >= 0 ? target : 0;
+    }
+
+    /**
+     * 在该状态结束的特征码编号，没有时返回空数组（不要修改返回值）
+     */
+    public int[] matches(int state) {
+        return outputs[state];
+    }
+
+    public int getSignatureCount() {
+        return signatureCount;
+    }
+
+    public int getStateCount() {
+        return fail.length;
+    }
+
+    private int fold(int value) {
+        return ignoreAsciiCase && value >= 'A' && value <= 'Z' ? value + ('a' - 'A') : value;
+    }
+
+    private int child(int state, int value) {
+        byte[] bytes = edgeBytes[state];
+        int low = 0;
+        int high = bytes.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midValue = bytes[mid] & 0xFF;
+            if (midValue < value) {
+                low = mid + 1;
+            } else if (midValue > value) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[state][mid];
+            }
+        }
+        return -1;
+    }
+}
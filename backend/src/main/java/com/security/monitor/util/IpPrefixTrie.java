@@ -0,0 +1,459 @@
+package com.security.monitor.util;
+
+import java.math.BigInteger;
+
+/**
+ * 不可变的IP前缀Patricia树（路径压缩的二叉前缀树），同时支持IPv4和IPv6
+ * IPv4地址映射到IPv6的 ::ffff:0:0/96 段，两种地址共用一棵128位的树；IP范围在构建时拆分成最少的CIDR前缀。
+ * 每个条目带优先级（数字越小越优先），查找返回覆盖该地址的条目中优先级最高的一个，相同优先级按添加顺序。
+ * 查找只沿地址路径下降一次，耗时与前缀长度成正比，解析和查找过程不分配对象
+ */
+public final class IpPrefixTrie<T> {
+
+    private static final int ADDRESS_BITS = 128;
+    private static final int IPV4_OFFSET = 96;
+    private static final long IPV4_MAPPED = 0xFFFF00000000L;
+
+    private final Node<T> root;
+    private final int entryCount;
+    private final int prefixCount;
+
+    private IpPrefixTrie(Node<T> root, int entryCount, int prefixCount) {
+        this.root = root;
+        this.entryCount = entryCount;
+        this.prefixCount = prefixCount;
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * 查找覆盖地址的最高优先级条目，地址无效或没有匹配时返回null
+     */
+    public T find(CharSequence address) {
+        if (address == null || root == null) {
+            return null;
+        }
+        int length = address.length();
+        long ipv4 = parseIpv4(address, 0, length);
+        if (ipv4 >= 0) {
+            return find(0L, IPV4_MAPPED | ipv4);
+        }
+        int layout = ipv6Layout(address, length);
+        if (layout < 0) {
+            return null;
+        }
+        return find(ipv6Half(address, length, layout, true), ipv6Half(address, length, layout, false));
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    public int getPrefixCount() {
+        return prefixCount;
+    }
+
+    /**
+     * 是否为有效的IPv4或IPv6地址（支持::压缩和内嵌IPv4写法）
+     */
+    public static boolean isValidAddress(CharSequence address) {
+        if (address == null) {
+            return false;
+        }
+        int length = address.length();
+        return parseIpv4(address, 0, length) >= 0 || ipv6Layout(address, length) >= 0;
+    }
+
+    public static boolean isIpv4Address(CharSequence address) {
+        return address != null && parseIpv4(address, 0, address.length()) >= 0;
+    }
+
+    private T find(long hi, long lo) {
+        T best = null;
+        int bestPriority = Integer.MAX_VALUE;
+        int bestOrder = Integer.MAX_VALUE;
+        Node<T> node = root;
+        while (node != null
+                && (hi & maskHi(node.length)) == node.hi
+                && (lo & maskLo(node.length)) == node.lo) {
+            if (node.value != null && (node.priority < bestPriority
+                    || (node.priority == bestPriority && node.order < bestOrder))) {
+                best = node.value;
+                bestPriority = node.priority;
+                bestOrder = node.order;
+            }
+            if (node.length == ADDRESS_BITS) {
+                break;
+            }
+            node = bitAt(hi, lo, node.length) ? node.one : node.zero;
+        }
+        return best;
+    }
+
+    private static long maskHi(int length) {
+        if (length == 0) {
+            return 0L;
+        }
+        return length >= 64 ? -1L : -1L << (64 - length);
+    }
+
+    private static long maskLo(int length) {
+        if (length <= 64) {
+            return 0L;
+        }
+        return -1L << (ADDRESS_BITS - length);
+    }
+
+    private static boolean bitAt(long hi, long lo, int index) {
+        return index < 64
+                ? (hi >>> (63 - index) & 1L) != 0
+                : (lo >>> (127 - index) & 1L) != 0;
+    }
+
+    /**
+     * 解析[from, to)范围内的点分十进制IPv4地址，无效时返回-1
+     */
+    private static long parseIpv4(CharSequence s, int from, int to) {
+        long result = 0;
+        int octets = 0;
+        int i = from;
+        while (octets < 4) {
+            int value = 0;
+            int digits = 0;
+            while (i < to && digits < 4) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+                digits++;
+                i++;
+            }
+            if (digits == 0 || digits > 3 || value > 255) {
+                return -1;
+            }
+            result = (result << 8) | value;
+            octets++;
+            if (octets < 4) {
+                if (i >= to || s.charAt(i) != '.') {
+                    return -1;
+                }
+                i++;
+            }
+        }
+        return i == to ? result : -1;
+    }
+
+    /**
+     * 校验IPv6地址并返回分组布局：bit 0-3为::之前的分组数，bit 4-7为::之后的分组数，bit 8表示含::；无效时返回-1
+     */
+    private static int ipv6Layout(CharSequence s, int length) {
+        int before = 0;
+        int after = 0;
+        boolean compressed = false;
+        int i = 0;
+        if (length >= 2 && s.charAt(0) == ':' && s.charAt(1) == ':') {
+            compressed = true;
+            i = 2;
+        } else if (length == 0 || s.charAt(0) == ':') {
+            return -1;
+        }
+        while (i < length) {
+            int start = i;
+            while (i < length && hexValue(s.charAt(i)) >= 0) {
+                i++;
+            }
+            int groups;
+            if (i < length && s.charAt(i) == '.') {
+                // 内嵌IPv4只能是最后一段，占两个分组
+                if (parseIpv4(s, start, length) < 0) {
+                    return -1;
+                }
+                groups = 2;
+                i = length;
+            } else {
+                if (i == start || i - start > 4) {
+                    return -1;
+                }
+                groups = 1;
+            }
+            if (compressed) {
+                after += groups;
+            } else {
+                before += groups;
+            }
+            if (i == length) {
+                break;
+            }
+            if (s.charAt(i) != ':') {
+                return -1;
+            }
+            i++;
+            if (i < length && s.charAt(i) == ':') {
+                if (compressed) {
+                    return -1;
+                }
+                compressed = true;
+                i++;
+            } else if (i == length) {
+                return -1;
+            }
+        }
+        if (compressed ? before + after > 7 : before != 8) {
+            return -1;
+        }
+        return before | (after << 4) | (compressed ? 1 << 8 : 0);
+    }
+
+    /**
+     * 按已校验的布局取IPv6地址的高64位或低64位，::之后的分组从第(8 - 之后分组数)组开始
+     */
+    private static long ipv6Half(CharSequence s, int length, int layout, boolean high) {
+        int after = (layout >>> 4) & 0xF;
+        long result = 0L;
+        int group = 0;
+        int i = 0;
+        while (i < length) {
+            if (s.charAt(i) == ':') {
+                if (i + 1 < length && s.charAt(i + 1) == ':') {
+                    group = 8 - after;
+                    i++;
+                }
+                i++;
+                continue;
+            }
+            int start = i;
+            int value = 0;
+            while (i < length && hexValue(s.charAt(i)) >= 0) {
+                value = (value << 4) | hexValue(s.charAt(i));
+                i++;
+            }
+            if (i < length && s.charAt(i) == '.') {
+                long ipv4 = parseIpv4(s, start, length);
+                result = placeGroup(result, group, (int) (ipv4 >>> 16), high);
+                result = placeGroup(result, group + 1, (int) (ipv4 & 0xFFFF), high);
+                break;
+            }
+            result = placeGroup(result, group, value, high);
+            group++;
+        }
+        return result;
+    }
+
+    private static long placeGroup(long half, int group, int value, boolean high) {
+        if (high && group < 4) {
+            return half | ((long) value << (16 * (3 - group)));
+        }
+        if (!high && group >= 4) {
+            return half | ((long) value << (16 * (7 - group)));
+        }
+        return half;
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static final class Node<T> {
+        // 前缀位（已按length掩码）
+        private final long hi;
+        private final long lo;
+        private final int length;
+        private final T value;
+        private final int priority;
+        private final int order;
+        private final Node<T> zero;
+        private final Node<T> one;
+
+        Node(long hi, long lo, int length, T value, int priority, int order, Node<T> zero, Node<T> one) {
+            this.hi = hi;
+            this.lo = lo;
+            this.length = length;
+            this.value = value;
+            this.priority = priority;
+            this.order = order;
+            this.zero = zero;
+            this.one = one;
+        }
+    }
+
+    /**
+     * 构建器：先建未压缩的二叉树，build时压缩单分支路径生成不可变的Patricia树
+     */
+    public static final class Builder<T> {
+
+        private static final BigInteger ADDRESS_SPACE_END = BigInteger.ONE.shiftLeft(ADDRESS_BITS).subtract(BigInteger.ONE);
+
+        private final BuildNode<T> root = new BuildNode<>();
+        private int entryCount;
+        private int prefixCount;
+
+        private Builder() {
+        }
+
+        /**
+         * 添加条目，spec可以是单个地址、CIDR（192.168.1.0/24、2001:db8::/32）或范围（10.0.0.1-10.0.0.99）
+         *
+         * @throws IllegalArgumentException spec格式无效
+         */
+        public Builder<T> add(String spec, int priority, T value) {
+            if (spec == null || value == null) {
+                throw new IllegalArgumentException("地址和条目不能为空");
+            }
+            String trimmed = spec.trim();
+            int order = entryCount;
+            int slash = trimmed.indexOf('/');
+            int dash = trimmed.indexOf('-');
+            if (slash >= 0) {
+                long[] network = parseAddress(trimmed.substring(0, slash));
+                int maxLength = network[2] != 0 ? 32 : ADDRESS_BITS;
+                int length;
+                try {
+                    length = Integer.parseInt(trimmed.substring(slash + 1).trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("无效的前缀长度: " + spec);
+                }
+                if (length < 0 || length > maxLength) {
+                    throw new IllegalArgumentException("无效的前缀长度: " + spec);
+                }
+                insert(network[0], network[1], length + (network[2] != 0 ? IPV4_OFFSET : 0), priority, order, value);
+            } else if (dash >= 0) {
+                long[] start = parseAddress(trimmed.substring(0, dash));
+                long[] end = parseAddress(trimmed.substring(dash + 1));
+                if (start[2] != end[2]) {
+                    throw new IllegalArgumentException("IP范围两端的地址类型不一致: " + spec);
+                }
+                insertRange(toBigInteger(start), toBigInteger(end), priority, order, value, spec);
+            } else {
+                long[] address = parseAddress(trimmed);
+                insert(address[0], address[1], ADDRESS_BITS, priority, order, value);
+            }
+            entryCount++;
+            return this;
+        }
+
+        public IpPrefixTrie<T> build() {
+            Node<T> compressed = root.isEmpty() ? null : compress(root, 0, 0L, 0L);
+            return new IpPrefixTrie<>(compressed, entryCount, prefixCount);
+        }
+
+        /**
+         * 把范围拆分为最少的对齐前缀块
+         */
+        private void insertRange(BigInteger start, BigInteger end, int priority, int order, T value, String spec) {
+            if (start.compareTo(end) > 0) {
+                throw new IllegalArgumentException("IP范围起始地址大于结束地址: " + spec);
+            }
+            BigInteger current = start;
+            while (current.compareTo(end) <= 0) {
+                int blockBits = current.signum() == 0 ? ADDRESS_BITS : current.getLowestSetBit();
+                while (blockBits > 0 && current.add(BigInteger.ONE.shiftLeft(blockBits)).subtract(BigInteger.ONE).compareTo(end) > 0) {
+                    blockBits--;
+                }
+                insert(current.shiftRight(64).longValue(), current.longValue(), ADDRESS_BITS - blockBits, priority, order, value);
+                BigInteger blockEnd = current.add(BigInteger.ONE.shiftLeft(blockBits)).subtract(BigInteger.ONE);
+                if (blockEnd.equals(ADDRESS_SPACE_END)) {
+                    break;
+                }
+                current = blockEnd.add(BigInteger.ONE);
+            }
+        }
+
+        private void insert(long hi, long lo, int length, int priority, int order, T value) {
+            BuildNode<T> node = root;
+            for (int i = 0; i < length; i++) {
+                if (bitAt(hi, lo, i)) {
+                    if (node.one == null) {
+                        node.one = new BuildNode<>();
+                    }
+                    node = node.one;
+                } else {
+                    if (node.zero == null) {
+                        node.zero = new BuildNode<>();
+                    }
+                    node = node.zero;
+                }
+            }
+            // 同一前缀上保留优先级最高（先添加）的条目
+            if (node.value == null || priority < node.priority) {
+                node.value = value;
+                node.priority = priority;
+                node.order = order;
+            }
+            prefixCount++;
+        }
+
+        private Node<T> compress(BuildNode<T> node, int depth, long hi, long lo) {
+            // 跳过没有条目的单分支节点
+            while (node.value == null && (node.zero == null) != (node.one == null)) {
+                if (node.one != null) {
+                    hi = setBitHi(hi, depth);
+                    lo = setBitLo(lo, depth);
+                    node = node.one;
+                } else {
+                    node = node.zero;
+                }
+                depth++;
+            }
+            Node<T> zero = node.zero == null ? null : compress(node.zero, depth + 1, hi, lo);
+            Node<T> one = node.one == null ? null : compress(node.one, depth + 1, setBitHi(hi, depth), setBitLo(lo, depth));
+            return new Node<>(hi, lo, depth, node.value, node.priority, node.order, zero, one);
+        }
+
+        private static long setBitHi(long hi, int index) {
+            return index < 64 ? hi | (1L << (63 - index)) : hi;
+        }
+
+        private static long setBitLo(long lo, int index) {
+            return index >= 64 ? lo | (1L << (127 - index)) : lo;
+        }
+
+        /**
+         * 解析地址，返回 [高64位, 低64位, 是否IPv4]
+         */
+        private static long[] parseAddress(String text) {
+            String address = text.trim();
+            int length = address.length();
+            long ipv4 = parseIpv4(address, 0, length);
+            if (ipv4 >= 0) {
+                return new long[] {0L, IPV4_MAPPED | ipv4, 1L};
+            }
+            int layout = ipv6Layout(address, length);
+            if (layout < 0) {
+                throw new IllegalArgumentException("无效的IP地址: " + text);
+            }
+            return new long[] {ipv6Half(address, length, layout, true), ipv6Half(address, length, layout, false), 0L};
+        }
+
+        private static BigInteger toBigInteger(long[] address) {
+            return new BigInteger(1, new byte[] {
+                    (byte) (address[0] >>> 56), (byte) (address[0] >>> 48), (byte) (address[0] >>> 40), (byte) (address[0] >>> 32),
+                    (byte) (address[0] >>> 24), (byte) (address[0] >>> 16), (byte) (address[0] >>> 8), (byte) address[0],
+                    (byte) (address[1] >>> 56), (byte) (address[1] >>> 48), (byte) (address[1] >>> 40), (byte) (address[1] >>> 32),
+                    (byte) (address[1] >>> 24), (byte) (address[1] >>> 16), (byte) (address[1] >>> 8), (byte) address[1]});
+        }
+    }
+
+    private static final class BuildNode<T> {
+        private BuildNode<T> zero;
+        private BuildNode<T> one;
+        private T value;
+        private int priority;
+        private int order;
+
+        boolean isEmpty() {
+            return zero == null && one == null && value == null;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.security.monitor.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * 不区分大小写的多关键词匹配（Aho-Corasick），支持任意Unicode字符
+ * 每个状态的子节点按字符排序后二分查找，失败链接上的输出在构建时合并，文本只扫描一遍即可得到全部命中的关键词
+ */
+public class KeywordAutomaton {
+
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] fail;
+    private final int[][] outputs;
+    private final int keywordCount;
+
+    /**
+     * 关键词编号即其在列表中的下标，空关键词永不命中
+     */
+    public KeywordAutomaton(List<String> keywords) {
+        this.keywordCount = keywords.size();
+
+        List<TreeMap<Character, Integer>> gotoTable = new ArrayList<>();
+        List<List<Integer>> stateOutputs = new ArrayList<>();
+        gotoTable.add(new TreeMap<>());
+        stateOutputs.add(new ArrayList<>());
+        for (int k = 0; k < keywords.size(); k++) {
+            String keyword = keywords.get(k);
+            if (keyword == null || keyword.isEmpty()) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = Character.toLowerCase(keyword.charAt(i));
+                Integer next = gotoTable.get(state).get(c);
+                if (next == null) {
+                    next = gotoTable.size();
+                    gotoTable.get(state).put(c, next);
+                    gotoTable.add(new TreeMap<>());
+                    stateOutputs.add(new ArrayList<>());
+                }
+                state = next;
+            }
+            stateOutputs.get(state).add(k);
+        }
+
+        int stateCount = gotoTable.size();
+        this.edgeChars = new char[stateCount][];
+        this.edgeTargets = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            TreeMap<Character, Integer> edges = gotoTable.get(state);
+            edgeChars[state] = new char[edges.size()];
+            edgeTargets[state] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                edgeChars[state][i] = edge.getKey();
+                edgeTargets[state][i] = edge.getValue();
+                i++;
+            }
+        }
+
+        // BFS计算失败链接并合并输出
+        this.fail = new int[stateCount];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : edgeTargets[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            for (int i = 0; i < edgeChars[state].length; i++) {
+                char c = edgeChars[state][i];
+                int child = edgeTargets[state][i];
+                int f = fail[state];
+                int target;
+                while ((target = child(f, c)) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = target >= 0 ? target : 0;
+                stateOutputs.get(child).addAll(stateOutputs.get(fail[child]));
+                queue.add(child);
+            }
+        }
+
+        this.outputs = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            outputs[state] = stateOutputs.get(state).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    /**
+     * 扫描文本，把命中的关键词在matched中置为true，返回本次新命中的关键词数量
+     */
+    public int scan(CharSequence text, boolean[] matched) {
+        if (text == null || keywordCount == 0) {
+            return 0;
+        }
+        int found = 0;
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int next;
+            while ((next = child(state, c)) < 0 && state != 0) {
+                state = fail[state];
+            }
+            state = next >= 0 ? next : 0;
+            for (int keyword : outputs[state]) {
+                if (!matched[keyword]) {
+                    matched[keyword] = true;
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    public int getKeywordCount() {
+        return keywordCount;
+    }
+
+    public int getStateCount() {
+        return fail.length;
+    }
+
+    private int child(int state, char c) {
+        char[] chars = edgeChars[state];
+        int low = 0;
+        int high = chars.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = chars[mid];
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[state][mid];
+            }
+        }
+        return -1;
+    }
+}
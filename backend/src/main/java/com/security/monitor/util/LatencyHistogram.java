@@ -0,0 +1,64 @@
+package com.security.monitor.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 无锁延迟直方图
+ * 按微秒的2的幂分桶（桶i覆盖[2^(i-1), 2^i)微秒），记录只做一次原子自增；分位数取所在桶的上界，误差不超过2倍
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * 分位数（微秒），q取0-1
+     */
+    public long percentileMicros(double q) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return i == 0 ? 0 : Math.min(1L << i, maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    public Map<String, Object> toMap() {
+        long total = count.get();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("count", total);
+        map.put("meanMicros", total > 0 ? (double) totalMicros.get() / total : 0.0);
+        map.put("p50Micros", percentileMicros(0.50));
+        map.put("p90Micros", percentileMicros(0.90));
+        map.put("p99Micros", percentileMicros(0.99));
+        map.put("maxMicros", maxMicros.get());
+        return map;
+    }
+}
@@ -0,0 +1,324 @@
+package com.security.monitor.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * 单次扫描的多模式匹配器（不区分ASCII大小写）
+ * 所有规则的锚点字面量编译成一个Aho-Corasick自动机（按字符类压缩的完整转移表），输入只扫描一遍；
+ * 规则可以在锚点后带一段模式（\s*、\s+、[^x]*和字面量），在锚点命中处向后逐段确定性匹配，不回溯整个输入。
+ * 扫描结果是命中规则的位掩码，规则编号范围0-63。
+ * 模式中量词的字符集不能与紧随其后的字面量首字符重叠（例如 \s*: 、[^>]*>），这样贪婪匹配无需回溯即等价于正则
+ */
+public class MultiPatternMatcher {
+
+    private static final int ASCII = 128;
+
+    private final byte[] charClasses;
+    private final int classCount;
+    // transitions[state * classCount + charClass]
+    private final int[] transitions;
+    // 每个状态（含后缀链接）命中的模式下标
+    private final int[][] outputs;
+    private final int[] patternRules;
+    private final Segment[][] patternTails;
+    private final int ruleCount;
+
+    private MultiPatternMatcher(Builder builder) {
+        List<String> anchors = builder.anchors;
+        int patternCount = anchors.size();
+        this.patternRules = new int[patternCount];
+        this.patternTails = new Segment[patternCount][];
+        for (int i = 0; i < patternCount; i++) {
+            patternRules[i] = builder.rules.get(i);
+            patternTails[i] = builder.tails.get(i);
+        }
+        this.ruleCount = builder.ruleIds.size();
+
+        // 字符类：锚点中出现的每个字符一类，其余字符共用类0
+        this.charClasses = new byte[ASCII];
+        int classes = 1;
+        for (String anchor : anchors) {
+            for (int i = 0; i < anchor.length(); i++) {
+                char c = anchor.charAt(i);
+                if (charClasses[c] == 0) {
+                    charClasses[c] = (byte) classes++;
+                }
+            }
+        }
+        this.classCount = classes;
+
+        // 构建trie
+        List<int[]> gotoTable = new ArrayList<>();
+        List<List<Integer>> stateOutputs = new ArrayList<>();
+        gotoTable.add(newRow());
+        stateOutputs.add(new ArrayList<>());
+        for (int p = 0; p < patternCount; p++) {
+            String anchor = anchors.get(p);
+            int state = 0;
+            for (int i = 0; i < anchor.length(); i++) {
+                int cls = charClasses[anchor.charAt(i)];
+                if (gotoTable.get(state)[cls] < 0) {
+                    gotoTable.get(state)[cls] = gotoTable.size();
+                    gotoTable.add(newRow());
+                    stateOutputs.add(new ArrayList<>());
+                }
+                state = gotoTable.get(state)[cls];
+            }
+            stateOutputs.get(state).add(p);
+        }
+
+        // BFS计算失败链接，并把转移补全为DFA
+        int stateCount = gotoTable.size();
+        int[] fail = new int[stateCount];
+        this.transitions = new int[stateCount * classCount];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int cls = 0; cls < classCount; cls++) {
+            int next = gotoTable.get(0)[cls];
+            if (next < 0) {
+                transitions[cls] = 0;
+            } else {
+                transitions[cls] = next;
+                fail[next] = 0;
+                queue.add(next);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            stateOutputs.get(state).addAll(stateOutputs.get(fail[state]));
+            for (int cls = 0; cls < classCount; cls++) {
+                int next = gotoTable.get(state)[cls];
+                if (next < 0) {
+                    transitions[state * classCount + cls] = transitions[fail[state] * classCount + cls];
+                } else {
+                    transitions[state * classCount + cls] = next;
+                    fail[next] = transitions[fail[state] * classCount + cls];
+                    queue.add(next);
+                }
+            }
+        }
+
+        this.outputs = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            outputs[state] = stateOutputs.get(state).stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 扫描输入，返回命中规则的位掩码
+     */
+    public long scan(CharSequence input) {
+        return scan(input, Integer.MAX_VALUE, 0L);
+    }
+
+    /**
+     * 扫描输入，boundedRules中的规则只有在命中完全位于[0, boundary)内时才计入
+     */
+    public long scan(CharSequence input, int boundary, long boundedRules) {
+        if (input == null) {
+            return 0L;
+        }
+        long hits = 0L;
+        int state = 0;
+        int length = input.length();
+        for (int i = 0; i < length; i++) {
+            state = transitions[state * classCount + classOf(input.charAt(i))];
+            int[] matched = outputs[state];
+            for (int p : matched) {
+                int rule = patternRules[p];
+                long bit = 1L << rule;
+                if ((hits & bit) != 0) {
+                    continue;
+                }
+                int end = patternTails[p] == null ? i + 1 : matchTail(input, i + 1, patternTails[p]);
+                if (end >= 0 && ((boundedRules & bit) == 0 || end <= boundary)) {
+                    hits |= bit;
+                }
+            }
+        }
+        return hits;
+    }
+
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    private int classOf(char c) {
+        if (c >= ASCII) {
+            return 0;
+        }
+        return charClasses[fold(c)];
+    }
+
+    /**
+     * 从from开始逐段匹配，成功时返回匹配结束位置（不含），失败返回-1
+     */
+    private static int matchTail(CharSequence input, int from, Segment[] tail) {
+        int pos = from;
+        int length = input.length();
+        for (Segment segment : tail) {
+            switch (segment.kind) {
+                case LITERAL:
+                    String literal = segment.literal;
+                    if (pos + literal.length() > length) {
+                        return -1;
+                    }
+                    for (int i = 0; i < literal.length(); i++) {
+                        if (fold(input.charAt(pos + i)) != literal.charAt(i)) {
+                            return -1;
+                        }
+                    }
+                    pos += literal.length();
+                    break;
+                case WHITESPACE_STAR:
+                case WHITESPACE_PLUS:
+                    int start = pos;
+                    while (pos < length && isWhitespace(input.charAt(pos))) {
+                        pos++;
+                    }
+                    if (segment.kind == SegmentKind.WHITESPACE_PLUS && pos == start) {
+                        return -1;
+                    }
+                    break;
+                case NOT_CHAR_STAR:
+                    while (pos < length && input.charAt(pos) != segment.excluded) {
+                        pos++;
+                    }
+                    break;
+                default:
+                    return -1;
+            }
+        }
+        return pos;
+    }
+
+    private static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    // 与java.util.regex的\s一致
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == 0x0B || c == '\f' || c == '\r';
+    }
+
+    private int[] newRow() {
+        int[] row = new int[classCount];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private enum SegmentKind { LITERAL, WHITESPACE_STAR, WHITESPACE_PLUS, NOT_CHAR_STAR }
+
+    private static class Segment {
+        private final SegmentKind kind;
+        private final String literal;
+        private final char excluded;
+
+        Segment(SegmentKind kind, String literal, char excluded) {
+            this.kind = kind;
+            this.literal = literal;
+            this.excluded = excluded;
+        }
+    }
+
+    /**
+     * 规则构建器
+     */
+    public static class Builder {
+        private final List<String> anchors = new ArrayList<>();
+        private final List<Integer> rules = new ArrayList<>();
+        private final List<Segment[]> tails = new ArrayList<>();
+        private final Set<Integer> ruleIds = new HashSet<>();
+
+        /**
+         * 添加字面量，任一字面量出现在输入中即命中规则
+         */
+        public Builder literals(int rule, String... literals) {
+            for (String literal : literals) {
+                pattern(rule, literal, null);
+            }
+            return this;
+        }
+
+        /**
+         * 添加模式：以字面量开头，后面可以是字面量、\s*、\s+、[^x]*，例如 "javascript\s*:"
+         */
+        public Builder pattern(int rule, String pattern) {
+            int anchorEnd = 0;
+            while (anchorEnd < pattern.length() && pattern.charAt(anchorEnd) != '\\' && pattern.charAt(anchorEnd) != '[') {
+                anchorEnd++;
+            }
+            if (anchorEnd == 0) {
+                throw new IllegalArgumentException("模式必须以字面量开头: " + pattern);
+            }
+            return pattern(rule, pattern.substring(0, anchorEnd), parseTail(pattern.substring(anchorEnd)));
+        }
+
+        public MultiPatternMatcher build() {
+            return new MultiPatternMatcher(this);
+        }
+
+        private Builder pattern(int rule, String anchor, Segment[] tail) {
+            if (rule < 0 || rule > 63) {
+                throw new IllegalArgumentException("规则编号必须在0-63之间: " + rule);
+            }
+            if (anchor.isEmpty()) {
+                throw new IllegalArgumentException("字面量不能为空");
+            }
+            StringBuilder folded = new StringBuilder(anchor.length());
+            for (int i = 0; i < anchor.length(); i++) {
+                char c = anchor.charAt(i);
+                if (c >= ASCII) {
+                    throw new IllegalArgumentException("锚点只支持ASCII字符: " + anchor);
+                }
+                folded.append(fold(c));
+            }
+            anchors.add(folded.toString());
+            rules.add(rule);
+            tails.add(tail);
+            ruleIds.add(rule);
+            return this;
+        }
+
+        private static Segment[] parseTail(String tail) {
+            List<Segment> segments = new ArrayList<>();
+            StringBuilder literal = new StringBuilder();
+            int i = 0;
+            while (i < tail.length()) {
+                if (tail.startsWith("\\s*", i) || tail.startsWith("\\s+", i)) {
+                    flushLiteral(segments, literal);
+                    segments.add(new Segment(tail.charAt(i + 2) == '*'
+                            ? SegmentKind.WHITESPACE_STAR : SegmentKind.WHITESPACE_PLUS, null, (char) 0));
+                    i += 3;
+                } else if (tail.startsWith("[^", i) && i + 4 < tail.length() && tail.startsWith("]*", i + 3)) {
+                    flushLiteral(segments, literal);
+                    segments.add(new Segment(SegmentKind.NOT_CHAR_STAR, null, tail.charAt(i + 2)));
+                    i += 5;
+                } else if (tail.charAt(i) == '\\' || tail.charAt(i) == '[') {
+                    throw new IllegalArgumentException("不支持的模式语法: " + tail.substring(i));
+                } else {
+                    literal.append(fold(tail.charAt(i)));
+                    i++;
+                }
+            }
+            flushLiteral(segments, literal);
+            return segments.toArray(new Segment[0]);
+        }
+
+        private static void flushLiteral(List<Segment> segments, StringBuilder literal) {
+            if (literal.length() > 0) {
+                segments.add(new Segment(SegmentKind.LITERAL, literal.toString(), (char) 0));
+                literal.setLength(0);
+            }
+        }
+    }
+}
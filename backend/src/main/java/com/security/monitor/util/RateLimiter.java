@@ -0,0 +1,12 @@
+package com.security.monitor.util;
+
+/**
+ * 按键限流
+ */
+public interface RateLimiter {
+
+    /**
+     * 尝试为键获取一个许可，超过限额时返回false
+     */
+    boolean tryAcquire(String key);
+}
@@ -0,0 +1,162 @@
+package com.security.monitor.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 滑动窗口限流器（滑动日志的近似：当前窗口计数 + 上一窗口计数按剩余比例加权）
+ * 键只保存64位哈希指纹，计数表是固定大小的开放寻址表，每个槽位的状态打包在一个long中用CAS更新，无锁；
+ * 每个键只在8个槽位的组内探测，组满时淘汰已过期或最旧的槽位，内存占用与请求中出现的键数量无关
+ */
+public class SlidingWindowRateLimiter implements RateLimiter {
+
+    private static final int PROBE_LENGTH = 8;
+    private static final long EMPTY = 0L;
+    private static final int MAX_COUNT = 0xFFFF;
+
+    private final int limit;
+    private final long windowMillis;
+    private final int mask;
+    // 每个槽位两个long：[指纹, 状态]，状态 = 窗口序号(32位) | 当前窗口计数(16位) | 上一窗口计数(16位)
+    private final AtomicLongArray table;
+
+    private final AtomicLong allowed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param limit        每个窗口允许的请求数
+     * @param windowMillis 窗口长度（毫秒）
+     * @param maxKeys      计数表容量，向上取整到2的幂
+     */
+    public SlidingWindowRateLimiter(int limit, long windowMillis, int maxKeys) {
+        if (limit <= 0 || limit > MAX_COUNT || windowMillis <= 0 || maxKeys <= 0) {
+            throw new IllegalArgumentException("无效的限流参数: limit=" + limit + ", windowMillis=" + windowMillis
+                    + ", maxKeys=" + maxKeys);
+        }
+        int capacity = Integer.highestOneBit(Math.max(maxKeys, PROBE_LENGTH) - 1) << 1;
+        this.limit = limit;
+        this.windowMillis = windowMillis;
+        this.mask = capacity - 1;
+        this.table = new AtomicLongArray(capacity * 2);
+    }
+
+    /**
+     * 尝试为键获取一个许可，超过限额时返回false（被拒绝的请求不计数）
+     */
+    @Override
+    public boolean tryAcquire(String key) {
+        return tryAcquire(key, System.currentTimeMillis());
+    }
+
+    public boolean tryAcquire(String key, long nowMillis) {
+        long fingerprint = fingerprint(key);
+        long window = nowMillis / windowMillis;
+        // 上一窗口计数的剩余权重
+        double previousWeight = 1.0 - (double) (nowMillis % windowMillis) / windowMillis;
+
+        int stateIndex = slotFor(fingerprint, window);
+        while (true) {
+            long state = table.get(stateIndex);
+            long current = stateForWindow(state, window);
+            int currentCount = (int) ((current >>> 16) & MAX_COUNT);
+            int previousCount = (int) (current & MAX_COUNT);
+            if (currentCount + previousCount * previousWeight + 1 > limit) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            long updated = pack(window, Math.min(currentCount + 1, MAX_COUNT), previousCount);
+            if (table.compareAndSet(stateIndex, state, updated)) {
+                allowed.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    public int getLimit() { return limit; }
+    public long getWindowMillis() { return windowMillis; }
+    public int getCapacity() { return mask + 1; }
+    public long getAllowedCount() { return allowed.get(); }
+    public long getRejectedCount() { return rejected.get(); }
+    public long getEvictionCount() { return evictions.get(); }
+
+    /**
+     * 找到或占用键的槽位，返回状态在table中的下标
+     */
+    private int slotFor(long fingerprint, long window) {
+        int base = (int) (fingerprint & mask);
+        while (true) {
+            int victim = -1;
+            long victimFingerprint = EMPTY;
+            long victimState = 0;
+            long victimWindow = Long.MAX_VALUE;
+            for (int probe = 0; probe < PROBE_LENGTH; probe++) {
+                int slot = (base + probe) & mask;
+                long slotFingerprint = table.get(slot * 2);
+                if (slotFingerprint == fingerprint) {
+                    return slot * 2 + 1;
+                }
+                if (slotFingerprint == EMPTY) {
+                    // 空槽位的状态为0，按窗口推进时自然视为零计数
+                    if (table.compareAndSet(slot * 2, EMPTY, fingerprint)) {
+                        return slot * 2 + 1;
+                    }
+                    // 被其他键抢占，重新扫描
+                    victim = -2;
+                    break;
+                }
+                long slotState = table.get(slot * 2 + 1);
+                if ((slotState >>> 32) < victimWindow) {
+                    victimWindow = slotState >>> 32;
+                    victimFingerprint = slotFingerprint;
+                    victimState = slotState;
+                    victim = slot;
+                }
+            }
+            if (victim >= 0 && table.compareAndSet(victim * 2, victimFingerprint, fingerprint)) {
+                // 组已满：淘汰窗口最旧的槽位（通常已完全过期，计数不再影响判断）；
+                // 只在状态未被并发更新时清零，避免覆盖新键已记入的计数
+                table.compareAndSet(victim * 2 + 1, victimState, pack(window, 0, 0));
+                evictions.incrementAndGet();
+                return victim * 2 + 1;
+            }
+        }
+    }
+
+    /**
+     * 把槽位状态推进到指定窗口：跨过一个窗口时当前计数变为上一窗口计数，跨过多个窗口时清零
+     */
+    private static long stateForWindow(long state, long window) {
+        long stateWindow = state >>> 32;
+        long truncated = window & 0xFFFFFFFFL;
+        if (stateWindow == truncated) {
+            return state;
+        }
+        if (stateWindow == ((truncated - 1) & 0xFFFFFFFFL)) {
+            return pack(window, 0, (int) ((state >>> 16) & MAX_COUNT));
+        }
+        return pack(window, 0, 0);
+    }
+
+    private static long pack(long window, int currentCount, int previousCount) {
+        return ((window & 0xFFFFFFFFL) << 32) | ((long) currentCount << 16) | previousCount;
+    }
+
+    /**
+     * 64位FNV-1a哈希加SplitMix64混淆，0保留给空槽位
+     */
+    public static long fingerprint(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= (b & 0xFF);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 30;
+        hash *= 0xbf58476d1ce4e5b9L;
+        hash ^= hash >>> 27;
+        hash *= 0x94d049bb133111ebL;
+        hash ^= hash >>> 31;
+        return hash == EMPTY ? 1L : hash;
+    }
+}
@@ -0,0 +1,54 @@
+package com.security.monitor.controller;
+
+import com.security.monitor.service.OperationalStatusSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DashboardControllerTest {
+
+    @Test
+    void operationalStatusAggregatesAllSourcesByName() {
+        DashboardController controller = controller(source("spam-pipeline", Map.of("threshold", 5.0)),
+                source("audit-log-sink", Map.of("queueDepth", 3)));
+
+        Map<String, Object> status = controller.getOperationalStatus().getBody();
+        assertEquals(List.of("audit-log-sink", "spam-pipeline"), List.copyOf(status.keySet()));
+        assertEquals(Map.of("queueDepth", 3), status.get("audit-log-sink"));
+    }
+
+    @Test
+    void singleStatusIsLookedUpByName() {
+        DashboardController controller = controller(source("geo-cache", Map.of("hits", 10L)));
+
+        assertEquals(Map.of("hits", 10L), controller.getOperationalStatusItem("geo-cache").getBody());
+        ResponseEntity<Object> missing = controller.getOperationalStatusItem("unknown");
+        assertEquals(HttpStatus.NOT_FOUND, missing.getStatusCode());
+    }
+
+    private static DashboardController controller(OperationalStatusSource... sources) {
+        DashboardController controller = new DashboardController();
+        ReflectionTestUtils.setField(controller, "statusSources", List.of(sources));
+        return controller;
+    }
+
+    private static OperationalStatusSource source(String name, Object status) {
+        return new OperationalStatusSource() {
+            @Override
+            public String getStatusName() {
+                return name;
+            }
+
+            @Override
+            public Object getStatus() {
+                return status;
+            }
+        };
+    }
+}
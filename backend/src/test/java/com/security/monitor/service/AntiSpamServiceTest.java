@@ -0,0 +1,105 @@
+package com.security.monitor.service;
+
+import com.security.monitor.model.EmailAttachment;
+import com.security.monitor.model.EmailMessage;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AntiSpamServiceTest {
+
+    private final AntiSpamService service = new AntiSpamService();
+
+    @Test
+    void repetitiveContentIgnoresCaseAndShortWords() {
+        String filler = "lorem ipsum dolor sit amet consectetur adipiscing elit sed do eiusmod tempor ";
+        assertFalse(hasRepetitiveContent(filler + "FREE free Free ".repeat(3) + "free"));
+        assertTrue(hasRepetitiveContent(filler + "FREE free Free ".repeat(3) + "free\tfree"));
+        // 长度不超过3的单词不计
+        assertFalse(hasRepetitiveContent(filler + "win ".repeat(50)));
+        // 短正文不检查
+        assertFalse(hasRepetitiveContent("spam ".repeat(19)));
+    }
+
+    @Test
+    void repetitiveContentMatchesWordCountReference() {
+        Random random = new Random(42);
+        String[] separators = {" ", "  ", "\t", "\n", "\r\n", "\f", "\u000B"};
+        for (int round = 0; round < 2000; round++) {
+            List<String> vocabulary = new ArrayList<>();
+            int vocabularySize = 5 + random.nextInt(300);
+            for (int i = 0; i < vocabularySize; i++) {
+                vocabulary.add(randomWord(random));
+            }
+            StringBuilder content = new StringBuilder();
+            int words = 20 + random.nextInt(800);
+            for (int i = 0; i < words; i++) {
+                content.append(vocabulary.get(random.nextInt(vocabularySize)));
+                content.append(separators[random.nextInt(separators.length)]);
+            }
+            String text = content.toString();
+            assertEquals(referenceHasRepetitiveContent(text), hasRepetitiveContent(text), text);
+        }
+    }
+
+    @Test
+    void attachmentBoundCoversEveryAttachmentScore() {
+        EmailMessage message = new EmailMessage();
+        assertEquals(0.0, maxAttachmentScore(message));
+
+        List<EmailAttachment> attachments = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            attachments.add(new EmailAttachment(message, "file" + i + ".exe"));
+        }
+        message.setAttachments(attachments);
+        assertEquals(15.0, maxAttachmentScore(message));
+
+        attachments.add(new EmailAttachment(message, "file5.scr"));
+        assertEquals(19.0, maxAttachmentScore(message));
+        double actual = ReflectionTestUtils.invokeMethod(service, "checkAttachments", message);
+        assertEquals(maxAttachmentScore(message), actual);
+    }
+
+    private boolean hasRepetitiveContent(String content) {
+        Boolean result = ReflectionTestUtils.invokeMethod(service, "hasRepetitiveContent", content);
+        return result;
+    }
+
+    private static double maxAttachmentScore(EmailMessage message) {
+        Double result = ReflectionTestUtils.invokeMethod(AntiSpamService.class, "maxAttachmentScore", message);
+        return result;
+    }
+
+    private static String randomWord(Random random) {
+        StringBuilder word = new StringBuilder();
+        int length = 1 + random.nextInt(8);
+        for (int i = 0; i < length; i++) {
+            char c = (char) ('a' + random.nextInt(6));
+            word.append(random.nextBoolean() ? Character.toUpperCase(c) : c);
+        }
+        return word.toString();
+    }
+
+    /**
+     * 原实现：按空白拆分后用单词表计数
+     */
+    private static boolean referenceHasRepetitiveContent(String content) {
+        if (content.length() < 100) return false;
+        Map<String, Integer> wordCount = new HashMap<>();
+        for (String word : content.split("\\s+")) {
+            if (word.length() > 3) {
+                wordCount.merge(word.toLowerCase(), 1, Integer::sum);
+            }
+        }
+        return wordCount.values().stream().anyMatch(count -> count > 10);
+    }
+}
@@ -0,0 +1,93 @@
+package com.security.monitor.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.BatchUpdateException;
+import java.sql.Statement;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AuditLogSinkTest {
+
+    private static final String SQL = "INSERT INTO audit (id, value) VALUES (?, ?)";
+
+    private JdbcTemplate jdbcTemplate;
+    private AuditLogSink sink;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        sink = new AuditLogSink();
+        ReflectionTestUtils.setField(sink, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(sink, "queueCapacity", 100);
+        // 三条日志凑满一批后立即写入
+        ReflectionTestUtils.setField(sink, "flushSize", 3);
+        ReflectionTestUtils.setField(sink, "flushLatencyMs", 1000L);
+        ReflectionTestUtils.setField(sink, "sampleWatermark", 0.8);
+        ReflectionTestUtils.setField(sink, "sampleEvery", 10);
+        ReflectionTestUtils.setField(sink, "shutdownTimeoutMs", 5000L);
+    }
+
+    @Test
+    void onlyRowsThatFailAgainAreCountedAsFailed() {
+        Object[] first = {1L, "a"};
+        Object[] second = {2L, "b"};
+        Object[] third = {3L, "c"};
+        // 驱动执行完第一行、第二行失败后中止，第三行未执行
+        when(jdbcTemplate.batchUpdate(eq(SQL), anyList())).thenThrow(new DataIntegrityViolationException(
+                "duplicate", new BatchUpdateException(new int[] {1, Statement.EXECUTE_FAILED})));
+        doThrow(new DataIntegrityViolationException("duplicate")).when(jdbcTemplate).update(SQL, second);
+
+        sink.start();
+        sink.submit(SQL, first, false);
+        sink.submit(SQL, second, false);
+        sink.submit(SQL, third, false);
+        sink.shutdown();
+
+        verify(jdbcTemplate, never()).update(SQL, first);
+        verify(jdbcTemplate).update(SQL, second);
+        verify(jdbcTemplate).update(SQL, third);
+        Map<String, Object> status = sink.getStatus();
+        assertEquals(2L, status.get("writtenRecords"));
+        assertEquals(1L, status.get("failedRecords"));
+    }
+
+    @Test
+    void connectionFailureFailsTheWholeGroupWithoutRetry() {
+        when(jdbcTemplate.batchUpdate(eq(SQL), anyList()))
+                .thenThrow(new DataAccessResourceFailureException("connection refused"));
+
+        sink.start();
+        sink.submit(SQL, new Object[] {1L, "a"}, false);
+        sink.submit(SQL, new Object[] {2L, "b"}, false);
+        sink.submit(SQL, new Object[] {3L, "c"}, false);
+        sink.shutdown();
+
+        Map<String, Object> status = sink.getStatus();
+        assertEquals(0L, status.get("writtenRecords"));
+        assertEquals(3L, status.get("failedRecords"));
+    }
+
+    @Test
+    void truncateKeepsColumnLengthAndSurrogatePairs() {
+        assertNull(AuditLogSink.truncate(null, 10));
+        assertEquals("abc", AuditLogSink.truncate("abc", 10));
+        assertEquals("abcde", AuditLogSink.truncate("abcdefgh", 5));
+        // 第5个字符是代理对的高位，截断时整个字符去掉
+        assertEquals("abcd", AuditLogSink.truncate("abcd😀xyz", 5));
+    }
+}
@@ -0,0 +1,208 @@
+package com.security.monitor.service;
+
+import com.security.monitor.model.EmailMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BayesSpamClassifierTest {
+
+    private static final String[] SPAM_BODIES = {
+        "cheap pills online buy viagra now limited offer",
+        "buy cheap replica watches discount offer now",
+        "win money now claim your prize casino bonus",
+        "cheap loans fast approval money offer now",
+        "casino bonus free spins win money today",
+    };
+    private static final String[] HAM_BODIES = {
+        "meeting notes for the quarterly planning review",
+        "please review the attached design document before friday",
+        "lunch tomorrow with the team to discuss the roadmap",
+        "the build is green again after the dependency update",
+        "agenda for the planning meeting and review notes",
+    };
+
+    @TempDir
+    Path storage;
+
+    private final List<BayesSpamClassifier> classifiers = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        classifiers.forEach(BayesSpamClassifier::shutdown);
+    }
+
+    @Test
+    void tokenizerLowercasesDeduplicatesAndSeedsFields() {
+        long[] tokens = tokenize(message(0, "Free FREE free", null, null));
+        assertEquals(1, tokens.length);
+
+        // 单个字符的词忽略，中日韩文字按相邻两字切分
+        assertEquals(0, tokenize(message(0, "a b c", null, null)).length);
+        assertEquals(3, tokenize(message(0, "免费发票", null, null)).length);
+
+        // 同一个词出现在不同字段时是不同的特征
+        long[] subject = tokenize(message(0, "invoice", null, null));
+        long[] body = tokenize(message(0, null, "invoice", null));
+        assertEquals(1, subject.length);
+        assertEquals(1, body.length);
+        assertNotEquals(subject[0], body[0]);
+
+        // 词序不影响结果
+        assertArrayEquals(tokenize(message(0, null, "alpha beta gamma", null)),
+                tokenize(message(0, null, "gamma alpha beta", null)));
+    }
+
+    @Test
+    void learnedModelSeparatesSpamFromHam() {
+        BayesSpamClassifier classifier = classifier();
+        assertEquals(-1.0, classifier.classify(message(0, null, SPAM_BODIES[0], null)));
+        train(classifier, 1);
+
+        assertTrue(classifier.classify(message(0, null, "cheap offer buy now win money", null)) > 0.9);
+        assertTrue(classifier.classify(message(0, null, "planning review meeting notes", null)) < 0.1);
+        assertTrue(classifier.score(message(0, null, "casino bonus cheap offer", null)) > 0);
+        assertTrue(classifier.score(message(0, null, "design review for the roadmap", null)) < 0);
+    }
+
+    @Test
+    void relabelingUnlearnsThePreviousLabel() {
+        BayesSpamClassifier classifier = classifier();
+        EmailMessage message = message(42, null, SPAM_BODIES[0], null);
+
+        classifier.learn(message, true);
+        classifier.learn(message, true);
+        assertEquals(1L, field(classifier, "spamMessages"));
+
+        classifier.learn(message, false);
+        assertEquals(0L, field(classifier, "spamMessages"));
+        assertEquals(1L, field(classifier, "hamMessages"));
+
+        // 改标在重启后依然有效
+        BayesSpamClassifier restarted = classifier();
+        assertEquals(0L, field(restarted, "spamMessages"));
+        assertEquals(1L, field(restarted, "hamMessages"));
+        restarted.learn(message, false);
+        assertEquals(1L, field(restarted, "hamMessages"));
+    }
+
+    @Test
+    void snapshotAndDeltaLogRestoreModelAndDropTornRecord() throws IOException {
+        BayesSpamClassifier classifier = classifier();
+        train(classifier, 1);
+        classifier.snapshot();
+        assertEquals(0L, Files.size(storage.resolve("bayes.delta")));
+
+        // 快照之后的学习只在增量日志中
+        classifier.learn(message(100, null, SPAM_BODIES[1], null), true);
+        classifier.learn(message(101, null, HAM_BODIES[1], null), false);
+        // 模拟写入记录时进程退出：末尾只有半条记录
+        Files.write(storage.resolve("bayes.delta"), new byte[] {0, 0, 0, 0, 0, 0, 0, 9, 1, 2},
+                StandardOpenOption.APPEND);
+
+        BayesSpamClassifier restarted = classifier();
+        assertEquals(field(classifier, "spamMessages"), field(restarted, "spamMessages"));
+        assertEquals(field(classifier, "hamMessages"), field(restarted, "hamMessages"));
+        EmailMessage probe = message(0, null, "cheap offer now and the planning review", null);
+        assertEquals(classifier.classify(probe), restarted.classify(probe), 1e-12);
+
+        // 不完整的记录已截掉，之后追加的记录可以正常重放
+        restarted.learn(message(102, null, SPAM_BODIES[2], null), true);
+        BayesSpamClassifier again = classifier();
+        assertEquals(field(restarted, "spamMessages"), field(again, "spamMessages"));
+        assertEquals(7L, field(again, "spamMessages"));
+    }
+
+    @Test
+    void recordsAlreadyInSnapshotAreNotReplayedTwice() throws IOException {
+        BayesSpamClassifier classifier = classifier();
+        train(classifier, 1);
+        Path log = storage.resolve("bayes.delta");
+        byte[] logBeforeSnapshot = Files.readAllBytes(log);
+
+        // 写完快照后、清空日志前退出：日志中的记录都已包含在快照里
+        classifier.snapshot();
+        Files.write(log, logBeforeSnapshot);
+
+        BayesSpamClassifier restarted = classifier();
+        assertEquals(5L, field(restarted, "spamMessages"));
+        assertEquals(5L, field(restarted, "hamMessages"));
+    }
+
+    @Test
+    void corruptSnapshotIsMovedAsideAndDeltaLogStillReplayed() throws IOException {
+        Files.write(storage.resolve("bayes.snapshot"), new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        BayesSpamClassifier classifier = classifier();
+        train(classifier, 1);
+
+        BayesSpamClassifier restarted = classifier();
+        assertEquals(5L, field(restarted, "spamMessages"));
+        assertEquals(5L, field(restarted, "hamMessages"));
+        try (Stream<Path> files = Files.list(storage)) {
+            assertTrue(files.anyMatch(file -> file.getFileName().toString().startsWith("bayes.snapshot.corrupt-")));
+        }
+
+        // 之后的快照可以正常写入和加载
+        restarted.snapshot();
+        BayesSpamClassifier fromSnapshot = classifier();
+        assertEquals(5L, field(fromSnapshot, "spamMessages"));
+    }
+
+    private BayesSpamClassifier classifier() {
+        BayesSpamClassifier classifier = new BayesSpamClassifier();
+        ReflectionTestUtils.setField(classifier, "enabled", true);
+        ReflectionTestUtils.setField(classifier, "storagePath", storage.toString());
+        ReflectionTestUtils.setField(classifier, "initialCapacity", 64);
+        ReflectionTestUtils.setField(classifier, "maxCapacity", 1 << 16);
+        ReflectionTestUtils.setField(classifier, "maxTrackedMessages", 1000);
+        ReflectionTestUtils.setField(classifier, "minTraining", 3);
+        ReflectionTestUtils.setField(classifier, "weight", 3.0);
+        classifier.init();
+        classifiers.add(classifier);
+        return classifier;
+    }
+
+    private static void train(BayesSpamClassifier classifier, long firstId) {
+        for (int i = 0; i < SPAM_BODIES.length; i++) {
+            classifier.learn(message(firstId + i, null, SPAM_BODIES[i], null), true);
+        }
+        for (int i = 0; i < HAM_BODIES.length; i++) {
+            classifier.learn(message(firstId + SPAM_BODIES.length + i, null, HAM_BODIES[i], null), false);
+        }
+    }
+
+    private static EmailMessage message(long id, String subject, String body, String from) {
+        EmailMessage message = new EmailMessage();
+        message.setId(id == 0 ? null : id);
+        message.setSubject(subject);
+        message.setBodyText(body);
+        message.setFromAddress(from);
+        return message;
+    }
+
+    private static long[] tokenize(EmailMessage message) {
+        long[] buffer = new long[2048];
+        Integer count = ReflectionTestUtils.invokeMethod(BayesSpamClassifier.class, "tokenize", message, buffer);
+        long[] tokens = Arrays.copyOf(buffer, count);
+        return tokens;
+    }
+
+    private static long field(BayesSpamClassifier classifier, String name) {
+        return (Long) ReflectionTestUtils.getField(classifier, name);
+    }
+}
@@ -0,0 +1,241 @@
+package com.security.monitor.service;
+
+import com.security.monitor.util.RateLimiter;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 集群安全状态集成测试：两个服务实例模拟两个节点，连接同一个本地Redis
+ */
+class ClusterSecurityStateServiceIntegrationTest {
+
+    private static RedisServer redisServer;
+    private static int redisPort;
+
+    private final List<LettuceConnectionFactory> connectionFactories = new ArrayList<>();
+    private final List<ClusterSecurityStateService> services = new ArrayList<>();
+    private String keyPrefix;
+    private StringRedisTemplate redis;
+
+    @BeforeAll
+    static void startRedis() throws IOException {
+        redisPort = freePort();
+        redisServer = new RedisServer(redisPort);
+        redisServer.start();
+    }
+
+    @AfterAll
+    static void stopRedis() throws IOException {
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        keyPrefix = "test:" + UUID.randomUUID() + ":";
+        redis = template(redisPort);
+    }
+
+    @AfterEach
+    void tearDown() {
+        services.forEach(ClusterSecurityStateService::shutdown);
+        connectionFactories.forEach(LettuceConnectionFactory::destroy);
+    }
+
+    @Test
+    void countersAccumulateLocallyAndSyncAcrossNodes() {
+        ClusterSecurityStateService nodeA = node(redisPort);
+        ClusterSecurityStateService nodeB = node(redisPort);
+
+        // 第一次同步之前调用方使用本地计数
+        assertEquals(-1, nodeA.incrementCounter("suspicious", "10.0.0.1", 60000));
+        nodeA.incrementCounter("suspicious", "10.0.0.1", 60000);
+        nodeA.incrementCounter("suspicious", "10.0.0.1", 60000);
+        assertEquals(null, redis.opsForValue().get(counterKey("10.0.0.1")));
+
+        nodeA.flushRateLimiters();
+        assertEquals("3", redis.opsForValue().get(counterKey("10.0.0.1")));
+        Long ttl = redis.getExpire(counterKey("10.0.0.1"), TimeUnit.MILLISECONDS);
+        assertTrue(ttl != null && ttl > 0 && ttl <= 60000, "计数键应带过期时间: " + ttl);
+
+        nodeB.incrementCounter("suspicious", "10.0.0.1", 60000);
+        nodeB.flushRateLimiters();
+        assertEquals("4", redis.opsForValue().get(counterKey("10.0.0.1")));
+
+        // 已同步的节点返回上次同步得到的全局计数加本地未同步增量，最多落后一个同步周期
+        assertEquals(4, nodeA.incrementCounter("suspicious", "10.0.0.1", 60000));
+        nodeA.flushRateLimiters();
+        assertEquals(5, nodeB.incrementCounter("suspicious", "10.0.0.1", 60000));
+        nodeB.flushRateLimiters();
+        assertEquals(7, nodeB.incrementCounter("suspicious", "10.0.0.1", 60000));
+    }
+
+    @Test
+    void deleteCounterRemovesSharedAndNearState() {
+        ClusterSecurityStateService node = node(redisPort);
+        node.incrementCounter("suspicious", "10.0.0.2", 60000);
+        node.flushRateLimiters();
+        assertEquals("1", redis.opsForValue().get(counterKey("10.0.0.2")));
+
+        node.deleteCounter("suspicious", "10.0.0.2");
+        assertFalse(Boolean.TRUE.equals(redis.hasKey(counterKey("10.0.0.2"))));
+        assertEquals(-1, node.incrementCounter("suspicious", "10.0.0.2", 60000));
+    }
+
+    @Test
+    void failedCounterSyncKeepsDeltasAndOpensBreaker() {
+        ClusterSecurityStateService node = node(freePort());
+        node.incrementCounter("suspicious", "10.0.0.3", 60000);
+        node.incrementCounter("suspicious", "10.0.0.3", 60000);
+
+        node.flushRateLimiters();
+        assertEquals(1, node.getBreakerTripCount());
+        assertTrue(node.isBreakerOpen());
+        // 断路期间不访问Redis，调用方使用本地计数
+        assertEquals(-1, node.incrementCounter("suspicious", "10.0.0.3", 60000));
+
+        // Redis恢复：失败批次的增量没有丢失
+        ReflectionTestUtils.setField(node, "redisTemplate", redis);
+        ReflectionTestUtils.setField(node, "breakerOpenUntil", 0L);
+        node.flushRateLimiters();
+        assertEquals("3", redis.opsForValue().get(counterKey("10.0.0.3")));
+    }
+
+    @Test
+    void rateLimitIsSharedBetweenNodes() {
+        ClusterSecurityStateService nodeA = node(redisPort);
+        ClusterSecurityStateService nodeB = node(redisPort);
+        long windowMillis = TimeUnit.HOURS.toMillis(1);
+        RateLimiter limiterA = nodeA.newRateLimiter("login", 10, windowMillis, 1000);
+        RateLimiter limiterB = nodeB.newRateLimiter("login", 10, windowMillis, 1000);
+
+        int allowed = 0;
+        for (int i = 0; i < 6; i++) {
+            allowed += limiterA.tryAcquire("10.0.0.4") ? 1 : 0;
+        }
+        nodeA.flushRateLimiters();
+        for (int i = 0; i < 10; i++) {
+            allowed += limiterB.tryAcquire("10.0.0.4") ? 1 : 0;
+        }
+        nodeB.flushRateLimiters();
+        for (int i = 0; i < 5; i++) {
+            allowed += limiterA.tryAcquire("10.0.0.4") ? 1 : 0;
+        }
+        assertEquals(10, allowed);
+        assertFalse(limiterB.tryAcquire("10.0.0.4"));
+        // 其他键不受影响
+        assertTrue(limiterA.tryAcquire("10.0.0.5"));
+    }
+
+    @Test
+    void rateLimiterFallsBackToLocalLimitWhenRedisIsDown() {
+        ClusterSecurityStateService node = node(freePort());
+        RateLimiter limiter = node.newRateLimiter("login", 3, TimeUnit.HOURS.toMillis(1), 1000);
+
+        int allowed = 0;
+        for (int i = 0; i < 5; i++) {
+            allowed += limiter.tryAcquire("10.0.0.6") ? 1 : 0;
+        }
+        assertEquals(3, allowed);
+        assertEquals(1, node.getBreakerTripCount());
+    }
+
+    @Test
+    void blocklistChangesPropagateToOtherNodes() throws InterruptedException {
+        ClusterSecurityStateService nodeA = node(redisPort);
+        ClusterSecurityStateService nodeB = node(redisPort);
+        List<String> blockedOnA = new CopyOnWriteArrayList<>();
+        List<String> blockedOnB = new CopyOnWriteArrayList<>();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblocked = new CountDownLatch(1);
+        nodeA.addBlocklistListener(blockedOnA::add, ip -> { });
+        nodeB.addBlocklistListener(ip -> {
+            blockedOnB.add(ip);
+            blocked.countDown();
+        }, ip -> unblocked.countDown());
+
+        // 订阅在后台建立，消息发布时可能尚未就绪，未收到时重发
+        assertTrue(awaitPublished(() -> nodeA.publishBlock("10.0.0.7"), blocked), "节点B应收到黑名单变更");
+        assertTrue(blockedOnB.contains("10.0.0.7"));
+        assertTrue(blockedOnA.isEmpty(), "本节点发出的变更不应回送");
+        assertTrue(nodeB.loadBlocklist().contains("10.0.0.7"));
+
+        assertTrue(awaitPublished(() -> nodeA.publishUnblock("10.0.0.7"), unblocked), "节点B应收到解除拉黑");
+        assertFalse(nodeB.loadBlocklist().contains("10.0.0.7"));
+    }
+
+    private static boolean awaitPublished(Runnable publish, CountDownLatch received) throws InterruptedException {
+        for (int attempt = 0; attempt < 10; attempt++) {
+            publish.run();
+            if (received.await(500, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ClusterSecurityStateService node(int port) {
+        LettuceConnectionFactory connectionFactory = connectionFactory(port);
+        StringRedisTemplate template = new StringRedisTemplate(connectionFactory);
+        ClusterSecurityStateService service = new ClusterSecurityStateService();
+        ReflectionTestUtils.setField(service, "redisTemplate", template);
+        ReflectionTestUtils.setField(service, "redisConnectionFactory", connectionFactory);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "keyPrefix", keyPrefix);
+        ReflectionTestUtils.setField(service, "syncThroughRatio", 0.5);
+        ReflectionTestUtils.setField(service, "breakerOpenMillis", 60000L);
+        ReflectionTestUtils.setField(service, "counterMaxKeys", 1000);
+        if (port == redisPort) {
+            // 订阅只在Redis可用的节点上启动
+            service.start();
+        }
+        services.add(service);
+        return service;
+    }
+
+    private StringRedisTemplate template(int port) {
+        return new StringRedisTemplate(connectionFactory(port));
+    }
+
+    private LettuceConnectionFactory connectionFactory(int port) {
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration("localhost", port));
+        connectionFactory.afterPropertiesSet();
+        connectionFactories.add(connectionFactory);
+        return connectionFactory;
+    }
+
+    private String counterKey(String ip) {
+        return keyPrefix + "counter:suspicious:" + ip;
+    }
+
+    private static int freePort() {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
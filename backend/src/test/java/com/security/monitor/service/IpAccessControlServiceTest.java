@@ -0,0 +1,120 @@
+package com.security.monitor.service;
+
+import com.security.monitor.model.AccessControlLog;
+import com.security.monitor.model.IpWhitelist;
+import com.security.monitor.repository.IpWhitelistRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class IpAccessControlServiceTest {
+
+    private IpWhitelistRepository repository;
+    private IpAccessControlService service;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(IpWhitelistRepository.class);
+        service = new IpAccessControlService();
+        ReflectionTestUtils.setField(service, "whitelistRepository", repository);
+        ReflectionTestUtils.setField(service, "writeBuffer", mock(AccessControlWriteBuffer.class));
+        ReflectionTestUtils.setField(service, "accessControlEnabled", true);
+        ReflectionTestUtils.setField(service, "defaultAllow", false);
+        ReflectionTestUtils.setField(service, "logAllAccess", false);
+    }
+
+    @Test
+    void serviceEntryWinsOverAllEntryAtEqualPriority() {
+        whitelist(IpWhitelist.WhitelistType.LOGIN, entry(1L, "10.0.0.0/8", 0));
+        whitelist(IpWhitelist.WhitelistType.ALL, entry(2L, "10.0.0.0/8", 0));
+        service.rebuildWhitelistIndex();
+
+        assertMatched(1L, "10.1.2.3", IpWhitelist.WhitelistType.LOGIN);
+        // 其他服务类型只看到全部服务类型的条目
+        assertMatched(2L, "10.1.2.3", IpWhitelist.WhitelistType.SMTP);
+        assertMatched(2L, "10.1.2.3", IpWhitelist.WhitelistType.ALL);
+    }
+
+    @Test
+    void allEntryWithHigherPriorityWinsOverServiceEntry() {
+        whitelist(IpWhitelist.WhitelistType.LOGIN, entry(1L, "10.1.0.0/16", 5));
+        whitelist(IpWhitelist.WhitelistType.ALL, entry(2L, "10.0.0.0/8", 1));
+        service.rebuildWhitelistIndex();
+
+        assertMatched(2L, "10.1.2.3", IpWhitelist.WhitelistType.LOGIN);
+    }
+
+    @Test
+    void serviceEntryWithHigherPriorityWinsOverAllEntry() {
+        whitelist(IpWhitelist.WhitelistType.IMAP, entry(1L, "2001:db8::/32", 1));
+        whitelist(IpWhitelist.WhitelistType.ALL, entry(2L, "::/0", 5));
+        service.rebuildWhitelistIndex();
+
+        assertMatched(1L, "2001:db8::1", IpWhitelist.WhitelistType.IMAP);
+        assertMatched(2L, "2001:db9::1", IpWhitelist.WhitelistType.IMAP);
+        assertMatched(2L, "2001:db8::1", IpWhitelist.WhitelistType.POP3);
+    }
+
+    @Test
+    void expiredMatchDeniesEvenWhenAnotherEntryCovers() {
+        IpWhitelist expired = entry(1L, "10.0.0.0/8", 0);
+        expired.setExpiresAt(LocalDateTime.now().minusDays(1));
+        whitelist(IpWhitelist.WhitelistType.LOGIN, expired);
+        whitelist(IpWhitelist.WhitelistType.ALL, entry(2L, "10.0.0.0/8", 0));
+        service.rebuildWhitelistIndex();
+
+        IpAccessControlService.AccessCheckResult result = check("10.1.2.3", IpWhitelist.WhitelistType.LOGIN);
+        assertEquals(AccessControlLog.AccessResult.DENIED, result.getAccessResult());
+        assertNull(result.getMatchedWhitelistId());
+    }
+
+    @Test
+    void invalidEntriesAreSkippedAndUnmatchedAddressesUseDefaultPolicy() {
+        whitelist(IpWhitelist.WhitelistType.LOGIN, entry(1L, "10.0.0.300/8", 0), entry(2L, "192.168.1.10-192.168.1.20", 0));
+        service.rebuildWhitelistIndex();
+
+        assertMatched(2L, "192.168.1.15", IpWhitelist.WhitelistType.LOGIN);
+        assertEquals(AccessControlLog.AccessResult.DENIED,
+                check("10.1.2.3", IpWhitelist.WhitelistType.LOGIN).getAccessResult());
+        assertEquals(AccessControlLog.AccessResult.ERROR,
+                check("10.1.2", IpWhitelist.WhitelistType.LOGIN).getAccessResult());
+
+        ReflectionTestUtils.setField(service, "defaultAllow", true);
+        assertEquals(AccessControlLog.AccessResult.ALLOWED,
+                check("10.1.2.3", IpWhitelist.WhitelistType.LOGIN).getAccessResult());
+    }
+
+    private void assertMatched(long whitelistId, String ipAddress, IpWhitelist.WhitelistType type) {
+        assertEquals(Long.valueOf(whitelistId), check(ipAddress, type).getMatchedWhitelistId(), ipAddress + " " + type);
+    }
+
+    private IpAccessControlService.AccessCheckResult check(String ipAddress, IpWhitelist.WhitelistType type) {
+        return service.checkAccess(ipAddress, type, "alice", "test");
+    }
+
+    private void whitelist(IpWhitelist.WhitelistType type, IpWhitelist... entries) {
+        when(repository.findByWhitelistTypeAndIsActiveOrderByPriority(type, true)).thenReturn(List.of(entries));
+    }
+
+    private static IpWhitelist entry(Long id, String address, int priority) {
+        IpWhitelist whitelist = new IpWhitelist();
+        whitelist.setId(id);
+        if (address.contains("/")) {
+            whitelist.setCidrRange(address);
+            whitelist.setIpAddress(address.substring(0, address.indexOf('/')));
+        } else {
+            whitelist.setIpAddress(address);
+        }
+        whitelist.setPriority(priority);
+        whitelist.setDescription("entry-" + id);
+        return whitelist;
+    }
+}
@@ -0,0 +1,193 @@
+package com.security.monitor.service;
+
+import com.security.monitor.model.EmailMessage;
+import com.security.monitor.model.SpamFilterRule;
+import com.security.monitor.repository.SpamFilterRuleRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SpamRuleEngineTest {
+
+    private SpamFilterRuleRepository repository;
+    private SpamRuleEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(SpamFilterRuleRepository.class);
+        engine = new SpamRuleEngine();
+        ReflectionTestUtils.setField(engine, "ruleRepository", repository);
+    }
+
+    @Test
+    void appliesEachOperator() {
+        load(rule("subject", "contains", "Lottery", 1.0),
+            rule("subject", "not_contains", "invoice", 2.0),
+            rule("from", "equals", "Winner@Example.com", 4.0),
+            rule("body", "regex", "click\\s+here", 8.0));
+
+        assertEquals(15.0, engine.evaluate(message("Your LOTTERY prize", "winner@example.COM", "CLICK   HERE now")));
+        assertEquals(0.0, engine.evaluate(message("invoice attached", "billing@example.com", "click")));
+        // equals要求整个字段相同
+        assertEquals(2.0, engine.evaluate(message("hello", "winner@example.com.cn", null)));
+        assertEquals(15.0, engine.getMaxScore());
+        assertEquals(4, engine.getRuleCount());
+    }
+
+    @Test
+    void emptyKeywordAlwaysContainedAndNeverNotContained() {
+        load(rule("subject", "contains", "", 1.0), rule("subject", "not_contains", "", 2.0),
+            rule("subject", "equals", "", 4.0));
+
+        assertEquals(5.0, engine.evaluate(message(null, null, null)));
+        assertEquals(1.0, engine.evaluate(message("anything", null, null)));
+        assertEquals(3, engine.getRuleCount());
+    }
+
+    @Test
+    void foldsCaseOnChineseAndMixedText() {
+        load(rule("subject", "contains", "免费VIAGRA", 1.0),
+            rule("subject", "not_contains", "退订", 2.0),
+            rule("body", "contains", "ПРИЗ", 4.0),
+            rule("subject", "equals", "恭喜中奖 WINNER", 8.0));
+
+        assertEquals(7.0, engine.evaluate(message("限时免费Viagra", null, "ваш приз")));
+        assertEquals(10.0, engine.evaluate(message("恭喜中奖 winner", null, "")));
+        assertEquals(0.0, engine.evaluate(message("免费 viagra 退订", null, "при з")));
+    }
+
+    @Test
+    void overlappingKeywordsEachScoreOnce() {
+        load(rule("body", "contains", "he", 1.0), rule("body", "contains", "she", 2.0),
+            rule("body", "contains", "hers", 4.0), rule("body", "contains", "HE", 8.0),
+            rule("body", "not_contains", "ushers", 16.0));
+
+        assertEquals(15.0, engine.evaluate(message(null, null, "ushers he he he")));
+        assertEquals(25.0, engine.evaluate(message(null, null, "hehe")));
+    }
+
+    @Test
+    void skipsInvalidAndUnknownRules() {
+        load(rule("subject", "regex", "([unclosed", 1.0),
+            rule("subject", "fuzzy", "spam", 2.0),
+            new SpamFilterRule("incomplete", "subject", "contains", null, 4.0),
+            rule("Subject", "CONTAINS", "spam", 8.0),
+            rule("x-mailer", "not_contains", "spam", 16.0),
+            rule("x-mailer", "contains", "spam", 32.0));
+
+        assertEquals(24.0, engine.evaluate(message("SPAM", null, null)));
+        assertEquals(3, engine.getRuleCount());
+    }
+
+    @Test
+    void matchesLegacyPerRuleEvaluation() {
+        Random random = new Random(5);
+        char[] alphabet = {'a', 'b', 'A', 'B', '中', '奖', 'Ж', 'ж', ' '};
+        String[] fields = {"subject", "from", "to", "body", "body_html", "unknown"};
+        String[] operators = {"contains", "not_contains", "equals", "regex"};
+        String[] regexes = {"a+b", "^中", "ж$", "[ab]{2}", "\\s"};
+        for (int round = 0; round < 300; round++) {
+            List<SpamFilterRule> rules = new ArrayList<>();
+            for (int i = 0, n = 1 + random.nextInt(12); i < n; i++) {
+                String operator = operators[random.nextInt(operators.length)];
+                String pattern = operator.equals("regex")
+                    ? regexes[random.nextInt(regexes.length)]
+                    : randomText(random, alphabet, random.nextInt(4));
+                rules.add(rule(fields[random.nextInt(fields.length)], operator, pattern, random.nextInt(9) - 4.0));
+            }
+            load(rules.toArray(new SpamFilterRule[0]));
+            for (int m = 0; m < 5; m++) {
+                EmailMessage message = message(randomText(random, alphabet, random.nextInt(12)),
+                    random.nextBoolean() ? null : randomText(random, alphabet, random.nextInt(6)),
+                    randomText(random, alphabet, random.nextInt(40)));
+                message.setToAddresses(randomText(random, alphabet, random.nextInt(3)));
+                message.setBodyHtml(randomText(random, alphabet, random.nextInt(20)));
+                assertEquals(legacyScore(rules, message), engine.evaluate(message), rules.size() + " rules, round " + round);
+            }
+        }
+    }
+
+    private void load(SpamFilterRule... rules) {
+        when(repository.findActiveRules()).thenReturn(List.of(rules));
+        engine.reloadRules();
+    }
+
+    private static SpamFilterRule rule(String field, String operator, String pattern, double score) {
+        return new SpamFilterRule(field + " " + operator + " " + pattern, field, operator, pattern, score);
+    }
+
+    private static EmailMessage message(String subject, String from, String body) {
+        EmailMessage message = new EmailMessage();
+        message.setSubject(subject);
+        message.setFromAddress(from);
+        message.setBodyText(body);
+        return message;
+    }
+
+    /**
+     * 规则引擎之前逐条评估规则的实现
+     */
+    private static double legacyScore(List<SpamFilterRule> rules, EmailMessage message) {
+        double score = 0.0;
+        for (SpamFilterRule rule : rules) {
+            String fieldValue = legacyFieldValue(message, rule.getFieldName());
+            if (fieldValue == null) fieldValue = "";
+            String pattern = rule.getPattern();
+            boolean hit;
+            switch (rule.getOperator().toLowerCase()) {
+                case "contains":
+                    hit = fieldValue.toLowerCase().contains(pattern.toLowerCase());
+                    break;
+                case "equals":
+                    hit = fieldValue.equalsIgnoreCase(pattern);
+                    break;
+                case "regex":
+                    hit = Pattern.compile(pattern, Pattern.CASE_INSENSITIVE).matcher(fieldValue).find();
+                    break;
+                case "not_contains":
+                    hit = !fieldValue.toLowerCase().contains(pattern.toLowerCase());
+                    break;
+                default:
+                    hit = false;
+            }
+            if (hit) {
+                score += rule.getScoreModifier();
+            }
+        }
+        return score;
+    }
+
+    private static String legacyFieldValue(EmailMessage message, String field) {
+        switch (field.toLowerCase()) {
+            case "subject":
+                return message.getSubject();
+            case "from":
+                return message.getFromAddress();
+            case "to":
+                return message.getToAddresses();
+            case "body":
+                return message.getBodyText();
+            case "body_html":
+                return message.getBodyHtml();
+            default:
+                return "";
+        }
+    }
+
+    private static String randomText(Random random, char[] alphabet, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,173 @@
+package com.security.monitor.service;
+
+import com.security.monitor.model.VirusDefinition;
+import com.security.monitor.repository.VirusDefinitionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class VirusSignatureScannerTest {
+
+    private static final int[] BUFFER_SIZES = {1, 2, 3, 7, 16, 65536};
+
+    // 原实现：readAllBytes后String.contains匹配内置特征码，再用6个正则检查可疑模式
+    private static final Map<String, String> OLD_SIGNATURES = Map.of(
+        "EICAR-TEST-SIGNATURE", "X5O!P%@AP[4\\PZX54(P^)7CC)7}$EICAR-STANDARD-ANTIVIRUS-TEST-FILE!$H+H*",
+        "JS-MALWARE-1", "eval(unescape(",
+        "VBA-MALWARE-1", "Auto_Open()",
+        "PDF-MALWARE-1", "/JavaScript",
+        "DOC-MALWARE-1", "macros"
+    );
+    private static final Pattern[] OLD_PATTERNS = {
+        Pattern.compile("powershell.*-encodedcommand", Pattern.CASE_INSENSITIVE),
+        Pattern.compile("invoke-expression", Pattern.CASE_INSENSITIVE),
+        Pattern.compile("downloadstring", Pattern.CASE_INSENSITIVE),
+        Pattern.compile("base64.*decode", Pattern.CASE_INSENSITIVE),
+        Pattern.compile("eval\\s*\\(", Pattern.CASE_INSENSITIVE),
+        Pattern.compile("document\\.write", Pattern.CASE_INSENSITIVE)
+    };
+
+    // 随机内容的片段：关键词（含其前缀和大小写变化）、空白、换行和普通字符
+    private static final String[] FRAGMENTS = {
+        "powershell", "power", "-encodedcommand", "-encoded", "base64", "base", "decode", "deco",
+        "eval", "ev", "(", " ", "\t", "\f", "\u000B", "\n", "\r", "invoke-expression", "invoke-",
+        "downloadstring", "download", "document.write", "document", ".write", "x", "yz", "-", ".", "unescape",
+        "Auto_Open()", "macro", "s", "/Java", "Script"
+    };
+
+    @TempDir
+    Path directory;
+
+    private VirusDefinitionRepository repository;
+    private VirusSignatureScanner scanner;
+
+    @BeforeEach
+    void setUp() {
+        repository = mock(VirusDefinitionRepository.class);
+        scanner = new VirusSignatureScanner();
+        ReflectionTestUtils.setField(scanner, "virusDefinitionRepository", repository);
+    }
+
+    @Test
+    void signaturesAndHeuristicsMatchAcrossBufferBoundaries() throws IOException {
+        for (int bufferSize : BUFFER_SIZES) {
+            scanner(bufferSize);
+            VirusSignatureScanner.SignatureScanResult infected = scan("padding " + OLD_SIGNATURES.get("JS-MALWARE-1") + " tail");
+            assertEquals("JS-MALWARE-1", infected.getThreatName(), "bufferSize=" + bufferSize);
+            // 命中后立即停止
+            assertEquals(8 + "eval(unescape(".length(), infected.getBytesScanned());
+
+            assertTrue(scan("x PowerShell -nop -EncodedCommand abc").isSuspicious(), "bufferSize=" + bufferSize);
+            assertTrue(scan("EVAL \t\n (1)").isSuspicious(), "bufferSize=" + bufferSize);
+            assertFalse(scan("powershell\n-encodedcommand").isSuspicious(), "bufferSize=" + bufferSize);
+            assertFalse(scan("-encodedcommand powershell").isSuspicious(), "bufferSize=" + bufferSize);
+            assertFalse(scan("evaluate(x)").isSuspicious(), "bufferSize=" + bufferSize);
+        }
+    }
+
+    @Test
+    void byteSequenceDefinitionsAreLoadedFromRepository() throws IOException {
+        VirusDefinition definition = new VirusDefinition();
+        definition.setVirusName("TEST-PE-HEADER");
+        definition.setSignatureType(VirusDefinition.SignatureType.BYTE_SEQUENCE);
+        definition.setSignatureValue("4D 5A 90 00 FF");
+        when(repository.findBySignatureTypeAndIsActive(VirusDefinition.SignatureType.BYTE_SEQUENCE, true))
+                .thenReturn(List.of(definition));
+        scanner(3);
+
+        Path file = directory.resolve("sample.bin");
+        Files.write(file, new byte[] {0x01, 0x4D, 0x5A, (byte) 0x90, 0x00, (byte) 0xFF, 0x02});
+        VirusSignatureScanner.SignatureScanResult result = scanner.scan(file);
+        assertEquals("TEST-PE-HEADER", result.getThreatName());
+        assertEquals(6, result.getBytesScanned());
+    }
+
+    @Test
+    void randomContentMatchesOldRegexPath() throws IOException {
+        Random random = new Random(2024);
+        for (int round = 0; round < 3000; round++) {
+            StringBuilder content = new StringBuilder();
+            for (int i = 0, n = random.nextInt(12); i < n; i++) {
+                String fragment = FRAGMENTS[random.nextInt(FRAGMENTS.length)];
+                content.append(random.nextInt(3) == 0 ? randomCase(random, fragment) : fragment);
+            }
+            String text = content.toString();
+            scanner(BUFFER_SIZES[random.nextInt(BUFFER_SIZES.length)]);
+
+            VirusSignatureScanner.SignatureScanResult result = scan(text);
+            String expectedThreat = oldThreat(text);
+            assertEquals(expectedThreat, result.getThreatName(), text);
+            if (expectedThreat == null) {
+                assertEquals(oldSuspicious(text), result.isSuspicious(), text);
+            }
+        }
+    }
+
+    @Test
+    void cleanFileReportsFullLength() throws IOException {
+        scanner(4);
+        VirusSignatureScanner.SignatureScanResult result = scan("nothing to see here");
+        assertNull(result.getThreatName());
+        assertFalse(result.isSuspicious());
+        assertEquals("nothing to see here".length(), result.getBytesScanned());
+    }
+
+    private void scanner(int bufferSize) {
+        ReflectionTestUtils.setField(scanner, "bufferSize", bufferSize);
+        scanner.reloadSignatures();
+    }
+
+    private VirusSignatureScanner.SignatureScanResult scan(String content) throws IOException {
+        Path file = directory.resolve("attachment.txt");
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return scanner.scan(file);
+    }
+
+    private static String oldThreat(String content) {
+        // 原实现遍历Map.of的顺序不固定，这里取最先出现的特征码，与流式扫描命中即停一致
+        String threat = null;
+        int firstEnd = Integer.MAX_VALUE;
+        for (Map.Entry<String, String> signature : OLD_SIGNATURES.entrySet()) {
+            int index = content.indexOf(signature.getValue());
+            if (index >= 0 && index + signature.getValue().length() < firstEnd) {
+                firstEnd = index + signature.getValue().length();
+                threat = signature.getKey();
+            }
+        }
+        return threat;
+    }
+
+    private static boolean oldSuspicious(String content) {
+        for (Pattern pattern : OLD_PATTERNS) {
+            if (pattern.matcher(content).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String randomCase(Random random, String fragment) {
+        StringBuilder result = new StringBuilder(fragment.length());
+        for (char c : fragment.toCharArray()) {
+            result.append(random.nextBoolean() ? Character.toUpperCase(c) : Character.toLowerCase(c));
+        }
+        return result.toString();
+    }
+}
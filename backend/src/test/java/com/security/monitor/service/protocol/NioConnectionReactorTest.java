@@ -0,0 +1,158 @@
+package com.security.monitor.service.protocol;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NioConnectionReactorTest {
+
+    private final List<Socket> clients = new ArrayList<>();
+    private NioConnectionReactor reactor;
+
+    @AfterEach
+    void tearDown() throws IOException {
+        for (Socket client : clients) {
+            client.close();
+        }
+        if (reactor != null) {
+            reactor.stop();
+        }
+    }
+
+    @Test
+    void fullWorkerQueuePausesReadsAndRejectsNewConnections() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Map<String, AtomicInteger> closes = new ConcurrentHashMap<>();
+        AtomicInteger maxQueued = new AtomicInteger();
+        reactor = new NioConnectionReactor("TEST", 1, 100, 60000, null, 2);
+        reactor.start();
+        int port = freePort();
+        reactor.bind(port, channel -> new BlockingSession(release, closes), "421 busy");
+
+        // 第一个连接的输入占住唯一的工作线程
+        Socket first = connect(port);
+        first.getOutputStream().write("block\r\n".getBytes(StandardCharsets.US_ASCII));
+        awaitTrue(() -> reactor.getBusyWorkers() == 1);
+
+        // 队列容量为2：前两个新连接的欢迎任务排队，之后的连接在accept时被拒绝
+        for (int i = 0; i < 20; i++) {
+            Socket client = connect(port);
+            client.getOutputStream().write("x\r\n".getBytes(StandardCharsets.US_ASCII));
+            maxQueued.accumulateAndGet(reactor.getQueuedTasks(), Math::max);
+        }
+        awaitTrue(() -> reactor.getRejectedConnections() == 18);
+        assertEquals("421 busy", readLine(clients.get(clients.size() - 1)));
+        assertTrue(maxQueued.get() <= reactor.getQueueCapacity(), "队列长度不应超过容量: " + maxQueued.get());
+
+        release.countDown();
+        for (Socket client : clients) {
+            client.close();
+        }
+        awaitTrue(() -> reactor.getActiveConnections() == 0);
+        // 每个创建过的会话都恰好收到一次关闭通知
+        for (Map.Entry<String, AtomicInteger> entry : closes.entrySet()) {
+            awaitTrue(() -> entry.getValue().get() == 1);
+        }
+    }
+
+    private Socket connect(int port) throws IOException {
+        Socket socket = new Socket("localhost", port);
+        socket.setSoTimeout(5000);
+        clients.add(socket);
+        return socket;
+    }
+
+    private static String readLine(Socket socket) throws IOException {
+        InputStream in = socket.getInputStream();
+        StringBuilder line = new StringBuilder();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.append((char) b);
+        }
+        return line.toString().trim();
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "等待条件超时");
+            Thread.sleep(10);
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * 输入处理阻塞到release的会话，记录每个会话收到的关闭通知次数
+     */
+    private static class BlockingSession implements ProtocolSession {
+        private static final AtomicInteger SEQUENCE = new AtomicInteger();
+        private final String id = "test-" + SEQUENCE.incrementAndGet();
+        private final CountDownLatch release;
+        private final Map<String, AtomicInteger> closes;
+        private ConnectionTransport transport;
+
+        BlockingSession(CountDownLatch release, Map<String, AtomicInteger> closes) {
+            this.release = release;
+            this.closes = closes;
+            closes.put(id, new AtomicInteger());
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public void onOpen(ConnectionTransport transport) throws IOException {
+            this.transport = transport;
+            transport.write("220 ready\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        @Override
+        public void onInput(ByteBuffer input) throws IOException {
+            input.position(input.limit());
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            transport.write("250 ok\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        @Override
+        public void onTimeout() {
+        }
+
+        @Override
+        public boolean isFinished() {
+            return false;
+        }
+
+        @Override
+        public void onClose() {
+            closes.get(id).incrementAndGet();
+        }
+    }
+}
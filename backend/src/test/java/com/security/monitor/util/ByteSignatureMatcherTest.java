@@ -0,0 +1,123 @@
+package com.security.monitor.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ByteSignatureMatcherTest {
+
+    @Test
+    void reportsOverlappingAndNestedSignatures() {
+        ByteSignatureMatcher matcher = matcher(false, "he", "she", "his", "hers");
+        assertEquals(List.of("1@4", "0@4", "3@6"), scan(matcher, bytes("ushers")));
+    }
+
+    @Test
+    void ignoresAsciiCaseOnlyWhenRequested() {
+        assertEquals(List.of("0@7"), scan(matcher(true, "eval("), bytes("x=EvAl(")));
+        assertEquals(List.of(), scan(matcher(false, "eval("), bytes("x=EvAl(")));
+        // 非ASCII字节不做大小写折叠
+        assertEquals(List.of(), scan(matcher(true, "é"), "É".getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    @Test
+    void matchesBytesAboveSignedRangeAndSkipsEmptySignatures() {
+        List<byte[]> signatures = List.of(new byte[0], new byte[] {(byte) 0xFF, 0x00, (byte) 0x80});
+        ByteSignatureMatcher matcher = new ByteSignatureMatcher(signatures, false);
+        assertEquals(List.of("1@4"), scan(matcher, new byte[] {(byte) 0xFF, (byte) 0xFF, 0x00, (byte) 0x80}));
+        assertEquals(2, matcher.getSignatureCount());
+    }
+
+    @Test
+    void stateCarriesAcrossChunksAndMatchesNaiveSearch() {
+        Random random = new Random(7);
+        for (int round = 0; round < 500; round++) {
+            List<byte[]> signatures = new ArrayList<>();
+            for (int i = 0, n = 1 + random.nextInt(12); i < n; i++) {
+                signatures.add(randomBytes(random, 1 + random.nextInt(6)));
+            }
+            ByteSignatureMatcher matcher = new ByteSignatureMatcher(signatures, false);
+            byte[] data = randomBytes(random, random.nextInt(400));
+
+            // 按随机大小分块推进，状态在块之间延续
+            List<String> chunked = new ArrayList<>();
+            int state = matcher.initialState();
+            int offset = 0;
+            while (offset < data.length) {
+                int end = Math.min(data.length, offset + 1 + random.nextInt(17));
+                byte[] chunk = Arrays.copyOfRange(data, offset, end);
+                for (byte b : chunk) {
+                    state = matcher.next(state, b);
+                    offset++;
+                    for (int hit : sorted(matcher.matches(state))) {
+                        chunked.add(hit + "@" + offset);
+                    }
+                }
+            }
+            assertEquals(naive(signatures, data), chunked);
+        }
+    }
+
+    private static ByteSignatureMatcher matcher(boolean ignoreCase, String... signatures) {
+        List<byte[]> list = new ArrayList<>();
+        for (String signature : signatures) {
+            list.add(bytes(signature));
+        }
+        return new ByteSignatureMatcher(list, ignoreCase);
+    }
+
+    /**
+     * 命中记为“特征码编号@结束位置”，同一位置的命中保持自动机给出的顺序
+     */
+    private static List<String> scan(ByteSignatureMatcher matcher, byte[] data) {
+        List<String> hits = new ArrayList<>();
+        int state = matcher.initialState();
+        for (int i = 0; i < data.length; i++) {
+            state = matcher.next(state, data[i]);
+            for (int hit : matcher.matches(state)) {
+                hits.add(hit + "@" + (i + 1));
+            }
+        }
+        return hits;
+    }
+
+    private static List<String> naive(List<byte[]> signatures, byte[] data) {
+        List<String> hits = new ArrayList<>();
+        for (int end = 1; end <= data.length; end++) {
+            for (int k = 0; k < signatures.size(); k++) {
+                byte[] signature = signatures.get(k);
+                int start = end - signature.length;
+                if (start >= 0 && Arrays.equals(data, start, end, signature, 0, signature.length)) {
+                    hits.add(k + "@" + end);
+                }
+            }
+        }
+        return hits;
+    }
+
+    private static int[] sorted(int[] values) {
+        int[] copy = values.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            // 小字母表让特征码频繁出现和重叠
+            data[i] = (byte) (random.nextBoolean() ? 'a' + random.nextInt(3) : 0xFE + random.nextInt(2));
+        }
+        return data;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,238 @@
+package com.security.monitor.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IpPrefixTrieTest {
+
+    @Test
+    void matchesIpv4Cidr() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder()
+                .add("192.168.1.0/24", 0, "lan")
+                .add("10.0.0.0/8", 0, "private")
+                .add("172.16.5.9", 0, "host")
+                .build();
+        assertEquals("lan", trie.find("192.168.1.0"));
+        assertEquals("lan", trie.find("192.168.1.255"));
+        assertNull(trie.find("192.168.2.1"));
+        assertEquals("private", trie.find("10.255.0.1"));
+        assertEquals("host", trie.find("172.16.5.9"));
+        assertNull(trie.find("172.16.5.10"));
+    }
+
+    @Test
+    void ignoresHostBitsInCidrNetwork() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder().add("192.168.1.77/24", 0, "lan").build();
+        assertEquals("lan", trie.find("192.168.1.1"));
+        assertNull(trie.find("192.168.0.77"));
+    }
+
+    @Test
+    void ipv4DefaultRouteDoesNotCoverIpv6() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder().add("0.0.0.0/0", 0, "any-v4").build();
+        assertEquals("any-v4", trie.find("8.8.8.8"));
+        assertNull(trie.find("2001:db8::1"));
+    }
+
+    @Test
+    void matchesIpv6Cidr() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder()
+                .add("2001:db8::/32", 0, "doc")
+                .add("fe80::/10", 0, "link-local")
+                .build();
+        assertEquals("doc", trie.find("2001:db8:ffff:1::1"));
+        assertNull(trie.find("2001:db9::1"));
+        assertEquals("link-local", trie.find("febf::1"));
+        assertNull(trie.find("fec0::1"));
+    }
+
+    @Test
+    void ipv6DefaultRouteCoversMappedIpv4() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder().add("::/0", 0, "any").build();
+        assertEquals("any", trie.find("2001:db8::1"));
+        assertEquals("any", trie.find("127.0.0.1"));
+    }
+
+    @Test
+    void splitsNonAlignedIpv4RangeIntoMinimalPrefixes() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder().add("10.0.0.1-10.0.0.99", 0, "range").build();
+        // 1, 2-3, 4-7, 8-15, 16-31, 32-63, 64-95, 96-99
+        assertEquals(8, trie.getPrefixCount());
+        assertEquals(1, trie.getEntryCount());
+        assertNull(trie.find("10.0.0.0"));
+        for (int last = 1; last <= 99; last++) {
+            assertEquals("range", trie.find("10.0.0." + last), "10.0.0." + last);
+        }
+        assertNull(trie.find("10.0.0.100"));
+        assertNull(trie.find("10.0.1.1"));
+    }
+
+    @Test
+    void splitsRangeAcrossOctetBoundary() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder().add(" 10.0.0.250 - 10.0.1.5 ", 0, "range").build();
+        assertNull(trie.find("10.0.0.249"));
+        assertEquals("range", trie.find("10.0.0.250"));
+        assertEquals("range", trie.find("10.0.0.255"));
+        assertEquals("range", trie.find("10.0.1.0"));
+        assertEquals("range", trie.find("10.0.1.5"));
+        assertNull(trie.find("10.0.1.6"));
+    }
+
+    @Test
+    void wholeAddressSpaceRangesCollapseToOnePrefix() {
+        IpPrefixTrie<String> ipv4 = IpPrefixTrie.<String>builder().add("0.0.0.0-255.255.255.255", 0, "all").build();
+        assertEquals(1, ipv4.getPrefixCount());
+        assertEquals("all", ipv4.find("255.255.255.255"));
+        assertNull(ipv4.find("::1"));
+
+        IpPrefixTrie<String> ipv6 = IpPrefixTrie.<String>builder()
+                .add("::-ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff", 0, "all").build();
+        assertEquals(1, ipv6.getPrefixCount());
+        assertEquals("all", ipv6.find("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"));
+    }
+
+    @Test
+    void splitsNonAlignedIpv6Range() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder().add("2001:db8::ff-2001:db8::1:1", 0, "range").build();
+        assertNull(trie.find("2001:db8::fe"));
+        assertEquals("range", trie.find("2001:db8::ff"));
+        assertEquals("range", trie.find("2001:db8::ffff"));
+        assertEquals("range", trie.find("2001:db8::1:0"));
+        assertEquals("range", trie.find("2001:db8::1:1"));
+        assertNull(trie.find("2001:db8::1:2"));
+    }
+
+    @Test
+    void acceptsCompressedExpandedAndMixedCaseIpv6() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder()
+                .add("2001:DB8:0:0:0:0:0:1", 0, "host")
+                .add("::1", 0, "loopback")
+                .add("1::", 0, "one")
+                .build();
+        assertEquals("host", trie.find("2001:db8::1"));
+        assertEquals("host", trie.find("2001:0db8:0000:0000:0000:0000:0000:0001"));
+        assertEquals("host", trie.find("2001:db8:0::0:1"));
+        assertEquals("loopback", trie.find("0:0:0:0:0:0:0:1"));
+        assertEquals("one", trie.find("1:0:0:0:0:0:0:0"));
+        assertNull(trie.find("::"));
+    }
+
+    @Test
+    void ipv4MappedNotationMatchesIpv4Entries() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder()
+                .add("192.168.1.0/24", 0, "lan")
+                .add("::ffff:10.0.0.0/104", 0, "mapped")
+                .build();
+        assertEquals("lan", trie.find("::ffff:192.168.1.10"));
+        assertEquals("lan", trie.find("::ffff:c0a8:10a"));
+        assertEquals("lan", trie.find("0:0:0:0:0:ffff:192.168.1.10"));
+        assertEquals("mapped", trie.find("10.1.2.3"));
+        // 内嵌IPv4但不是::ffff:前缀时是另一个IPv6地址
+        assertNull(trie.find("::192.168.1.10"));
+        assertNull(trie.find("64:ff9b::192.168.1.10"));
+    }
+
+    @Test
+    void rejectsInvalidSpecs() {
+        String[] invalid = {
+            "", "abc", "300.1.1.1", "1.2.3", "1.2.3.4.5", "1.2.3.4/33", "1.2.3.4/-1", "1.2.3.4/x",
+            "2001:db8::/129", "2001:db8:::1", "1::2::3", "1:2:3:4:5:6:7:8:9", "12345::", ":1::", "1::2:",
+            "::ffff:1.2.3", "10.0.0.9-10.0.0.1", "10.0.0.1-::1", "10.0.0.1-"
+        };
+        for (String spec : invalid) {
+            assertThrows(IllegalArgumentException.class, () -> IpPrefixTrie.<String>builder().add(spec, 0, "x"), spec);
+        }
+        assertThrows(IllegalArgumentException.class, () -> IpPrefixTrie.<String>builder().add(null, 0, "x"));
+        assertThrows(IllegalArgumentException.class, () -> IpPrefixTrie.<String>builder().add("1.2.3.4", 0, null));
+    }
+
+    @Test
+    void findReturnsNullForInvalidAddresses() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder().add("::/0", 0, "any").build();
+        String[] invalid = {"", "1.2.3", "1.2.3.4/24", "256.0.0.1", "1.2.3.4 ", "::ffff:1.2.3", "1::2::3", "g::1", ":::"};
+        for (String address : invalid) {
+            assertNull(trie.find(address), address);
+            assertFalse(IpPrefixTrie.isValidAddress(address), address);
+        }
+        assertNull(trie.find(null));
+        assertFalse(IpPrefixTrie.isValidAddress(null));
+    }
+
+    @Test
+    void validatesAddressForms() {
+        String[] valid = {"0.0.0.0", "255.255.255.255", "::", "::1", "1::", "1:2:3:4:5:6:7:8", "1:2:3:4:5:6:7::",
+            "::2:3:4:5:6:7:8", "1:2:3:4:5:6:1.2.3.4", "::1.2.3.4", "::ffff:192.168.0.1", "FE80::A"};
+        for (String address : valid) {
+            assertTrue(IpPrefixTrie.isValidAddress(address), address);
+        }
+        assertTrue(IpPrefixTrie.isIpv4Address("10.0.0.1"));
+        assertFalse(IpPrefixTrie.isIpv4Address("::ffff:10.0.0.1"));
+    }
+
+    @Test
+    void emptyTrieMatchesNothing() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder().build();
+        assertNull(trie.find("10.0.0.1"));
+        assertNull(trie.find("::1"));
+        assertEquals(0, trie.getEntryCount());
+    }
+
+    @Test
+    void lowerPriorityNumberWinsOverLongerPrefix() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder()
+                .add("10.1.0.0/16", 10, "narrow")
+                .add("10.0.0.0/8", 5, "wide")
+                .build();
+        assertEquals("wide", trie.find("10.1.2.3"));
+        assertEquals("wide", trie.find("10.2.0.1"));
+    }
+
+    @Test
+    void equalPriorityPrefersEarlierEntryNotLongerPrefix() {
+        IpPrefixTrie<String> wideFirst = IpPrefixTrie.<String>builder()
+                .add("10.0.0.0/8", 1, "wide")
+                .add("10.1.0.0/16", 1, "narrow")
+                .build();
+        assertEquals("wide", wideFirst.find("10.1.2.3"));
+
+        IpPrefixTrie<String> narrowFirst = IpPrefixTrie.<String>builder()
+                .add("10.1.0.0/16", 1, "narrow")
+                .add("10.0.0.0/8", 1, "wide")
+                .build();
+        assertEquals("narrow", narrowFirst.find("10.1.2.3"));
+        assertEquals("wide", narrowFirst.find("10.2.0.1"));
+    }
+
+    @Test
+    void samePrefixKeepsHighestPriorityThenFirstAdded() {
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder()
+                .add("10.0.0.0/8", 1, "first")
+                .add("10.0.0.0/8", 1, "second")
+                .build();
+        assertEquals("first", trie.find("10.0.0.1"));
+        assertEquals(2, trie.getEntryCount());
+
+        IpPrefixTrie<String> overridden = IpPrefixTrie.<String>builder()
+                .add("10.0.0.0/8", 1, "first")
+                .add("10.0.0.0/8", 0, "urgent")
+                .build();
+        assertEquals("urgent", overridden.find("10.0.0.1"));
+    }
+
+    @Test
+    void rangeBlocksShareEntryOrder() {
+        // 范围拆出的各个前缀与范围本身同一顺序，与后加入的同优先级CIDR比较时都更靠前
+        IpPrefixTrie<String> trie = IpPrefixTrie.<String>builder()
+                .add("10.0.0.1-10.0.0.99", 0, "range")
+                .add("10.0.0.0/24", 0, "cidr")
+                .build();
+        assertEquals("range", trie.find("10.0.0.64"));
+        assertEquals("cidr", trie.find("10.0.0.0"));
+        assertEquals("cidr", trie.find("10.0.0.100"));
+    }
+}
@@ -0,0 +1,105 @@
+package com.security.monitor.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class KeywordAutomatonTest {
+
+    @Test
+    void reportsOverlappingAndNestedKeywords() {
+        KeywordAutomaton automaton = new KeywordAutomaton(List.of("he", "she", "his", "hers", "usher"));
+        assertEquals(List.of(0, 1, 3, 4), scan(automaton, "ushers"));
+        assertEquals(List.of(0, 2), scan(automaton, "this he"));
+        assertEquals(List.of(), scan(automaton, "hi s"));
+    }
+
+    @Test
+    void foldsCaseOnMixedAndNonLatinText() {
+        KeywordAutomaton automaton = new KeywordAutomaton(List.of("免费VIAGRA", "Привет", "中奖", "ÉTÉ"));
+        assertEquals(List.of(0), scan(automaton, "限时免费viagra优惠"));
+        assertEquals(List.of(1), scan(automaton, "ПРИВЕТ мир"));
+        assertEquals(List.of(2), scan(automaton, "恭喜您中奖了"));
+        assertEquals(List.of(3), scan(automaton, "bel été"));
+        assertEquals(List.of(), scan(automaton, "免 费viagra 中 奖"));
+    }
+
+    @Test
+    void countsEachKeywordOnceAndKeepsEarlierMatches() {
+        KeywordAutomaton automaton = new KeywordAutomaton(List.of("aa", "a"));
+        boolean[] matched = new boolean[2];
+        assertEquals(2, automaton.scan("aaaa", matched));
+        assertEquals(0, automaton.scan("aaaa", matched));
+
+        matched = new boolean[] {true, false};
+        assertEquals(1, automaton.scan("a", matched));
+        assertArrayEquals(new boolean[] {true, true}, matched);
+    }
+
+    @Test
+    void duplicateKeywordsMatchIndependently() {
+        KeywordAutomaton automaton = new KeywordAutomaton(List.of("spam", "SPAM", "sp"));
+        assertEquals(List.of(0, 1, 2), scan(automaton, "no Spam here"));
+    }
+
+    @Test
+    void emptyAndNullKeywordsNeverMatch() {
+        KeywordAutomaton automaton = new KeywordAutomaton(Arrays.asList("", null, "x"));
+        assertEquals(3, automaton.getKeywordCount());
+        assertEquals(List.of(2), scan(automaton, "xyz"));
+        assertEquals(List.of(), scan(automaton, ""));
+        assertEquals(0, automaton.scan(null, new boolean[3]));
+
+        KeywordAutomaton none = new KeywordAutomaton(List.of());
+        assertEquals(1, none.getStateCount());
+        assertEquals(0, none.scan("anything", new boolean[0]));
+    }
+
+    @Test
+    void matchesNaiveCaseInsensitiveSearch() {
+        Random random = new Random(11);
+        char[] alphabet = {'a', 'b', 'A', 'B', '中', '文', 'Ж', 'ж', ' '};
+        for (int round = 0; round < 500; round++) {
+            List<String> keywords = new ArrayList<>();
+            for (int i = 0, n = 1 + random.nextInt(10); i < n; i++) {
+                keywords.add(randomText(random, alphabet, random.nextInt(5)));
+            }
+            String text = randomText(random, alphabet, random.nextInt(60));
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < keywords.size(); i++) {
+                String keyword = keywords.get(i);
+                if (!keyword.isEmpty() && text.toLowerCase().contains(keyword.toLowerCase())) {
+                    expected.add(i);
+                }
+            }
+            assertEquals(expected, scan(new KeywordAutomaton(keywords), text), keywords + " in " + text);
+        }
+    }
+
+    private static List<Integer> scan(KeywordAutomaton automaton, String text) {
+        boolean[] matched = new boolean[automaton.getKeywordCount()];
+        int found = automaton.scan(text, matched);
+        List<Integer> hits = new ArrayList<>();
+        for (int i = 0; i < matched.length; i++) {
+            if (matched[i]) {
+                hits.add(i);
+            }
+        }
+        assertEquals(hits.size(), found);
+        return hits;
+    }
+
+    private static String randomText(Random random, char[] alphabet, int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        return text.toString();
+    }
+}
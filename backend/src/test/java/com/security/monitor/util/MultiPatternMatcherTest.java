@@ -0,0 +1,141 @@
+package com.security.monitor.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MultiPatternMatcherTest {
+
+    private static final String[] PATTERNS = {
+        "<script", "javascript\\s*:", "on[^=]*=", "union\\s+select", "<img[^>]*>", "../", "exec\\s*(\\s*'"
+    };
+
+    @Test
+    void matchesLiteralsIgnoringAsciiCase() {
+        MultiPatternMatcher matcher = MultiPatternMatcher.builder()
+                .literals(0, "<script", "<iframe")
+                .literals(3, "../")
+                .literals(63, "drop table")
+                .build();
+        assertEquals(3, matcher.getRuleCount());
+        assertEquals(1L, matcher.scan("x<ScRiPt>"));
+        assertEquals(1L | 1L << 3, matcher.scan("<IFRAME src=../../etc"));
+        assertEquals(1L << 63, matcher.scan("; DROP TABLE users"));
+        assertEquals(0L, matcher.scan("script iframe .. / drop  table"));
+        assertEquals(0L, matcher.scan(null));
+        assertEquals(0L, matcher.scan(""));
+    }
+
+    @Test
+    void reportsOverlappingAnchorsFromDifferentRules() {
+        MultiPatternMatcher matcher = MultiPatternMatcher.builder()
+                .literals(0, "he")
+                .literals(1, "she")
+                .literals(2, "hers")
+                .build();
+        assertEquals(0b111L, matcher.scan("ushers"));
+        assertEquals(0b001L, matcher.scan("hhe"));
+    }
+
+    @Test
+    void matchesTailsAfterAnchor() {
+        MultiPatternMatcher matcher = MultiPatternMatcher.builder()
+                .pattern(0, "javascript\\s*:")
+                .pattern(1, "union\\s+select")
+                .pattern(2, "<img[^>]*>")
+                .build();
+        assertEquals(1L, matcher.scan("href=JavaScript:alert(1)"));
+        assertEquals(1L, matcher.scan("javascript \t\r\n:x"));
+        assertEquals(0L, matcher.scan("javascript x:"));
+        assertEquals(0b10L, matcher.scan("1 UNION\tSELECT *"));
+        assertEquals(0L, matcher.scan("1 unionselect"));
+        assertEquals(0b100L, matcher.scan("<img src=x onerror=y>"));
+        assertEquals(0b100L, matcher.scan("<img>"));
+        assertEquals(0L, matcher.scan("<img src=x"));
+        // 第一次锚点命中的模式不成立时，后续锚点仍然可以命中
+        assertEquals(0b10L, matcher.scan("union x union select"));
+    }
+
+    @Test
+    void nonAsciiInputNeverMatchesAnchors() {
+        MultiPatternMatcher matcher = MultiPatternMatcher.builder().literals(0, "script").build();
+        assertEquals(0L, matcher.scan("ｓｃｒｉｐｔ"));
+        assertEquals(0L, matcher.scan("scrİpt"));
+        assertEquals(1L, matcher.scan("中文script中文"));
+    }
+
+    @Test
+    void boundedRulesOnlyCountMatchesBeforeBoundary() {
+        MultiPatternMatcher matcher = MultiPatternMatcher.builder()
+                .literals(0, "select")
+                .pattern(1, "<img[^>]*>")
+                .build();
+        String input = "select <img src=x>";
+        assertEquals(0b11L, matcher.scan(input, 6, 0L));
+        assertEquals(0b01L, matcher.scan(input, 6, 0b10L));
+        assertEquals(0b00L, matcher.scan(input, 5, 0b11L));
+        assertEquals(0b11L, matcher.scan(input, input.length(), 0b11L));
+        assertEquals(0b01L, matcher.scan(input, input.length() - 1, 0b10L));
+    }
+
+    @Test
+    void rejectsInvalidPatterns() {
+        assertThrows(IllegalArgumentException.class, () -> MultiPatternMatcher.builder().literals(64, "x"));
+        assertThrows(IllegalArgumentException.class, () -> MultiPatternMatcher.builder().literals(-1, "x"));
+        assertThrows(IllegalArgumentException.class, () -> MultiPatternMatcher.builder().literals(0, ""));
+        assertThrows(IllegalArgumentException.class, () -> MultiPatternMatcher.builder().literals(0, "脚本"));
+        assertThrows(IllegalArgumentException.class, () -> MultiPatternMatcher.builder().pattern(0, "\\s*x"));
+        assertThrows(IllegalArgumentException.class, () -> MultiPatternMatcher.builder().pattern(0, "[^>]*x"));
+        assertThrows(IllegalArgumentException.class, () -> MultiPatternMatcher.builder().pattern(0, "x\\d+"));
+        assertThrows(IllegalArgumentException.class, () -> MultiPatternMatcher.builder().pattern(0, "x[abc]"));
+    }
+
+    @Test
+    void matchesEquivalentRegexOnRandomInput() {
+        MultiPatternMatcher.Builder builder = MultiPatternMatcher.builder();
+        Pattern[] regexes = new Pattern[PATTERNS.length];
+        for (int i = 0; i < PATTERNS.length; i++) {
+            builder.pattern(i, PATTERNS[i]);
+            regexes[i] = Pattern.compile(Pattern.quote(anchorOf(PATTERNS[i])) + regexTail(PATTERNS[i]),
+                    Pattern.CASE_INSENSITIVE);
+        }
+        MultiPatternMatcher matcher = builder.build();
+
+        String alphabet = "<>=:'(./ \t\nscriptSCRIPTjavauionselectUNIONSELECTimgexcOnN中";
+        Random random = new Random(3);
+        for (int round = 0; round < 5000; round++) {
+            StringBuilder input = new StringBuilder();
+            for (int i = 0, n = random.nextInt(60); i < n; i++) {
+                if (random.nextInt(8) == 0) {
+                    input.append(anchorOf(PATTERNS[random.nextInt(PATTERNS.length)]));
+                } else {
+                    input.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+            }
+            long expected = 0L;
+            for (int i = 0; i < regexes.length; i++) {
+                if (regexes[i].matcher(input).find()) {
+                    expected |= 1L << i;
+                }
+            }
+            assertEquals(expected, matcher.scan(input), input.toString());
+        }
+    }
+
+    private static String anchorOf(String pattern) {
+        int end = 0;
+        while (end < pattern.length() && pattern.charAt(end) != '\\' && pattern.charAt(end) != '[') {
+            end++;
+        }
+        return pattern.substring(0, end);
+    }
+
+    private static String regexTail(String pattern) {
+        String tail = pattern.substring(anchorOf(pattern).length());
+        return tail.replace("(", "\\(").replace("'", "\\'");
+    }
+}
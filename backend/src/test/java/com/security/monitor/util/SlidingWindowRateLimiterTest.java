@@ -0,0 +1,138 @@
+package com.security.monitor.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SlidingWindowRateLimiterTest {
+
+    @Test
+    void allowsUpToLimitWithinWindowAndKeepsKeysApart() {
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter(3, 1000, 64);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire("10.0.0.1", 100 + i));
+        }
+        assertFalse(limiter.tryAcquire("10.0.0.1", 200));
+        assertFalse(limiter.tryAcquire("10.0.0.1", 999));
+        assertTrue(limiter.tryAcquire("10.0.0.2", 999));
+        assertEquals(4, limiter.getAllowedCount());
+        assertEquals(2, limiter.getRejectedCount());
+    }
+
+    @Test
+    void previousWindowWeighsByRemainingFraction() {
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter(10, 1000, 64);
+        assertEquals(10, acquire(limiter, "k", 0, 20));
+
+        // 进入下一窗口一半：上一窗口10次按0.5计，只剩5个许可；被拒绝的请求不计数
+        assertEquals(5, acquire(limiter, "k", 1500, 20));
+        // 再推进一个窗口：上一窗口只有5次，且权重为1
+        assertEquals(5, acquire(limiter, "k", 2000, 20));
+        // 接近窗口末尾时上一窗口几乎不再计入
+        assertEquals(4, acquire(limiter, "k", 2999, 20));
+    }
+
+    @Test
+    void skippingMoreThanOneWindowResetsCounts() {
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter(10, 1000, 64);
+        assertEquals(10, acquire(limiter, "k", 900, 20));
+        assertEquals(10, acquire(limiter, "k", 2000, 20));
+        assertEquals(0, limiter.getEvictionCount());
+    }
+
+    @Test
+    void fullGroupEvictsOldestWindowFirst() {
+        // 容量8时所有键都落在同一个探测组中
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter(1, 1000, 8);
+        assertEquals(8, limiter.getCapacity());
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            keys.add("key-" + i);
+            assertTrue(limiter.tryAcquire(keys.get(i), 0));
+        }
+        assertEquals(0, limiter.getEvictionCount());
+
+        // key-1..key-7在窗口5中再次出现，key-0仍停留在窗口0
+        for (int i = 1; i < 8; i++) {
+            assertTrue(limiter.tryAcquire(keys.get(i), 5000));
+        }
+        assertTrue(limiter.tryAcquire("newcomer", 5000));
+        assertEquals(1, limiter.getEvictionCount());
+        for (int i = 1; i < 8; i++) {
+            assertFalse(limiter.tryAcquire(keys.get(i), 5000), keys.get(i));
+        }
+        assertFalse(limiter.tryAcquire("newcomer", 5000));
+        assertEquals(1, limiter.getEvictionCount());
+    }
+
+    @Test
+    void evictedSlotStartsFromZeroForNewKey() {
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter(2, 1000, 8);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(2, acquire(limiter, "key-" + i, 0, 3));
+        }
+        // 同一窗口内组已满：淘汰一个槽位，新键不继承旧键的计数
+        assertEquals(2, acquire(limiter, "fresh", 100, 3));
+        assertEquals(1, limiter.getEvictionCount());
+        assertEquals(8, limiter.getCapacity());
+    }
+
+    @Test
+    void roundsCapacityAndRejectsInvalidArguments() {
+        assertEquals(8, new SlidingWindowRateLimiter(1, 1, 1).getCapacity());
+        assertEquals(8, new SlidingWindowRateLimiter(1, 1, 8).getCapacity());
+        assertEquals(128, new SlidingWindowRateLimiter(1, 1, 100).getCapacity());
+        assertThrows(IllegalArgumentException.class, () -> new SlidingWindowRateLimiter(0, 1000, 8));
+        assertThrows(IllegalArgumentException.class, () -> new SlidingWindowRateLimiter(0x10000, 1000, 8));
+        assertThrows(IllegalArgumentException.class, () -> new SlidingWindowRateLimiter(1, 0, 8));
+        assertThrows(IllegalArgumentException.class, () -> new SlidingWindowRateLimiter(1, 1000, 0));
+    }
+
+    @Test
+    void concurrentAcquiresNeverExceedLimit() throws InterruptedException {
+        SlidingWindowRateLimiter limiter = new SlidingWindowRateLimiter(500, 60_000, 64);
+        AtomicInteger granted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 200; i++) {
+                    if (limiter.tryAcquire("shared", 1000)) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(500, granted.get());
+        assertEquals(1100, limiter.getRejectedCount());
+    }
+
+    private static int acquire(SlidingWindowRateLimiter limiter, String key, long nowMillis, int attempts) {
+        int granted = 0;
+        for (int i = 0; i < attempts; i++) {
+            if (limiter.tryAcquire(key, nowMillis)) {
+                granted++;
+            }
+        }
+        return granted;
+    }
+}